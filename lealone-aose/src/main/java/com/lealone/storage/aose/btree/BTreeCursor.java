@@ -12,7 +12,7 @@ import com.lealone.storage.StorageMapCursor;
 import com.lealone.storage.aose.btree.page.Page;
 
 /**
- * A cursor to iterate over elements in ascending order.
+ * A cursor to iterate over elements in ascending or descending order.
  * 
  * @param <K> the key type
  * @param <V> the value type
@@ -24,6 +24,7 @@ public class BTreeCursor<K, V> implements StorageMapCursor<K, V> {
 
     private final BTreeMap<K, ?> map;
     private final CursorParameters<K> parameters;
+    private final int prefetchPages;
     private CursorPos pos;
 
     private K key;
@@ -33,8 +34,14 @@ public class BTreeCursor<K, V> implements StorageMapCursor<K, V> {
         SystemOutline.createNode(SystemOutlineNode.BTreeCursor);
         this.map = map;
         this.parameters = parameters;
-        // 定位到>=from的第一个leaf page
-        min(map.getRootPage(), parameters.from);
+        prefetchPages = map.getBTreeStorage().getPrefetchPages();
+        if (parameters.reverse) {
+            // 定位到<=from的最后一个leaf page
+            max(map.getRootPage(), parameters.from);
+        } else {
+            // 定位到>=from的第一个leaf page
+            min(map.getRootPage(), parameters.from);
+        }
     }
 
     @Override
@@ -51,18 +58,52 @@ public class BTreeCursor<K, V> implements StorageMapCursor<K, V> {
     @SuppressWarnings("unchecked")
     public boolean next() {
         SystemOutline.createNode(SystemOutlineNode.BTreeCursor_next);
-        if (hasNext()) {
-            int index = pos.index++;
+        if (parameters.reverse ? hasPrevious() : hasNext()) {
+            int index = parameters.reverse ? pos.index-- : pos.index++;
             key = (K) pos.page.getKey(index);
-            if (parameters.allColumns)
-                value = (V) pos.page.getValue(index, true);
-            else
-                value = (V) pos.page.getValue(index, parameters.columnIndexes);
+            value = (V) getValue(pos.page, index);
             return true;
         }
         return false;
     }
 
+    // 一次只返回当前leaf page中剩下的记录，不需要每条记录都走一遍next()
+    @Override
+    @SuppressWarnings("unchecked")
+    public int next(Object[] keys, Object[] values) {
+        if (!(parameters.reverse ? hasPrevious() : hasNext()))
+            return 0;
+        Page p = pos.page;
+        int max = keys.length;
+        int count = 0;
+        if (parameters.reverse) {
+            while (count < max && pos.index >= 0) {
+                int index = pos.index--;
+                keys[count] = p.getKey(index);
+                values[count++] = getValue(p, index);
+            }
+        } else {
+            int keyCount = p.getKeyCount();
+            while (count < max && pos.index < keyCount) {
+                int index = pos.index++;
+                keys[count] = p.getKey(index);
+                values[count++] = getValue(p, index);
+            }
+        }
+        if (count > 0) {
+            key = (K) keys[count - 1];
+            value = (V) values[count - 1];
+        }
+        return count;
+    }
+
+    private Object getValue(Page p, int index) {
+        if (parameters.allColumns)
+            return p.getValue(index, true);
+        else
+            return p.getValue(index, parameters.columnIndexes);
+    }
+
     private boolean hasNext() {
         while (pos != null) {
             if (pos.index < pos.page.getKeyCount()) {
@@ -73,12 +114,61 @@ public class BTreeCursor<K, V> implements StorageMapCursor<K, V> {
                 return false;
             }
             if (pos.index < map.getChildPageCount(pos.page)) {
+                prefetch(pos);
                 min(pos.page.getChildPage(pos.index++), null);
             }
         }
         return false;
     }
 
+    private boolean hasPrevious() {
+        while (pos != null) {
+            if (pos.index >= 0) {
+                return true;
+            }
+            pos = pos.parent;
+            if (pos == null) {
+                return false;
+            }
+            if (pos.index >= 0) {
+                prefetch(pos);
+                max(pos.page.getChildPage(pos.index--), null);
+            }
+        }
+        return false;
+    }
+
+    // 从父节点切换到下一个兄弟page时说明是在顺序扫描，此时预读后面的prefetchPages个兄弟page
+    private void prefetch(CursorPos pos) {
+        if (prefetchPages <= 0)
+            return;
+        Page p = pos.page;
+        int index = pos.index;
+        int from, to;
+        if (parameters.reverse) {
+            from = Math.min(index - 1, pos.prefetched - 1);
+            to = Math.max(index - prefetchPages, 0);
+            // child(i)中的key都小于key(i)，key(i)<=to时后面的page都不需要读了
+            while (to <= from && parameters.to != null
+                    && map.getKeyType().compare(p.getKey(to), parameters.to) <= 0) {
+                to++;
+            }
+            if (from < to)
+                return;
+        } else {
+            from = Math.max(index + 1, pos.prefetched + 1);
+            to = Math.min(index + prefetchPages, map.getChildPageCount(p) - 1);
+            // child(i)中的key都大于等于key(i-1)，key(i-1)>to时后面的page都不需要读了
+            while (from <= to && parameters.to != null
+                    && map.getKeyType().compare(p.getKey(to - 1), parameters.to) > 0) {
+                to--;
+            }
+            if (from > to)
+                return;
+        }
+        pos.prefetched = PagePrefetcher.prefetch(map, p, from, to);
+    }
+
     /**
      * Fetch the next entry that is equal or larger than the given key, starting
      * from the given page. This method retains the stack.
@@ -97,7 +187,35 @@ public class BTreeCursor<K, V> implements StorageMapCursor<K, V> {
                 break;
             }
             int x = from == null ? 0 : p.getPageIndex(from);
-            pos = new CursorPos(p, x + 1, pos);
+            pos = new CursorPos(p, x + 1, pos, x);
+            p = p.getChildPage(x);
+        }
+    }
+
+    /**
+     * Fetch the previous entry that is equal or smaller than the given key, starting
+     * from the given page. This method retains the stack.
+     * 
+     * @param p the page to start
+     * @param from the key to search
+     */
+    private void max(Page p, K from) {
+        while (true) {
+            if (p.isLeaf()) {
+                int x;
+                if (from == null) {
+                    x = p.getKeyCount() - 1;
+                } else {
+                    x = p.binarySearch(from);
+                    if (x < 0) {
+                        x = -x - 2;
+                    }
+                }
+                pos = new CursorPos(p, x, pos);
+                break;
+            }
+            int x = from == null ? map.getChildPageCount(p) - 1 : p.getPageIndex(from);
+            pos = new CursorPos(p, x - 1, pos, x);
             p = p.getChildPage(x);
         }
     }
@@ -118,10 +236,20 @@ public class BTreeCursor<K, V> implements StorageMapCursor<K, V> {
          */
         final CursorPos parent;
 
+        /**
+         * The index of the last child page which has been prefetched, if it is a node page.
+         */
+        int prefetched;
+
         CursorPos(Page page, int index, CursorPos parent) {
             this.page = page;
             this.index = index;
             this.parent = parent;
         }
+
+        CursorPos(Page page, int index, CursorPos parent, int prefetched) {
+            this(page, index, parent);
+            this.prefetched = prefetched;
+        }
     }
 }
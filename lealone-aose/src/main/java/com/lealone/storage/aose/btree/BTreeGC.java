@@ -5,19 +5,16 @@
  */
 package com.lealone.storage.aose.btree;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 import com.lealone.db.MemoryManager;
 import com.lealone.storage.aose.btree.page.Page;
+import com.lealone.storage.aose.btree.page.PageClock;
 import com.lealone.storage.aose.btree.page.PageInfo;
 import com.lealone.storage.aose.btree.page.PageReference;
 
-public class BTreeGC {
+public class BTreeGC implements MemoryManager.MemoryReleaser {
 
     private static MemoryManager GMM() {
         return MemoryManager.getGlobalMemoryManager();
@@ -25,12 +22,16 @@ public class BTreeGC {
 
     private final BTreeMap<?, ?> map;
     private final MemoryManager memoryManager;
+    // 已经读到内存中的page，按clock算法回收
+    private final PageClock clock = new PageClock();
 
     public BTreeGC(BTreeMap<?, ?> map, long maxMemory) {
         this.map = map;
         if (maxMemory <= 0)
             maxMemory = GMM().getMaxMemory();
         memoryManager = new MemoryManager(maxMemory);
+        if (!map.isInMemory())
+            MemoryManager.addMemoryReleaser(this);
     }
 
     public long getMaxMemory() {
@@ -50,25 +51,53 @@ public class BTreeGC {
         GMM().addUsedMemory(delta);
     }
 
-    public void close() {
+    public void addPage(PageReference ref) {
+        clock.add(ref);
+    }
+
+    public boolean removePage(PageReference ref) {
+        return clock.remove(ref);
+    }
+
+    public int getPageCount() {
+        return clock.size();
+    }
+
+    public void clear() {
+        clock.clear();
         addUsedMemory(-memoryManager.getUsedMemory());
     }
 
+    public void close() {
+        MemoryManager.removeMemoryReleaser(this);
+        clear();
+    }
+
     public void gc() {
-        collect(false);
+        long bytes = memoryManager.getExcessMemory();
+        if (bytes > 0)
+            clock.evict(bytes, false);
+        // 全局内存依然紧张时，由MemoryManager让所有的map轮流释放内存
+        if (GMM().needGc())
+            MemoryManager.releaseGlobalMemory();
     }
 
     public void fullGc() {
-        collect(true);
+        clock.evict(Long.MAX_VALUE, true);
     }
 
-    private boolean needGc() {
-        return memoryManager.needGc();
+    // 由调用者加锁
+    long evict(long bytes) {
+        return clock.evict(bytes, false);
+    }
+
+    @Override
+    public long releaseMemory(long bytes) {
+        return map.releaseMemory(bytes);
     }
 
-    private void collect(boolean fullGc) {
-        if (fullGc || needGc())
-            new Collector().collect(fullGc);
+    public boolean needGc() {
+        return memoryManager.needGc();
     }
 
     public long collectDirtyMemory() {
@@ -84,171 +113,19 @@ public class BTreeGC {
         PageInfo pInfo = ref.getPageInfo();
         Page p = pInfo.page;
         if (p != null && p.isNode()) {
-            forEachPage(p, true, childRef -> {
+            forEachDirtyPage(p, childRef -> {
                 collectDirtyMemory(childRef, dirtyMemory);
             });
         }
         dirtyMemory.addAndGet(pInfo.getPageMemory());
     }
 
-    private void forEachPage(Page p, boolean collectDirtyPage, Consumer<PageReference> action) {
+    private void forEachDirtyPage(Page p, Consumer<PageReference> action) {
         PageReference[] children = p.getChildren();
         for (int i = 0, len = children.length; i < len; i++) {
             PageReference childRef = children[i];
-            if (childRef != null) {
-                if (collectDirtyPage) {
-                    if (childRef.getPageInfo().isDirty())
-                        action.accept(childRef);
-                } else if (childRef.getPageInfo().isOnline()) { // 离线page不用GC
-                    action.accept(childRef);
-                }
-            }
-        }
-    }
-
-    private class Collector {
-        // 按层级收集node page，单独收集leaf page
-        private final ArrayList<GcingPage> leafPages = new ArrayList<>();
-        private final HashMap<Integer, ArrayList<GcingPage>> nodePageMap = new HashMap<>();
-        private final long now = System.currentTimeMillis();
-        private boolean fullGc;
-
-        private void collect(boolean fullGc) {
-            this.fullGc = fullGc;
-            collect(map.getRootPageRef(), 1, new AtomicBoolean(true));
-            // 在collect内部也会快速收集掉一些特殊的page，如果不需要进一步收集了就直接返回
-            if (fullGc || !needGc())
-                return;
-            // 接下来按LRU算法释放leaf page和node page
-            // leaf page按LastTime从小到大释放
-            releaseLeafPages(leafPages);
-            // 从最下层的node page开始释放
-            releaseNodePages(nodePageMap);
-        }
-
-        private void collect(PageReference ref, int level, AtomicBoolean gcParentNodePage) {
-            PageInfo pInfo = ref.getPageInfo();
-            Page p = pInfo.page;
-            if (p != null && p.isNode()) {
-                final AtomicBoolean gcNodePage = new AtomicBoolean(true);
-                forEachPage(p, false, childRef -> {
-                    collect(childRef, level + 1, gcNodePage);
-                });
-                if (ref.canGc() && gcNodePage.get()) {
-                    gcPage(ref, level, gcParentNodePage, gcNodePage, pInfo, false);
-                } else {
-                    gcParentNodePage.set(false);
-                }
-            } else { // 也可能是buff字段不为null的NodePage
-                if (ref.canGc()) {
-                    gcPage(ref, level, gcParentNodePage, null, pInfo, ref.isLeafPage());
-                } else {
-                    gcParentNodePage.set(false);
-                }
-            }
-        }
-
-        private void gcPage(PageReference ref, int level, AtomicBoolean gcParentNodePage,
-                AtomicBoolean gcNodePage, PageInfo pInfo, boolean isLeaf) {
-            if (fullGc) {
-                if (ref.gcPage(pInfo, 0) == null)
-                    gcParentNodePage.set(false);
-            } else {
-                long interval = now - pInfo.getLastTime();
-                if (interval > 300000 // 超过5分钟(5 * 60 * 1000)都没再访问过
-                        || pInfo.getHits() < 2 && interval > 1000) { // 全表扫描的场景
-                    if (ref.gcPage(pInfo, 0) == null)
-                        gcParentNodePage.set(false);
-                } else {
-                    if (isLeaf) {
-                        leafPages.add(new GcingPage(ref, pInfo, null, gcParentNodePage));
-                    } else {
-                        ArrayList<GcingPage> nodePages = nodePageMap.get(level);
-                        if (nodePages == null) {
-                            nodePages = new ArrayList<>();
-                            nodePageMap.put(level, nodePages);
-                        }
-                        nodePages.add(new GcingPage(ref, pInfo, gcNodePage, gcParentNodePage));
-                    }
-                }
-            }
-        }
-
-        private void releaseLeafPages(ArrayList<GcingPage> leafPages) {
-            int size = leafPages.size();
-            if (size == 0)
-                return;
-            Collections.sort(leafPages);
-
-            int index = size / 2 + 1;
-            // 先释放前一半的page字段和buff字段
-            release(leafPages, 0, index, 0);
-            // 再释放后一半
-            if (needGc()) {
-                release(leafPages, index, size, 1); // 先释放page字段
-                if (needGc())
-                    release(leafPages, index, size, 2); // 如果内存依然紧张再释放buff字段
-            }
-        }
-
-        private void releaseNodePages(HashMap<Integer, ArrayList<GcingPage>> nodePageMap) {
-            if (!nodePageMap.isEmpty() && needGc()) {
-                ArrayList<Integer> levelList = new ArrayList<>(nodePageMap.keySet());
-                Collections.sort(levelList);
-                for (int i = levelList.size() - 1; i >= 0; i--) {
-                    ArrayList<GcingPage> nodePages = nodePageMap.get(levelList.get(i));
-                    int size = nodePages.size();
-                    if (size > 0) {
-                        release(nodePages, 0, size, 1); // 先释放page字段
-                        if (needGc())
-                            release(nodePages, 0, size, 2); // 如果内存依然紧张再释放buff字段
-                    }
-                    if (!needGc())
-                        break;
-                }
-            }
-        }
-
-        private void release(ArrayList<GcingPage> list, int startIndex, int endIndex, int gcType) {
-            for (int i = startIndex; i < endIndex; i++) {
-                GcingPage gp = list.get(i);
-                // 只要有一个子leaf page或子node page垃圾收集失败，它的父node page就不再需要垃圾收集了
-                if (gp.ref.isNodePage() && (gp.gcNodePage != null && !gp.gcNodePage.get())) {
-                    gp.gcParentNodePage.set(false);
-                    continue;
-                }
-                PageInfo pInfoOld = gp.pInfo;
-                PageInfo pInfoNew = gp.ref.gcPage(pInfoOld, gcType);
-                if (pInfoNew != null) {
-                    if (pInfoOld != pInfoNew)
-                        gp.pInfo = pInfoNew;
-                } else {
-                    gp.gcParentNodePage.set(false);
-                }
-            }
-        }
-    }
-
-    private static class GcingPage implements Comparable<GcingPage> {
-        final PageReference ref;
-        PageInfo pInfo; // 会被修改
-        final AtomicBoolean gcNodePage;
-        final AtomicBoolean gcParentNodePage;
-        final long lastTime;
-
-        GcingPage(PageReference ref, PageInfo pInfo, AtomicBoolean gcNodePage,
-                AtomicBoolean gcParentNodePage) {
-            this.ref = ref;
-            this.pInfo = pInfo;
-            this.gcNodePage = gcNodePage;
-            this.gcParentNodePage = gcParentNodePage;
-            this.lastTime = pInfo.getLastTime();
-        }
-
-        @Override
-        public int compareTo(GcingPage o) {
-            // 不能用pInfo.getLastTime()，否则可能抛异常: Comparison method violates its general contract!
-            return Long.compare(lastTime, o.lastTime);
+            if (childRef != null && childRef.getPageInfo().isDirty())
+                action.accept(childRef);
         }
     }
 }
@@ -6,9 +6,15 @@
 package com.lealone.storage.aose.btree;
 
 import java.nio.ByteBuffer;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -27,10 +33,12 @@ import com.lealone.storage.StorageSetting;
 import com.lealone.storage.aose.AOStorage;
 import com.lealone.storage.aose.btree.chunk.Chunk;
 import com.lealone.storage.aose.btree.chunk.ChunkManager;
+import com.lealone.storage.aose.btree.page.BulkLoader;
 import com.lealone.storage.aose.btree.page.LeafPage;
 import com.lealone.storage.aose.btree.page.Page;
 import com.lealone.storage.aose.btree.page.PageOperations.Append;
 import com.lealone.storage.aose.btree.page.PageOperations.Put;
+import com.lealone.storage.aose.btree.page.PageOperations.PutAllIfAbsent;
 import com.lealone.storage.aose.btree.page.PageOperations.PutIfAbsent;
 import com.lealone.storage.aose.btree.page.PageOperations.Remove;
 import com.lealone.storage.aose.btree.page.PageOperations.WriteOperation;
@@ -431,6 +439,18 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
         }
     }
 
+    // 全局内存紧张时由MemoryManager调用，可能是在其他map的GC线程中执行，所以加锁失败就直接返回
+    long releaseMemory(long bytes) {
+        if (!inMemory && !isClosed() && sharedLock.tryLock()) {
+            try {
+                return btreeStorage.getBTreeGC().evict(bytes);
+            } finally {
+                sharedLock.unlock();
+            }
+        }
+        return 0;
+    }
+
     @Override
     public long collectDirtyMemory() {
         if (inMemory)
@@ -448,6 +468,42 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
         return btreeStorage.getCacheSize();
     }
 
+    // 从root page开始逐层往下，收集上层node page中的key作为切分点，直到切分点足够多或者到了leaf page
+    @Override
+    public List<Object> getSplitKeys(int count) {
+        ArrayList<Object> keys = new ArrayList<>();
+        if (count <= 1)
+            return keys;
+        ArrayList<Page> level = new ArrayList<>(1);
+        level.add(getRootPage());
+        while (level.get(0).isNode()) {
+            ArrayList<Page> children = new ArrayList<>();
+            for (Page p : level) {
+                for (int i = 0, len = p.getKeyCount(); i < len; i++) {
+                    keys.add(p.getKey(i));
+                }
+                if (keys.size() + 1 < count) {
+                    for (int i = 0, len = p.getRawChildPageCount(); i < len; i++) {
+                        children.add(p.getChildPage(i));
+                    }
+                }
+            }
+            if (keys.size() + 1 >= count || children.isEmpty())
+                break;
+            level = children;
+        }
+        keys.sort(keyType::compare);
+        int size = keys.size();
+        if (size < count)
+            return keys;
+        // 切分点太多时均匀地选出count-1个
+        ArrayList<Object> splitKeys = new ArrayList<>(count - 1);
+        for (int i = 1; i < count; i++) {
+            splitKeys.add(keys.get((int) ((long) i * size / count)));
+        }
+        return splitKeys;
+    }
+
     public void markDirty(Object key) {
         gotoLeafPage(key).getRef().markDirtyPage();
     }
@@ -528,7 +584,7 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
                 Chunk c = chunkManager.getChunk(id);
                 oldChunks.add(c);
                 removedPages.addAll(c.getRemovedPages());
-                pages.addAll(c.pagePositionToLengthMap.keySet());
+                c.getPagePositions().addTo(pages);
             }
             pages.removeAll(removedPages);
             for (Long p : pages) {
@@ -550,6 +606,136 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
         }
     }
 
+    /**
+     * 把按key严格递增的记录装入空的map。
+     * <p>
+     * 直接把记录装满leaf page，再自底向上构建node page，不需要逐条执行Put，也不会切割page。
+     * 每个page一构建好就写到一个新的chunk中，内存中只保留还没有放到node page中的子page的位置和最小key，
+     * 所以装入的记录可以远远超过最大可用内存。
+     *
+     * @param entries 按key严格递增的记录
+     * @return 装入的记录数
+     */
+    public long bulkLoad(Iterator<? extends Entry<K, V>> entries) {
+        exclusiveLock.lock();
+        try {
+            checkWrite();
+            checkEmpty();
+            if (!entries.hasNext())
+                return 0;
+            BulkLoader loader = new BulkLoader(this, entries);
+            if (isInMemory()) {
+                loader.load(null, null);
+                afterBulkLoad(loader);
+            } else {
+                btreeStorage.bulkLoad(loader);
+            }
+            return loader.getSize();
+        } finally {
+            exclusiveLock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    void afterBulkLoad(BulkLoader loader) {
+        size.set(loader.getSize());
+        setMaxKey((K) loader.getLastKey());
+    }
+
+    /**
+     * 把无序的记录装入空的map。
+     * <p>
+     * 先在内存中把记录排序成多个run，每个run批量装入一个临时map后写到硬盘，
+     * 最后多路归并所有的run，边归并边批量装入当前map，内存中最多只有一个run的记录。
+     *
+     * @param entries 无序的记录，key不能重复
+     * @return 装入的记录数
+     */
+    public long bulkLoadUnsorted(Iterator<? extends Entry<K, V>> entries) {
+        checkEmpty();
+        long runMemory = Math.max(btreeStorage.getBTreeGC().getMaxMemory() / 4,
+                btreeStorage.getPageSize());
+        ArrayList<BTreeMap<K, V>> runs = new ArrayList<>();
+        ArrayList<Entry<K, V>> run = new ArrayList<>();
+        long memory = 0;
+        try {
+            while (entries.hasNext()) {
+                Entry<K, V> e = entries.next();
+                run.add(e);
+                memory += keyType.getMemory(e.getKey()) + valueType.getMemory(e.getValue());
+                if (memory >= runMemory) {
+                    runs.add(writeRun(run, runs.size()));
+                    run.clear();
+                    memory = 0;
+                }
+            }
+            if (runs.isEmpty()) { // 只有一个run时不用写临时map
+                sortRun(run);
+                return bulkLoad(run.iterator());
+            }
+            if (!run.isEmpty())
+                runs.add(writeRun(run, runs.size()));
+            return bulkLoad(new RunMerger<>(runs, keyType));
+        } finally {
+            for (BTreeMap<K, V> map : runs) {
+                map.remove();
+            }
+        }
+    }
+
+    private void checkEmpty() {
+        if (!isEmpty()) {
+            throw DataUtils.newIllegalStateException(DataUtils.ERROR_INTERNAL,
+                    "Map {0} is not empty, bulk load is not allowed", name);
+        }
+    }
+
+    private void sortRun(ArrayList<Entry<K, V>> run) {
+        run.sort((e1, e2) -> keyType.compare(e1.getKey(), e2.getKey()));
+    }
+
+    private BTreeMap<K, V> writeRun(ArrayList<Entry<K, V>> run, int index) {
+        sortRun(run);
+        BTreeMap<K, V> map = ((AOStorage) storage).openBTreeMap(name + "_bulk_load_run_" + index,
+                keyType, valueType, null);
+        map.clear(); // 上次没有删除的临时map
+        map.bulkLoad(run.iterator());
+        map.fullGc();
+        return map;
+    }
+
+    // 多路归并多个有序的run，每个run中的key都是严格递增的
+    private static class RunMerger<K, V> implements Iterator<Entry<K, V>> {
+
+        private final PriorityQueue<StorageMapCursor<K, V>> queue;
+
+        RunMerger(ArrayList<BTreeMap<K, V>> runs, StorageDataType keyType) {
+            queue = new PriorityQueue<>(runs.size(),
+                    (c1, c2) -> keyType.compare(c1.getKey(), c2.getKey()));
+            for (BTreeMap<K, V> map : runs) {
+                StorageMapCursor<K, V> cursor = map.cursor();
+                if (cursor.next())
+                    queue.add(cursor);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            StorageMapCursor<K, V> cursor = queue.poll();
+            if (cursor == null)
+                throw new NoSuchElementException();
+            Entry<K, V> e = new AbstractMap.SimpleImmutableEntry<>(cursor.getKey(), cursor.getValue());
+            if (cursor.next())
+                queue.add(cursor);
+            return e;
+        }
+    }
+
     //////////////////// 以下是同步和异步API的实现 ////////////////////////////////
 
     @Override
@@ -594,6 +780,15 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
         return runPageOperation(session, putIfAbsent);
     }
 
+    @Override
+    public void putIfAbsent(InternalSession session, List<K> keys, List<V> values,
+            AsyncResultHandler<List<V>> handler) {
+        for (V value : values)
+            checkWrite(value);
+        PutAllIfAbsent<K, V> putAllIfAbsent = new PutAllIfAbsent<>(this, keys, values, handler);
+        runPageOperation(session, putAllIfAbsent);
+    }
+
     @Override
     public K append(V value) {
         return append0(null, value, null);
@@ -7,11 +7,12 @@ package com.lealone.storage.aose.btree;
 
 import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
-import com.lealone.common.compress.CompressDeflate;
-import com.lealone.common.compress.CompressLZF;
+import com.lealone.common.compress.CompressTool;
 import com.lealone.common.compress.Compressor;
 import com.lealone.common.exceptions.DbException;
 import com.lealone.common.util.DataUtils;
@@ -23,12 +24,14 @@ import com.lealone.storage.StorageSetting;
 import com.lealone.storage.aose.btree.chunk.Chunk;
 import com.lealone.storage.aose.btree.chunk.ChunkCompactor;
 import com.lealone.storage.aose.btree.chunk.ChunkManager;
+import com.lealone.storage.aose.btree.page.BulkLoader;
 import com.lealone.storage.aose.btree.page.Page;
 import com.lealone.storage.aose.btree.page.PageInfo;
 import com.lealone.storage.aose.btree.page.PageReference;
 import com.lealone.storage.aose.btree.page.PageUtils;
 import com.lealone.storage.fs.FileStorage;
 import com.lealone.storage.fs.FileUtils;
+import com.lealone.storage.fs.impl.nio.FilePathNioMapped;
 
 /**
  * A persistent storage for btree map.
@@ -45,16 +48,23 @@ public class BTreeStorage {
     private final int cacheSize;
     private final int minFillRate;
     private final int maxChunkSize;
+    private final int prefetchPages;
+    // 预读线程成功读到内存的page数
+    private final AtomicLong prefetchedPageCount = new AtomicLong();
+    private final boolean mmapChunkFiles;
 
     private final BTreeGC bgc;
 
     /**
-     * The compression level for new pages (0 for disabled, 1 for fast, 2 for high).
+     * The compression algorithm for new pages (0 for disabled, 1 for LZF, 2 for DEFLATE, 3 for LZ4).
      * Even if disabled, the storage may contain (old) compressed pages.
      */
-    private final int compressionLevel;
-    private Compressor compressorFast;
-    private Compressor compressorHigh;
+    private final int compressAlgorithm;
+    // 按算法编号缓存，读page时根据page type中的算法编号来选择
+    private final Compressor[] compressors = new Compressor[Compressor.MAX_ALGORITHM + 1];
+
+    // 重写冷chunk中的leaf page时使用的压缩算法，为null时原样复制
+    private final Compressor coldCompressor;
 
     private boolean closed;
 
@@ -71,7 +81,10 @@ public class BTreeStorage {
         if (minFillRate > 50) // 超过50没有实际意义
             minFillRate = 50;
         this.minFillRate = minFillRate;
-        compressionLevel = parseCompressionLevel();
+        compressAlgorithm = parseCompressAlgorithm();
+        if (compressAlgorithm != Compressor.NO) // 提前检查算法是否存在
+            compressors[compressAlgorithm] = CompressTool.getCompressor(compressAlgorithm);
+        coldCompressor = parseColdCompressor();
 
         // 32M (32 * 1024 * 1024)，到达一半时就启用GC
         cacheSize = getIntValue(DbSetting.CACHE_SIZE, Constants.DEFAULT_CACHE_SIZE * 1024 * 1024);
@@ -83,6 +96,14 @@ public class BTreeStorage {
             maxChunkSize = Chunk.MAX_SIZE;
         this.maxChunkSize = maxChunkSize;
 
+        // 顺序扫描时预读的兄弟page个数，为0时不预读
+        int prefetchPages = getIntValue(StorageSetting.PREFETCH_PAGES, 4);
+        this.prefetchPages = map.isInMemory() || prefetchPages < 0 ? 0 : prefetchPages;
+
+        // 是否用内存映射的方式读取不再写入的chunk文件，默认不使用
+        Object mmap = map.getConfig(StorageSetting.MMAP_CHUNK_FILES.name());
+        mmapChunkFiles = mmap != null && Boolean.parseBoolean(mmap.toString().trim());
+
         chunkManager = new ChunkManager(this);
         chunkCompactor = new ChunkCompactor(this, chunkManager);
         if (map.isInMemory()) {
@@ -117,23 +138,37 @@ public class BTreeStorage {
         }
     }
 
-    private int parseCompressionLevel() {
+    private int parseCompressAlgorithm() {
         Object value = map.getConfig(DbSetting.COMPRESS.name());
         if (value == null)
             return Compressor.NO;
+        else if (value instanceof Integer)
+            return (Integer) value;
         else {
-            String str = value.toString().trim().toUpperCase();
-            if (str.equals("NO"))
+            String str = value.toString().trim();
+            if (str.isEmpty())
                 return Compressor.NO;
-            else if (str.equals("LZF"))
-                return Compressor.LZF;
-            else if (str.equals("DEFLATE"))
-                return Compressor.DEFLATE;
-            else
+            else if (Character.isDigit(str.charAt(0)))
                 return Integer.parseInt(str);
+            else
+                return CompressTool.getCompressAlgorithm(str);
         }
     }
 
+    // 例如: COLD_CHUNK_COMPRESS='DEFLATE level 9'
+    private Compressor parseColdCompressor() {
+        Object value = map.getConfig(StorageSetting.COLD_CHUNK_COMPRESS.name());
+        if (value == null)
+            return null;
+        String str = value.toString().trim();
+        if (str.isEmpty() || str.equalsIgnoreCase("NO"))
+            return null;
+        else if (Character.isDigit(str.charAt(0)))
+            return CompressTool.getCompressor(Integer.parseInt(str));
+        else
+            return CompressTool.getCompressor(str);
+    }
+
     public BTreeMap<?, ?> getMap() {
         return map;
     }
@@ -150,22 +185,21 @@ public class BTreeStorage {
         return bgc;
     }
 
-    public int getCompressionLevel() {
-        return compressionLevel;
+    public int getCompressAlgorithm() {
+        return compressAlgorithm;
     }
 
-    public Compressor getCompressorFast() {
-        if (compressorFast == null) {
-            compressorFast = new CompressLZF();
+    public Compressor getCompressor(int algorithm) {
+        Compressor compressor = compressors[algorithm];
+        if (compressor == null) {
+            compressor = CompressTool.getCompressor(algorithm);
+            compressors[algorithm] = compressor;
         }
-        return compressorFast;
+        return compressor;
     }
 
-    public Compressor getCompressorHigh() {
-        if (compressorHigh == null) {
-            compressorHigh = new CompressDeflate();
-        }
-        return compressorHigh;
+    public Compressor getColdCompressor() {
+        return coldCompressor;
     }
 
     public int getPageSize() {
@@ -180,6 +214,18 @@ public class BTreeStorage {
         return minFillRate;
     }
 
+    public int getPrefetchPages() {
+        return prefetchPages;
+    }
+
+    public long getPrefetchedPageCount() {
+        return prefetchedPageCount.get();
+    }
+
+    void incrementPrefetchedPageCount() {
+        prefetchedPageCount.incrementAndGet();
+    }
+
     public long getDiskSpaceUsed() {
         return FileUtils.folderSize(new File(mapBaseDir));
     }
@@ -189,7 +235,15 @@ public class BTreeStorage {
     }
 
     public FileStorage getFileStorage(String chunkFileName) {
-        return FileStorage.open(mapBaseDir + File.separator + chunkFileName, map.getConfig());
+        return getFileStorage(chunkFileName, false);
+    }
+
+    // 最后一个chunk还会追加redo log和page，只有之前的chunk才用内存映射的方式读
+    public FileStorage getFileStorage(String chunkFileName, boolean sealed) {
+        String fileName = mapBaseDir + File.separator + chunkFileName;
+        if (sealed && mmapChunkFiles)
+            fileName = FilePathNioMapped.SCHEME + ":" + fileName;
+        return FileStorage.open(fileName, map.getConfig());
     }
 
     public IllegalStateException panic(int errorCode, String message, Object... arguments) {
@@ -243,7 +297,7 @@ public class BTreeStorage {
     synchronized void clear() {
         if (map.isInMemory())
             return;
-        bgc.close();
+        bgc.clear();
         chunkManager.clear();
     }
 
@@ -317,7 +371,47 @@ public class BTreeStorage {
     }
 
     private void executeSave(boolean appendModeEnabled, long dirtyMemory) {
-        DataBuffer chunkBody = DataBuffer.createDirect((int) dirtyMemory);
+        DataBuffer chunkBody = getChunkBuffer();
+        try {
+            executeSave(appendModeEnabled, dirtyMemory, chunkBody, null);
+        } finally {
+            releaseChunkBuffer(chunkBody);
+        }
+    }
+
+    // 批量装入的page边构建边写到一个新的chunk中，写完后再换成新的root page
+    synchronized void bulkLoad(BulkLoader loader) {
+        DataBuffer chunkBody = getChunkBuffer();
+        try {
+            executeSave(false, 0, chunkBody, loader);
+        } catch (IllegalStateException e) {
+            throw panic(e);
+        } finally {
+            releaseChunkBuffer(chunkBody);
+        }
+    }
+
+    // 刷脏页时所有map共用的缓冲区，写满CHUNK_BUFFER_SIZE就提前写到chunk文件中，
+    // 所以不管脏页有多少，每次刷脏页只需要一个固定大小的缓冲区
+    private static final int CHUNK_BUFFER_SIZE = DataBuffer.MAX_REUSE_CAPACITY;
+    private static final int CHUNK_BUFFER_POOL_SIZE = 4;
+    private static final ConcurrentLinkedQueue<DataBuffer> chunkBufferPool = new ConcurrentLinkedQueue<>();
+
+    private static DataBuffer getChunkBuffer() {
+        DataBuffer buff = chunkBufferPool.poll();
+        if (buff == null)
+            buff = DataBuffer.createDirect(CHUNK_BUFFER_SIZE);
+        return buff;
+    }
+
+    private static void releaseChunkBuffer(DataBuffer buff) {
+        buff.clear(); // 如果变大了会换回原来的缓冲区
+        if (chunkBufferPool.size() < CHUNK_BUFFER_POOL_SIZE)
+            chunkBufferPool.offer(buff);
+    }
+
+    private void executeSave(boolean appendModeEnabled, long dirtyMemory, DataBuffer chunkBody,
+            BulkLoader loader) {
         boolean appendMode = false;
         Chunk c;
         Chunk lastChunk;
@@ -349,11 +443,27 @@ public class BTreeStorage {
         } finally {
             redoLogLock.unlock();
         }
-        c.mapSize = map.size();
-        c.mapMaxKey = map.getMaxKey();
+        long pos;
+        if (loader == null) {
+            c.mapSize = map.size();
+            c.mapMaxKey = map.getMaxKey();
+            c.beginWrite(appendMode, CHUNK_BUFFER_SIZE);
 
-        PageInfo pInfo = map.getRootPageRef().getPageInfo();
-        long pos = pInfo.page.write(pInfo, c, chunkBody, new AtomicBoolean(false));
+            PageInfo pInfo = map.getRootPageRef().getPageInfo();
+            pos = pInfo.page.write(pInfo, c, chunkBody, new AtomicBoolean(false));
+        } else {
+            c.beginWrite(appendMode, CHUNK_BUFFER_SIZE);
+            try {
+                pos = loader.load(c, chunkBody);
+            } catch (RuntimeException e) {
+                // 记录不合法时已经写了一部分page，新的chunk直接删除，map还是空的
+                chunkManager.removeUnusedChunk(c);
+                throw e;
+            }
+            map.afterBulkLoad(loader);
+            c.mapSize = map.size();
+            c.mapMaxKey = map.getMaxKey();
+        }
         c.rootPagePos = pos;
 
         // 提前清理UnusedChunks中的pages，这样在RemovedPages中不会保留它们，也不会写到最新的chunk中
@@ -363,7 +473,7 @@ public class BTreeStorage {
         c.setLastRedoLogPos(lastRedoLogPos);
         c.setLastUnusedChunk(lastUnusedChunk);
 
-        c.write(chunkBody, chunkManager, appendMode);
+        c.write(chunkBody, chunkManager);
 
         // 最新的chunk写成功后再删除UnusedChunks，不能提前删除，因为UnusedChunks也包含被重写的chunk
         // 若最新的chunk写失败了，被重写的chunk文件也提前删除就会丢失数据
@@ -0,0 +1,71 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.storage.aose.btree;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.lealone.common.util.SystemPropertyUtils;
+import com.lealone.storage.aose.btree.page.Page;
+import com.lealone.storage.aose.btree.page.PageInfo;
+import com.lealone.storage.aose.btree.page.PageReference;
+
+/**
+ * 顺序扫描leaf page时，在后台线程中把后面的K个兄弟page预读到PageInfo.buff中，
+ * 这样BTreeCursor切换到下一个leaf page时就不需要在调度线程中同步读文件了。
+ */
+public class PagePrefetcher {
+
+    private static final ThreadPoolExecutor executor = createExecutor();
+
+    private static ThreadPoolExecutor createExecutor() {
+        int threads = SystemPropertyUtils.getInt("lealone.prefetch.threads",
+                Math.min(4, Runtime.getRuntime().availableProcessors()));
+        int queueSize = SystemPropertyUtils.getInt("lealone.prefetch.queue.size", 1024);
+        AtomicInteger id = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+                    Thread t = new Thread(r, "PagePrefetcher-" + id.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.DiscardPolicy()); // 队列满了就放弃预读
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private PagePrefetcher() {
+    }
+
+    /**
+     * 预读node page中[fromIndex, toIndex]范围内还没有读到内存的leaf page，
+     * 如果fromIndex大于toIndex就从后往前预读。
+     * 
+     * @return 实际已经提交预读的最后一个下标
+     */
+    static int prefetch(BTreeMap<?, ?> map, Page parent, int fromIndex, int toIndex) {
+        BTreeStorage bs = map.getBTreeStorage();
+        BTreeGC bgc = bs.getBTreeGC();
+        int step = fromIndex <= toIndex ? 1 : -1;
+        int last = fromIndex - step;
+        for (int i = fromIndex; i != toIndex + step; i += step) {
+            // 内存紧张时预读的page很快又会被GC回收，不如不读
+            if (bgc.needGc())
+                break;
+            PageReference ref = parent.getChildPageReference(i);
+            PageInfo pInfo = ref.getPageInfo();
+            if (!pInfo.isOnline() && ref.isLeafPage()) {
+                executor.execute(() -> {
+                    if (ref.prefetchPage())
+                        bs.incrementPrefetchedPageCount();
+                });
+            }
+            last = i;
+        }
+        return last;
+    }
+}
@@ -8,8 +8,6 @@ package com.lealone.storage.aose.btree.chunk;
 import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
 
 import com.lealone.agent.SystemOutline;
 import com.lealone.agent.SystemOutlineNode;
@@ -72,8 +70,8 @@ public class Chunk {
     public long sumOfLivePageLength;
 
     public int pagePositionAndLengthOffset;
-    // 会有多个线程读写，不能直接用HashMap
-    public final ConcurrentHashMap<Long, Integer> pagePositionToLengthMap = new ConcurrentHashMap<>();
+    // 第一次用到时才从chunk文件中读取
+    private volatile PagePositionTable pagePositions;
 
     public FileStorage fileStorage;
     public String fileName;
@@ -85,6 +83,12 @@ public class Chunk {
     private int removedPageCount;
     private HashSet<Long> removedPages;
 
+    // 写chunk body时，body在文件中的起始位置、已经提前写到文件中的字节数，
+    // 以及缓冲区中的数据超过多少字节时提前写到文件中
+    private long bodyPos;
+    private int flushedLength;
+    private int flushThreshold;
+
     public Chunk(int id) {
         this.id = id;
     }
@@ -94,13 +98,27 @@ public class Chunk {
     }
 
     public int getPageLength(long pagePosition) {
-        Integer length = pagePositionToLengthMap.get(pagePosition);
-        if (length == null) {
+        int length = getPagePositions().getLengthByPosition(pagePosition);
+        if (length < 0) {
             throw DataUtils.newIllegalStateException(DataUtils.ERROR_FILE_CORRUPT,
                     "File corrupted in chunk {0}, not found page {1}", fileStorage.getFileName(),
                     pagePosition);
         }
-        return length.intValue();
+        return length;
+    }
+
+    public PagePositionTable getPagePositions() {
+        PagePositionTable pagePositions = this.pagePositions;
+        if (pagePositions == null) {
+            synchronized (this) {
+                pagePositions = this.pagePositions;
+                if (pagePositions == null) {
+                    pagePositions = readPagePositions();
+                    this.pagePositions = pagePositions;
+                }
+            }
+        }
+        return pagePositions;
     }
 
     /**
@@ -142,22 +160,36 @@ public class Chunk {
             return size - CHUNK_HEADER_SIZE;
     }
 
-    private void readPagePositions() {
-        if (!pagePositionToLengthMap.isEmpty())
-            return;
+    /**
+     * 返回chunk body缓冲区中的位置对应的page offset，已经提前写到文件中的字节数也要算上。
+     *
+     * @param position the position in the chunk body buffer
+     * @return the page offset
+     */
+    public int getOffset(int position) {
+        return (int) (bodyPos - CHUNK_HEADER_SIZE) + flushedLength + position;
+    }
+
+    private PagePositionTable readPagePositions() {
+        if (pageCount <= 0 || fileStorage == null)
+            return new PagePositionTable();
         ByteBuffer buff = fileStorage.readFully(getFilePos(pagePositionAndLengthOffset),
                 pageCount * 8 + pageCount * 4);
+        long[] positions = new long[pageCount];
+        int[] lengths = new int[pageCount];
         for (int i = 0; i < pageCount; i++) {
-            long position = buff.getLong();
-            int length = buff.getInt();
-            pagePositionToLengthMap.put(position, length);
+            positions[i] = buff.getLong();
+            lengths[i] = buff.getInt();
         }
+        return PagePositionTable.create(positions, lengths);
     }
 
     private void writePagePositions(DataBuffer buff) {
-        pagePositionAndLengthOffset = getOffset() + buff.position();
-        for (Entry<Long, Integer> e : pagePositionToLengthMap.entrySet()) {
-            buff.putLong(e.getKey()).putInt(e.getValue());
+        // 先确保已经读过老的page位置，读的时候要用老的pagePositionAndLengthOffset
+        PagePositionTable pagePositions = getPagePositions();
+        pagePositionAndLengthOffset = getOffset(buff.position());
+        for (int i = 0, size = pagePositions.size(); i < size; i++) {
+            buff.putLong(pagePositions.getPosition(i)).putInt(pagePositions.getLength(i));
         }
     }
 
@@ -180,7 +212,7 @@ public class Chunk {
         HashSet<Long> oldRemovedPages = getRemovedPages();
         HashSet<Long> newRemovedPages = new HashSet<>(chunkManager.getRemovedPages());
         // 更新removedPageOffset
-        removedPageOffset = getOffset() + buff.position();
+        removedPageOffset = getOffset(buff.position());
         removedPageCount = oldRemovedPages.size() + newRemovedPages.size();
         for (long pos : oldRemovedPages) {
             buff.putLong(pos);
@@ -190,13 +222,12 @@ public class Chunk {
         }
     }
 
-    public void read(BTreeStorage btreeStorage) {
+    public void read(BTreeStorage btreeStorage, boolean sealed) {
         if (fileStorage == null) {
             fileName = btreeStorage.getChunkManager().getChunkFileName(id);
-            fileStorage = btreeStorage.getFileStorage(fileName);
+            fileStorage = btreeStorage.getFileStorage(fileName, sealed);
         }
         readHeader();
-        readPagePositions();
     }
 
     private void readHeader() {
@@ -305,15 +336,50 @@ public class Chunk {
     }
 
     // 调用者已经确保线程安全，所以与write相关的方法不需要加synchronized
-    public void write(DataBuffer body, ChunkManager chunkManager, boolean appendMode) {
+    public void beginWrite(boolean appendMode, int flushThreshold) {
+        bodyPos = appendMode ? size() : CHUNK_HEADER_SIZE;
+        flushedLength = 0;
+        // append模式下redo log也会写到这个chunk文件中，所以只能最后一次性写入
+        this.flushThreshold = appendMode ? Integer.MAX_VALUE : flushThreshold;
+    }
+
+    // 只能在写完一个page之后调用，此时缓冲区中都是完整的page
+    public void flush(DataBuffer body, boolean force) {
+        if (body.position() < flushThreshold && !force)
+            return;
+        ByteBuffer buff = body.getAndFlipBuffer();
+        int length = buff.limit();
+        fileStorage.writeFully(bodyPos + flushedLength, buff);
+        flushedLength += length;
+        body.clear();
+    }
+
+    /**
+     * 回填已经写到缓冲区或文件中的数据，比如node page中的子page位置。
+     *
+     * @param body the chunk body buffer
+     * @param offset the page offset returned by getOffset(position)
+     * @param data the data to write
+     */
+    public void writeBack(DataBuffer body, int offset, ByteBuffer data) {
+        int position = offset - getOffset(0);
+        if (position >= 0) {
+            int old = body.position();
+            body.position(position);
+            body.put(data);
+            body.position(old);
+        } else {
+            fileStorage.writeFully(getFilePos(offset), data);
+        }
+    }
+
+    public void write(DataBuffer body, ChunkManager chunkManager) {
         writePagePositions(body);
         writeRemovedPages(body, chunkManager);
 
-        // chunk header
+        // 先写chunk body，最后再写chunk header
+        flush(body, true);
         writeHeader();
-        // chunk body
-        long bodyPos = appendMode ? size() : CHUNK_HEADER_SIZE;
-        fileStorage.writeFully(bodyPos, body.getAndFlipBuffer());
         fileStorage.sync();
     }
 
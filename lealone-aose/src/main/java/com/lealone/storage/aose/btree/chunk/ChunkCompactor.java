@@ -6,11 +6,9 @@
 package com.lealone.storage.aose.btree.chunk;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map.Entry;
 
 import com.lealone.storage.aose.btree.BTreeStorage;
 import com.lealone.storage.aose.btree.page.PageUtils;
@@ -46,11 +44,11 @@ public class ChunkCompactor {
     public void clearUnusedChunkPages() {
         if (unusedChunks != null) {
             for (Chunk c : unusedChunks) {
-                Collection<Long> keys = c.pagePositionToLengthMap.keySet();
-                chunkManager.getRemovedPages().removeAll(keys);
+                PagePositionTable pagePositions = c.getPagePositions();
+                pagePositions.removeFrom(chunkManager.getRemovedPages());
                 // LastChunk中的RemovedPages也要删除，否则RemovedPages对应的chunk找不到就抛出异常
                 if (chunkManager.getLastChunk() != null) {
-                    chunkManager.getLastChunk().getRemovedPages().removeAll(keys);
+                    pagePositions.removeFrom(chunkManager.getLastChunk().getRemovedPages());
                 }
             }
         }
@@ -103,9 +101,10 @@ public class ChunkCompactor {
         ArrayList<Chunk> unusedChunks = new ArrayList<>();
         for (Chunk c : chunks) {
             c.sumOfLivePageLength = 0;
-            for (Entry<Long, Integer> e : c.pagePositionToLengthMap.entrySet()) {
-                if (!removedPages.contains(e.getKey())) {
-                    c.sumOfLivePageLength += e.getValue();
+            PagePositionTable pagePositions = c.getPagePositions();
+            for (int i = 0, size = pagePositions.size(); i < size; i++) {
+                if (!removedPages.contains(pagePositions.getPosition(i))) {
+                    c.sumOfLivePageLength += pagePositions.getLength(i);
                 }
             }
             if (c.sumOfLivePageLength == 0)
@@ -128,8 +127,9 @@ public class ChunkCompactor {
             unusedChunks.addAll(old);
         rewritePages = new HashSet<>();
         for (Chunk c : old) {
-            for (Entry<Long, Integer> e : c.pagePositionToLengthMap.entrySet()) {
-                Long pos = e.getKey();
+            PagePositionTable pagePositions = c.getPagePositions();
+            for (int i = 0, size = pagePositions.size(); i < size; i++) {
+                long pos = pagePositions.getPosition(i);
                 if (!removedPages.contains(pos)) {
                     rewritePages.add(pos);
                 }
@@ -159,7 +159,8 @@ public class ChunkManager {
         if (chunks.containsKey(chunkId))
             return chunks.get(chunkId);
         Chunk chunk = new Chunk(chunkId);
-        chunk.read(btreeStorage);
+        // 启动时读的是最后一个chunk，之后再读的chunk都不会再追加redo log了
+        chunk.read(btreeStorage, lastChunk != null && lastChunk.id != chunkId);
         chunks.put(chunk.id, chunk);
         return chunk;
     }
@@ -202,7 +203,7 @@ public class ChunkManager {
         chunks.remove(c.id);
         idToChunkFileNameMap.remove(c.id);
         seqToIdMap.remove(getSeq(c.fileName));
-        removedPages.removeAll(c.pagePositionToLengthMap.keySet());
+        c.getPagePositions().removeFrom(removedPages);
         if (c == lastChunk)
             lastChunk = null;
     }
@@ -0,0 +1,173 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.storage.aose.btree.chunk;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * chunk中所有page的位置和长度，按位置从小到大存放在两个原始类型的数组中，用二分查找。
+ * <p>
+ * 会有多个线程读，写操作是同步的，每次写完都发布一个新的快照，读操作不需要加锁。
+ */
+public class PagePositionTable {
+
+    private static class Snapshot {
+
+        final long[] positions;
+        final int[] lengths;
+        final int size;
+
+        Snapshot(long[] positions, int[] lengths, int size) {
+            this.positions = positions;
+            this.lengths = lengths;
+            this.size = size;
+        }
+    }
+
+    private volatile Snapshot snapshot;
+
+    public PagePositionTable() {
+        this(new long[16], new int[16], 0);
+    }
+
+    private PagePositionTable(long[] positions, int[] lengths, int size) {
+        snapshot = new Snapshot(positions, lengths, size);
+    }
+
+    public int size() {
+        return snapshot.size;
+    }
+
+    public long getPosition(int index) {
+        return snapshot.positions[index];
+    }
+
+    public int getLength(int index) {
+        return snapshot.lengths[index];
+    }
+
+    /**
+     * 返回page的长度，找不到时返回-1
+     */
+    public int getLengthByPosition(long pos) {
+        Snapshot s = snapshot;
+        int index = Arrays.binarySearch(s.positions, 0, s.size, pos);
+        return index < 0 ? -1 : s.lengths[index];
+    }
+
+    public boolean contains(long pos) {
+        Snapshot s = snapshot;
+        return Arrays.binarySearch(s.positions, 0, s.size, pos) >= 0;
+    }
+
+    // 写page时位置是递增的，所以通常是追加到最后
+    public synchronized void add(long pos, int length) {
+        Snapshot s = snapshot;
+        long[] positions = s.positions;
+        int[] lengths = s.lengths;
+        int size = s.size;
+        if (size == 0 || positions[size - 1] < pos) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+            }
+            // 只修改size之后的元素，读线程看不到
+            positions[size] = pos;
+            lengths[size] = length;
+        } else {
+            int index = Arrays.binarySearch(positions, 0, size, pos);
+            if (index >= 0) {
+                lengths = Arrays.copyOf(lengths, lengths.length);
+                lengths[index] = length;
+                snapshot = new Snapshot(positions, lengths, size);
+                return;
+            }
+            // 插入到中间时要复制一份新的数组，不能影响正在读的线程
+            index = -index - 1;
+            long[] newPositions = new long[Math.max(positions.length, size + 1)];
+            int[] newLengths = new int[newPositions.length];
+            System.arraycopy(positions, 0, newPositions, 0, index);
+            System.arraycopy(lengths, 0, newLengths, 0, index);
+            newPositions[index] = pos;
+            newLengths[index] = length;
+            System.arraycopy(positions, index, newPositions, index + 1, size - index);
+            System.arraycopy(lengths, index, newLengths, index + 1, size - index);
+            positions = newPositions;
+            lengths = newLengths;
+        }
+        snapshot = new Snapshot(positions, lengths, size + 1);
+    }
+
+    public void removeFrom(Collection<Long> pages) {
+        if (pages.isEmpty())
+            return;
+        Snapshot s = snapshot;
+        for (int i = 0; i < s.size; i++) {
+            pages.remove(s.positions[i]);
+        }
+    }
+
+    public void addTo(Collection<Long> pages) {
+        Snapshot s = snapshot;
+        for (int i = 0; i < s.size; i++) {
+            pages.add(s.positions[i]);
+        }
+    }
+
+    /**
+     * 用从chunk文件中读出来的数据创建，老版本写的数据是无序的，需要先排序
+     */
+    public static PagePositionTable create(long[] positions, int[] lengths) {
+        int size = positions.length;
+        for (int i = 1; i < size; i++) {
+            if (positions[i - 1] >= positions[i]) {
+                sort(positions, lengths);
+                break;
+            }
+        }
+        if (size == 0) {
+            positions = new long[16];
+            lengths = new int[16];
+        }
+        return new PagePositionTable(positions, lengths, size);
+    }
+
+    // 堆排序，按positions排序，同时移动lengths
+    private static void sort(long[] positions, int[] lengths) {
+        int n = positions.length;
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            siftDown(positions, lengths, i, n);
+        }
+        for (int i = n - 1; i > 0; i--) {
+            swap(positions, lengths, 0, i);
+            siftDown(positions, lengths, 0, i);
+        }
+    }
+
+    private static void siftDown(long[] positions, int[] lengths, int i, int n) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n)
+                return;
+            if (child + 1 < n && positions[child + 1] > positions[child])
+                child++;
+            if (positions[i] >= positions[child])
+                return;
+            swap(positions, lengths, i, child);
+            i = child;
+        }
+    }
+
+    private static void swap(long[] positions, int[] lengths, int i, int j) {
+        long p = positions[i];
+        positions[i] = positions[j];
+        positions[j] = p;
+        int l = lengths[i];
+        lengths[i] = lengths[j];
+        lengths[j] = l;
+    }
+}
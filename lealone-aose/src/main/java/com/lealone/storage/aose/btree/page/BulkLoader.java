@@ -0,0 +1,262 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.storage.aose.btree.page;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.lealone.common.util.DataUtils;
+import com.lealone.db.DataBuffer;
+import com.lealone.storage.aose.btree.BTreeGC;
+import com.lealone.storage.aose.btree.BTreeMap;
+import com.lealone.storage.aose.btree.BTreeStorage;
+import com.lealone.storage.aose.btree.chunk.Chunk;
+import com.lealone.storage.type.StorageDataType;
+
+/**
+ * 从按key严格递增的记录自底向上构建btree。
+ * <p>
+ * 记录直接追加到当前leaf page中，leaf page装满后才创建下一个，不需要逐条执行Put，也不会切割page。
+ * node page中的key是它右边子树的最小key，跟切割page时得到的key一样。
+ * <p>
+ * 每个page一构建好就写到chunk中，内存中只保留每一层还没有放到node page中的子page的位置和最小key，
+ * 所以不管装入多少记录，占用的内存只跟btree的高度有关。内存map不写chunk，所有page都留在内存中。
+ */
+public class BulkLoader {
+
+    // 每一层还没有放到node page中的子page
+    private static class Level {
+        final ArrayList<PageReference> refs = new ArrayList<>();
+        final ArrayList<Object> minKeys = new ArrayList<>();
+        int memory; // 除了最后两个子page之外的子page放到node page中占用的内存
+        int nodeCount; // 这一层已经构建好的node page数
+    }
+
+    private final BTreeMap<?, ?> map;
+    private final BTreeStorage bs;
+    private final BTreeGC bgc;
+    private final StorageDataType keyType;
+    private final StorageDataType valueType;
+    private final int pageType;
+    private final int pageSize;
+    private final Iterator<? extends Entry<?, ?>> entries;
+
+    private final ArrayList<Level> levels = new ArrayList<>();
+
+    // 当前leaf page中的记录，pageType小于3时只有keys，里面存放的是value
+    private final ArrayList<Object> keys = new ArrayList<>();
+    private final ArrayList<Object> values;
+    private int leafMemory;
+
+    // 上一个装满的leaf page，有下一个leaf page时才写，只有一个leaf page时它就是root page
+    private LeafPage lastLeaf;
+    private Object lastLeafMinKey;
+
+    private Chunk chunk;
+    private DataBuffer buff;
+
+    private Object lastKey;
+    private long size;
+    private long usedMemory; // 留在内存中的page占用的内存
+
+    public BulkLoader(BTreeMap<?, ?> map, Iterator<? extends Entry<?, ?>> entries) {
+        this.map = map;
+        this.entries = entries;
+        bs = map.getBTreeStorage();
+        bgc = bs.getBTreeGC();
+        keyType = map.getKeyType();
+        valueType = map.getValueType();
+        pageType = LeafPage.getPageType(map);
+        pageSize = bs.getPageSize();
+        values = pageType >= 3 ? new ArrayList<>() : null;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public Object getLastKey() {
+        return lastKey;
+    }
+
+    /**
+     * 装入所有记录，构建好的page写到chunk中，最后把root page换成新的root page
+     *
+     * @param chunk 正在写的chunk，为null时所有page都留在内存中
+     * @param buff chunk body的缓冲区
+     * @return root page的位置，chunk为null时返回0
+     */
+    public long load(Chunk chunk, DataBuffer buff) {
+        this.chunk = chunk;
+        this.buff = buff;
+        while (entries.hasNext()) {
+            Entry<?, ?> e = entries.next();
+            DataUtils.checkNotNull(e.getValue(), "value");
+            add(e.getKey(), e.getValue());
+        }
+        if (!keys.isEmpty())
+            addLeafPage();
+        if (lastLeaf == null)
+            return 0;
+        Page root;
+        if (levels.isEmpty()) {
+            root = lastLeaf;
+        } else {
+            addChild(0, lastLeaf, lastLeafMinKey);
+            root = buildRoot();
+        }
+        lastLeaf = null;
+        return writeRoot(root);
+    }
+
+    private void add(Object key, Object value) {
+        if (lastKey != null && keyType.compare(key, lastKey) <= 0) {
+            throw DataUtils.newIllegalArgumentException(
+                    "Keys must be strictly increasing, key {0} after {1}", key, lastKey);
+        }
+        if (values != null) {
+            keys.add(key);
+            values.add(value);
+            leafMemory += keyType.getMemory(key) + valueType.getMemory(value);
+        } else {
+            keys.add(value);
+            leafMemory += valueType.getMemory(value);
+        }
+        lastKey = key;
+        size++;
+        if (leafMemory >= pageSize)
+            addLeafPage();
+    }
+
+    private void addLeafPage() {
+        Object[] k = keys.toArray();
+        Object[] v = values == null ? null : values.toArray();
+        keys.clear();
+        if (values != null)
+            values.clear();
+        leafMemory = 0;
+        LeafPage p = LeafPage.create(map, k, v, 0, pageType);
+        p.setRef(new PageReference(bs, p));
+        p.setPageListener(valueType, v == null ? k : v);
+        if (lastLeaf != null)
+            addChild(0, lastLeaf, lastLeafMinKey);
+        lastLeaf = p;
+        lastLeafMinKey = p.getSplitKey(0);
+    }
+
+    // 把构建好的page写到chunk中，然后放到上一层
+    private void addChild(int levelIndex, Page p, Object minKey) {
+        PageReference ref;
+        if (chunk == null) {
+            ref = p.getRef();
+            usedMemory += p.getMemory();
+        } else {
+            // 写完后page就在clock中了，可能马上被回收，所以先把它占用的内存加上
+            bgc.addUsedMemory(p.getMemory());
+            long pos = p.write(p.getRef().getPageInfo(), chunk, buff, new AtomicBoolean(false));
+            release(p);
+            chunk.flush(buff, false);
+            ref = new PageReference(bs, pos);
+        }
+        if (levels.size() == levelIndex)
+            levels.add(new Level());
+        Level level = levels.get(levelIndex);
+        level.refs.add(ref);
+        level.minKeys.add(minKey);
+        // 每个node page至少有两个子page，所以最后两个子page先不算，
+        // 前面的子page够一个node page时就构建node page，剩下的两个子page留给下一个node page
+        int n = level.refs.size();
+        if (n > 2) {
+            int i = n - 3;
+            if (i > 0)
+                level.memory += keyType.getMemory(level.minKeys.get(i));
+            level.memory += PageUtils.PAGE_MEMORY_CHILD;
+            if (level.memory >= pageSize) {
+                level.memory = 0;
+                addNodePage(levelIndex, n - 2);
+            }
+        }
+    }
+
+    private void addNodePage(int levelIndex, int childCount) {
+        Level level = levels.get(levelIndex);
+        Object minKey = level.minKeys.get(0);
+        NodePage p = createNodePage(level, childCount);
+        p.setRef(new PageReference(bs, p));
+        level.nodeCount++;
+        addChild(levelIndex + 1, p, minKey);
+    }
+
+    // 从最底层开始把剩下的子page放到node page中，直到某一层只需要一个node page，它就是root page
+    private Page buildRoot() {
+        for (int i = 0;; i++) {
+            Level level = levels.get(i);
+            if (level.nodeCount == 0)
+                return createNodePage(level, level.refs.size());
+            addNodePage(i, level.refs.size());
+        }
+    }
+
+    private NodePage createNodePage(Level level, int childCount) {
+        Object[] nodeKeys = new Object[childCount - 1];
+        PageReference[] children = new PageReference[childCount];
+        for (int i = 0; i < childCount; i++) {
+            children[i] = level.refs.get(i);
+            if (i > 0)
+                nodeKeys[i - 1] = level.minKeys.get(i);
+        }
+        level.refs.subList(0, childCount).clear();
+        level.minKeys.subList(0, childCount).clear();
+        NodePage p = NodePage.create(map, nodeKeys, children, 0);
+        if (chunk == null) {
+            PageReference ref = new PageReference(bs, p);
+            p.setRef(ref);
+            for (PageReference child : children) {
+                child.setParentRef(ref);
+            }
+        }
+        return p;
+    }
+
+    private long writeRoot(Page root) {
+        PageReference rootRef = map.getRootPageRef();
+        rootRef.markDirtyPage();
+        bgc.addUsedMemory(-rootRef.getPageInfo().getTotalMemory());
+        map.newRoot(root);
+        if (root.isNode()) {
+            for (PageReference child : root.getChildren()) {
+                child.setParentRef(rootRef);
+            }
+        } else {
+            LeafPage p = (LeafPage) root;
+            p.setPageListener(valueType, pageType >= 3 ? p.getValues() : p.keys);
+        }
+        bgc.addUsedMemory(usedMemory + root.getMemory());
+        if (chunk == null)
+            return 0;
+        return root.write(rootRef.getPageInfo(), chunk, buff, new AtomicBoolean(false));
+    }
+
+    // 写完的page不会再被访问了，从clock中删除并马上回收，如果已经不在clock中了，说明已经被回收了
+    private void release(Page p) {
+        release(p.getRef());
+        if (p instanceof ColumnStorageLeafPage) {
+            PageReference[] columnPages = ((ColumnStorageLeafPage) p).getColumnPages();
+            if (columnPages != null) {
+                for (PageReference ref : columnPages) {
+                    release(ref);
+                }
+            }
+        }
+    }
+
+    private void release(PageReference ref) {
+        if (bgc.removePage(ref))
+            ref.gcPage(ref.getPageInfo(), 0);
+    }
+}
@@ -84,10 +84,12 @@ public class ColumnPage extends Page {
         return updateChunkAndPage(pInfoOld, chunk, start, pageLength, type, true, false);
     }
 
-    // 重写ColumnPage，只需要修改CheckValue即可
+    // 重写ColumnPage，只需要修改CheckValue即可，配置了COLD_CHUNK_COMPRESS时会重新压缩
     public static long rewrite(BTreeStorage bs, Chunk chunk, DataBuffer buff, long pos) {
         ByteBuffer pageBuff = bs.readPageBuffer(pos);
         int pageLength = pageBuff.limit();
-        return LeafPage.rewrite(chunk, buff, pageBuff, pageLength, 4, PageUtils.PAGE_TYPE_COLUMN);
+        // pageLength(4) + checkValue(2) + pageType(1)之后是compressType
+        return LeafPage.rewrite(bs, chunk, buff, pageBuff, pageLength, 4, 7, 8,
+                PageUtils.PAGE_TYPE_COLUMN);
     }
 }
@@ -76,6 +76,10 @@ public abstract class ColumnStorageLeafPage extends LeafPage {
             page.readColumn(getValues(), columnIndex, formatVersionForRead);
     }
 
+    PageReference[] getColumnPages() {
+        return columnPages;
+    }
+
     void markAllColumnPagesDirty() {
         if (columnPages != null) {
             if (!isAllColumnPagesRead) {
@@ -205,7 +209,8 @@ public abstract class ColumnStorageLeafPage extends LeafPage {
         pageBuff.position(7); // 跳过前7个字节
         DataUtils.readVarInt(pageBuff); // keyLength
         int columnCount = DataUtils.readVarInt(pageBuff);
-        pageBuff.position(pageBuff.position() + 1); // 跳过type
+        int typePos = pageBuff.position();
+        pageBuff.position(typePos + 1); // 跳过type
 
         int columnPageStartPos = buff.position() + pageBuff.position();
 
@@ -216,7 +221,8 @@ public abstract class ColumnStorageLeafPage extends LeafPage {
         }
 
         pageBuff.position(0);
-        long pos = LeafPage.rewrite(chunk, buff, pageBuff, pageLength, 5, PageUtils.PAGE_TYPE_LEAF);
+        long pos = LeafPage.rewrite(bs, chunk, buff, pageBuff, pageLength, 5, typePos,
+                typePos + 1 + columnCount * 8, PageUtils.PAGE_TYPE_LEAF);
 
         // 修改它所包含的所有ColumnPage的pos
         for (int i = 0; i < columnCount; i++) {
@@ -9,6 +9,7 @@ import java.nio.ByteBuffer;
 
 import com.lealone.agent.SystemOutline;
 import com.lealone.agent.SystemOutlineNode;
+import com.lealone.common.compress.Compressor;
 import com.lealone.common.util.DataUtils;
 import com.lealone.db.DataBuffer;
 import com.lealone.db.lock.Lock;
@@ -176,22 +177,24 @@ public abstract class LeafPage extends LocalPage {
         return newPage;
     }
 
-    public static LeafPage createEmpty(BTreeMap<?, ?> map, boolean addToUsedMemory) {
-        int pageType;
+    static int getPageType(BTreeMap<?, ?> map) {
         if (map.getKeyType().isKeyOnly()) {
-            pageType = 0;
+            return 0;
         } else if (map.getValueType().isRowOnly()) {
             if (map.getPageStorageMode() == PageStorageMode.ROW_STORAGE)
-                pageType = 1;
+                return 1;
             else
-                pageType = 2;
+                return 2;
         } else {
             if (map.getPageStorageMode() == PageStorageMode.ROW_STORAGE)
-                pageType = 3;
+                return 3;
             else
-                pageType = 4;
+                return 4;
         }
-        LeafPage p = create(map, pageType);
+    }
+
+    public static LeafPage createEmpty(BTreeMap<?, ?> map, boolean addToUsedMemory) {
+        LeafPage p = create(map, getPageType(map));
         int memory = p.getEmptyPageMemory();
         if (addToUsedMemory)
             map.getBTreeStorage().getBTreeGC().addUsedMemory(memory);
@@ -241,7 +244,7 @@ public abstract class LeafPage extends LocalPage {
         int pageLength = pageBuff.limit();
         int mode = pageBuff.get(pageBuff.position() + 4);
         if (PageStorageMode.values()[mode] == PageStorageMode.ROW_STORAGE) {
-            return RowStorageLeafPage.rewrite(chunk, buff, pageBuff, pageLength);
+            return RowStorageLeafPage.rewrite(bs, chunk, buff, pageBuff, pageLength);
         } else {
             return ColumnStorageLeafPage.rewrite(bs, chunk, buff, pageBuff, pageLength);
         }
@@ -256,4 +259,34 @@ public abstract class LeafPage extends LocalPage {
 
         return updateChunk(chunk, start, pageLength, type);
     }
+
+    // 如果配置了COLD_CHUNK_COMPRESS，重写时先解压再用新的压缩算法重新压缩，
+    // page头原样复制，只处理从compressStart开始的数据，同样不需要把记录反序列化
+    static long rewrite(BTreeStorage bs, Chunk chunk, DataBuffer buff, ByteBuffer pageBuff,
+            int pageLength, int checkPosOffset, int typePos, int compressStart, int type) {
+        Compressor compressor = bs.getColdCompressor();
+        int base = pageBuff.position();
+        int pageType = pageBuff.get(base + typePos);
+        if (compressor == null
+                || PageUtils.getCompressAlgorithm(pageType) == compressor.getAlgorithm())
+            return rewrite(chunk, buff, pageBuff, pageLength, checkPosOffset, type);
+
+        int start = buff.position();
+        ByteBuffer header = pageBuff.duplicate();
+        header.limit(base + compressStart);
+        buff.put(header);
+        pageBuff.position(base + compressStart);
+        buff.put(expandPage(bs, pageBuff, pageType, base, pageLength));
+        int rawType = pageType & ~PageUtils.PAGE_COMPRESS_MASK;
+        int end = buff.position();
+        buff.position(start + typePos).put((byte) rawType);
+        buff.position(end);
+        compressPage(buff, start + compressStart, rawType, start + typePos, compressor.getAlgorithm(),
+                compressor);
+
+        int newPageLength = buff.position() - start;
+        buff.putInt(start, newPageLength);
+        writeCheckValue(buff, chunk, start, newPageLength, start + checkPosOffset);
+        return updateChunk(chunk, start, newPageLength, type);
+    }
 }
@@ -165,7 +165,7 @@ public class NodePage extends LocalPage {
         int typePos = buff.position();
         int type = PageUtils.PAGE_TYPE_NODE;
         buff.put((byte) type);
-        writeChildrenPositions(buff, null);
+        writeChildrenPositions(buff);
         for (int i = 0; i <= keyLength; i++) {
             if (children[i].isLeafPage()) {
                 buff.put((byte) 0);
@@ -195,8 +195,12 @@ public class NodePage extends LocalPage {
 
     private void writeChildren(Chunk chunk, DataBuffer buff, int patch, AtomicBoolean isLocked) {
         BTreeStorage bs = map.getBTreeStorage();
+        // 写子page时缓冲区中的数据可能会提前写到文件中，所以要记下回填位置对应的offset
+        int patchOffset = chunk.getOffset(patch);
         long[] positions = new long[children.length];
         for (int i = 0, len = children.length; i < len; i++) {
+            if (i > 0)
+                chunk.flush(buff, false);
             PageInfo pInfo = children[i].getPageInfo();
             Page p = pInfo.page;
             if (p != null && pInfo.getPos() == 0) {
@@ -226,21 +230,17 @@ public class NodePage extends LocalPage {
                 }
             }
         }
-        int old = buff.position();
-        buff.position(patch);
-        writeChildrenPositions(buff, positions);
-        buff.position(old);
+        ByteBuffer data = ByteBuffer.allocate(positions.length * 8);
+        for (long pos : positions) {
+            data.putLong(pos);
+        }
+        data.flip();
+        chunk.writeBack(buff, patchOffset, data);
     }
 
-    private void writeChildrenPositions(DataBuffer buff, long[] positions) {
-        if (positions == null) {
-            for (int i = 0, len = keys.length; i <= len; i++) {
-                buff.putLong(0);
-            }
-        } else {
-            for (int i = 0, len = keys.length; i <= len; i++) {
-                buff.putLong(positions[i]); // pos通常是个很大的long，所以不值得用VarLong
-            }
+    private void writeChildrenPositions(DataBuffer buff) {
+        for (int i = 0, len = keys.length; i <= len; i++) {
+            buff.putLong(0); // pos通常是个很大的long，所以不值得用VarLong，写完子page后再回填
         }
     }
 
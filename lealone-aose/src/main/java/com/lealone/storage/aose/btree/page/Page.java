@@ -292,7 +292,7 @@ public class Page {
 
     static void writeCheckValue(DataBuffer buff, Chunk chunk, int start, int pageLength, int checkPos) {
         int check = DataUtils.getCheckValue(chunk.id)
-                ^ DataUtils.getCheckValue(chunk.getOffset() + start)
+                ^ DataUtils.getCheckValue(chunk.getOffset(start))
                 ^ DataUtils.getCheckValue(pageLength);
         buff.putShort(checkPos, (short) check);
     }
@@ -306,42 +306,40 @@ public class Page {
     }
 
     void compressPage(DataBuffer buff, int compressStart, int type, int typePos) {
+        BTreeStorage storage = map.getBTreeStorage();
+        int algorithm = storage.getCompressAlgorithm();
+        if (algorithm != Compressor.NO) {
+            compressPage(buff, compressStart, type, typePos, algorithm,
+                    storage.getCompressor(algorithm));
+        }
+    }
+
+    // 压缩算法的编号会写到page type字节中，所以同一个chunk中的page可以用不同的压缩算法
+    static void compressPage(DataBuffer buff, int compressStart, int type, int typePos,
+            int algorithm, Compressor compressor) {
         int expLen = buff.position() - compressStart;
         if (expLen > 16) {
-            BTreeStorage storage = map.getBTreeStorage();
-            int compressionLevel = storage.getCompressionLevel();
-            if (compressionLevel > 0) {
-                Compressor compressor;
-                int compressType;
-                if (compressionLevel == 1) {
-                    compressor = storage.getCompressorFast();
-                    compressType = PageUtils.PAGE_COMPRESSED;
-                } else {
-                    compressor = storage.getCompressorHigh();
-                    compressType = PageUtils.PAGE_COMPRESSED_HIGH;
-                }
-                byte[] exp = new byte[expLen];
-                buff.position(compressStart).get(exp);
-                byte[] comp = new byte[expLen * 2];
-                int compLen = compressor.compress(exp, expLen, comp, 0);
-                int plus = DataUtils.getVarIntLen(compLen - expLen);
-                if (compLen + plus < expLen) {
-                    buff.position(typePos).put((byte) (type + compressType));
-                    buff.position(compressStart).putVarInt(expLen - compLen).put(comp, 0, compLen);
-                }
+            byte[] exp = new byte[expLen];
+            buff.position(compressStart).get(exp);
+            byte[] comp = new byte[expLen * 2];
+            int compLen = compressor.compress(exp, expLen, comp, 0);
+            int plus = DataUtils.getVarIntLen(compLen - expLen);
+            if (compLen + plus < expLen) {
+                buff.position(typePos).put((byte) (type + PageUtils.getCompressType(algorithm)));
+                buff.position(compressStart).putVarInt(expLen - compLen).put(comp, 0, compLen);
             }
         }
     }
 
     ByteBuffer expandPage(ByteBuffer buff, int type, int start, int pageLength) {
-        boolean compressed = (type & PageUtils.PAGE_COMPRESSED) != 0;
-        if (compressed) {
-            Compressor compressor;
-            if ((type & PageUtils.PAGE_COMPRESSED_HIGH) == PageUtils.PAGE_COMPRESSED_HIGH) {
-                compressor = map.getBTreeStorage().getCompressorHigh();
-            } else {
-                compressor = map.getBTreeStorage().getCompressorFast();
-            }
+        return expandPage(map.getBTreeStorage(), buff, type, start, pageLength);
+    }
+
+    static ByteBuffer expandPage(BTreeStorage storage, ByteBuffer buff, int type, int start,
+            int pageLength) {
+        int algorithm = PageUtils.getCompressAlgorithm(type);
+        if (algorithm != Compressor.NO) {
+            Compressor compressor = storage.getCompressor(algorithm);
             int lenAdd = DataUtils.readVarInt(buff);
             int compLen = pageLength + start - buff.position();
             byte[] comp = DataUtils.newBytes(compLen);
@@ -363,8 +361,8 @@ public class Page {
     }
 
     static long updateChunk(Chunk chunk, int start, int pageLength, int type) {
-        long pos = PageUtils.getPagePos(chunk.id, chunk.getOffset() + start, type);
-        chunk.pagePositionToLengthMap.put(pos, pageLength);
+        long pos = PageUtils.getPagePos(chunk.id, chunk.getOffset(start), type);
+        chunk.getPagePositions().add(pos, pageLength);
         chunk.sumOfPageLength += pageLength;
         chunk.pageCount++;
         if (chunk.sumOfPageLength > Chunk.MAX_SIZE) {
@@ -0,0 +1,157 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.storage.aose.btree.page;
+
+/**
+ * 用clock算法回收已经读到内存中的page。
+ * <p>
+ * PageReference本身就是环形双向链表中的节点，不需要额外分配内存。
+ * 从硬盘读入或刚刷完脏页的page插到clock指针的前面，访问page时只设置referenced标记，
+ * 回收时从clock指针开始往后扫描，带referenced标记的page清除标记后再给一次机会，
+ * 所以每次只需要扫描被回收的page附近的节点，不用遍历整棵树，也不用排序。
+ */
+public class PageClock {
+
+    private PageReference hand; // 下一个要检查的page
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public void add(PageReference ref) {
+        // clockNext是volatile的，evict先从链表中删除page再让它离线，
+        // 所以page重新读到内存时这里一定能看到它已经不在链表中了
+        if (ref.clockNext != null) // 已经在链表中了，不用加锁
+            return;
+        synchronized (this) {
+            link(ref);
+        }
+    }
+
+    private void link(PageReference ref) {
+        if (ref.clockNext != null)
+            return;
+        if (hand == null) {
+            ref.clockPrev = ref;
+            ref.clockNext = ref;
+            hand = ref;
+        } else { // 插到hand前面，转完一圈才会检查它
+            PageReference prev = hand.clockPrev;
+            ref.clockPrev = prev;
+            ref.clockNext = hand;
+            prev.clockNext = ref;
+            hand.clockPrev = ref;
+        }
+        size++;
+    }
+
+    // 返回false说明已经不在链表中了，可能已经被回收
+    public synchronized boolean remove(PageReference ref) {
+        if (ref.clockNext == null)
+            return false;
+        unlink(ref);
+        return true;
+    }
+
+    private void unlink(PageReference ref) {
+        PageReference next = ref.clockNext;
+        if (next == ref) {
+            hand = null;
+        } else {
+            PageReference prev = ref.clockPrev;
+            prev.clockNext = next;
+            next.clockPrev = prev;
+            if (hand == ref)
+                hand = next;
+        }
+        ref.clockPrev = null;
+        ref.clockNext = null;
+        size--;
+    }
+
+    public synchronized void clear() {
+        while (hand != null) {
+            unlink(hand);
+        }
+    }
+
+    /**
+     * 释放至少bytes字节的内存，最多转两圈，第一圈清除referenced标记，第二圈回收。
+     * fullGc为true时忽略referenced标记，回收所有能回收的page。
+     *
+     * @return 实际释放的内存
+     */
+    public long evict(long bytes, boolean fullGc) {
+        long released = 0;
+        if (fullGc) {
+            // node page要等它的子page都回收后才能回收，所以一直转到没有page可以回收为止
+            while (true) {
+                long r = evict(Long.MAX_VALUE, true, size);
+                if (r <= 0)
+                    break;
+                released += r;
+            }
+        } else {
+            released = evict(bytes, false, size * 2);
+        }
+        return released;
+    }
+
+    private long evict(long bytes, boolean fullGc, int maxSteps) {
+        long released = 0;
+        for (int i = 0; i < maxSteps && released < bytes; i++) {
+            // 每一步都重新加锁，避免读page的线程等太久
+            synchronized (this) {
+                PageReference ref = hand;
+                if (ref == null)
+                    break;
+                hand = ref.clockNext;
+                PageInfo pInfo = ref.getPageInfo();
+                // 已经被回收、切割或删除的page直接从链表中删除
+                if (!pInfo.isOnline() || pInfo.isDataStructureChanged()) {
+                    unlink(ref);
+                    relinkIfOnline(ref);
+                    continue;
+                }
+                if (!ref.canGc()) // 脏页或被加锁的page，先留在链表中
+                    continue;
+                if (ref.referenced && !fullGc) {
+                    ref.referenced = false;
+                    continue;
+                }
+                // 只要有一个子page还在内存中，node page就不能回收，否则子page占用的内存就无法释放了
+                Page p = pInfo.page;
+                if (p != null && p.isNode() && hasOnlineChild(p))
+                    continue;
+                int memory = pInfo.getTotalMemory();
+                // 先从链表中删除再让page离线，否则在这两步之间被读回内存的page不会再加到链表中
+                unlink(ref);
+                if (ref.gcPage(pInfo, 0) != null)
+                    released += memory;
+                relinkIfOnline(ref);
+            }
+        }
+        return released;
+    }
+
+    // 没有回收成功，或者刚回收就被读回内存了，重新加到链表中，读page的线程也可能已经加过了
+    private void relinkIfOnline(PageReference ref) {
+        PageInfo pInfo = ref.getPageInfo();
+        if (pInfo.isOnline() && !pInfo.isDataStructureChanged())
+            link(ref);
+    }
+
+    private static boolean hasOnlineChild(Page p) {
+        PageReference[] children = p.getChildren();
+        for (int i = 0, len = children.length; i < len; i++) {
+            PageReference childRef = children[i];
+            if (childRef != null && childRef.getPageInfo().isOnline())
+                return true;
+        }
+        return false;
+    }
+}
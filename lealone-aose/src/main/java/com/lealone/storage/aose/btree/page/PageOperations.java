@@ -5,6 +5,9 @@
  */
 package com.lealone.storage.aose.btree.page;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.lealone.common.exceptions.DbException;
 import com.lealone.db.async.AsyncResultHandler;
 import com.lealone.db.scheduler.InternalScheduler;
@@ -73,7 +76,7 @@ public abstract class PageOperations {
             return result;
         }
 
-        private boolean isPageChanged() {
+        protected boolean isPageChanged() {
             // leaf page被切割了或者root page从leaf page变成node page
             return pRef.isDataStructureChanged() || pRef.isNodePage();
         }
@@ -252,6 +255,119 @@ public abstract class PageOperations {
         }
     }
 
+    // 按key的顺序批量执行PutIfAbsent，落在同一个leaf page中的key只需要定位、加锁和标记脏页一次，
+    // 结果是每个key已经存在的旧值，新增的是null
+    public static class PutAllIfAbsent<K, V> extends WriteOperation<K, V, List<V>> {
+
+        final List<K> keys;
+        final List<V> values;
+        final ArrayList<V> oldValues;
+        int pos; // 下一个要写的key，加锁失败后再次运行时从这里接着写
+        Object upperKey; // 当前leaf page中的key都小于它，为null时说明是最右边的leaf page
+
+        public PutAllIfAbsent(BTreeMap<K, V> map, List<K> keys, List<V> values,
+                AsyncResultHandler<List<V>> resultHandler) {
+            super(map, null, resultHandler);
+            this.keys = keys;
+            this.values = values;
+            oldValues = new ArrayList<>(keys.size());
+        }
+
+        @Override
+        public PageOperationResult run(InternalScheduler scheduler, boolean waitingIfLocked) {
+            while (pos < keys.size()) {
+                if (pRef == null)
+                    gotoLeafPage(keys.get(pos));
+                if (isPageChanged())
+                    return retry(false);
+                if (!pRef.tryLock(scheduler, waitingIfLocked))
+                    return PageOperationResult.LOCKED;
+                p = pRef.getPage();
+                if (p == null || isPageChanged())
+                    return retry(true);
+                try {
+                    if (!writeLeafPage(scheduler))
+                        return retry(true);
+                } catch (Throwable t) {
+                    pRef.unlock();
+                    if (resultHandler != null) {
+                        resultHandler.handleException(t);
+                    } else {
+                        throw DbException.convert(t);
+                    }
+                    return PageOperationResult.FAILED;
+                }
+                pRef.unlock();
+                pRef = null;
+            }
+            result = oldValues;
+            if (resultHandler != null) {
+                resultHandler.handleResult(result);
+            }
+            return PageOperationResult.SUCCEEDED;
+        }
+
+        private PageOperationResult retry(boolean unlock) {
+            if (unlock)
+                pRef.unlock();
+            pRef = null;
+            return PageOperationResult.RETRY;
+        }
+
+        // 定位leaf page的同时记下它的key的上限，后面的key只要小于上限就还在这个leaf page中
+        private void gotoLeafPage(K key) {
+            upperKey = null;
+            Page p = map.getRootPage();
+            while (p.isNode()) {
+                int index = p.getPageIndex(key);
+                if (index < p.getKeyCount())
+                    upperKey = p.getKey(index);
+                p = p.getChildPage(index);
+            }
+            pRef = p.getRef();
+            pListener = pRef.getPageListener();
+        }
+
+        @SuppressWarnings("unchecked")
+        private boolean writeLeafPage(InternalScheduler scheduler) {
+            currentSession = scheduler.getCurrentSession();
+            boolean dirty = false;
+            boolean inserted = false;
+            while (pos < keys.size()) {
+                key = keys.get(pos);
+                if (upperKey != null && map.getKeyType().compare(key, upperKey) >= 0)
+                    break;
+                int index = getKeyIndex();
+                if (index >= 0) {
+                    oldValues.add((V) p.getValue(index));
+                } else {
+                    if (!dirty) {
+                        if (!map.isInMemory() && !pRef.markDirtyPage(pListener))
+                            return false;
+                        dirty = true;
+                    }
+                    writeLocal(index, scheduler);
+                    oldValues.add(null);
+                    inserted = true;
+                }
+                pos++;
+                // 剩下的key等切割后再重新定位
+                if (inserted && p.needSplit())
+                    break;
+            }
+            if (inserted && p.needSplit()) {
+                asyncSplitPage(scheduler, true, currentSession, pRef);
+            }
+            return true;
+        }
+
+        @Override
+        protected Object writeLocal(int index, InternalScheduler scheduler) {
+            insertLeaf(index, values.get(pos));
+            return null;
+        }
+    }
+
     public static class Remove<K, V> extends WriteOperation<K, V, V> {
 
         public Remove(BTreeMap<K, V> map, K key, AsyncResultHandler<V> resultHandler) {
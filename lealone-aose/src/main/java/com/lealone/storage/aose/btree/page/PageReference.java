@@ -17,7 +17,7 @@ import com.lealone.storage.aose.btree.BTreeStorage;
 import com.lealone.storage.page.IPageReference;
 import com.lealone.storage.page.PageListener;
 
-//内存占用32+16=48字节
+//内存占用40+16=56字节
 public class PageReference implements IPageReference {
 
     private static final AtomicReferenceFieldUpdater<PageReference, PageInfo> //
@@ -30,6 +30,12 @@ public class PageReference implements IPageReference {
     private final BTreeStorage bs;
     private final SchedulerLock schedulerLock = new SchedulerLock();
 
+    // 由PageClock维护的环形链表节点，referenced在访问page时设置，不需要精确
+    // clockNext不加锁就会读，所以是volatile的
+    PageReference clockPrev;
+    volatile PageReference clockNext;
+    boolean referenced;
+
     public PageReference(BTreeStorage bs) {
         this.bs = bs;
         pInfo = new PageInfo();
@@ -179,6 +185,8 @@ public class PageReference implements IPageReference {
         Page p = pInfo.page; // 先取出来，GC线程可能把pInfo.page置null
         if (p != null) {
             pInfo.updateTime();
+            if (!referenced) // 避免热点page每次访问都写内存
+                referenced = true;
             return p;
         } else {
             return readPage(pInfo);
@@ -212,12 +220,37 @@ public class PageReference implements IPageReference {
             if (buff == null)
                 memory += pInfoNew.getBuffMemory();
             addUsedMemory(memory);
+            addToClock();
             return p;
         } else {
             return getOrReadPage();
         }
     }
 
+    // 只读取page的原始数据放到buff字段，由预读线程执行，真正使用时再解析
+    public boolean prefetchPage() {
+        PageInfo pInfoOld = this.pInfo;
+        if (pInfoOld.isOnline() || pInfoOld.isDataStructureChanged())
+            return false;
+        ByteBuffer buff;
+        try {
+            buff = bs.readPageBuffer(pInfoOld.pos);
+        } catch (RuntimeException e) {
+            // 执行Compact时chunk文件可能已经删除了，预读失败不影响正常读取
+            return false;
+        }
+        PageInfo pInfoNew = pInfoOld.copy(false);
+        pInfoNew.buff = buff;
+        pInfoNew.pageLength = buff.limit();
+        pInfoNew.updateTime();
+        if (replacePage(pInfoOld, pInfoNew)) {
+            addUsedMemory(pInfoNew.getBuffMemory());
+            addToClock();
+            return true;
+        }
+        return false;
+    }
+
     public boolean replacePage(PageInfo expect, PageInfo update) {
         return pageInfoUpdater.compareAndSet(this, expect, update);
     }
@@ -347,6 +380,10 @@ public class PageReference implements IPageReference {
         }
     }
 
+    private void addToClock() {
+        bs.getBTreeGC().addPage(this);
+    }
+
     private void addRemovedPage(long pos) {
         bs.getChunkManager().addRemovedPage(pos);
     }
@@ -377,6 +414,7 @@ public class PageReference implements IPageReference {
             }
             if (newPageBuff == null)
                 addUsedMemory(-pInfoOld.getBuffMemory());
+            addToClock(); // 刷完脏页后就可以回收了
         } else {
             // 当前page又被标记为脏页了，此时把写完的page标记为删除
             addRemovedPage(newPos);
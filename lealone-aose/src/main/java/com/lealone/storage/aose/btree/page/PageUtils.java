@@ -5,6 +5,8 @@
  */
 package com.lealone.storage.aose.btree.page;
 
+import com.lealone.common.compress.Compressor;
+
 public class PageUtils {
 
     /**
@@ -32,6 +34,54 @@ public class PageUtils {
      */
     public static final int PAGE_COMPRESSED_HIGH = 2 + 4;
 
+    /**
+     * 压缩算法的编号放在page type字节的第3到第6位，为0时是老版本的格式，用PAGE_COMPRESSED_HIGH区分LZF和DEFLATE
+     */
+    public static final int PAGE_COMPRESS_ALGORITHM_SHIFT = 3;
+
+    /**
+     * The bit mask for all compression related bits of the page type.
+     */
+    public static final int PAGE_COMPRESS_MASK = PAGE_COMPRESSED_HIGH
+            | (Compressor.MAX_ALGORITHM << PAGE_COMPRESS_ALGORITHM_SHIFT);
+
+    /**
+     * Get the bits that need to be added to the page type for the given compression algorithm.
+     * LZF and DEFLATE still use the old format, so that older versions can read them.
+     *
+     * @param algorithm the compression algorithm
+     * @return the bits
+     */
+    public static int getCompressType(int algorithm) {
+        switch (algorithm) {
+        case Compressor.LZF:
+            return PAGE_COMPRESSED;
+        case Compressor.DEFLATE:
+            return PAGE_COMPRESSED_HIGH;
+        default:
+            return PAGE_COMPRESSED | (algorithm << PAGE_COMPRESS_ALGORITHM_SHIFT);
+        }
+    }
+
+    /**
+     * Get the compression algorithm from the page type.
+     *
+     * @param type the page type
+     * @return the compression algorithm, or Compressor.NO if the page is not compressed
+     */
+    public static int getCompressAlgorithm(int type) {
+        if ((type & PAGE_COMPRESSED) == 0)
+            return Compressor.NO;
+        int algorithm = (type >>> PAGE_COMPRESS_ALGORITHM_SHIFT) & Compressor.MAX_ALGORITHM;
+        if (algorithm == 0) {
+            if ((type & PAGE_COMPRESSED_HIGH) == PAGE_COMPRESSED_HIGH)
+                algorithm = Compressor.DEFLATE;
+            else
+                algorithm = Compressor.LZF;
+        }
+        return algorithm;
+    }
+
     /**
      * The estimated number of bytes used per child entry.
      */
@@ -11,6 +11,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import com.lealone.common.util.DataUtils;
 import com.lealone.db.DataBuffer;
 import com.lealone.storage.aose.btree.BTreeMap;
+import com.lealone.storage.aose.btree.BTreeStorage;
 import com.lealone.storage.aose.btree.chunk.Chunk;
 import com.lealone.storage.type.StorageDataType;
 
@@ -107,8 +108,15 @@ public abstract class RowStorageLeafPage extends LeafPage {
         return updateChunkAndPage(pInfoOld, chunk, start, pageLength, type, true, isLockedPage);
     }
 
-    // 重写所有的RowStorageLeafPage，只需要修改CheckValue即可
-    public static long rewrite(Chunk chunk, DataBuffer buff, ByteBuffer pageBuff, int pageLength) {
-        return LeafPage.rewrite(chunk, buff, pageBuff, pageLength, 5, PageUtils.PAGE_TYPE_LEAF);
+    // 重写所有的RowStorageLeafPage，只需要修改CheckValue即可，配置了COLD_CHUNK_COMPRESS时会重新压缩
+    public static long rewrite(BTreeStorage bs, Chunk chunk, DataBuffer buff, ByteBuffer pageBuff,
+            int pageLength) {
+        int base = pageBuff.position();
+        pageBuff.position(base + 7); // 跳过pageLength、mode和checkValue
+        DataUtils.readVarInt(pageBuff); // keyLength
+        int typePos = pageBuff.position() - base;
+        pageBuff.position(base);
+        return LeafPage.rewrite(bs, chunk, buff, pageBuff, pageLength, 5, typePos, typePos + 1,
+                PageUtils.PAGE_TYPE_LEAF);
     }
 }
@@ -8,6 +8,7 @@ package com.lealone.transaction.aote;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -42,6 +43,7 @@ public class AOTransactionEngine extends TransactionEngineBase implements Storag
     private final AtomicInteger rrtCount = new AtomicInteger();
 
     private TransactionManager[] transactionManagers;
+    private VersionStore versionStore;
 
     private LogSyncService logSyncService; // 实际上就是logSyncServices[0]
     private LogSyncService[] logSyncServices;
@@ -84,6 +86,10 @@ public class AOTransactionEngine extends TransactionEngineBase implements Storag
         return rrtCount.get() > 0;
     }
 
+    public VersionStore getVersionStore() {
+        return versionStore;
+    }
+
     public long getMaxRepeatableReadTransactionId() {
         long maxTid = -1;
         for (AOTransaction t : currentTransactions()) {
@@ -200,6 +206,10 @@ public class AOTransactionEngine extends TransactionEngineBase implements Storag
         return lastTransactionId.incrementAndGet();
     }
 
+    public long getLastTransactionId() {
+        return lastTransactionId.get();
+    }
+
     @Override
     public AOTransaction beginTransaction(RunMode runMode, int isolationLevel,
             InternalScheduler scheduler) {
@@ -245,6 +255,19 @@ public class AOTransactionEngine extends TransactionEngineBase implements Storag
         return true;
     }
 
+    @Override
+    public Map<String, String> getInfo() {
+        Map<String, String> info = new LinkedHashMap<>();
+        VersionStore vs = versionStore;
+        if (vs != null) {
+            info.put("VERSION_STORE_SIZE", "" + vs.size());
+            info.put("VERSION_STORE_RECLAIMED", "" + vs.getReclaimedCount());
+            info.put("VERSION_STORE_LOW_WATERMARK", "" + vs.getLowWatermark());
+            info.put("VERSION_CHAIN_MAX_LENGTH", "" + vs.getMaxChainLength());
+        }
+        return info;
+    }
+
     @Override
     public void checkpoint() {
         for (int i = 0; i < logSyncServices.length; i++) {
@@ -253,6 +276,15 @@ public class AOTransactionEngine extends TransactionEngineBase implements Storag
         }
     }
 
+    @Override
+    public void prepareRecover(StorageMap<?, ?> map) {
+        if (logSyncService == null)
+            return;
+        if (!map.isInMemory()) {
+            logSyncService.getRedoLog().prepareRedo(map);
+        }
+    }
+
     @Override
     public void recover(StorageMap<?, ?> map, List<StorageMap<?, ?>> indexMaps) {
         if (logSyncService == null)
@@ -262,6 +294,22 @@ public class AOTransactionEngine extends TransactionEngineBase implements Storag
         }
     }
 
+    @Override
+    public int getRecoverThreads() {
+        if (logSyncService == null)
+            return 1;
+        return logSyncService.getRedoLog().getRecoverThreads();
+    }
+
+    @Override
+    public void runRecoverTasks(List<Runnable> tasks) {
+        if (logSyncService == null) {
+            super.runRecoverTasks(tasks);
+            return;
+        }
+        logSyncService.getRedoLog().runRecoverTasks(tasks);
+    }
+
     @Override
     public Runnable getFsyncService() {
         return logSyncService;
@@ -280,6 +328,7 @@ public class AOTransactionEngine extends TransactionEngineBase implements Storag
             transactionManagers[i] = TransactionManager.create(this, true);
         }
         transactionManagers[schedulerCount] = TransactionManager.create(this, false);
+        versionStore = new VersionStore(schedulerCount);
 
         initLogSyncServices(schedulerCount);
     }
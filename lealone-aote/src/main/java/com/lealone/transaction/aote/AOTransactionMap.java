@@ -5,6 +5,8 @@
  */
 package com.lealone.transaction.aote;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -213,6 +215,29 @@ public class AOTransactionMap<K, V> implements TransactionMap<K, V> {
                 }
                 return false;
             }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public int next(Object[] keys, Object[] values) {
+                while (true) {
+                    int n = cursor.next(keys, values);
+                    if (n == 0)
+                        return 0;
+                    // 跟next()一样按当前事务的隔离级别过滤，values中存放的是当前事务能看到的值
+                    int count = 0;
+                    for (int i = 0; i < n; i++) {
+                        Object v = AOTransactionMap.this.getValue((K) keys[i], (Lockable) values[i]);
+                        if (v != null) {
+                            keys[count] = keys[i];
+                            values[count++] = v;
+                        }
+                    }
+                    if (count > 0) {
+                        value = (V) values[count - 1];
+                        return count;
+                    }
+                }
+            }
         };
     }
 
@@ -323,6 +348,11 @@ public class AOTransactionMap<K, V> implements TransactionMap<K, V> {
         return map.getAndAddKey(delta);
     }
 
+    @Override
+    public List<Object> getSplitKeys(int count) {
+        return map.getSplitKeys(count);
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     public V get(K key, int[] columnIndexes) {
@@ -366,17 +396,9 @@ public class AOTransactionMap<K, V> implements TransactionMap<K, V> {
                 if (old != null) {
                     if (vRef != null)
                         vRef.set((V) old.getLockedValue());
-                    if (ifAbsent) {
-                        // 在提交或回滚时直接忽略即可
-                        r.setUndone(true);
-                        // 同一个事务，先删除再更新，因为删除记录时只是打了一个删除标记，存储层并没有真实删除
-                        if (old.getLockedValue() == null) {
-                            old.setLockedValue(lockable.getLockedValue());
-                            addUndoLog(key, old, lockable.getLockedValue());
-                        } else {
-                            topHandler.handleResult(Transaction.OPERATION_DATA_DUPLICATE);
-                            return;
-                        }
+                    if (ifAbsent && isDuplicate(key, lockable, old, r)) {
+                        topHandler.handleResult(Transaction.OPERATION_DATA_DUPLICATE);
+                        return;
                     }
                 }
                 topHandler.handleResult(Transaction.OPERATION_COMPLETE);
@@ -391,6 +413,56 @@ public class AOTransactionMap<K, V> implements TransactionMap<K, V> {
             map.put(transaction.getSession(), key, lockable, handler);
     }
 
+    private boolean isDuplicate(K key, Lockable lockable, Lockable old, UndoLogRecord r) {
+        // 在提交或回滚时直接忽略即可
+        r.setUndone(true);
+        // 同一个事务，先删除再更新，因为删除记录时只是打了一个删除标记，存储层并没有真实删除
+        if (old.getLockedValue() == null) {
+            old.setLockedValue(lockable.getLockedValue());
+            addUndoLog(key, old, lockable.getLockedValue());
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void addIfAbsent(List<K> keys, List<? extends Lockable> lockables,
+            AsyncResultHandler<Integer> handler) {
+        transaction.checkNotClosed();
+        int size = keys.size();
+        ArrayList<Lockable> list = new ArrayList<>(size);
+        UndoLogRecord[] records = new UndoLogRecord[size];
+        int metaVersion = getValueType().getMetaVersion();
+        for (int i = 0; i < size; i++) {
+            Lockable lockable = lockables.get(i);
+            DataUtils.checkNotNull(lockable, "lockable");
+            TransactionalValue.insertLock(lockable, transaction); // 内部有增加行锁
+            lockable.setMetaVersion(metaVersion);
+            records[i] = addUndoLog(keys.get(i), lockable, null);
+            list.add(lockable);
+        }
+        map.putIfAbsent(transaction.getSession(), keys, list, ar -> {
+            if (ar.isSucceeded()) {
+                List<Lockable> oldList = ar.getResult();
+                int duplicate = -1;
+                for (int i = 0; i < size; i++) {
+                    Lockable old = oldList.get(i);
+                    if (old != null && isDuplicate(keys.get(i), list.get(i), old, records[i])
+                            && duplicate < 0)
+                        duplicate = i;
+                }
+                handler.handleResult(duplicate);
+            } else {
+                // 没有写进去的记录在提交或回滚时直接忽略
+                for (int i = 0; i < size; i++) {
+                    if (list.get(i).getPageListener() == null)
+                        records[i].setUndone(true);
+                }
+                handler.handleException(ar.getCause());
+            }
+        });
+    }
+
     @Override
     public int tryUpdate(K key, V newValue, Lockable lockable, boolean isLockedBySelf) {
         SystemOutline.createNode(SystemOutlineNode.tryUpdate);
@@ -5,20 +5,24 @@
  */
 package com.lealone.transaction.aote;
 
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import com.lealone.common.logging.Logger;
 import com.lealone.common.logging.LoggerFactory;
 import com.lealone.common.util.MapUtils;
-import com.lealone.db.lock.Lockable;
 import com.lealone.storage.StorageMap;
-import com.lealone.storage.page.IPageReference;
 import com.lealone.transaction.TransactionEngine.GcTask;
-import com.lealone.transaction.aote.TransactionalValue.OldValue;
 import com.lealone.transaction.aote.log.LogSyncService;
 
 public class CheckpointService implements Runnable {
@@ -34,6 +38,12 @@ public class CheckpointService implements Runnable {
     private final CopyOnWriteArrayList<Runnable> forceCheckpointTasks = new CopyOnWriteArrayList<>();
     private final CopyOnWriteArrayList<GcTask> gcTasks = new CopyOnWriteArrayList<>();
     private final ConcurrentHashMap<StorageMap<?, ?>, AtomicLong> maps = new ConcurrentHashMap<>();
+    // 每个map最近一次刷脏页用的时间(毫秒)
+    private final ConcurrentHashMap<StorageMap<?, ?>, Long> saveTimes = new ConcurrentHashMap<>();
+
+    // 多个map可以并行刷脏页，为null时只用当前线程
+    private final ThreadPoolExecutor saveExecutor;
+    private final WriteRateLimiter writeRateLimiter;
 
     private long lastSavedAt = System.currentTimeMillis();
     private volatile boolean isClosed;
@@ -52,6 +62,27 @@ public class CheckpointService implements Runnable {
         if (checkpointPeriod < loopInterval)
             loopInterval = checkpointPeriod;
         this.loopInterval = loopInterval;
+
+        // 默认用一半的cpu核数刷脏页，最多4个线程
+        int threads = MapUtils.getInt(config, "checkpoint_threads",
+                Math.min(4, Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+        saveExecutor = threads > 1 ? createSaveExecutor(threads) : null;
+
+        // 单位是MB/秒，默认为0表示不限速，限速后前台事务调用RedoLog.save时的sync不会被刷脏页拖慢
+        long writeRate = MapUtils.getLong(config, "checkpoint_write_rate", 0);
+        writeRateLimiter = writeRate > 0 ? new WriteRateLimiter(writeRate * 1024 * 1024) : null;
+    }
+
+    private static ThreadPoolExecutor createSaveExecutor(int threads) {
+        AtomicInteger id = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "CheckpointWorker-" + id.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     public long getLoopInterval() {
@@ -68,6 +99,13 @@ public class CheckpointService implements Runnable {
 
     public void removeMap(StorageMap<?, ?> map) {
         maps.remove(map);
+        saveTimes.remove(map);
+    }
+
+    // 返回map最近一次刷脏页用的时间(毫秒)，还没有刷过时返回-1
+    public long getLastSaveTime(StorageMap<?, ?> map) {
+        Long time = saveTimes.get(map);
+        return time == null ? -1 : time.longValue();
     }
 
     public void addGcTask(GcTask gcTask) {
@@ -82,8 +120,17 @@ public class CheckpointService implements Runnable {
         return logSyncService.isRunning();
     }
 
+    // 在LogSyncService执行完最后一次checkpoint后调用
     public void close() {
         isClosed = true;
+        if (saveExecutor != null) {
+            saveExecutor.shutdown();
+            try {
+                if (!saveExecutor.awaitTermination(30, TimeUnit.SECONDS))
+                    logger.warn("Timeout waiting for checkpoint workers to terminate");
+            } catch (InterruptedException e) {
+            }
+        }
     }
 
     // 例如通过执行CHECKPOINT语句触发,或者在关闭时触发
@@ -128,73 +175,11 @@ public class CheckpointService implements Runnable {
     }
 
     private void gc() {
-        gcTValues();
+        aote.getVersionStore().gc(aote);
         executeGcTasks();
         gcMaps();
     }
 
-    private void gcTValues() {
-        if (maps.isEmpty())
-            return;
-        for (StorageMap<?, ?> map : maps.keySet()) {
-            if (!map.isClosed()) {
-                gcTValues(map);
-            }
-        }
-    }
-
-    private void gcTValues(StorageMap<?, ?> map) {
-        ConcurrentHashMap<Lockable, Object> tValues = map.getOldValueCache();
-        if (tValues.isEmpty())
-            return;
-        if (!aote.containsRepeatableReadTransactions()) {
-            removeTValues(map, tValues);
-            return;
-        }
-        long minTid = Long.MAX_VALUE;
-        for (AOTransaction t : aote.currentTransactions()) {
-            if (t.isRepeatableRead() && t.getTransactionId() < minTid)
-                minTid = t.getTransactionId();
-        }
-        if (minTid != Long.MAX_VALUE) {
-            for (Entry<Lockable, Object> e : tValues.entrySet()) {
-                OldValue oldValue = (OldValue) e.getValue();
-                if (oldValue != null && oldValue.tid < minTid) {
-                    removeTValue(map, tValues, e.getKey(), oldValue);
-                    continue;
-                }
-                while (oldValue != null) {
-                    if (oldValue.tid < minTid) {
-                        oldValue.next = null;
-                        break;
-                    }
-                    oldValue = oldValue.next;
-                }
-            }
-        } else {
-            removeTValues(map, tValues);
-        }
-    }
-
-    private void removeTValues(StorageMap<?, ?> map, ConcurrentHashMap<Lockable, Object> tValues) {
-        for (Entry<Lockable, Object> e : tValues.entrySet()) {
-            removeTValue(map, tValues, e.getKey(), (OldValue) e.getValue());
-        }
-    }
-
-    private void removeTValue(StorageMap<?, ?> map, ConcurrentHashMap<Lockable, Object> tValues,
-            Lockable lockable, OldValue oldValue) {
-        if (lockable.getLockedValue() == null) {
-            IPageReference ref = lockable.getPageListener().getPageReference();
-            // 删除记录时会把lockable中的列置null，这里需要减去所有列占用的内存
-            int memory = map.getValueType().getColumnsMemory(oldValue.value);
-            if (memory != 0)
-                ref.addPageUsedMemory(-memory);
-            ref.remove(oldValue.key);
-        }
-        tValues.remove(lockable, oldValue); // 如果不是原来的就不删除
-    }
-
     private void executeGcTasks() {
         if (gcTasks.isEmpty())
             return;
@@ -263,30 +248,100 @@ public class CheckpointService implements Runnable {
 
     private void save(boolean force, boolean isClosing) {
         long lastTransactionId = logSyncService.getRedoLog().getLastTransactionId();
+        // 准备刷页前如果表被删除了那就直接忽略，脏页多的map先刷
+        ArrayList<StorageMap<?, ?>> dirtyMaps = new ArrayList<>();
+        for (Entry<StorageMap<?, ?>, AtomicLong> e : maps.entrySet()) {
+            StorageMap<?, ?> map = e.getKey();
+            long size = e.getValue().get();
+            if (size > 0 && !map.isClosed() && (force || size > map.getCacheSize()))
+                dirtyMaps.add(map);
+        }
+        dirtyMaps.sort((m1, m2) -> Long.compare(getDirtyMemory(m2), getDirtyMemory(m1)));
         try {
-            for (Entry<StorageMap<?, ?>, AtomicLong> e : maps.entrySet()) {
-                StorageMap<?, ?> map = e.getKey();
-                long size = e.getValue().get();
-                // 准备耍刷页前如果表被删除了那就直接忽略
-                if (size > 0 && !map.isClosed() && (force || size > map.getCacheSize())) {
-                    long t1 = System.currentTimeMillis();
-                    if (!isClosing)
-                        workingThread.setName("Saving-" + map.getName());
-                    map.setLastTransactionId(lastTransactionId);
+            if (saveExecutor == null || saveExecutor.isShutdown() || dirtyMaps.size() <= 1) {
+                for (StorageMap<?, ?> map : dirtyMaps) {
+                    save(map, lastTransactionId, !isClosing);
+                }
+            } else {
+                ArrayList<Future<?>> futures = new ArrayList<>(dirtyMaps.size());
+                for (StorageMap<?, ?> map : dirtyMaps) {
+                    futures.add(saveExecutor.submit(() -> save(map, lastTransactionId, true)));
+                }
+                Throwable error = null;
+                for (Future<?> f : futures) {
                     try {
-                        map.save(size);
-                    } finally {
-                        map.setLastTransactionId(-1);
-                    }
-                    if (logger.isDebugEnabled()) {
-                        long time = System.currentTimeMillis() - t1;
-                        logger.debug("Save {}, size: {}, time: {} ms", map.getName(), size, time);
+                        f.get();
+                    } catch (ExecutionException e) {
+                        error = e.getCause();
+                        logger.error("Failed to execute save", error);
                     }
                 }
+                if (error != null) // 有一个map刷脏页失败了，下次还需要继续刷
+                    return;
             }
             lastSavedAt = System.currentTimeMillis();
         } catch (Throwable t) {
             logger.error("Failed to execute save", t);
         }
     }
+
+    private long getDirtyMemory(StorageMap<?, ?> map) {
+        AtomicLong size = maps.get(map);
+        return size == null ? 0 : size.get();
+    }
+
+    private void save(StorageMap<?, ?> map, long lastTransactionId, boolean setThreadName) {
+        if (map.isClosed())
+            return;
+        long size = getDirtyMemory(map);
+        if (writeRateLimiter != null)
+            writeRateLimiter.acquire(size);
+        long t1 = System.currentTimeMillis();
+        Thread thread = Thread.currentThread();
+        String oldName = thread.getName();
+        if (setThreadName)
+            thread.setName("Saving-" + map.getName());
+        map.setLastTransactionId(lastTransactionId);
+        try {
+            map.save(size);
+        } finally {
+            map.setLastTransactionId(-1);
+            if (setThreadName)
+                thread.setName(oldName);
+        }
+        long time = System.currentTimeMillis() - t1;
+        saveTimes.put(map, time);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Save {}, size: {}, time: {} ms", map.getName(), size, time);
+        }
+    }
+
+    // 按字节数限制刷脏页的速度，每个map刷脏页前先预约它的脏页大小，超出速度时就等待
+    private static class WriteRateLimiter {
+
+        private final long bytesPerSecond;
+        private long nextFreeTime = System.nanoTime();
+
+        WriteRateLimiter(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        private synchronized long reserve(long bytes) {
+            long now = System.nanoTime();
+            long start = Math.max(now, nextFreeTime);
+            nextFreeTime = start + (long) (bytes * 1000_000_000.0 / bytesPerSecond);
+            return start - now;
+        }
+
+        void acquire(long bytes) {
+            long waitNanos = reserve(bytes);
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
 }
@@ -281,6 +281,7 @@ public class TransactionalValue extends LockableBase {
             if (isInsert) {
                 OldValue v = new OldValue(commitTimestamp, key, value);
                 oldValueCache.put(lockable, v);
+                te.getVersionStore().add(t, map, lockable, v);
             } else {
                 long maxTid = te.getMaxRepeatableReadTransactionId();
                 OldValue old = (OldValue) oldValueCache.get(lockable);
@@ -301,6 +302,7 @@ public class TransactionalValue extends LockableBase {
                     v.next = old;
                 }
                 oldValueCache.put(lockable, v);
+                te.getVersionStore().add(t, map, lockable, v);
             }
         }
     }
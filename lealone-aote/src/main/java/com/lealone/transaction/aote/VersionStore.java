@@ -0,0 +1,159 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.transaction.aote;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.lealone.db.lock.Lockable;
+import com.lealone.db.scheduler.InternalScheduler;
+import com.lealone.storage.StorageMap;
+import com.lealone.storage.page.IPageReference;
+import com.lealone.transaction.aote.TransactionalValue.OldValue;
+
+/**
+ * 可重复读事务用到的旧版本的回收器。
+ * <p>
+ * 旧版本还是放在每个map的oldValueCache中给读操作用，但是每产生一个新的版本链头，
+ * 都会按提交的先后顺序追加到提交事务所在调度线程的版本列表中。
+ * <p>
+ * gc时先算出一个全局的低水位: 活跃的可重复读事务中最小的事务ID，没有的话就是当前最大的事务ID，
+ * 所有事务都能看到提交时间戳小于低水位的版本，比它更旧的版本就可以回收了。
+ * 每个版本列表从头开始回收，遇到第一个不小于低水位的版本就停下，
+ * 所以回收的开销只跟能回收的版本数有关，不用再扫描每个map的所有旧版本。
+ */
+public class VersionStore {
+
+    private static class Version {
+        final StorageMap<?, ?> map;
+        final Lockable lockable;
+        final OldValue oldValue;
+
+        Version(StorageMap<?, ?> map, Lockable lockable, OldValue oldValue) {
+            this.map = map;
+            this.lockable = lockable;
+            this.oldValue = oldValue;
+        }
+    }
+
+    // 每个调度线程一个，最后一个给非调度线程用
+    private final ConcurrentLinkedQueue<Version>[] versionLists;
+    // 同一时刻只能有一个线程回收，这样每个版本列表只有一个消费者
+    private final AtomicBoolean gcRunning = new AtomicBoolean();
+
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicLong reclaimed = new AtomicLong();
+    private final AtomicInteger maxChainLength = new AtomicInteger();
+    private volatile long lowWatermark;
+
+    @SuppressWarnings("unchecked")
+    public VersionStore(int schedulerCount) {
+        versionLists = new ConcurrentLinkedQueue[schedulerCount + 1];
+        for (int i = 0; i < versionLists.length; i++) {
+            versionLists[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    // oldValue是刚刚放到oldValueCache中的新版本链头
+    public void add(AOTransaction t, StorageMap<?, ?> map, Lockable lockable, OldValue oldValue) {
+        InternalScheduler scheduler = t.getScheduler();
+        int index = scheduler != null ? scheduler.getId() : versionLists.length - 1;
+        if (index < 0 || index >= versionLists.length)
+            index = versionLists.length - 1;
+        versionLists[index].add(new Version(map, lockable, oldValue));
+        size.incrementAndGet();
+    }
+
+    public void gc(AOTransactionEngine aote) {
+        if (size.get() == 0 || !gcRunning.compareAndSet(false, true))
+            return;
+        try {
+            // 先取当前最大的事务ID，之后开始的可重复读事务的ID都比它大
+            long lowWatermark = aote.getLastTransactionId();
+            if (aote.containsRepeatableReadTransactions()) {
+                for (AOTransaction t : aote.currentTransactions()) {
+                    if (t.isRepeatableRead() && t.getTransactionId() < lowWatermark)
+                        lowWatermark = t.getTransactionId();
+                }
+            }
+            this.lowWatermark = lowWatermark;
+            for (ConcurrentLinkedQueue<Version> list : versionLists) {
+                Version v;
+                while ((v = list.peek()) != null && v.oldValue.tid < lowWatermark) {
+                    list.poll();
+                    size.decrementAndGet();
+                    reclaimed.incrementAndGet();
+                    reclaim(v);
+                }
+                if (v != null)
+                    sampleChainLength(v);
+            }
+        } finally {
+            gcRunning.set(false);
+        }
+    }
+
+    // 提交时不再遍历版本链，只在gc时看一下每个版本列表中最老的那个还不能回收的版本所在的链，
+    // 它通常也是最长的，只是统计信息，不用很精确
+    private void sampleChainLength(Version v) {
+        if (v.map.isClosed())
+            return;
+        Object head = v.map.getOldValueCache().get(v.lockable);
+        if (!(head instanceof OldValue))
+            return;
+        int length = 0;
+        for (OldValue ov = (OldValue) head; ov != null; ov = ov.next)
+            length++;
+        if (length > maxChainLength.get())
+            maxChainLength.set(length);
+    }
+
+    private static void reclaim(Version v) {
+        if (v.map.isClosed())
+            return;
+        ConcurrentHashMap<Lockable, Object> tValues = v.map.getOldValueCache();
+        OldValue oldValue = v.oldValue;
+        if (tValues.get(v.lockable) == oldValue) {
+            removeTValue(v.map, tValues, v.lockable, oldValue);
+        } else {
+            // 已经有更新的版本了，所有事务都不会再读比它更旧的版本
+            oldValue.next = null;
+        }
+    }
+
+    private static void removeTValue(StorageMap<?, ?> map, ConcurrentHashMap<Lockable, Object> tValues,
+            Lockable lockable, OldValue oldValue) {
+        if (lockable.getLockedValue() == null) {
+            IPageReference ref = lockable.getPageListener().getPageReference();
+            // 删除记录时会把lockable中的列置null，这里需要减去所有列占用的内存
+            int memory = map.getValueType().getColumnsMemory(oldValue.value);
+            if (memory != 0)
+                ref.addPageUsedMemory(-memory);
+            ref.remove(oldValue.key);
+        }
+        tValues.remove(lockable, oldValue); // 如果不是原来的就不删除
+    }
+
+    // 还没有回收的版本数
+    public long size() {
+        return size.get();
+    }
+
+    public long getReclaimedCount() {
+        return reclaimed.get();
+    }
+
+    public int getMaxChainLength() {
+        return maxChainLength.get();
+    }
+
+    public long getLowWatermark() {
+        return lowWatermark;
+    }
+}
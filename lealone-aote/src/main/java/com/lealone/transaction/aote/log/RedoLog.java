@@ -18,11 +18,20 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import com.lealone.agent.SystemOutline;
 import com.lealone.agent.SystemOutlineNode;
+import com.lealone.common.exceptions.DbException;
+import com.lealone.common.logging.Logger;
+import com.lealone.common.logging.LoggerFactory;
 import com.lealone.common.util.DataUtils;
 import com.lealone.common.util.MapUtils;
 import com.lealone.db.Constants;
@@ -42,6 +51,8 @@ import com.lealone.transaction.aote.TransactionalValue;
 
 public class RedoLog {
 
+    private static final Logger logger = LoggerFactory.getLogger(RedoLog.class);
+
     private static final int BUFF_SIZE = 2 * 1024 * 1024;
 
     private final Map<String, String> config;
@@ -60,6 +71,11 @@ public class RedoLog {
     private long lastTransactionId;
     private int syncServiceIndex;
 
+    // key: 涉及多个map的事务id，value: 事务是否完整，在开始redo之前就验证好了
+    private final ConcurrentHashMap<Long, Boolean> validatedTransactions = new ConcurrentHashMap<>();
+    private final ArrayList<Future<?>> validations = new ArrayList<>();
+    private ThreadPoolExecutor recoverExecutor;
+
     public RedoLog(Map<String, String> config, LogSyncService logSyncService) {
         this.config = config;
         this.logSyncService = logSyncService;
@@ -147,6 +163,109 @@ public class RedoLog {
         return ids;
     }
 
+    // 在后台线程中读取map的redo log，验证其中涉及多个map的事务是否完整，
+    // 所有map的验证都在开始redo之前完成，这样验证结果就不受其他map的redo进度影响
+    public void prepareRedo(StorageMap<?, ?> map) {
+        // 老版本的全局redo log只能在redo时按顺序处理
+        if (pendingRedoLog != null)
+            return;
+        @SuppressWarnings("unchecked")
+        StorageMap<Object, Object> m = (StorageMap<Object, Object>) map;
+        ThreadPoolExecutor executor = getRecoverExecutor();
+        if (executor == null) {
+            validateRedoLog(m);
+            return;
+        }
+        synchronized (validations) {
+            validations.add(executor.submit(() -> validateRedoLog(m)));
+        }
+    }
+
+    private void validateRedoLog(StorageMap<Object, Object> map) {
+        ByteBuffer log = map.readRedoLog();
+        if (log == null)
+            return;
+        while (log.hasRemaining()) {
+            int len = log.getInt();
+            int pos = log.position();
+            int type = log.get();
+            if (type > 1) {
+                long transactionId = DataUtils.readVarLong(log);
+                if (!validatedTransactions.containsKey(transactionId))
+                    validatedTransactions.put(transactionId,
+                            validateMapNames(map, log, transactionId));
+            }
+            log.position(pos + len);
+        }
+    }
+
+    /**
+     * 用多个线程执行恢复任务，每个任务负责一组map的redo，不同的任务可以并行执行。
+     * 先等prepareRedo的验证都完成了再开始，返回时所有任务都已经执行完。
+     *
+     * @param tasks 恢复任务
+     */
+    public void runRecoverTasks(List<Runnable> tasks) {
+        try {
+            ArrayList<Future<?>> futures;
+            synchronized (validations) {
+                futures = new ArrayList<>(validations);
+                validations.clear();
+            }
+            waitFor(futures);
+            ThreadPoolExecutor executor = getRecoverExecutor();
+            if (executor == null || tasks.size() <= 1) {
+                for (Runnable task : tasks)
+                    task.run();
+                return;
+            }
+            futures = new ArrayList<>(tasks.size());
+            for (Runnable task : tasks)
+                futures.add(executor.submit(task));
+            waitFor(futures);
+        } finally {
+            validatedTransactions.clear();
+        }
+    }
+
+    private static void waitFor(List<Future<?>> futures) {
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (Exception e) {
+                Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                throw DbException.convert(cause);
+            }
+        }
+    }
+
+    public int getRecoverThreads() {
+        return Math.max(1, getRecoverThreadsConfig());
+    }
+
+    // 默认用一半的cpu核数，最多4个线程，为0时只用当前线程
+    private int getRecoverThreadsConfig() {
+        return MapUtils.getInt(config, "recovery_threads",
+                Math.min(4, Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+    }
+
+    private synchronized ThreadPoolExecutor getRecoverExecutor() {
+        if (recoverExecutor == null) {
+            int threads = getRecoverThreadsConfig();
+            if (threads <= 0)
+                return null;
+            AtomicInteger id = new AtomicInteger();
+            recoverExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), r -> {
+                        Thread t = new Thread(r, "RecoverWorker-" + id.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+            recoverExecutor.allowCoreThreadTimeOut(true);
+        }
+        return recoverExecutor;
+    }
+
     // 重新执行一次上次已经成功并且在检查点之后的事务操作
     @SuppressWarnings("unchecked")
     public void redo(StorageMap<?, ?> map0, List<StorageMap<?, ?>> indexMaps0) {
@@ -183,7 +302,8 @@ public class RedoLog {
             }
             if (pendingKeyValues != null && !pendingKeyValues.isEmpty()) {
                 for (ByteBuffer kv : pendingKeyValues) {
-                    redo(map, indexMaps, kt, vt, kv, handler, FormatVersion.FORMAT_VERSION_1);
+                    RedoEntry e = decode(map, kt, vt, kv, FormatVersion.FORMAT_VERSION_1, null);
+                    redo(map, indexMaps, vt, e, handler);
                 }
                 map.save();
             }
@@ -195,17 +315,52 @@ public class RedoLog {
             }
         }
 
+        long start = System.currentTimeMillis();
+        ArrayList<RedoEntry> entries = decodeRedoLog(map);
+        if (entries.isEmpty())
+            return;
+        for (RedoEntry e : entries) {
+            redo(map, indexMaps, vt, e, handler);
+        }
+        if (logger.isDebugEnabled())
+            logger.debug("Recovered {} redo log records of map {} in {} ms", entries.size(),
+                    map.getName(), System.currentTimeMillis() - start);
+    }
+
+    // 解码后的一条redo log记录，无效的事务已经忽略了
+    private static class RedoEntry {
+        final boolean isRemove;
+        final Object key;
+        final Object value;
+        final int metaVersion;
+
+        RedoEntry(boolean isRemove, Object key, Object value, int metaVersion) {
+            this.isRemove = isRemove;
+            this.key = key;
+            this.value = value;
+            this.metaVersion = metaVersion;
+        }
+    }
+
+    private ArrayList<RedoEntry> decodeRedoLog(StorageMap<Object, Object> map) {
+        ArrayList<RedoEntry> entries = new ArrayList<>();
         ByteBuffer log = map.readRedoLog();
         if (log != null) {
+            StorageDataType kt = map.getKeyType();
+            StorageDataType vt = map.getValueType().getRawType();
+            // 一个事务会为每条记录写一条redo log，同一个事务只需要验证一次
+            HashMap<Long, Boolean> validated = new HashMap<>();
             while (log.hasRemaining()) {
-                redo(map, indexMaps, kt, vt, log, handler, FormatVersion.FORMAT_VERSION);
+                RedoEntry e = decode(map, kt, vt, log, FormatVersion.FORMAT_VERSION, validated);
+                if (e != null)
+                    entries.add(e);
             }
         }
+        return entries;
     }
 
-    private void redo(StorageMap<Object, Object> map, List<StorageMap<Object, Object>> indexMaps,
-            StorageDataType kt, StorageDataType vt, ByteBuffer kv, AsyncResultHandler<Object> handler,
-            int formatVersion) {
+    private RedoEntry decode(StorageMap<Object, Object> map, StorageDataType kt, StorageDataType vt,
+            ByteBuffer kv, int formatVersion, HashMap<Long, Boolean> validated) {
         Object key;
         byte type;
         int metaVersion = 0;
@@ -222,9 +377,9 @@ public class RedoLog {
                 metaVersion = DataUtils.readVarInt(kv);
             } else if (type > 1) {
                 long transactionId = DataUtils.readVarLong(kv);
-                if (!readMapNames(map, kv, transactionId)) {
+                if (!readMapNames(map, kv, transactionId, validated)) {
                     kv.position(pos + len); // 无效的事务直接忽略
-                    return;
+                    return null;
                 }
                 if (type == 3) {
                     metaVersion = DataUtils.readVarInt(kv);
@@ -233,6 +388,19 @@ public class RedoLog {
             key = kt.read(kv, formatVersion);
         }
         if (type == 0 || type == 2) {
+            return new RedoEntry(true, key, null, metaVersion);
+        } else {
+            Object value = vt.read(kv, formatVersion, false); // 新老版本的redo log已经提前读metaVersion
+            return new RedoEntry(false, key, value, metaVersion);
+        }
+    }
+
+    private void redo(StorageMap<Object, Object> map, List<StorageMap<Object, Object>> indexMaps,
+            StorageDataType vt, RedoEntry e, AsyncResultHandler<Object> handler) {
+        if (e == null)
+            return;
+        Object key = e.key;
+        if (e.isRemove) {
             map.remove(key, ar -> {
                 Object result = ar.getResult();
                 if (result != null) {
@@ -247,7 +415,7 @@ public class RedoLog {
                 }
             });
         } else {
-            Object value = vt.read(kv, formatVersion, false); // 新老版本的redo log已经提前读metaVersion
+            Object value = e.value;
             Lockable lockable;
             if (value instanceof Lockable) {
                 lockable = (Lockable) value;
@@ -256,7 +424,7 @@ public class RedoLog {
                 lockable = TransactionalValue.createCommitted(value);
             }
             if (vt.supportsRedo()) {
-                vt.redo(lockable, metaVersion);
+                vt.redo(lockable, e.metaVersion);
             } else {
                 map.put(key, lockable, handler);
                 if (indexMaps != null) {
@@ -270,18 +438,38 @@ public class RedoLog {
         }
     }
 
-    private boolean readMapNames(StorageMap<Object, Object> map, ByteBuffer buff, long transactionId) {
+    private boolean readMapNames(StorageMap<Object, Object> map, ByteBuffer buff, long transactionId,
+            HashMap<Long, Boolean> validated) {
+        Boolean v = validated != null ? validated.get(transactionId) : null;
+        if (v == null)
+            v = validatedTransactions.get(transactionId);
+        if (v != null) {
+            int size = DataUtils.readVarInt(buff);
+            for (int i = 0; i < size; i++) {
+                ValueString.type.read(buff);
+            }
+            return v.booleanValue();
+        }
+        boolean valid = validateMapNames(map, buff, transactionId);
+        if (validated != null)
+            validated.put(transactionId, valid);
+        return valid;
+    }
+
+    private static boolean validateMapNames(StorageMap<Object, Object> map, ByteBuffer buff,
+            long transactionId) {
+        boolean valid = true;
         int size = DataUtils.readVarInt(buff);
         for (int i = 0; i < size; i++) {
             String mapName = ValueString.type.read(buff);
-            if (!map.getName().equalsIgnoreCase(mapName)) {
+            if (valid && !map.getName().equalsIgnoreCase(mapName)) {
                 // 如果事务涉及的多张表中有系统表，恢复时从其他表验证事务的完整性，因为此时其他表还没有加载
                 StorageMap<?, ?> m = map.getStorage().getMap(mapName);
                 if (m != null && !m.validateRedoLog(transactionId))
-                    return false;
+                    valid = false;
             }
         }
-        return true;
+        return valid;
     }
 
     public void save() {
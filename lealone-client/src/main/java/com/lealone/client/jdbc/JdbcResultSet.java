@@ -103,6 +103,8 @@ public class JdbcResultSet extends JdbcWrapper implements ResultSet {
         this.scrollable = stat.isScrollable();
         this.updatable = stat.isUpdatable();
         this.trace = conn.getTrace(TraceObjectType.RESULT_SET, id);
+        if (stat.isPrefetchEnabled() && result instanceof ClientResult)
+            ((ClientResult) result).enablePrefetch();
     }
 
     JdbcResultSet(JdbcPreparedStatement preparedStatement, Result result, int id,
@@ -49,6 +49,7 @@ public class JdbcStatement extends JdbcWrapper implements Statement {
     private Command executingCommand;
     private ArrayList<String> batchCommands;
     private boolean escapeProcessing = true;
+    private boolean prefetch;
 
     JdbcStatement(JdbcConnection conn, int id, int resultSetType, int resultSetConcurrency) {
         this(conn, id, resultSetType, resultSetConcurrency, false);
@@ -115,6 +116,10 @@ public class JdbcStatement extends JdbcWrapper implements Statement {
         return closedByResultSet;
     }
 
+    protected boolean isPrefetchEnabled() {
+        return prefetch && !isScrollable();
+    }
+
     private SQLCommand createSQLCommand(String sql, boolean prepared) throws SQLException {
         checkAndClose();
         sql = JdbcConnection.translateSQL(sql, escapeProcessing);
@@ -741,6 +746,44 @@ public class JdbcStatement extends JdbcWrapper implements Statement {
         }
     }
 
+    /**
+     * Enables or disables prefetching of result sets created by this statement.
+     * If enabled, the request for the next batch of rows (see setFetchSize)
+     * is sent as soon as the current batch arrives, so that the next batch
+     * is on the way while the application processes the current one.
+     * At most one batch is prefetched. Scrollable result sets are never prefetched.
+     *
+     * @param prefetch true to prefetch the next batch
+     * @throws SQLException if this object is closed
+     */
+    public void setPrefetch(boolean prefetch) throws SQLException {
+        try {
+            if (isDebugEnabled()) {
+                debugCode("setPrefetch(" + prefetch + ");");
+            }
+            checkClosed();
+            this.prefetch = prefetch;
+        } catch (Exception e) {
+            throw logAndConvert(e);
+        }
+    }
+
+    /**
+     * Checks whether result sets created by this statement prefetch the next batch of rows.
+     *
+     * @return true if prefetching is enabled
+     * @throws SQLException if this object is closed
+     */
+    public boolean isPrefetch() throws SQLException {
+        try {
+            debugCodeCall("isPrefetch");
+            checkClosed();
+            return prefetch;
+        } catch (Exception e) {
+            throw logAndConvert(e);
+        }
+    }
+
     /**
      * Gets the result set concurrency created by this object.
      *
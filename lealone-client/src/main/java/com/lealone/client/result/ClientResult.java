@@ -11,18 +11,23 @@ import java.util.ArrayList;
 import com.lealone.client.session.ClientSession;
 import com.lealone.common.exceptions.DbException;
 import com.lealone.common.util.Utils;
+import com.lealone.db.Constants;
 import com.lealone.db.SysProperties;
 import com.lealone.db.async.AsyncCallback;
+import com.lealone.db.async.Future;
 import com.lealone.db.result.Result;
 import com.lealone.db.result.ResultColumn;
+import com.lealone.db.scheduler.SchedulerThread;
 import com.lealone.db.value.Value;
 import com.lealone.net.NetInputStream;
 import com.lealone.net.TransferInputStream;
+import com.lealone.server.protocol.AckPacketHandler;
 import com.lealone.server.protocol.result.ResultChangeId;
 import com.lealone.server.protocol.result.ResultClose;
 import com.lealone.server.protocol.result.ResultFetchRows;
 import com.lealone.server.protocol.result.ResultFetchRowsAck;
 import com.lealone.server.protocol.result.ResultReset;
+import com.lealone.server.protocol.result.RowBatch;
 
 /**
  * The client side part of a result set that is kept on the server.
@@ -41,8 +46,14 @@ public abstract class ClientResult implements Result {
     protected final ResultColumn[] columns;
     protected Value[] currentRow;
     protected final int rowCount;
+    protected final boolean columnar; // 为true时后端按列编码每一批记录
     protected int rowId, rowOffset;
     protected ArrayList<Value[]> result;
+    protected int fetchedRowCount; // 已经从后端读到的行数，包括预取的
+    protected boolean isLastBatch; // 为true时当前这一批已经是最后一批，后端没有更多记录了
+
+    private boolean prefetch;
+    private Batch nextBatch; // 预取的下一批，最多只预取一批
 
     public ClientResult(ClientSession session, TransferInputStream in, int resultId, int columnCount,
             int rowCount, int fetchSize) throws IOException {
@@ -51,20 +62,19 @@ public abstract class ClientResult implements Result {
         this.resultId = resultId;
         this.columns = new ResultColumn[columnCount];
         this.rowCount = rowCount;
+        this.columnar = session.getProtocolVersion() >= Constants.TCP_PROTOCOL_VERSION_10;
         for (int i = 0; i < columnCount; i++) {
             columns[i] = ResultColumn.read(in);
         }
         rowId = -1;
         result = Utils.newSmallArrayList();
         this.fetchSize = fetchSize;
-        fetchRows(false);
+        isLastBatch = onRowsFetched(result, readRows(in, getNextFetchSize(), result));
     }
 
     @Override
     public abstract boolean next();
 
-    protected abstract void fetchRows(boolean sendFetch);
-
     @Override
     public String getAlias(int i) {
         return columns[i].alias;
@@ -175,35 +185,135 @@ public abstract class ClientResult implements Result {
         }
     }
 
-    protected abstract void readRows(TransferInputStream in, int fetchSize) throws IOException;
+    protected int getNextFetchSize() {
+        return rowCount < 0 ? fetchSize : Math.min(fetchSize, rowCount - fetchedRowCount);
+    }
+
+    // 只解码一批记录，不修改结果集的状态，预取时会在调度线程中调用，返回true表示读到了结束标记
+    private boolean readRows(TransferInputStream in, int fetchSize, ArrayList<Value[]> rows)
+            throws IOException {
+        boolean isLast = false;
+        if (columnar) {
+            if (fetchSize > 0)
+                isLast = RowBatch.read(in, columns.length, rows);
+        } else {
+            for (int r = 0; r < fetchSize; r++) {
+                if (!in.readBoolean()) {
+                    isLast = true;
+                    break;
+                }
+                int len = columns.length;
+                Value[] values = new Value[len];
+                for (int i = 0; i < len; i++) {
+                    Value v = in.readValue();
+                    values[i] = v;
+                }
+                rows.add(values);
+            }
+        }
+        return isLast;
+    }
+
+    // 在读结果集的线程中调用，返回true表示后端已经没有更多记录了
+    private boolean onRowsFetched(ArrayList<Value[]> rows, boolean isLast) {
+        fetchedRowCount += rows.size();
+        if (rowCount >= 0 && fetchedRowCount >= rowCount)
+            isLast = true;
+        if (isLast)
+            sendClose();
+        return isLast;
+    }
+
+    // 当前这一批取完了，切换到下一批，如果已经预取过了就不用再发请求
+    protected void fetchRows() {
+        Batch batch = nextBatch;
+        nextBatch = null;
+        if (batch == null) {
+            session.checkClosed();
+            batch = sendFetch(getNextFetchSize(), true);
+        }
+        ArrayList<Value[]> rows = batch.get();
+        rowOffset += result.size();
+        result = rows;
+        isLastBatch = onRowsFetched(rows, batch.isLast);
+        prefetchIfNeeded();
+    }
+
+    /**
+     * 打开预取后，每切换到新的一批记录就马上发出取下一批的请求，
+     * 这样调用者处理当前这一批时下一批已经在路上了，不用每一批都干等一个网络来回。
+     * 最多只预取一批，所以客户端最多只占用两批记录的内存。
+     */
+    public void enablePrefetch() {
+        prefetch = true;
+        // 在调度线程中创建的结果集可能会交给外部线程去读，等第一次切换时再预取
+        if (!SchedulerThread.isScheduler())
+            prefetchIfNeeded();
+    }
+
+    private void prefetchIfNeeded() {
+        if (prefetch && nextBatch == null && !isLastBatch && session != null && resultId > 0)
+            nextBatch = sendFetch(getNextFetchSize(), false);
+    }
 
-    protected void fetchAndReadRows(int fetchSize) {
-        AsyncCallback<Void> ac = session.createCallback();
+    private Batch sendFetch(int fetchSize, boolean waitAck) {
+        ClientSession session = this.session;
+        int resultId = this.resultId;
+        AsyncCallback<ArrayList<Value[]>> ac = session.createCallback();
+        Batch batch = new Batch(session, ac);
         session.execute(false, ac, () -> {
-            // 在调度线程中运行，总是线程安全的
-            // 让客户端的调度线程负责从输入流中读取结果集
-            session.<Void, ResultFetchRowsAck> send(new ResultFetchRows(resultId, fetchSize), ack -> {
-                TransferInputStream in = (TransferInputStream) ack.in;
+            // 在调度线程中运行，只负责从输入流中解码记录，
+            // fetchedRowCount、session和resultId这些状态留给读结果集的线程在fetchRows中修改
+            ResultFetchRows packet = new ResultFetchRows(resultId, fetchSize);
+            AckPacketHandler<Void, ResultFetchRowsAck> handler = ack -> {
+                ArrayList<Value[]> rows = Utils.newSmallArrayList();
                 try {
-                    readRows(in, fetchSize);
-                    ac.setAsyncResult((Void) null);
+                    batch.isLast = readRows((TransferInputStream) ack.in, fetchSize, rows);
+                    ac.setAsyncResult(rows);
                 } catch (Throwable t) {
                     ac.setAsyncResult(t);
                 }
                 return null;
-            });
+            };
+            Future<Void> f;
+            if (waitAck)
+                f = session.send(packet, handler);
+            else
+                f = session.sendWithoutWaiting(packet, handler);
+            // 后端返回错误时不会调用handler
+            f.onFailure(t -> ac.setAsyncResult(t));
         });
-        ac.get();
+        return batch;
+    }
+
+    // 一次RESULT_FETCH_ROWS请求取回的一批记录，
+    // 读完最后一批时会调用sendClose把session设为null，所以要单独记下发请求的session
+    private static class Batch {
+
+        private final ClientSession session;
+        private final AsyncCallback<ArrayList<Value[]>> ac;
+        private volatile boolean isLast;
+
+        Batch(ClientSession session, AsyncCallback<ArrayList<Value[]>> ac) {
+            this.session = session;
+            this.ac = ac;
+        }
+
+        ArrayList<Value[]> get() {
+            return session.await(ac);
+        }
     }
 
     @Override
     public void close() {
         result = null;
+        nextBatch = null;
         sendClose();
     }
 
     protected void remapIfOld() {
-        if (session == null) {
+        // 预取的请求用的还是旧的id，等它的响应读完后再换
+        if (session == null || nextBatch != null) {
             return;
         }
         try {
@@ -253,7 +363,7 @@ public abstract class ClientResult implements Result {
                 remapIfOld();
                 if (rowId < rowCount) {
                     if (rowId - rowOffset >= result.size()) {
-                        fetchRows(true);
+                        fetchRows();
                     }
                     currentRow = result.get(rowId - rowOffset);
                     return true;
@@ -262,50 +372,10 @@ public abstract class ClientResult implements Result {
             }
             return false;
         }
-
-        @Override
-        protected void fetchRows(boolean sendFetch) {
-            session.checkClosed();
-            try {
-                rowOffset += result.size();
-                result.clear();
-                int fetch = Math.min(fetchSize, rowCount - rowOffset);
-                if (sendFetch) {
-                    fetchAndReadRows(fetch);
-                } else {
-                    readRows(in, fetch);
-                }
-            } catch (IOException e) {
-                throw DbException.convertIOException(e, null);
-            }
-        }
-
-        @Override
-        protected void readRows(TransferInputStream in, int fetchSize) throws IOException {
-            for (int r = 0; r < fetchSize; r++) {
-                if (!in.readBoolean()) {
-                    break;
-                }
-                int len = columns.length;
-                Value[] values = new Value[len];
-                for (int i = 0; i < len; i++) {
-                    Value v = in.readValue();
-                    values[i] = v;
-                }
-                result.add(values);
-            }
-            if (rowOffset + result.size() >= rowCount) {
-                sendClose();
-            }
-        }
     }
 
     private static class RowCountUndetermined extends ClientResult {
 
-        // 不能在这初始化为false，在super的构造函数中会调用fetchRows有可能把isEnd设为true了，
-        // 如果初始化为false，相当于在调用完super(...)后再执行isEnd = false，这时前面的值就被覆盖了。
-        private boolean isEnd;
-
         public RowCountUndetermined(ClientSession session, TransferInputStream in, int resultId,
                 int columnCount, int fetchSize) throws IOException {
             super(session, in, resultId, columnCount, -1, fetchSize);
@@ -313,17 +383,17 @@ public abstract class ClientResult implements Result {
 
         @Override
         public boolean next() {
-            if (isEnd && rowId - rowOffset >= result.size() - 1) {
+            if (isLastBatch && rowId - rowOffset >= result.size() - 1) {
                 currentRow = null;
                 return false;
             }
 
             rowId++;
-            if (!isEnd) {
+            if (!isLastBatch) {
                 remapIfOld();
                 if (rowId - rowOffset >= result.size()) {
-                    fetchRows(true);
-                    if (isEnd && result.isEmpty()) {
+                    fetchRows();
+                    if (isLastBatch && result.isEmpty()) {
                         currentRow = null;
                         return false;
                     }
@@ -338,41 +408,6 @@ public abstract class ClientResult implements Result {
         public int getRowCount() {
             return Integer.MAX_VALUE; // 不能返回-1，JdbcResultSet那边会抛异常
         }
-
-        @Override
-        protected void fetchRows(boolean sendFetch) {
-            session.checkClosed();
-            try {
-                rowOffset += result.size();
-                result.clear();
-                if (sendFetch) {
-                    fetchAndReadRows(fetchSize);
-                } else {
-                    readRows(in, fetchSize);
-                }
-            } catch (IOException e) {
-                throw DbException.convertIOException(e, null);
-            }
-        }
-
-        @Override
-        protected void readRows(TransferInputStream in, int fetchSize) throws IOException {
-            for (int r = 0; r < fetchSize; r++) {
-                if (!in.readBoolean()) {
-                    isEnd = true;
-                    break;
-                }
-                int len = columns.length;
-                Value[] values = new Value[len];
-                for (int i = 0; i < len; i++) {
-                    Value v = in.readValue();
-                    values[i] = v;
-                }
-                result.add(values);
-            }
-            if (isEnd)
-                sendClose();
-        }
     }
 
     public static ClientResult create(ClientSession session, NetInputStream nin, int resultId,
@@ -380,7 +415,8 @@ public abstract class ClientResult implements Result {
         try {
             TransferInputStream in = (TransferInputStream) nin;
             in.setSession(session);
-            if (rowCount <= 0)
+            // 行数为-1时是流式结果集，后端还缓存着它
+            if (rowCount == 0)
                 resultId = -1;
             if (rowCount < 0)
                 return new RowCountUndetermined(session, in, resultId, columnCount, fetchSize);
@@ -294,6 +294,18 @@ public class ClientSession extends SessionBase implements LobLocalStorage.LobRea
     @Override
     public <R, P extends AckPacket> Future<R> send(Packet packet, int packetId,
             AckPacketHandler<R, P> ackPacketHandler) {
+        return send(packet, packetId, ackPacketHandler, true);
+    }
+
+    // 阻塞IO模式下只发请求不读响应，响应留到await或者下一次同步发请求时再读，
+    // 这样等响应的时间就能跟调用者的其他工作重叠，比如预取结果集的下一批记录
+    public <R, P extends AckPacket> Future<R> sendWithoutWaiting(Packet packet,
+            AckPacketHandler<R, P> ackPacketHandler) {
+        return send(packet, getNextId(), ackPacketHandler, false);
+    }
+
+    private <R, P extends AckPacket> Future<R> send(Packet packet, int packetId,
+            AckPacketHandler<R, P> ackPacketHandler, boolean waitAck) {
         if (DbException.ASSERT) {
             DbException.assertTrue(isBio() || getScheduler() == SchedulerThread.currentScheduler());
         }
@@ -309,8 +321,8 @@ public class ClientSession extends SessionBase implements LobLocalStorage.LobRea
             out.writeRequestHeader(this, packetId, packet.getType());
             packet.encode(out, getProtocolVersion());
             out.flush();
-            if (ac != null && isBio)
-                tcpConnection.getWritableChannel().read();
+            if (ac != null && isBio && waitAck)
+                readAck(ac);
         } catch (Throwable e) {
             if (ac != null) {
                 removeAsyncCallback(packetId);
@@ -322,6 +334,21 @@ public class ClientSession extends SessionBase implements LobLocalStorage.LobRea
         return ac;
     }
 
+    // 前面可能还有没等响应的请求，响应是按请求的顺序返回的，所以要一直读到当前请求的响应为止
+    private void readAck(AsyncCallback<?> ac) {
+        WritableChannel wc = tcpConnection.getWritableChannel();
+        do {
+            wc.read();
+        } while (ac.getAsyncResult() == null && !wc.isClosed());
+    }
+
+    // 阻塞IO模式下由调用者自己读sendWithoutWaiting发出的请求的响应
+    public <T> T await(AsyncCallback<T> ac) {
+        if (isBio() && ac.getAsyncResult() == null && !SchedulerThread.isScheduler())
+            readAck(ac);
+        return ac.get();
+    }
+
     // 外部插件会用到，所以独立出一个public方法
     public void removeAsyncCallback(int packetId) {
         tcpConnection.removeAsyncCallback(packetId);
@@ -377,6 +404,9 @@ public class ClientSession extends SessionBase implements LobLocalStorage.LobRea
             return;
         try {
             WritableChannel wc = tcpConnection.getWritableChannel();
+            // 切换前先在当前线程把没等响应的请求的响应读完，切换后这些请求的调用者就等不到响应了
+            while (tcpConnection.hasAsyncCallbacks() && !wc.isClosed())
+                wc.read();
             wc.getSocketChannel().configureBlocking(false);
             Scheduler scheduler = getScheduler();
             if (scheduler == null) {
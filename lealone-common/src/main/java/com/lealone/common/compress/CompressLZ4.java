@@ -0,0 +1,180 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.common.compress;
+
+import java.util.Arrays;
+
+import com.lealone.common.exceptions.DbException;
+import com.lealone.db.api.ErrorCode;
+
+/**
+ * 纯Java实现的LZ4 block格式压缩算法，压缩率比LZF好一些，解压缩非常快，适合在读page时使用。
+ * <p>
+ * 每个sequence由一个token字节开始，高4位是literal的长度，低4位是match的长度减4，
+ * 长度为15时后面再跟多个字节，每个字节是255时继续累加；
+ * literal之后是2个字节的offset(little endian)，最后一个sequence只有literal。
+ * <p>
+ * 跟CompressLZF一样，每个实例只能被一个线程使用。
+ */
+public class CompressLZ4 implements Compressor {
+
+    private static final int MIN_MATCH = 4;
+    // 最后5个字节必须是literal，最后一个match至少要在结尾前12个字节开始
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 12;
+    private static final int HASH_SIZE = 1 << HASH_LOG;
+
+    private int[] cachedHashTable;
+
+    @Override
+    public int getAlgorithm() {
+        return Compressor.LZ4;
+    }
+
+    @Override
+    public void setOptions(String options) {
+        // nothing to do
+    }
+
+    private static int readInt(byte[] in, int pos) {
+        return (in[pos] << 24) | ((in[pos + 1] & 255) << 16) | ((in[pos + 2] & 255) << 8)
+                | (in[pos + 3] & 255);
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    @Override
+    public int compress(byte[] in, int inLen, byte[] out, int outPos) {
+        int anchor = 0;
+        if (inLen > MF_LIMIT) {
+            int[] hashTable = cachedHashTable;
+            if (hashTable == null)
+                hashTable = cachedHashTable = new int[HASH_SIZE];
+            Arrays.fill(hashTable, -1);
+            int limit = inLen - MF_LIMIT;
+            int matchLimit = inLen - LAST_LITERALS;
+            int ip = 0;
+            while (ip < limit) {
+                int sequence = readInt(in, ip);
+                int h = hash(sequence);
+                int ref = hashTable[h];
+                hashTable[h] = ip;
+                if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(in, ref) != sequence) {
+                    ip++;
+                    continue;
+                }
+                // 往前扩展
+                while (ip > anchor && ref > 0 && in[ip - 1] == in[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                // 往后扩展
+                int len = MIN_MATCH;
+                while (ip + len < matchLimit && in[ip + len] == in[ref + len]) {
+                    len++;
+                }
+                outPos = writeSequence(in, anchor, ip - anchor, ip - ref, len, out, outPos);
+                ip += len;
+                anchor = ip;
+                if (ip - 2 < limit)
+                    hashTable[hash(readInt(in, ip - 2))] = ip - 2;
+            }
+        }
+        // 最后一个sequence只有literal
+        return writeSequence(in, anchor, inLen - anchor, 0, 0, out, outPos);
+    }
+
+    private static int writeSequence(byte[] in, int literalStart, int literalLen, int offset,
+            int matchLen, byte[] out, int outPos) {
+        int tokenPos = outPos++;
+        int token;
+        if (literalLen >= 15) {
+            token = 15 << 4;
+            outPos = writeLength(literalLen - 15, out, outPos);
+        } else {
+            token = literalLen << 4;
+        }
+        System.arraycopy(in, literalStart, out, outPos, literalLen);
+        outPos += literalLen;
+        if (matchLen > 0) {
+            out[outPos++] = (byte) offset;
+            out[outPos++] = (byte) (offset >>> 8);
+            int len = matchLen - MIN_MATCH;
+            if (len >= 15) {
+                token |= 15;
+                outPos = writeLength(len - 15, out, outPos);
+            } else {
+                token |= len;
+            }
+        }
+        out[tokenPos] = (byte) token;
+        return outPos;
+    }
+
+    private static int writeLength(int len, byte[] out, int outPos) {
+        while (len >= 255) {
+            out[outPos++] = (byte) 255;
+            len -= 255;
+        }
+        out[outPos++] = (byte) len;
+        return outPos;
+    }
+
+    @Override
+    public void expand(byte[] in, int inPos, int inLen, byte[] out, int outPos, int outLen) {
+        int ip = inPos;
+        int inEnd = inPos + inLen;
+        int op = outPos;
+        try {
+            while (true) {
+                int token = in[ip++] & 255;
+                int literalLen = token >>> 4;
+                if (literalLen == 15) {
+                    int b;
+                    do {
+                        b = in[ip++] & 255;
+                        literalLen += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(in, ip, out, op, literalLen);
+                ip += literalLen;
+                op += literalLen;
+                if (ip >= inEnd)
+                    break;
+                int offset = (in[ip++] & 255) | ((in[ip++] & 255) << 8);
+                int matchLen = token & 15;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        b = in[ip++] & 255;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+                int ref = op - offset;
+                if (offset >= matchLen) {
+                    System.arraycopy(out, ref, out, op, matchLen);
+                    op += matchLen;
+                } else {
+                    // 重叠的match只能逐个字节复制
+                    for (int i = 0; i < matchLen; i++) {
+                        out[op++] = out[ref++];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw DbException.get(ErrorCode.COMPRESSION_ERROR, e);
+        }
+        if (op != outPos + outLen) {
+            throw DbException.get(ErrorCode.COMPRESSION_ERROR,
+                    new IllegalStateException(op - outPos + " " + outLen));
+        }
+    }
+}
@@ -8,6 +8,8 @@ package com.lealone.common.compress;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -28,6 +30,18 @@ import com.lealone.db.api.ErrorCode;
 public class CompressTool {
 
     private static final int MAX_BUFFER_SIZE = 3 * Constants.IO_BUFFER_SIZE_COMPRESS;
+
+    @SuppressWarnings("unchecked")
+    private static final Supplier<Compressor>[] compressors = new Supplier[Compressor.MAX_ALGORITHM + 1];
+    private static final ConcurrentHashMap<String, Integer> algorithms = new ConcurrentHashMap<>();
+
+    static {
+        register("NO", Compressor.NO, CompressNo::new);
+        register("LZF", Compressor.LZF, CompressLZF::new);
+        register("DEFLATE", Compressor.DEFLATE, CompressDeflate::new);
+        register("LZ4", Compressor.LZ4, CompressLZ4::new);
+    }
+
     private byte[] cachedBuffer;
 
     private CompressTool() {
@@ -218,7 +232,14 @@ public class CompressTool {
         }
     }
 
-    private static Compressor getCompressor(String algorithm) {
+    /**
+     * Create a new compressor instance, the algorithm may be followed by the options,
+     * for example "DEFLATE level 9".
+     *
+     * @param algorithm the algorithm name and options
+     * @return the compressor
+     */
+    public static Compressor getCompressor(String algorithm) {
         if (algorithm == null) {
             algorithm = "LZF";
         }
@@ -238,34 +259,46 @@ public class CompressTool {
      * INTERNAL
      */
     public static int getCompressAlgorithm(String algorithm) {
-        algorithm = StringUtils.toUpperEnglish(algorithm);
-        if ("NO".equals(algorithm)) {
-            return Compressor.NO;
-        } else if ("LZF".equals(algorithm)) {
-            return Compressor.LZF;
-        } else if ("DEFLATE".equals(algorithm)) {
-            return Compressor.DEFLATE;
-        } else {
+        Integer a = algorithms.get(StringUtils.toUpperEnglish(algorithm));
+        if (a == null) {
             throw DbException.get(ErrorCode.UNSUPPORTED_COMPRESSION_ALGORITHM_1, algorithm);
         }
+        return a.intValue();
     }
 
-    private static Compressor getCompressor(int algorithm) {
-        switch (algorithm) {
-        case Compressor.NO:
-            return new CompressNo();
-        case Compressor.LZF:
-            return new CompressLZF();
-        case Compressor.DEFLATE:
-            return new CompressDeflate();
-        default:
+    /**
+     * Create a new compressor instance for the given algorithm.
+     *
+     * @param algorithm the algorithm id
+     * @return the compressor
+     */
+    public static Compressor getCompressor(int algorithm) {
+        Supplier<Compressor> factory = algorithm >= 0 && algorithm <= Compressor.MAX_ALGORITHM
+                ? compressors[algorithm]
+                : null;
+        if (factory == null) {
             throw DbException.get(ErrorCode.UNSUPPORTED_COMPRESSION_ALGORITHM_1, "" + algorithm);
         }
+        return factory.get();
     }
 
     /**
-     * INTERNAL
+     * Register a compression algorithm.
+     * The id is stored together with the compressed data, so it must never change.
+     *
+     * @param name the algorithm name
+     * @param algorithm the algorithm id (0..15)
+     * @param factory creates a new compressor instance
      */
+    public static synchronized void register(String name, int algorithm,
+            Supplier<Compressor> factory) {
+        if (algorithm < 0 || algorithm > Compressor.MAX_ALGORITHM) {
+            throw DbException.getInvalidValueException("algorithm", algorithm);
+        }
+        compressors[algorithm] = factory;
+        algorithms.put(StringUtils.toUpperEnglish(name), algorithm);
+    }
+
     public static OutputStream wrapOutputStream(OutputStream out, String compressionAlgorithm,
             String entryName) {
         try {
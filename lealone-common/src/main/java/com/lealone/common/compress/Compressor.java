@@ -25,6 +25,16 @@ public interface Compressor {
      */
     int DEFLATE = 2;
 
+    /**
+     * The LZ4 compression algorithm is used.
+     */
+    int LZ4 = 3;
+
+    /**
+     * The max algorithm id, the id must fit into 4 bits when it is stored in the page header.
+     */
+    int MAX_ALGORITHM = 15;
+
     /**
      * Get the compression algorithm type.
      *
@@ -70,6 +70,16 @@ public class Constants {
      */
     public static final int TCP_PROTOCOL_VERSION_8 = 8;
 
+    /**
+     * The TCP protocol version number 9.
+     */
+    public static final int TCP_PROTOCOL_VERSION_9 = 9;
+
+    /**
+     * The TCP protocol version number 10.
+     */
+    public static final int TCP_PROTOCOL_VERSION_10 = 10;
+
     /**
      * The min TCP protocol version number.
      */
@@ -78,12 +88,12 @@ public class Constants {
     /**
      * The max TCP protocol version number.
      */
-    public static final int TCP_PROTOCOL_VERSION_MAX = TCP_PROTOCOL_VERSION_8;
+    public static final int TCP_PROTOCOL_VERSION_MAX = TCP_PROTOCOL_VERSION_10;
 
     /**
      * The current TCP protocol version number.
      */
-    public static final int TCP_PROTOCOL_VERSION_CURRENT = TCP_PROTOCOL_VERSION_8;
+    public static final int TCP_PROTOCOL_VERSION_CURRENT = TCP_PROTOCOL_VERSION_10;
 
     /**
      * Constant meaning both numbers and text is allowed in SQL statements.
@@ -32,6 +32,7 @@ public enum DbSetting {
     OPTIMIZE_OR,
     OPTIMIZE_TWO_EQUALS,
     QUERY_CACHE_SIZE,
+    SHARED_QUERY_CACHE_SIZE,
     RECOMPILE_ALWAYS,
     ROWID,
     DEFAULT_STORAGE_ENGINE,
@@ -6,8 +6,10 @@
 package com.lealone.server.protocol.result;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 import com.lealone.common.exceptions.DbException;
+import com.lealone.db.Constants;
 import com.lealone.db.result.Result;
 import com.lealone.db.value.Value;
 import com.lealone.net.NetInputStream;
@@ -41,7 +43,7 @@ public class ResultFetchRowsAck implements AckPacket {
 
     @Override
     public void encode(NetOutputStream out, int version) throws IOException {
-        writeRow(out, result, count);
+        writeRow(out, result, count, version);
     }
 
     public static final Decoder decoder = new Decoder();
@@ -53,6 +55,37 @@ public class ResultFetchRowsAck implements AckPacket {
         }
     }
 
+    public static void writeRow(NetOutputStream out, Result result, int count, int version)
+            throws IOException {
+        // 跟按行编码一样，一行都不取时什么都不写，比如只返回列信息的结果集
+        if (version < Constants.TCP_PROTOCOL_VERSION_10 || count <= 0) {
+            writeRow(out, result, count);
+            return;
+        }
+        // 先把这一批记录取出来再按列编码
+        int visibleColumnCount = result.getVisibleColumnCount();
+        ArrayList<Value[]> rows = new ArrayList<>(Math.min(count, 1024));
+        boolean isLast = false;
+        Throwable error = null;
+        try {
+            for (int i = 0; i < count; i++) {
+                if (result.next()) {
+                    rows.add(result.currentRow());
+                } else {
+                    isLast = true;
+                    break;
+                }
+            }
+        } catch (Throwable e) {
+            // 跟按行编码一样，先把已经取出来的记录作为最后一批发出去，后面再跟一个异常包
+            error = e;
+            isLast = true;
+        }
+        RowBatch.write(out, rows, visibleColumnCount, isLast);
+        if (error != null)
+            throw DbException.convert(error);
+    }
+
     public static void writeRow(NetOutputStream out, Result result, int count) throws IOException {
         try {
             int visibleColumnCount = result.getVisibleColumnCount();
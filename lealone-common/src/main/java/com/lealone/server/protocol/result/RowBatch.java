@@ -0,0 +1,445 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.server.protocol.result;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.lealone.common.compress.CompressLZF;
+import com.lealone.common.exceptions.DbException;
+import com.lealone.common.util.DataUtils;
+import com.lealone.db.DataBuffer;
+import com.lealone.db.api.ErrorCode;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueBoolean;
+import com.lealone.db.value.ValueByte;
+import com.lealone.db.value.ValueBytes;
+import com.lealone.db.value.ValueDate;
+import com.lealone.db.value.ValueDecimal;
+import com.lealone.db.value.ValueDouble;
+import com.lealone.db.value.ValueFloat;
+import com.lealone.db.value.ValueInt;
+import com.lealone.db.value.ValueLong;
+import com.lealone.db.value.ValueNull;
+import com.lealone.db.value.ValueShort;
+import com.lealone.db.value.ValueString;
+import com.lealone.db.value.ValueStringFixed;
+import com.lealone.db.value.ValueStringIgnoreCase;
+import com.lealone.db.value.ValueTime;
+import com.lealone.db.value.ValueTimestamp;
+import com.lealone.db.value.ValueUuid;
+import com.lealone.net.NetInputStream;
+import com.lealone.net.NetOutputStream;
+
+/**
+ * 从TCP_PROTOCOL_VERSION_10开始，结果集的一批记录按列编码。
+ * <p>
+ * 每一列只写一次类型，接着是null位图，然后只写非null的值：
+ * 整数、日期和时间按跟前一个值的差做zigzag变长编码，重复多的字符串用字典编码，
+ * 整批编码后够大时再用LZF压缩一次。
+ * 有LOB、数组这类复杂类型的值或者同一列的值类型不一样时还是按行编码。
+ *
+ * @author zhh
+ */
+public class RowBatch {
+
+    private static final int ROW_FORMAT = 0;
+    private static final int COLUMN_FORMAT = 1;
+    private static final int COMPRESSED_COLUMN_FORMAT = 2;
+
+    private static final byte ALL_NULL = 0;
+    private static final byte PLAIN = 1;
+    private static final byte DICTIONARY = 2;
+
+    // 按列编码后小于这个字节数就不压缩了
+    private static final int COMPRESS_MIN_LENGTH = 1024;
+
+    private static final ThreadLocal<CompressLZF> compressor = ThreadLocal
+            .withInitial(CompressLZF::new);
+
+    private RowBatch() {
+    }
+
+    public static void write(NetOutputStream out, ArrayList<Value[]> rows, int columnCount,
+            boolean isLast) throws IOException {
+        DataBuffer buff = rows.isEmpty() ? null : encode(rows, columnCount);
+        if (buff == null) {
+            out.writeInt(ROW_FORMAT);
+            out.writeInt(rows.size());
+            out.writeBoolean(isLast);
+            for (Value[] row : rows) {
+                for (int j = 0; j < columnCount; j++) {
+                    out.writeValue(row[j]);
+                }
+            }
+            return;
+        }
+        int len = buff.length();
+        byte[] data = buff.getBytes();
+        if (len >= COMPRESS_MIN_LENGTH) {
+            byte[] compressed = new byte[len * 2];
+            int compressedLen = compressor.get().compress(data, len, compressed, 0);
+            if (compressedLen < len) {
+                out.writeInt(COMPRESSED_COLUMN_FORMAT);
+                out.writeInt(rows.size());
+                out.writeBoolean(isLast);
+                out.writeInt(len);
+                out.writeByteBuffer(ByteBuffer.wrap(compressed, 0, compressedLen));
+                return;
+            }
+        }
+        out.writeInt(COLUMN_FORMAT);
+        out.writeInt(rows.size());
+        out.writeBoolean(isLast);
+        out.writeByteBuffer(ByteBuffer.wrap(data, 0, len));
+    }
+
+    /**
+     * 读一批记录放到rows中
+     *
+     * @return 为true时这是最后一批
+     */
+    public static boolean read(NetInputStream in, int columnCount, ArrayList<Value[]> rows)
+            throws IOException {
+        int format = in.readInt();
+        int rowCount = in.readInt();
+        boolean isLast = in.readBoolean();
+        if (format == ROW_FORMAT) {
+            for (int r = 0; r < rowCount; r++) {
+                Value[] values = new Value[columnCount];
+                for (int j = 0; j < columnCount; j++) {
+                    values[j] = in.readValue();
+                }
+                rows.add(values);
+            }
+            return isLast;
+        }
+        ByteBuffer buff;
+        if (format == COMPRESSED_COLUMN_FORMAT) {
+            int len = in.readInt();
+            buff = ByteBuffer.allocate(len);
+            CompressLZF.expand(in.readByteBuffer(), buff);
+            buff.flip();
+        } else if (format == COLUMN_FORMAT) {
+            buff = in.readByteBuffer();
+        } else {
+            throw DbException.get(ErrorCode.CONNECTION_BROKEN_1, "format=" + format);
+        }
+        Value[][] values = new Value[rowCount][columnCount];
+        for (int j = 0; j < columnCount; j++) {
+            decodeColumn(buff, values, j);
+        }
+        for (int r = 0; r < rowCount; r++) {
+            rows.add(values[r]);
+        }
+        return isLast;
+    }
+
+    private static DataBuffer encode(ArrayList<Value[]> rows, int columnCount) {
+        DataBuffer buff = DataBuffer.createHeap();
+        for (int j = 0; j < columnCount; j++) {
+            int type = getColumnType(rows, j);
+            if (type < 0)
+                return null;
+            if (type == Value.NULL) {
+                buff.put(ALL_NULL);
+                continue;
+            }
+            HashMap<String, Integer> dictionary = null;
+            if (isString(type))
+                dictionary = createDictionary(rows, j);
+            buff.put(dictionary != null ? DICTIONARY : PLAIN);
+            buff.putVarInt(type);
+            writeNullBitmap(buff, rows, j);
+            if (dictionary != null)
+                writeDictionary(buff, rows, j, dictionary);
+            else
+                writeValues(buff, rows, j, type);
+        }
+        return buff;
+    }
+
+    // 返回-1表示这一列不能按列编码
+    private static int getColumnType(ArrayList<Value[]> rows, int column) {
+        int columnType = Value.NULL;
+        for (Value[] row : rows) {
+            int type = row[column].getType();
+            if (type == Value.NULL)
+                continue;
+            if (columnType == Value.NULL) {
+                if (!isSupported(type))
+                    return -1;
+                columnType = type;
+            } else if (type != columnType) {
+                return -1;
+            }
+        }
+        return columnType;
+    }
+
+    private static boolean isSupported(int type) {
+        switch (type) {
+        case Value.BOOLEAN:
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+        case Value.DATE:
+        case Value.TIME:
+        case Value.TIMESTAMP:
+        case Value.DOUBLE:
+        case Value.FLOAT:
+        case Value.DECIMAL:
+        case Value.UUID:
+        case Value.BYTES:
+            return true;
+        default:
+            return isString(type);
+        }
+    }
+
+    private static boolean isString(int type) {
+        return type == Value.STRING || type == Value.STRING_IGNORECASE || type == Value.STRING_FIXED;
+    }
+
+    // 不同的字符串不超过非null值的一半时才用字典编码
+    private static HashMap<String, Integer> createDictionary(ArrayList<Value[]> rows, int column) {
+        int count = 0;
+        for (Value[] row : rows) {
+            if (!isNull(row[column]))
+                count++;
+        }
+        int maxSize = count / 2;
+        HashMap<String, Integer> dictionary = new HashMap<>();
+        for (Value[] row : rows) {
+            Value v = row[column];
+            if (isNull(v))
+                continue;
+            String s = v.getString();
+            if (!dictionary.containsKey(s)) {
+                if (dictionary.size() >= maxSize)
+                    return null;
+                dictionary.put(s, dictionary.size());
+            }
+        }
+        return dictionary;
+    }
+
+    private static void writeNullBitmap(DataBuffer buff, ArrayList<Value[]> rows, int column) {
+        int size = rows.size();
+        for (int i = 0; i < size; i += 8) {
+            int bits = 0;
+            for (int k = 0; k < 8 && i + k < size; k++) {
+                if (isNull(rows.get(i + k)[column]))
+                    bits |= 1 << k;
+            }
+            buff.put((byte) bits);
+        }
+    }
+
+    private static void writeDictionary(DataBuffer buff, ArrayList<Value[]> rows, int column,
+            HashMap<String, Integer> dictionary) {
+        String[] strings = new String[dictionary.size()];
+        for (Map.Entry<String, Integer> e : dictionary.entrySet())
+            strings[e.getValue()] = e.getKey();
+        buff.putVarInt(strings.length);
+        for (String s : strings)
+            writeString(buff, s);
+        for (Value[] row : rows) {
+            Value v = row[column];
+            if (!isNull(v))
+                buff.putVarInt(dictionary.get(v.getString()));
+        }
+    }
+
+    private static void writeValues(DataBuffer buff, ArrayList<Value[]> rows, int column, int type) {
+        long last = 0;
+        for (Value[] row : rows) {
+            Value v = row[column];
+            if (isNull(v))
+                continue;
+            switch (type) {
+            case Value.BOOLEAN:
+                buff.put((byte) (v.getBoolean() ? 1 : 0));
+                break;
+            case Value.BYTE:
+            case Value.SHORT:
+            case Value.INT:
+            case Value.LONG:
+            case Value.DATE:
+            case Value.TIME: {
+                long x = toLong(v, type);
+                buff.putVarLong(zigzag(x - last));
+                last = x;
+                break;
+            }
+            case Value.TIMESTAMP: {
+                ValueTimestamp ts = (ValueTimestamp) v;
+                long x = ts.getDateValue();
+                buff.putVarLong(zigzag(x - last));
+                buff.putVarLong(zigzag(ts.getNanos()));
+                last = x;
+                break;
+            }
+            case Value.DOUBLE:
+                buff.putDouble(v.getDouble());
+                break;
+            case Value.FLOAT:
+                buff.putFloat(v.getFloat());
+                break;
+            case Value.UUID: {
+                ValueUuid uuid = (ValueUuid) v;
+                buff.putLong(uuid.getHigh());
+                buff.putLong(uuid.getLow());
+                break;
+            }
+            case Value.BYTES: {
+                byte[] bytes = v.getBytesNoCopy();
+                buff.putVarInt(bytes.length);
+                buff.put(bytes);
+                break;
+            }
+            default: // DECIMAL和字符串
+                writeString(buff, v.getString());
+            }
+        }
+    }
+
+    private static long toLong(Value v, int type) {
+        switch (type) {
+        case Value.DATE:
+            return ((ValueDate) v).getDateValue();
+        case Value.TIME:
+            return ((ValueTime) v).getNanos();
+        default:
+            return v.getLong();
+        }
+    }
+
+    private static void decodeColumn(ByteBuffer buff, Value[][] values, int column) {
+        int rowCount = values.length;
+        byte encoding = buff.get();
+        if (encoding == ALL_NULL) {
+            for (int r = 0; r < rowCount; r++)
+                values[r][column] = ValueNull.INSTANCE;
+            return;
+        }
+        int type = DataUtils.readVarInt(buff);
+        byte[] nullBitmap = new byte[(rowCount + 7) / 8];
+        buff.get(nullBitmap);
+        Value[] dictionary = null;
+        if (encoding == DICTIONARY) {
+            dictionary = new Value[DataUtils.readVarInt(buff)];
+            for (int i = 0; i < dictionary.length; i++)
+                dictionary[i] = toString(readString(buff), type);
+        }
+        long last = 0;
+        for (int r = 0; r < rowCount; r++) {
+            if ((nullBitmap[r >> 3] & (1 << (r & 7))) != 0) {
+                values[r][column] = ValueNull.INSTANCE;
+                continue;
+            }
+            Value v;
+            if (dictionary != null) {
+                v = dictionary[DataUtils.readVarInt(buff)];
+            } else {
+                switch (type) {
+                case Value.BOOLEAN:
+                    v = ValueBoolean.get(buff.get() != 0);
+                    break;
+                case Value.BYTE:
+                case Value.SHORT:
+                case Value.INT:
+                case Value.LONG:
+                case Value.DATE:
+                case Value.TIME:
+                    last += unzigzag(DataUtils.readVarLong(buff));
+                    v = fromLong(last, type);
+                    break;
+                case Value.TIMESTAMP:
+                    last += unzigzag(DataUtils.readVarLong(buff));
+                    v = ValueTimestamp.fromDateValueAndNanos(last,
+                            unzigzag(DataUtils.readVarLong(buff)));
+                    break;
+                case Value.DOUBLE:
+                    v = ValueDouble.get(buff.getDouble());
+                    break;
+                case Value.FLOAT:
+                    v = ValueFloat.get(buff.getFloat());
+                    break;
+                case Value.UUID:
+                    v = ValueUuid.get(buff.getLong(), buff.getLong());
+                    break;
+                case Value.BYTES: {
+                    byte[] bytes = new byte[DataUtils.readVarInt(buff)];
+                    buff.get(bytes);
+                    v = ValueBytes.getNoCopy(bytes);
+                    break;
+                }
+                case Value.DECIMAL:
+                    v = ValueDecimal.get(new BigDecimal(readString(buff)));
+                    break;
+                default:
+                    v = toString(readString(buff), type);
+                }
+            }
+            values[r][column] = v;
+        }
+    }
+
+    private static Value fromLong(long x, int type) {
+        switch (type) {
+        case Value.BYTE:
+            return ValueByte.get((byte) x);
+        case Value.SHORT:
+            return ValueShort.get((short) x);
+        case Value.INT:
+            return ValueInt.get((int) x);
+        case Value.DATE:
+            return ValueDate.fromDateValue(x);
+        case Value.TIME:
+            return ValueTime.fromNanos(x);
+        default:
+            return ValueLong.get(x);
+        }
+    }
+
+    private static Value toString(String s, int type) {
+        switch (type) {
+        case Value.STRING_IGNORECASE:
+            return ValueStringIgnoreCase.get(s);
+        case Value.STRING_FIXED:
+            return ValueStringFixed.get(s);
+        default:
+            return ValueString.get(s);
+        }
+    }
+
+    private static void writeString(DataBuffer buff, String s) {
+        int len = s.length();
+        buff.putVarInt(len).putStringData(s, len);
+    }
+
+    private static String readString(ByteBuffer buff) {
+        return DataUtils.readString(buff, DataUtils.readVarInt(buff));
+    }
+
+    private static boolean isNull(Value v) {
+        return v.getType() == Value.NULL;
+    }
+
+    private static long zigzag(long x) {
+        return (x << 1) ^ (x >> 63);
+    }
+
+    private static long unzigzag(long x) {
+        return (x >>> 1) ^ -(x & 1);
+    }
+}
@@ -59,7 +59,7 @@ public class StatementQueryAck implements AckPacket {
         for (int i = 0; i < columnCount; i++) {
             ResultColumn.write(out, result, i);
         }
-        ResultFetchRowsAck.writeRow(out, result, fetchSize);
+        ResultFetchRowsAck.writeRow(out, result, fetchSize, version);
     }
 
     // ----------------------------------------------------------------
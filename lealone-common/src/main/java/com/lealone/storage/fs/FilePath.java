@@ -39,7 +39,8 @@ public abstract class FilePath {
         providers = Collections.synchronizedMap(new HashMap<>());
         for (String c : new String[] { //
                 "disk.FilePathDisk",
-                "nio.FilePathNio" }) {
+                "nio.FilePathNio",
+                "nio.FilePathNioMapped" }) {
             try {
                 FilePath p = Utils.newInstance(packageName + c);
                 providers.put(p.getScheme(), p);
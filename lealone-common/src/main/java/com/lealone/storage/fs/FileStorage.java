@@ -25,6 +25,7 @@ import com.lealone.db.SysProperties;
 import com.lealone.storage.fs.impl.disk.FilePathDisk;
 import com.lealone.storage.fs.impl.encrypt.FileEncrypt;
 import com.lealone.storage.fs.impl.encrypt.FilePathEncrypt;
+import com.lealone.storage.fs.impl.nio.FileNioMapped;
 import com.lealone.storage.fs.impl.nio.FilePathNio;
 
 /**
@@ -136,6 +137,11 @@ public class FileStorage {
      */
     private FileChannel encryptedFile;
 
+    /**
+     * The memory mapped file (if the nioMapped file system is used and the file is not encrypted).
+     */
+    private FileNioMapped mappedFile;
+
     /**
      * The file lock.
      */
@@ -177,6 +183,7 @@ public class FileStorage {
                 String cipher = (String) config.get("cipher");
                 file = new FileEncrypt(fileName, cipher, key, file);
             }
+            setMappedFile();
             try {
                 if (readOnly) {
                     fileLock = file.tryLock(0, Long.MAX_VALUE, true);
@@ -195,6 +202,10 @@ public class FileStorage {
         }
     }
 
+    private void setMappedFile() {
+        mappedFile = file instanceof FileNioMapped ? (FileNioMapped) file : null;
+    }
+
     public static IllegalStateException newISE(int errorCode, String message, Object... arguments) {
         return DataUtils.newIllegalStateException(errorCode, message, arguments);
     }
@@ -372,6 +383,7 @@ public class FileStorage {
     public void closeFile() throws IOException {
         file.close();
         file = null;
+        mappedFile = null;
     }
 
     /**
@@ -425,6 +437,7 @@ public class FileStorage {
             throw newISE(DataUtils.ERROR_WRITING_FAILED, "Closing failed for file {0}", fileName, e);
         } finally {
             file = null;
+            mappedFile = null;
         }
     }
 
@@ -450,6 +463,7 @@ public class FileStorage {
         if (file == null) {
             file = FileUtils.open(fileName, mode);
             file.position(filePos);
+            setMappedFile();
         }
     }
 
@@ -467,6 +481,21 @@ public class FileStorage {
      * @return the byte buffer
      */
     public ByteBuffer readFully(long pos, int len) {
+        FileNioMapped mappedFile = this.mappedFile;
+        if (mappedFile != null && len > 0) {
+            // 直接返回映射内存的只读视图，不需要复制
+            ByteBuffer buff;
+            try {
+                buff = mappedFile.slice(pos, len);
+            } catch (IOException e) {
+                throw DbException.convertIOException(e, fileName);
+            }
+            if (buff != null) {
+                readCount++;
+                readBytes += len;
+                return buff;
+            }
+        }
         ByteBuffer dst = ByteBuffer.allocate(len);
         return readFully(pos, len, dst);
     }
@@ -0,0 +1,162 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.storage.fs.impl.nio;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
+
+import com.lealone.storage.fs.impl.FileBase;
+
+/**
+ * File which uses NIO FileChannel and a read-only memory mapped buffer.
+ * <p>
+ * 读操作直接从映射的内存中取数据，写操作和truncate还是通过FileChannel，
+ * 并且会让当前的映射失效，下次读时再按新的文件大小重新映射。
+ */
+public class FileNioMapped extends FileBase {
+
+    private final String fileName;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private volatile MappedByteBuffer mapped;
+
+    FileNioMapped(String fileName, String mode) throws IOException {
+        this.fileName = fileName;
+        file = new RandomAccessFile(fileName, mode);
+        channel = file.getChannel();
+    }
+
+    // 超过2G的文件无法映射，返回null
+    private MappedByteBuffer getMapped() throws IOException {
+        MappedByteBuffer m = mapped;
+        if (m == null) {
+            synchronized (this) {
+                m = mapped;
+                if (m == null) {
+                    long size = channel.size();
+                    if (size <= 0 || size > Integer.MAX_VALUE)
+                        return null;
+                    m = channel.map(MapMode.READ_ONLY, 0, size);
+                    mapped = m;
+                }
+            }
+        }
+        return m;
+    }
+
+    /**
+     * 返回文件中指定范围的只读视图，不复制数据。
+     * 超出映射范围时返回null，由调用者改用FileChannel读。
+     *
+     * @param position the file position
+     * @param length the number of bytes
+     * @return the slice, or null
+     */
+    public ByteBuffer slice(long position, int length) throws IOException {
+        MappedByteBuffer m = getMapped();
+        if (m == null || position < 0 || position + length > m.capacity()) {
+            // 文件变大了就重新映射一次
+            if (m != null && position + length <= channel.size()) {
+                invalidate();
+                m = getMapped();
+            }
+            if (m == null || position < 0 || position + length > m.capacity())
+                return null;
+        }
+        return m.slice((int) position, length);
+    }
+
+    private void invalidate() {
+        mapped = null;
+    }
+
+    @Override
+    public void implCloseChannel() throws IOException {
+        invalidate();
+        file.close(); // 内部会调用channel.close()
+    }
+
+    @Override
+    public long position() throws IOException {
+        return channel.position();
+    }
+
+    @Override
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return channel.read(dst);
+    }
+
+    @Override
+    public FileChannel position(long pos) throws IOException {
+        channel.position(pos);
+        return this;
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        int len = dst.remaining();
+        ByteBuffer src = len > 0 ? slice(position, len) : null;
+        if (src == null)
+            return channel.read(dst, position);
+        dst.put(src);
+        return len;
+    }
+
+    @Override
+    public int write(ByteBuffer src, long position) throws IOException {
+        invalidate();
+        return channel.write(src, position);
+    }
+
+    @Override
+    public FileChannel truncate(long newLength) throws IOException {
+        long size = channel.size();
+        if (newLength < size) {
+            // 先让映射失效，避免之后读到已经被截掉的部分
+            invalidate();
+            long pos = channel.position();
+            channel.truncate(newLength);
+            if (pos > newLength)
+                channel.position(newLength);
+        }
+        return this;
+    }
+
+    @Override
+    public void force(boolean metaData) throws IOException {
+        channel.force(metaData);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        invalidate();
+        try {
+            return channel.write(src);
+        } catch (NonWritableChannelException e) {
+            throw new IOException("read only");
+        }
+    }
+
+    @Override
+    public synchronized FileLock tryLock(long position, long size, boolean shared) throws IOException {
+        return channel.tryLock(position, size, shared);
+    }
+
+    @Override
+    public String toString() {
+        return FilePathNioMapped.SCHEME + ":" + fileName;
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.storage.fs.impl.nio;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import com.lealone.storage.fs.impl.FilePathWrapper;
+
+/**
+ * This file system stores files on disk and uses java.nio to access the files.
+ * Reads are served from a read-only memory mapped buffer,
+ * so it's only suitable for files that are rarely written.
+ */
+public class FilePathNioMapped extends FilePathWrapper {
+
+    public static final String SCHEME = "nioMapped";
+
+    @Override
+    public String getScheme() {
+        return SCHEME;
+    }
+
+    @Override
+    public FileChannel open(String mode) throws IOException {
+        return new FileNioMapped(name.substring(getScheme().length() + 1), mode);
+    }
+}
@@ -17,6 +17,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.ZipOutputStream;
 
@@ -57,6 +58,7 @@ import com.lealone.db.schema.TriggerObject;
 import com.lealone.db.service.ExternalService;
 import com.lealone.db.session.ServerSession;
 import com.lealone.db.session.Session;
+import com.lealone.db.session.SharedQueryCache;
 import com.lealone.db.stats.QueryStatisticsData;
 import com.lealone.db.table.Column;
 import com.lealone.db.table.CreateTableData;
@@ -183,6 +185,10 @@ public class Database extends DbObjectBase implements DataHandler {
     private SourceCompiler compiler;
     private DatabaseEventListener eventListener;
     private QueryStatisticsData queryStatisticsData;
+    private final SharedQueryCache sharedQueryCache;
+    // 检测到的死锁和锁超时的次数
+    private final AtomicLong deadlockCount = new AtomicLong();
+    private final AtomicLong lockTimeoutCount = new AtomicLong();
 
     private final boolean persistent;
     private final Map<String, String> parameters;
@@ -215,6 +221,7 @@ public class Database extends DbObjectBase implements DataHandler {
         }
         persistent = dbSettings.persistent;
         closeDelay = dbSettings.dbCloseDelay; // 默认是-1不关闭
+        sharedQueryCache = new SharedQueryCache(dbSettings.sharedQueryCacheSize);
         compareMode = CompareMode.getInstance(null, 0, false);
         if (dbSettings.mode != null) {
             mode = Mode.getInstance(dbSettings.mode);
@@ -481,9 +488,46 @@ public class Database extends DbObjectBase implements DataHandler {
     }
 
     private void recover(Table exclude) {
+        ArrayList<Table> tables = new ArrayList<>();
         for (Table table : getAllTablesAndViews(false)) {
             if (table != meta && table != exclude)
-                table.recover();
+                tables.add(table);
+        }
+        int size = tables.size();
+        if (size == 0)
+            return;
+        TransactionEngine te = getTransactionEngine();
+        // 先让事务引擎验证所有表的redo log中涉及多张表的事务，此时还没有开始redo，验证结果跟表的恢复顺序无关
+        for (Table table : tables) {
+            table.prepareRecover();
+        }
+        // 每个恢复任务用自己的session轮流取下一张表执行redo，一张表只由一个任务恢复，不同的表可以并行恢复
+        int taskCount = Math.min(size, te.getRecoverThreads());
+        ArrayList<ServerSession> sessions = new ArrayList<>(taskCount);
+        ArrayList<Runnable> tasks = new ArrayList<>(taskCount);
+        AtomicInteger next = new AtomicInteger();
+        for (int i = 0; i < taskCount; i++) {
+            ServerSession session = createSession(systemUser, systemSession.getScheduler());
+            // 索引的改动不需要写redo log，再次崩溃时还是从表的redo log恢复
+            session.setRedoLogEnabled(false);
+            sessions.add(session);
+            tasks.add(() -> {
+                for (int index; (index = next.getAndIncrement()) < size;) {
+                    Table table = tables.get(index);
+                    long start = System.currentTimeMillis();
+                    table.recover(session);
+                    if (trace.isDebugEnabled())
+                        trace.debug("recovered table {0} ({1}/{2}) in {3} ms", table.getSQL(),
+                                index + 1, size, System.currentTimeMillis() - start);
+                }
+            });
+        }
+        try {
+            te.runRecoverTasks(tasks);
+        } finally {
+            for (ServerSession session : sessions) {
+                session.close();
+            }
         }
     }
 
@@ -1606,6 +1650,26 @@ public class Database extends DbObjectBase implements DataHandler {
         }
     }
 
+    public SharedQueryCache getSharedQueryCache() {
+        return sharedQueryCache;
+    }
+
+    public void incrementDeadlockCount() {
+        deadlockCount.incrementAndGet();
+    }
+
+    public long getDeadlockCount() {
+        return deadlockCount.get();
+    }
+
+    public void incrementLockTimeoutCount() {
+        lockTimeoutCount.incrementAndGet();
+    }
+
+    public long getLockTimeoutCount() {
+        return lockTimeoutCount.get();
+    }
+
     public QueryStatisticsData getQueryStatisticsData() {
         if (!dbSettings.queryStatistics) {
             return null;
@@ -219,6 +219,15 @@ public class DbSettings extends SettingsBase {
      */
     public final int queryCacheSize = get(DbSetting.QUERY_CACHE_SIZE, 8);
 
+    /**
+     * Database setting <code>SHARED_QUERY_CACHE_SIZE</code> (default: 1024).<br />
+     * The size of the database level query cache, in number of cached
+     * statements. Idle statements evicted from the query cache of a session are
+     * kept here and can be used by other sessions of the same user with the
+     * same current schema. Set to 0 to disable the cache.
+     */
+    public final int sharedQueryCacheSize = get(DbSetting.SHARED_QUERY_CACHE_SIZE, 1024);
+
     /**
      * Database setting <code>RECOMPILE_ALWAYS</code> (default: false).<br />
      * Always recompile prepared statements.
@@ -50,4 +50,17 @@ public interface Cursor {
      */
     boolean next();
 
+    /**
+     * Fetch the next batch of rows, at most rows.length rows are returned.
+     *
+     * @param rows the array to store the rows
+     * @return the number of rows fetched, 0 if there are no more rows
+     */
+    default int next(Row[] rows) {
+        int count = 0;
+        while (count < rows.length && next()) {
+            rows[count++] = get();
+        }
+        return count;
+    }
 }
@@ -7,6 +7,8 @@ package com.lealone.db.index;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.lealone.common.exceptions.DbException;
 import com.lealone.db.async.AsyncResultHandler;
@@ -89,6 +91,27 @@ public interface Index extends SchemaObject {
         throw DbException.getUnsupportedException("add row");
     }
 
+    /**
+     * Add rows to the index, the handler is called once after all rows are added.
+     *
+     * @param session the session to use
+     * @param rows the rows to add
+     */
+    default void add(ServerSession session, List<Row> rows, AsyncResultHandler<Integer> handler) {
+        AtomicInteger count = new AtomicInteger(rows.size());
+        AtomicBoolean isFailed = new AtomicBoolean();
+        for (int i = 0, size = rows.size(); i < size && !isFailed.get(); i++) {
+            add(session, rows.get(i), ar -> {
+                if (ar.isSucceeded()) {
+                    if (count.decrementAndGet() == 0 && !isFailed.get())
+                        handler.handle(ar);
+                } else if (isFailed.compareAndSet(false, true)) {
+                    handler.handle(ar);
+                }
+            });
+        }
+    }
+
     default void update(ServerSession session, Row oldRow, Row newRow, Value[] oldColumns,
             int[] updateColumns, boolean isLockedBySelf, AsyncResultHandler<Integer> handler) {
         remove(session, oldRow, oldColumns, isLockedBySelf, ar1 -> {
@@ -127,6 +150,16 @@ public interface Index extends SchemaObject {
         return find(session, parameters.from, parameters.to);
     }
 
+    /**
+     * Check if the index can iterate over the rows in descending order,
+     * see CursorParameters.reverse.
+     *
+     * @return true if it can
+     */
+    default boolean supportsReverseScan() {
+        return false;
+    }
+
     /**
      * Check if the index can directly look up the lowest or highest value of a
      * column.
@@ -301,4 +334,15 @@ public interface Index extends SchemaObject {
             SearchRow last) {
         return null;
     }
+
+    /**
+     * 按存储结构把索引切分成最多count段，用于并行扫描。
+     *
+     * @param session the session
+     * @param count 最多切分成多少段
+     * @return 有序的切分点，每个切分点是一段的起始行，不支持时返回null
+     */
+    default List<SearchRow> getSplitRows(ServerSession session, int count) {
+        return null;
+    }
 }
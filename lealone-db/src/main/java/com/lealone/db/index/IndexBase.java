@@ -247,6 +247,8 @@ public abstract class IndexBase extends SchemaObjectBase implements Index {
         // 注意：排序字段个数不管比索引字段个数多还是少都是没问题的，这里只是尽量匹配
         if (sortOrder != null) {
             boolean sortOrderMatches = true;
+            // 索引可以反向遍历时，order by中的排序方式与索引字段完全相反也算匹配
+            boolean reverseMatches = supportsReverseScan();
             int coveringCount = 0;
             int[] sortTypes = sortOrder.getSortTypes();
             for (int i = 0, len = sortTypes.length; i < len; i++) {
@@ -258,23 +260,25 @@ public abstract class IndexBase extends SchemaObjectBase implements Index {
                     break;
                 }
                 Column col = sortOrder.getColumn(i, table);
-                if (col == null) {
-                    sortOrderMatches = false;
-                    break;
-                }
                 IndexColumn indexCol = indexColumns[i];
-                if (col != indexCol.column) {
+                if (col == null || col != indexCol.column) {
                     sortOrderMatches = false;
+                    reverseMatches = false;
                     break;
                 }
                 int sortType = sortTypes[i];
-                if (sortType != indexCol.sortType) {
+                if (sortType == indexCol.sortType) {
+                    reverseMatches = false;
+                } else if (reverseMatches && SortOrder.isReverse(indexCol.sortType, sortType)) {
+                    sortOrderMatches = false;
+                } else {
                     sortOrderMatches = false;
+                    reverseMatches = false;
                     break;
                 }
                 coveringCount++;
             }
-            if (sortOrderMatches) {
+            if (sortOrderMatches || reverseMatches) {
                 // "coveringCount" makes sure that when we have two
                 // or more covering indexes, we choose the one
                 // that covers more
@@ -290,6 +290,10 @@ public class IndexOperator implements Runnable, SchedulerTaskManager {
             this.columns = columns;
         }
 
+        public void setRowKey(long rowKey) {
+            this.rowKey = rowKey;
+        }
+
         public int getSavepointId() {
             return savepointId;
         }
@@ -62,6 +62,11 @@ public class StandardDelegateIndex extends IndexBase {
         return true;
     }
 
+    @Override
+    public boolean supportsReverseScan() {
+        return mainIndex.supportsReverseScan();
+    }
+
     @Override
     public SearchRow findFirstOrLast(ServerSession session, boolean first) {
         return mainIndex.findFirstOrLast(session, first);
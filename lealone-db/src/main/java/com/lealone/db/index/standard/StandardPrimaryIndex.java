@@ -5,6 +5,7 @@
  */
 package com.lealone.db.index.standard;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -26,6 +27,7 @@ import com.lealone.db.session.ServerSession;
 import com.lealone.db.table.Column;
 import com.lealone.db.table.StandardTable;
 import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueDataType.PrimaryKey;
 import com.lealone.db.value.ValueLob;
 import com.lealone.db.value.ValueLong;
 import com.lealone.storage.CursorParameters;
@@ -159,12 +161,7 @@ public class StandardPrimaryIndex extends StandardDataIndex<Row, Row> {
             map.addIfAbsent(row, row, ar -> {
                 if (ar.isSucceeded()) {
                     if (ar.getResult().intValue() == Transaction.OPERATION_DATA_DUPLICATE) {
-                        String sql = "PRIMARY KEY ON " + table.getSQL();
-                        if (mainIndexColumn >= 0 && mainIndexColumn < indexColumns.length) {
-                            sql += "(" + indexColumns[mainIndexColumn].getSQL() + ")";
-                        }
-                        DbException e = DbException.get(ErrorCode.DUPLICATE_KEY_1, sql);
-                        onException(handler, e);
+                        onException(handler, getDuplicatePrimaryKeyException());
                         return;
                     }
                     session.setLastIdentity(row.getKey());
@@ -186,6 +183,53 @@ public class StandardPrimaryIndex extends StandardDataIndex<Row, Row> {
         }
     }
 
+    // 批量增加时按rowKey排好序，落在同一个leaf page中的记录一次写完
+    @Override
+    public void add(ServerSession session, List<Row> rows, AsyncResultHandler<Integer> handler) {
+        if (mainIndexColumn == -1) {
+            int count = 0;
+            for (Row row : rows) {
+                if (row.getKey() == 0)
+                    count++;
+            }
+            long key = dataMap.getAndAddKey(count);
+            for (Row row : rows) {
+                if (row.getKey() == 0)
+                    row.setKey(++key);
+            }
+        } else {
+            for (Row row : rows) {
+                row.setKey(row.getValue(mainIndexColumn).getLong());
+            }
+        }
+        ArrayList<Row> sortedRows = new ArrayList<>(rows);
+        sortedRows.sort((r1, r2) -> Long.compare(r1.getKey(), r2.getKey()));
+        TransactionMap<Row, Row> map = getTransactionMap(session);
+        map.addIfAbsent(sortedRows, sortedRows, ar -> {
+            if (ar.isSucceeded()) {
+                if (ar.getResult().intValue() >= 0) {
+                    onException(handler, getDuplicatePrimaryKeyException());
+                    return;
+                }
+                for (Row row : rows) {
+                    table.alterRowsIfNeeded(session, row, true);
+                }
+                session.setLastIdentity(rows.get(rows.size() - 1).getKey());
+                onComplete(handler);
+            } else {
+                onException(handler, ar.getCause());
+            }
+        });
+    }
+
+    private DbException getDuplicatePrimaryKeyException() {
+        String sql = "PRIMARY KEY ON " + table.getSQL();
+        if (mainIndexColumn >= 0 && mainIndexColumn < indexColumns.length) {
+            sql += "(" + indexColumns[mainIndexColumn].getSQL() + ")";
+        }
+        return DbException.get(ErrorCode.DUPLICATE_KEY_1, sql);
+    }
+
     static boolean containsColumn(int[] updateColumns, int cid) {
         for (int i = 0; i < updateColumns.length; i++) {
             if (updateColumns[i] == cid) {
@@ -266,9 +310,20 @@ public class StandardPrimaryIndex extends StandardDataIndex<Row, Row> {
     public Cursor find(ServerSession session, CursorParameters<SearchRow> parameters) {
         Row from = getPK(parameters.from);
         Row to = getPK(parameters.to);
+        if (parameters.reverse) {
+            // 降序遍历时从to开始，到from结束
+            CursorParameters<Row> newParameters = parameters.copy(to, from);
+            return new StandardPrimaryIndexCursor(session, table,
+                    getTransactionMap(session).cursor(newParameters), from, true);
+        }
         CursorParameters<Row> newParameters = parameters.copy(from, to);
         return new StandardPrimaryIndexCursor(session, table,
-                getTransactionMap(session).cursor(newParameters), to);
+                getTransactionMap(session).cursor(newParameters), to, false);
+    }
+
+    @Override
+    public boolean supportsReverseScan() {
+        return true;
     }
 
     @Override
@@ -375,20 +430,34 @@ public class StandardPrimaryIndex extends StandardDataIndex<Row, Row> {
         return map.getNodeToPageKeyMap(from, to);
     }
 
+    @Override
+    public List<SearchRow> getSplitRows(ServerSession session, int count) {
+        // node page中的key是PrimaryKeyType.getSplitKey的结果
+        List<Object> keys = getTransactionMap(session).getSplitKeys(count);
+        ArrayList<SearchRow> rows = new ArrayList<>(keys.size());
+        for (Object key : keys) {
+            rows.add(new Row(((PrimaryKey) key).getKey(), null));
+        }
+        return rows;
+    }
+
     private static class StandardPrimaryIndexCursor extends StandardDataIndexCursor {
 
         private final ServerSession session;
         private final StandardTable table;
         private final TransactionMapCursor<Row, Row> cursor;
         private final Row last;
+        private final boolean reverse;
         private Row row;
+        private Object[] keys;
 
         public StandardPrimaryIndexCursor(ServerSession session, StandardTable table,
-                TransactionMapCursor<Row, Row> tmCursor, Row last) {
+                TransactionMapCursor<Row, Row> tmCursor, Row last, boolean reverse) {
             this.session = session;
             this.table = table;
             this.cursor = tmCursor;
             this.last = last;
+            this.reverse = reverse;
         }
 
         @Override
@@ -399,7 +468,8 @@ public class StandardPrimaryIndex extends StandardDataIndex<Row, Row> {
         @Override
         public boolean next() {
             if (cursor.next()) {
-                if (last != null && cursor.getValue().getKey() > last.getKey()) {
+                if (last != null && (reverse ? cursor.getValue().getKey() < last.getKey()
+                        : cursor.getValue().getKey() > last.getKey())) {
                     row = null;
                     return false;
                 }
@@ -413,5 +483,23 @@ public class StandardPrimaryIndex extends StandardDataIndex<Row, Row> {
             row = cursor.getValue();
             table.alterRowsIfNeeded(session, row, false);
         }
+
+        @Override
+        public int next(Row[] rows) {
+            if (keys == null || keys.length != rows.length)
+                keys = new Object[rows.length];
+            int n = cursor.next(keys, rows);
+            int count = 0;
+            for (; count < n; count++) {
+                Row r = rows[count];
+                if (last != null
+                        && (reverse ? r.getKey() < last.getKey() : r.getKey() > last.getKey())) {
+                    break; // 后面的记录都超出范围了，下一次调用时返回的第一条记录也会超出范围
+                }
+                table.alterRowsIfNeeded(session, r, false);
+            }
+            row = count > 0 ? rows[count - 1] : null;
+            return count;
+        }
     }
 }
@@ -5,7 +5,10 @@
  */
 package com.lealone.db.index.standard;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import com.lealone.common.exceptions.DbException;
@@ -27,9 +30,11 @@ import com.lealone.db.value.Value;
 import com.lealone.db.value.ValueEnum;
 import com.lealone.db.value.ValueLong;
 import com.lealone.db.value.ValueNull;
+import com.lealone.storage.CursorParameters;
 import com.lealone.storage.Storage;
 import com.lealone.storage.StorageMap;
 import com.lealone.storage.StorageSetting;
+import com.lealone.storage.type.StorageDataType;
 import com.lealone.transaction.Transaction;
 import com.lealone.transaction.TransactionMap;
 import com.lealone.transaction.TransactionMapCursor;
@@ -120,6 +125,33 @@ public class StandardSecondaryIndex extends StandardDataIndex<IndexKey, IndexKey
         });
     }
 
+    // 批量增加时按索引key排好序，落在同一个leaf page中的key一次写完
+    @Override
+    public void add(ServerSession session, List<Row> rows, AsyncResultHandler<Integer> handler) {
+        if (session.isFastPath()) {
+            super.add(session, rows, handler);
+            return;
+        }
+        ArrayList<IndexKey> keys = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            keys.add(convertToKey(row));
+        }
+        StorageDataType keyType = getStorageMap().getKeyType();
+        keys.sort(keyType::compare);
+        final TransactionMap<IndexKey, IndexKey> map = getTransactionMap(session);
+        map.addIfAbsent(keys, keys, ar -> {
+            if (ar.isSucceeded()) {
+                int duplicate = ar.getResult().intValue();
+                if (duplicate >= 0)
+                    onException(handler, getDuplicateKeyException(keys.get(duplicate).toString()));
+                else
+                    onComplete(handler);
+            } else {
+                onException(handler, ar.getCause());
+            }
+        });
+    }
+
     @Override
     public void update(ServerSession session, Row oldRow, Row newRow, Value[] oldColumns,
             int[] updateColumns, boolean isLockedBySelf, AsyncResultHandler<Integer> handler) {
@@ -171,12 +203,50 @@ public class StandardSecondaryIndex extends StandardDataIndex<IndexKey, IndexKey
 
     @Override
     public Cursor find(ServerSession session, SearchRow first, SearchRow last) {
+        return find(session, first, last, false);
+    }
+
+    @Override
+    public Cursor find(ServerSession session, CursorParameters<SearchRow> parameters) {
+        return find(session, parameters.from, parameters.to, parameters.reverse);
+    }
+
+    @Override
+    public boolean supportsReverseScan() {
+        // 正在建立索引时，还未建立索引的记录从primary index中读取，不是按索引字段倒序的
+        return !isBuilding();
+    }
+
+    private Cursor find(ServerSession session, SearchRow first, SearchRow last, boolean reverse) {
         runIndexOperations(session);
+        TransactionMap<IndexKey, IndexKey> map = getTransactionMap(session);
+        if (reverse) {
+            // null总是比所有索引字段的值小，所以last不包含所有索引字段时要用它的前缀来定位，
+            // 字段个数少的key比前缀相同的完整key大，刚好落在前缀相同的最后一个key之后
+            IndexKey max = convertToKey(last);
+            if (max != null) {
+                if (isFullKey(max))
+                    max.setKey(Long.MAX_VALUE);
+                else
+                    max = getPrefixKey(max);
+            }
+            Cursor cursor = new SsiReverseCursor(session, map.reverseCursor(max), first, last);
+            if (isBuilding()) {
+                // 跟SsiBuildingCursor一样，还未建立索引的记录直接从primary index中读取
+                Long lastKey = lastIndexedRowKey;
+                if (lastKey != null) {
+                    Row f = table.getTemplateRow();
+                    f.setKey(lastKey.longValue() + 1);
+                    Cursor primaryCursor = table.getScanIndex(session).find(session, f, null);
+                    return new SsiBuildingCursor(session, null, null, primaryCursor, cursor);
+                }
+            }
+            return cursor;
+        }
         IndexKey min = convertToKey(first);
         if (min != null) {
             min.setKey(Long.MIN_VALUE);
         }
-        TransactionMap<IndexKey, IndexKey> map = getTransactionMap(session);
         if (isBuilding()) {
             TransactionMapCursor<IndexKey, IndexKey> tmCursor;
             Long lastKey = lastIndexedRowKey;
@@ -203,6 +273,27 @@ public class StandardSecondaryIndex extends StandardDataIndex<IndexKey, IndexKey
         }
     }
 
+    // 没有前缀时返回null，从最后一个key开始
+    private static IndexKey getPrefixKey(IndexKey key) {
+        Value[] columns = key.getColumns();
+        int len = 0;
+        while (len < columns.length && columns[len] != null)
+            len++;
+        if (len == 0)
+            return null;
+        // 只有一个字段时也要用CompoundIndexKey，跟复合索引的key类型一致
+        return new IndexKey.CompoundIndexKey(Long.MAX_VALUE, Arrays.copyOf(columns, len));
+    }
+
+    private static boolean isFullKey(IndexKey key) {
+        Value[] columns = key.getColumns();
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] == null)
+                return false;
+        }
+        return true;
+    }
+
     public IndexKey convertToKey(SearchRow r) {
         if (r == null)
             return null;
@@ -389,24 +480,68 @@ public class StandardSecondaryIndex extends StandardDataIndex<IndexKey, IndexKey
         }
     }
 
+    private class SsiReverseCursor extends StandardSecondaryIndexCursor {
+
+        private final TransactionMapCursor<IndexKey, IndexKey> tmCursor;
+        private final SearchRow first;
+        private final SearchRow last;
+
+        public SsiReverseCursor(ServerSession session, TransactionMapCursor<IndexKey, IndexKey> tmCursor,
+                SearchRow first, SearchRow last) {
+            super(session);
+            this.tmCursor = tmCursor;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected SearchRow nextSearchRow() {
+            while (tmCursor.next()) {
+                IndexKey current = getIndexKey(tmCursor);
+                SearchRow searchRow = createSearchRow(current);
+                if (searchRow == null)
+                    return null;
+                if (last != null && compareRows(searchRow, last) > 0)
+                    continue;
+                if (first != null && compareRows(searchRow, first) < 0)
+                    return null;
+                return searchRow;
+            }
+            return null;
+        }
+    }
+
     private class SsiBuildingCursor extends StandardSecondaryIndexCursor {
 
         private TransactionMapCursor<IndexKey, IndexKey> tmCursor;
         private final SearchRow last;
         private final Cursor primaryCursor;
+        private Cursor indexCursor;
 
         public SsiBuildingCursor(ServerSession session,
                 TransactionMapCursor<IndexKey, IndexKey> tmCursor, SearchRow last,
                 Cursor primaryCursor) {
+            this(session, tmCursor, last, primaryCursor, null);
+        }
+
+        public SsiBuildingCursor(ServerSession session,
+                TransactionMapCursor<IndexKey, IndexKey> tmCursor, SearchRow last,
+                Cursor primaryCursor, Cursor indexCursor) {
             super(session);
             this.tmCursor = tmCursor;
             this.last = last;
             this.primaryCursor = primaryCursor;
+            this.indexCursor = indexCursor;
         }
 
         @Override
         protected SearchRow nextSearchRow() {
             SearchRow searchRow;
+            if (indexCursor != null) {
+                if (indexCursor.next())
+                    return indexCursor.getSearchRow();
+                indexCursor = null;
+            }
             if (tmCursor != null) {
                 if (tmCursor.next()) {
                     IndexKey current = getIndexKey(tmCursor);
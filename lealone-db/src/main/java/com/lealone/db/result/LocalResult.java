@@ -9,6 +9,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.PriorityQueue;
 
 import com.lealone.common.exceptions.DbException;
 import com.lealone.common.util.Utils;
@@ -35,6 +36,9 @@ public class LocalResult implements Result, ResultTarget {
     private int rowId, rowCount;
     private ArrayList<Value[]> rows;
     private SortOrder sort;
+    // 有order by和limit时只保留排在前面的offset+limit条记录，堆顶是其中排在最后的记录
+    private PriorityQueue<Value[]> topRows;
+    private int topRowCount;
     private ValueHashMap<Value[]> distinctRows;
     private Value[] currentRow;
     private int offset;
@@ -230,7 +234,7 @@ public class LocalResult implements Result, ResultTarget {
                 distinctRows.put(array, values); // 会触发ValueArray的hashCode方法
                 rowCount = distinctRows.size();
                 if (rowCount > maxMemoryRows) {
-                    external = new ResultTempMap(session, expressions, true, sort);
+                    external = new ResultTempMap(session, expressions, true);
                     rowCount = external.addRows(distinctRows.values());
                     distinctRows = null;
                 }
@@ -239,17 +243,50 @@ public class LocalResult implements Result, ResultTarget {
             }
             return false;
         }
+        if (sort != null && limit >= 0 && addTopRow(values)) {
+            return false;
+        }
         rows.add(values);
         rowCount++;
         if (rows.size() > maxMemoryRows) {
             if (external == null) {
-                external = new ResultTempMap(session, expressions, false, sort);
+                external = createExternal();
             }
             addRowsToDisk();
         }
         return false;
     }
 
+    // 排序后只需要前面的offset+limit条记录时，用一个大小固定的堆保存它们，
+    // 新记录比堆顶的记录小时才替换堆顶，其他记录直接丢弃
+    private boolean addTopRow(Value[] values) {
+        if (topRows == null) {
+            long n = (long) limit + Math.max(offset, 0);
+            // 已经加入过记录(比如limit是后来才设置的)或者放不进内存时还是全部排序
+            if (!rows.isEmpty() || external != null || n > maxMemoryRows) {
+                return false;
+            }
+            topRowCount = (int) n;
+            topRows = new PriorityQueue<>(Math.min(topRowCount, 1024) + 1, sort.reversed());
+        }
+        if (topRows.size() < topRowCount) {
+            topRows.add(values);
+        } else if (topRowCount > 0 && sort.compare(values, topRows.peek()) < 0) {
+            topRows.poll();
+            topRows.add(values);
+        }
+        rowCount = topRows.size();
+        return true;
+    }
+
+    // 需要排序的记录写到临时文件中做外部排序，否则按加入的顺序保存到临时map中
+    private ResultExternal createExternal() {
+        if (sort != null) {
+            return new ResultExternalSort(session, sort);
+        }
+        return new ResultTempMap(session, expressions, false);
+    }
+
     private void addRowsToDisk() {
         rowCount = external.addRows(rows);
         rows.clear();
@@ -264,6 +301,10 @@ public class LocalResult implements Result, ResultTarget {
      * This method is called after all rows have been added.
      */
     public void done() {
+        if (topRows != null) {
+            rows = new ArrayList<>(topRows);
+            topRows = null;
+        }
         if (distinct) {
             if (distinctRows != null) {
                 rows = distinctRows.values();
@@ -271,8 +312,7 @@ public class LocalResult implements Result, ResultTarget {
                 // 已经做完了distinct，接着做排序
                 if (external != null && sort != null) {
                     ResultExternal temp = external;
-                    // 只做排序了，所以传false
-                    external = new ResultTempMap(session, expressions, false, sort);
+                    external = createExternal();
                     temp.reset();
                     rows = new ArrayList<>();
                     // offset和limit只作用于最终结果
@@ -0,0 +1,305 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.db.result;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.lealone.common.exceptions.DbException;
+import com.lealone.common.util.DataUtils;
+import com.lealone.db.Constants;
+import com.lealone.db.DataBuffer;
+import com.lealone.db.Database;
+import com.lealone.db.SysProperties;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.value.Value;
+import com.lealone.storage.fs.FileStorage;
+import com.lealone.storage.fs.FileUtils;
+
+// 单线程操作
+// 排序的结果放不进内存时，每次把内存中的一批记录排好序后顺序写到临时文件中，作为一个有序的run，
+// 读取时对所有的run做多路归并，每个run在内存中只缓存一个块。
+// 跟把记录逐条插入btree相比，写和读都是顺序的，也不需要为每条记录额外生成一个带序号的key
+public class ResultExternalSort implements ResultExternal {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+    // run太多时先把相邻的run合并成一个更大的run，避免归并时缓存的块占用太多内存
+    private static final int MAX_MERGE_RUNS = 32;
+
+    private final ServerSession session;
+    private final SortOrder sort;
+    private final ResultExternalSort parent;
+
+    private FileStorage file;
+    private long fileSize;
+    private ArrayList<long[]> runs; // 每个run在文件中的开始和结束位置
+    private int rowCount;
+
+    private boolean closed;
+    private int childCount;
+
+    private PriorityQueue<RunReader> merger;
+
+    ResultExternalSort(ServerSession session, SortOrder sort) {
+        this.session = session;
+        this.sort = sort;
+        parent = null;
+        runs = new ArrayList<>();
+    }
+
+    private ResultExternalSort(ResultExternalSort parent) {
+        this.session = parent.session;
+        this.sort = parent.sort;
+        this.parent = parent;
+        this.file = parent.file;
+        this.fileSize = parent.fileSize;
+        this.runs = parent.runs;
+        this.rowCount = parent.rowCount;
+    }
+
+    @Override
+    public ResultExternal createShallowCopy() {
+        if (parent != null) {
+            return parent.createShallowCopy();
+        }
+        if (closed) {
+            return null;
+        }
+        childCount++;
+        return new ResultExternalSort(this);
+    }
+
+    @Override
+    public int removeDistinct(Value[] values) {
+        return rowCount;
+    }
+
+    @Override
+    public boolean containsDistinct(Value[] values) {
+        return false;
+    }
+
+    @Override
+    public int addRow(Value[] values) {
+        // 只用于排序，LocalResult总是一批一批加入记录的
+        throw DbException.getInternalError();
+    }
+
+    @Override
+    public int addRows(ArrayList<Value[]> rows) {
+        if (rows.isEmpty()) {
+            return rowCount;
+        }
+        sort.sort(rows);
+        DataBuffer buff = DataBuffer.createHeap();
+        long start = fileSize;
+        for (Value[] values : rows) {
+            writeRow(buff, values);
+            if (buff.position() >= BLOCK_SIZE) {
+                write(buff);
+            }
+        }
+        write(buff);
+        runs.add(new long[] { start, fileSize });
+        rowCount += rows.size();
+        return rowCount;
+    }
+
+    // 每条记录的格式: 记录的字节数(int) + 字段个数(varInt) + 每个字段的值
+    private static void writeRow(DataBuffer buff, Value[] values) {
+        int start = buff.position();
+        buff.putInt(0);
+        buff.putVarInt(values.length);
+        for (Value v : values) {
+            buff.writeValue(v);
+        }
+        buff.putInt(start, buff.position() - start - 4);
+    }
+
+    private void write(DataBuffer buff) {
+        if (buff.position() == 0) {
+            return;
+        }
+        if (file == null) {
+            openFile();
+        }
+        ByteBuffer b = buff.getAndFlipBuffer();
+        int len = b.remaining();
+        file.writeFully(fileSize, b);
+        fileSize += len;
+        buff.clear();
+    }
+
+    private void openFile() {
+        Database db = session.getDatabase();
+        String path = db.getDatabasePath();
+        if (path == null || path.isEmpty()) {
+            path = SysProperties.PREFIX_TEMP_FILE;
+        }
+        String fileName;
+        try {
+            fileName = FileUtils.createTempFile(path, Constants.SUFFIX_TEMP_FILE, true, true);
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, path);
+        }
+        file = db.openFile(fileName, "rw", false);
+        file.autoDelete();
+    }
+
+    @Override
+    public void done() {
+        // 先把相邻的run合并，合并后的run还是按原来的先后顺序排列，这样值相同的记录的顺序也不会变
+        while (runs.size() > MAX_MERGE_RUNS) {
+            ArrayList<long[]> newRuns = new ArrayList<>();
+            for (int i = 0, size = runs.size(); i < size; i += MAX_MERGE_RUNS) {
+                int end = Math.min(i + MAX_MERGE_RUNS, size);
+                if (end - i == 1) {
+                    newRuns.add(runs.get(i));
+                } else {
+                    newRuns.add(mergeRuns(runs.subList(i, end)));
+                }
+            }
+            runs = newRuns;
+        }
+    }
+
+    private long[] mergeRuns(List<long[]> list) {
+        PriorityQueue<RunReader> queue = createMerger(list);
+        DataBuffer buff = DataBuffer.createHeap();
+        long start = fileSize;
+        Value[] values;
+        while ((values = nextRow(queue)) != null) {
+            writeRow(buff, values);
+            if (buff.position() >= BLOCK_SIZE) {
+                write(buff);
+            }
+        }
+        write(buff);
+        return new long[] { start, fileSize };
+    }
+
+    private PriorityQueue<RunReader> createMerger(List<long[]> list) {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(list.size(), 1), (a, b) -> {
+            int comp = sort.compare(a.current, b.current);
+            return comp != 0 ? comp : Integer.compare(a.index, b.index);
+        });
+        for (int i = 0, size = list.size(); i < size; i++) {
+            long[] run = list.get(i);
+            RunReader reader = new RunReader(i, run[0], run[1]);
+            if (reader.next()) {
+                queue.add(reader);
+            }
+        }
+        return queue;
+    }
+
+    private static Value[] nextRow(PriorityQueue<RunReader> queue) {
+        RunReader reader = queue.poll();
+        if (reader == null) {
+            return null;
+        }
+        Value[] values = reader.current;
+        if (reader.next()) {
+            queue.add(reader);
+        }
+        return values;
+    }
+
+    @Override
+    public Value[] next() {
+        if (merger == null) {
+            merger = createMerger(runs);
+        }
+        return nextRow(merger);
+    }
+
+    @Override
+    public void reset() {
+        merger = null;
+    }
+
+    private void closeChild() {
+        if (--childCount == 0 && closed) {
+            closeFile();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        merger = null;
+        if (parent != null) {
+            parent.closeChild();
+        } else {
+            if (childCount == 0) {
+                closeFile();
+            }
+        }
+    }
+
+    private void closeFile() {
+        if (file != null) {
+            file.closeAndDeleteSilently();
+            file = null;
+        }
+    }
+
+    // 按块顺序读取一个run中的记录
+    private class RunReader {
+
+        private final int index;
+        private final long end;
+        private long pos; // 下一条记录在文件中的位置
+        private long blockStart;
+        private ByteBuffer block;
+        private Value[] current;
+
+        RunReader(int index, long start, long end) {
+            this.index = index;
+            this.end = end;
+            pos = start;
+        }
+
+        boolean next() {
+            if (pos >= end) {
+                current = null;
+                return false;
+            }
+            int len = 4;
+            if (!isInBlock(len)) {
+                readBlock(len);
+            }
+            len += block.getInt((int) (pos - blockStart));
+            if (!isInBlock(len)) {
+                readBlock(len);
+            }
+            block.position((int) (pos - blockStart) + 4);
+            Value[] values = new Value[DataUtils.readVarInt(block)];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = DataBuffer.readValue(block);
+            }
+            pos += len;
+            current = values;
+            return true;
+        }
+
+        private boolean isInBlock(int len) {
+            return block != null && pos >= blockStart && pos + len <= blockStart + block.limit();
+        }
+
+        private void readBlock(int minLen) {
+            int len = (int) Math.min(end - pos, Math.max(BLOCK_SIZE, minLen));
+            block = file.readFully(pos, len);
+            blockStart = pos;
+        }
+    }
+}
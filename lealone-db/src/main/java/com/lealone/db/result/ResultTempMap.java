@@ -12,7 +12,6 @@ import com.lealone.db.index.standard.StandardDataType;
 import com.lealone.db.session.ServerSession;
 import com.lealone.db.value.Value;
 import com.lealone.db.value.ValueArray;
-import com.lealone.db.value.ValueLong;
 import com.lealone.sql.IExpression;
 import com.lealone.storage.Storage;
 import com.lealone.storage.StorageMap;
@@ -24,7 +23,6 @@ public class ResultTempMap implements ResultExternal {
 
     private final ServerSession session;
     private final boolean distinct;
-    private final SortOrder sort;
     private final int columnCount;
     private final ResultTempMap parent;
 
@@ -35,33 +33,19 @@ public class ResultTempMap implements ResultExternal {
 
     private StorageMap<Value, ValueArray> storageMap;
     private StorageMapCursor<Value, ValueArray> resultCursor;
-    private int[] sortColumnIndexes;
 
-    ResultTempMap(ServerSession session, IExpression[] expressions, boolean distinct, SortOrder sort) {
+    ResultTempMap(ServerSession session, IExpression[] expressions, boolean distinct) {
         this.session = session;
         this.distinct = distinct;
-        this.sort = sort;
         columnCount = expressions.length;
         parent = null;
+        Database db = session.getDatabase();
         if (distinct) {
-            Database db = session.getDatabase();
             StandardDataType type = new StandardDataType(db.getCompareMode(), getSortTypes());
             type.setKeyOnly(true);
             openMap(db, type, type);
-        } else if (sort != null) {
-            sortColumnIndexes = sort.getQueryColumnIndexes();
-            int[] keySortTypes = new int[sortColumnIndexes.length + 1];
-            for (int i = 0; i < sortColumnIndexes.length; i++) {
-                keySortTypes[i] = sort.getSortTypes()[i];
-            }
-            keySortTypes[sortColumnIndexes.length] = SortOrder.ASCENDING;
-
-            Database db = session.getDatabase();
-            StandardDataType keyType = new StandardDataType(db.getCompareMode(), keySortTypes);
-            StandardDataType valueType = new StandardDataType(db.getCompareMode(), getSortTypes());
-            openMap(db, keyType, valueType);
         } else {
-            Database db = session.getDatabase();
+            // 排序的结果用ResultExternalSort，这里只需要按加入的顺序保存记录
             StandardDataType keyType = new StandardDataType(db.getCompareMode(),
                     new int[] { SortOrder.ASCENDING });
             StandardDataType valueType = new StandardDataType(db.getCompareMode(), getSortTypes());
@@ -72,12 +56,10 @@ public class ResultTempMap implements ResultExternal {
     private ResultTempMap(ResultTempMap parent) {
         this.session = parent.session;
         this.distinct = parent.distinct;
-        this.sort = parent.sort;
         this.columnCount = parent.columnCount;
         this.parent = parent;
         this.rowCount = parent.rowCount;
         this.storageMap = parent.storageMap;
-        this.sortColumnIndexes = parent.sortColumnIndexes;
         reset();
     }
 
@@ -133,16 +115,7 @@ public class ResultTempMap implements ResultExternal {
             if (storageMap.putIfAbsent(a, a) == null)
                 rowCount++;
         } else {
-            if (sortColumnIndexes != null) {
-                Value[] key = new Value[sortColumnIndexes.length + 1];
-                for (int i = 0; i < sortColumnIndexes.length; i++) {
-                    key[i] = values[i];
-                }
-                key[sortColumnIndexes.length] = ValueLong.get(rowCount);
-                storageMap.put(ValueArray.get(key), a);
-            } else {
-                storageMap.append(a);
-            }
+            storageMap.append(a);
             rowCount++;
         }
         return rowCount;
@@ -150,10 +123,6 @@ public class ResultTempMap implements ResultExternal {
 
     @Override
     public int addRows(ArrayList<Value[]> rows) {
-        // speeds up inserting, but not really needed:
-        if (sort != null) {
-            sort.sort(rows);
-        }
         for (Value[] values : rows) {
             addRow(values);
         }
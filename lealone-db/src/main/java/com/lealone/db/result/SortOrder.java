@@ -136,6 +136,21 @@ public class SortOrder implements Comparator<Value[]> {
         }
     }
 
+    /**
+     * Check if the sort type b orders the values exactly in the reverse order of the sort type a,
+     * including the position of NULL.
+     *
+     * @param a the first sort type
+     * @param b the second sort type
+     * @return true if b is the reverse of a
+     */
+    public static boolean isReverse(int a, int b) {
+        if (((a ^ b) & DESCENDING) == 0) {
+            return false;
+        }
+        return compareNull(true, a) != compareNull(true, b);
+    }
+
     /**
      * Compare two expression lists.
      *
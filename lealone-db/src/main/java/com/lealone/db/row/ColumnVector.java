@@ -0,0 +1,130 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.db.row;
+
+import java.util.Arrays;
+
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueNull;
+
+/**
+ * 一批记录中某一列的值，整数类型的列存放在long[]中，浮点类型的列存放在double[]中，
+ * null值用位图标记，聚合和过滤时直接在原始类型的数组上循环，不需要再处理每条记录的Value。
+ * <p>
+ * 列值是从批量读到的记录中取出来的，跟page的存储模式无关，
+ * COLUMN_STORAGE的page也要先把ColumnPage解码成记录中的Value，不会直接从ColumnPage中读取原始类型的值。
+ */
+public class ColumnVector {
+
+    private final int columnId; // -1表示_ROWID_
+    private final boolean floating;
+
+    private long[] longs;
+    private double[] doubles;
+    private long[] nulls;
+    private int nullCount;
+    private int size;
+
+    public ColumnVector(int columnId, int type) {
+        this.columnId = columnId;
+        this.floating = type == Value.DOUBLE || type == Value.FLOAT;
+    }
+
+    public int getColumnId() {
+        return columnId;
+    }
+
+    public boolean isFloating() {
+        return floating;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long[] getLongs() {
+        return longs;
+    }
+
+    public double[] getDoubles() {
+        return doubles;
+    }
+
+    public boolean hasNulls() {
+        return nullCount > 0;
+    }
+
+    public boolean isNull(int index) {
+        return nullCount > 0 && (nulls[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * 从一批记录中取出当前列的值，每条记录还是要调用一次getValue，省掉的只是后面计算时对Value的处理。
+     *
+     * @param rows 记录
+     * @param size 记录数
+     */
+    public void load(Row[] rows, int size) {
+        ensureCapacity(size);
+        this.size = size;
+        if (nullCount > 0) {
+            Arrays.fill(nulls, 0);
+            nullCount = 0;
+        }
+        if (columnId < 0) {
+            for (int i = 0; i < size; i++) {
+                longs[i] = rows[i].getKey();
+            }
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            Value v = rows[i].getValue(columnId);
+            if (v == null || v == ValueNull.INSTANCE) {
+                nulls[i >>> 6] |= 1L << i;
+                nullCount++;
+            } else if (floating) {
+                doubles[i] = v.getDouble();
+            } else {
+                longs[i] = v.getLong();
+            }
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (floating) {
+            if (doubles == null || doubles.length < size)
+                doubles = new double[size];
+        } else {
+            if (longs == null || longs.length < size)
+                longs = new long[size];
+        }
+        int words = (size + 63) >>> 6;
+        if (nulls == null || nulls.length < words) {
+            nulls = new long[words];
+            nullCount = 0;
+        }
+    }
+
+    /**
+     * 只支持能无损放到long或double中的数值类型
+     *
+     * @param type 列的类型
+     * @return 是否支持
+     */
+    public static boolean isSupported(int type) {
+        switch (type) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+        case Value.FLOAT:
+        case Value.DOUBLE:
+            return true;
+        default:
+            return false;
+        }
+    }
+}
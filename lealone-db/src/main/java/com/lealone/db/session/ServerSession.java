@@ -124,7 +124,7 @@ public class ServerSession extends SessionBase implements InternalSession {
     private int modificationId;
     private int objectId;
     private int queryCacheSize;
-    private SmallLRUCache<String, PreparedSQLStatement> queryCache;
+    private QueryCache queryCache;
     private long modificationMetaID = -1;
 
     private boolean containsDDL;
@@ -177,6 +177,80 @@ public class ServerSession extends SessionBase implements InternalSession {
         return queryCacheSize > 0;
     }
 
+    // 解析SQL时会用当前用户检查权限、用当前schema查找没有指定schema的对象，所以它们也是key的一部分
+    private String getQueryCacheKey(String sql) {
+        StringBuilder buff = new StringBuilder(sql.length() + 32);
+        buff.append(user.getId()).append('/').append(currentSchemaName);
+        if (schemaSearchPath != null) {
+            for (String s : schemaSearchPath)
+                buff.append(',').append(s);
+        }
+        buff.append('/');
+        normalizeSql(buff, sql);
+        return buff.toString();
+    }
+
+    // 只是把引号之外的连续空白字符换成一个空格，引号之外有注释时不处理
+    private static void normalizeSql(StringBuilder buff, String sql) {
+        int start = buff.length();
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0, len = sql.length(); i < len; i++) {
+            char c = sql.charAt(i);
+            if (quote != 0) {
+                if (c == quote)
+                    quote = 0;
+            } else if (Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            } else if (c == '\'' || c == '"' || c == '`') {
+                quote = c;
+            } else if (isCommentStart(sql, i)) {
+                buff.setLength(start);
+                buff.append(sql);
+                return;
+            }
+            if (space) {
+                if (buff.length() > start)
+                    buff.append(' ');
+                space = false;
+            }
+            buff.append(c);
+        }
+    }
+
+    private static boolean isCommentStart(String sql, int i) {
+        if (i + 1 >= sql.length())
+            return false;
+        char c = sql.charAt(i);
+        char next = sql.charAt(i + 1);
+        return c == '-' && next == '-' || c == '/' && (next == '*' || next == '/');
+    }
+
+    // 空闲的语句放到数据库级的缓存中给其他session用
+    private void shareQuery(String key, PreparedSQLStatement ps) {
+        if (ps.canReuse() && ps.isShareable())
+            database.getSharedQueryCache().put(key, ps, modificationMetaID);
+    }
+
+    private class QueryCache extends LinkedHashMap<String, PreparedSQLStatement> {
+
+        private static final long serialVersionUID = 1L;
+
+        QueryCache() {
+            super(queryCacheSize, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedSQLStatement> eldest) {
+            if (size() > queryCacheSize) {
+                shareQuery(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    }
+
     public boolean setCommitOrRollbackDisabled(boolean x) {
         boolean old = commitOrRollbackDisabled;
         commitOrRollbackDisabled = x;
@@ -475,9 +549,11 @@ public class ServerSession extends SessionBase implements InternalSession {
             throw DbException.get(ErrorCode.CONNECTION_BROKEN_1, "session closed");
         }
         PreparedSQLStatement ps;
+        String key = null;
         if (queryCacheSize > 0) {
+            key = getQueryCacheKey(sql);
             if (queryCache == null) {
-                queryCache = SmallLRUCache.newInstance(queryCacheSize);
+                queryCache = new QueryCache();
                 modificationMetaID = database.getModificationMetaId();
             } else {
                 long newModificationMetaID = database.getModificationMetaId();
@@ -485,19 +561,32 @@ public class ServerSession extends SessionBase implements InternalSession {
                     queryCache.clear();
                     modificationMetaID = newModificationMetaID;
                 } else {
-                    ps = queryCache.get(sql);
+                    ps = queryCache.get(key);
                     if (ps != null && ps.canReuse()) {
                         ps.reuse();
                         return ps;
                     }
                 }
             }
+            // 再看看其他session有没有准备好的空闲语句
+            SharedQueryCache sharedQueryCache = database.getSharedQueryCache();
+            if (sharedQueryCache.isEnabled()) {
+                ps = sharedQueryCache.get(key, modificationMetaID);
+                if (ps != null) {
+                    ps.changeSession(this);
+                    ps.reuse();
+                    queryCache.put(key, ps);
+                    if (fetchSize != -1)
+                        ps.setFetchSize(fetchSize);
+                    return ps;
+                }
+            }
         }
         SQLParser parser = createParser();
         ps = parser.parse(sql).prepare();
         if (queryCache != null) {
             if (ps.isCacheable()) {
-                queryCache.put(sql, ps);
+                queryCache.put(key, ps);
             }
         }
         if (fetchSize != -1)
@@ -815,6 +904,13 @@ public class ServerSession extends SessionBase implements InternalSession {
             try {
                 database.checkPowerOff();
                 closeAllCache();
+                if (queryCache != null) {
+                    if (modificationMetaID == database.getModificationMetaId()) {
+                        for (Map.Entry<String, PreparedSQLStatement> e : queryCache.entrySet())
+                            shareQuery(e.getKey(), e.getValue());
+                    }
+                    queryCache = null;
+                }
                 cleanTempTables(true);
                 database.removeSession(this);
                 if (getScheduler() != null)
@@ -1359,12 +1455,68 @@ public class ServerSession extends SessionBase implements InternalSession {
         if (lockedByTransaction != null) {
             lockStartTime = System.currentTimeMillis();
             lockedBy = (ServerSession) lockedByTransaction.getSession();
+            if (sessionStatus == SessionStatus.WAITING)
+                checkDeadlock();
         } else {
             lockStartTime = 0;
             lockedBy = null;
         }
     }
 
+    // 被选为死锁的牺牲者的事务，由检测到死锁的session设置，在自己的调度线程中回滚
+    private Transaction deadlockVictim;
+    private String deadlockMessage;
+
+    // 每个session最多只等待一个事务，所以等待图就是session之间的lockedBy链，
+    // 每次加入新的等待边时沿着链检查一次就能发现所有的死锁(多个事务组成的环也可以)，
+    // 不用等到锁超时，环中最年轻(事务id最大)的事务被选为牺牲者
+    private void checkDeadlock() {
+        ArrayList<ServerSession> sessions = new ArrayList<>();
+        ArrayList<Transaction> transactions = new ArrayList<>();
+        ServerSession s = this;
+        Transaction t = transaction;
+        while (true) {
+            if (t == null)
+                return;
+            Transaction waitFor = s.lockedByTransaction;
+            if (waitFor == null || waitFor.isClosed())
+                return;
+            sessions.add(s);
+            transactions.add(t);
+            ServerSession next = (ServerSession) waitFor.getSession();
+            if (next == this)
+                break;
+            // 占有锁的事务没有在等待，或者遇到了一个不包含当前session的环(由加入最后一条边的session处理)
+            if (next == null || next.transaction != waitFor || sessions.contains(next))
+                return;
+            s = next;
+            t = waitFor;
+        }
+        int victim = 0;
+        StringBuilder buff = new StringBuilder();
+        for (int i = 0, size = sessions.size(); i < size; i++) {
+            if (transactions.get(i).getTransactionId() > transactions.get(victim).getTransactionId())
+                victim = i;
+            if (i > 0)
+                buff.append("\r\n");
+            buff.append(getMsg(transactions.get(i).getTransactionId(), sessions.get(i),
+                    transactions.get((i + 1) % size)));
+        }
+        ServerSession victimSession = sessions.get(victim);
+        Transaction victimTransaction = transactions.get(victim);
+        // 环中的多个session可能同时检测到同一个死锁，只算一次
+        synchronized (victimSession) {
+            if (victimSession.deadlockVictim == victimTransaction)
+                return;
+            victimSession.deadlockMessage = buff.toString();
+            victimSession.deadlockVictim = victimTransaction;
+        }
+        database.incrementDeadlockCount();
+        InternalScheduler scheduler = victimSession.getScheduler();
+        if (scheduler != null)
+            scheduler.wakeUp();
+    }
+
     private InternalScheduler scheduler;
 
     @Override
@@ -1501,8 +1653,22 @@ public class ServerSession extends SessionBase implements InternalSession {
     }
 
     private void checkTransactionTimeout(TimeoutListener timeoutListener) {
-        if (lockedByTransaction != null
-                && System.currentTimeMillis() - lockStartTime > getLockTimeout()) {
+        if (lockedByTransaction == null)
+            return;
+        String deadlock = null;
+        synchronized (this) {
+            if (deadlockVictim != null && deadlockVictim == transaction)
+                deadlock = deadlockMessage;
+        }
+        if (deadlock != null) {
+            DbException e = DbException.get(ErrorCode.DEADLOCK_1,
+                    deadlock + ", the locked object: " + lockedObject);
+            if (timeoutListener != null)
+                timeoutListener.onTimeout(yieldableCommand, e);
+            rollback();
+            return;
+        }
+        if (System.currentTimeMillis() - lockStartTime > getLockTimeout()) {
             DbException e = null;
             String lockedObjectStr = lockedObject.toString();
             // 发生死锁了
@@ -1512,9 +1678,11 @@ public class ServerSession extends SessionBase implements InternalSession {
                         lockedByTransaction.getSession(), transaction);
                 msg += ", the locked object: " + lockedObjectStr;
                 e = DbException.get(ErrorCode.DEADLOCK_1, msg);
+                database.incrementDeadlockCount();
             } else {
                 String msg = getMsg(transaction.getTransactionId(), this, lockedByTransaction);
                 e = DbException.get(ErrorCode.LOCK_TIMEOUT_1, lockedObjectStr, msg);
+                database.incrementLockTimeoutCount();
             }
             if (e != null) {
                 if (timeoutListener != null)
@@ -1716,6 +1884,17 @@ public class ServerSession extends SessionBase implements InternalSession {
         this.olapBatchSize = olapBatchSize;
     }
 
+    // 为true时不需要排序、去重和分组的查询边生成边返回，剩下的记录等客户端来取时再接着生成
+    private boolean lazyQueryExecution;
+
+    public boolean isLazyQueryExecution() {
+        return lazyQueryExecution;
+    }
+
+    public void setLazyQueryExecution(boolean lazyQueryExecution) {
+        this.lazyQueryExecution = lazyQueryExecution;
+    }
+
     public Map<String, String> getSettings() {
         Map<String, String> settings = new LinkedHashMap<>(SessionSetting.values().length);
         for (SessionSetting setting : SessionSetting.values()) {
@@ -1756,6 +1935,9 @@ public class ServerSession extends SessionBase implements InternalSession {
             case OLAP_BATCH_SIZE:
                 v = olapBatchSize;
                 break;
+            case LAZY_QUERY_EXECUTION:
+                v = lazyQueryExecution;
+                break;
             }
             settings.put(setting.name(), v == null ? "null" : v.toString());
         }
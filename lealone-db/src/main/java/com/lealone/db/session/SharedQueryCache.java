@@ -0,0 +1,131 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.db.session;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.lealone.sql.PreparedSQLStatement;
+
+/**
+ * 数据库级的语句缓存，所有session共享已经解析和优化好的语句。
+ * <p>
+ * 语句对象有自己的状态(参数值、TableFilter的当前位置等)，同一时刻只能给一个session用，
+ * 所以这里只放空闲的语句：session的queryCache淘汰的语句放进来，其他session取出后切换到自己的session，
+ * 再绑定自己的参数值。同样的SQL可以有多个空闲的语句。
+ * <p>
+ * 数据库的modificationMetaId变了之后缓存的语句全部作废。
+ */
+public class SharedQueryCache {
+
+    private final LinkedHashMap<String, ArrayDeque<PreparedSQLStatement>> statements = //
+            new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private int maxSize;
+    private int size;
+    private long modificationMetaId;
+
+    public SharedQueryCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * 取出一个空闲的语句，取出后其他session就拿不到了。
+     *
+     * @param key 由SQL和解析SQL时用到的session状态组成，见ServerSession.getQueryCacheKey
+     * @param metaId 数据库当前的modificationMetaId
+     * @return 没有可用的语句时返回null
+     */
+    public PreparedSQLStatement get(String key, long metaId) {
+        PreparedSQLStatement ps = null;
+        synchronized (this) {
+            checkModificationMetaId(metaId);
+            ArrayDeque<PreparedSQLStatement> list = statements.get(key);
+            if (list != null) {
+                ps = list.pollLast();
+                size--;
+                if (list.isEmpty())
+                    statements.remove(key);
+            }
+        }
+        if (ps == null)
+            misses.incrementAndGet();
+        else
+            hits.incrementAndGet();
+        return ps;
+    }
+
+    /**
+     * 放回一个空闲的语句，准备语句之后元数据又变了的话直接丢弃。
+     */
+    public synchronized void put(String key, PreparedSQLStatement ps, long metaId) {
+        if (maxSize <= 0)
+            return;
+        checkModificationMetaId(metaId);
+        if (ps.getModificationMetaId() < modificationMetaId)
+            return;
+        ArrayDeque<PreparedSQLStatement> list = statements.get(key);
+        if (list == null) {
+            list = new ArrayDeque<>(1);
+            statements.put(key, list);
+        }
+        list.addLast(ps);
+        size++;
+        evict();
+    }
+
+    private void checkModificationMetaId(long metaId) {
+        if (metaId > modificationMetaId) {
+            statements.clear();
+            size = 0;
+            modificationMetaId = metaId;
+        }
+    }
+
+    // 按LRU的顺序淘汰，最久没用到的SQL最先淘汰
+    private void evict() {
+        Iterator<ArrayDeque<PreparedSQLStatement>> it = statements.values().iterator();
+        while (size > maxSize && it.hasNext()) {
+            ArrayDeque<PreparedSQLStatement> list = it.next();
+            while (size > maxSize && !list.isEmpty()) {
+                list.pollFirst();
+                size--;
+            }
+            if (list.isEmpty())
+                it.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        statements.clear();
+        size = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
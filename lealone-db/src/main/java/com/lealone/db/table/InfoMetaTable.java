@@ -57,6 +57,7 @@ import com.lealone.db.schema.UserAggregate;
 import com.lealone.db.schema.UserDataType;
 import com.lealone.db.service.Service;
 import com.lealone.db.session.ServerSession;
+import com.lealone.db.session.SharedQueryCache;
 import com.lealone.db.util.Csv;
 import com.lealone.db.value.CompareMode;
 import com.lealone.db.value.DataType;
@@ -646,6 +647,17 @@ public class InfoMetaTable extends MetaTable {
                 add(rows, e.getKey(), "database", e.getValue());
             }
 
+            // 数据库级的语句缓存和锁的统计信息
+            SharedQueryCache cache = database.getSharedQueryCache();
+            add(rows, "SHARED_QUERY_CACHE_ENTRIES", "info", "" + cache.size());
+            add(rows, "SHARED_QUERY_CACHE_HITS", "info", "" + cache.getHits());
+            add(rows, "SHARED_QUERY_CACHE_MISSES", "info", "" + cache.getMisses());
+            add(rows, "DEADLOCKS", "info", "" + database.getDeadlockCount());
+            add(rows, "LOCK_TIMEOUTS", "info", "" + database.getLockTimeoutCount());
+            for (Entry<String, String> e : database.getTransactionEngine().getInfo().entrySet()) {
+                add(rows, e.getKey(), "info", e.getValue());
+            }
+
             // session settings
             for (Entry<String, String> e : session.getSettings().entrySet()) {
                 add(rows, e.getKey(), "session", e.getValue());
@@ -370,13 +370,19 @@ public class StandardTable extends Table {
     private AsyncResultHandler<Integer> createHandler(ServerSession session,
             AsyncResultHandler<Integer> topHandler, AtomicInteger count, AtomicBoolean isFailed,
             IndexOperation io) {
+        return createHandler(session, topHandler, count, isFailed, io, 1);
+    }
+
+    private AsyncResultHandler<Integer> createHandler(ServerSession session,
+            AsyncResultHandler<Integer> topHandler, AtomicInteger count, AtomicBoolean isFailed,
+            IndexOperation io, int changes) {
         return ar -> {
             if (ar.isSucceeded()) {
                 if (count.decrementAndGet() == 0 && !isFailed.get()) {
                     if (io != null)
                         IndexOperator.addIndexOperation(session, this, io);
                     topHandler.handle(ar);
-                    analyzeIfRequired(session);
+                    analyzeIfRequired(session, changes);
                 }
             } else if (isFailed.compareAndSet(false, true)) {
                 topHandler.handle(ar);
@@ -385,8 +391,12 @@ public class StandardTable extends Table {
     }
 
     private void analyzeIfRequired(ServerSession session) {
+        analyzeIfRequired(session, 1);
+    }
+
+    private void analyzeIfRequired(ServerSession session, int changes) {
         if (tableAnalyzer != null)
-            tableAnalyzer.analyzeIfRequired(session);
+            tableAnalyzer.analyzeIfRequired(session, changes);
     }
 
     @Override
@@ -459,6 +469,84 @@ public class StandardTable extends Table {
         }
     }
 
+    // 跟addRow一样，只是每个索引都是一次增加所有的记录
+    @Override
+    public void addRows(ServerSession session, List<Row> rows, AsyncResultHandler<Integer> handler) {
+        lastModificationId = database.getNextModificationDataId();
+        if (containsLargeObject()) {
+            AsyncResultHandler<Integer> topHandler = handler;
+            handler = ar -> {
+                if (ar.isSucceeded()) {
+                    for (Row row : rows)
+                        primaryIndex.onAddSucceeded(session, row);
+                }
+                topHandler.handle(ar);
+            };
+        }
+        ArrayList<Index> oldIndexes = indexesSync;
+        int size = oldIndexes.size();
+        AtomicInteger count = new AtomicInteger(size);
+        AtomicBoolean isFailed = new AtomicBoolean();
+
+        if (!indexesAsync.isEmpty()) {
+            // 要在增加记录前创建，没有主键的表等primaryIndex写成功得到row key后再回填
+            int rowCount = rows.size();
+            ArrayList<IndexOperation> ios = new ArrayList<>(rowCount);
+            for (Row row : rows) {
+                IndexOperation io = IndexOperator.createAIO(row.getKey(), row.getColumns());
+                io.setTransaction(session.getTransaction());
+                ios.add(io);
+            }
+            AsyncResultHandler<Integer> topHandler = handler;
+            handler = ar -> {
+                if (ar.isSucceeded()) {
+                    for (int i = 0; i < rowCount; i++) {
+                        IndexOperation io = ios.get(i);
+                        io.setRowKey(rows.get(i).getKey());
+                        IndexOperator.addIndexOperation(session, this, io);
+                    }
+                }
+                topHandler.handle(ar);
+            };
+        }
+
+        AsyncResultHandler<Integer> topHandler = handler;
+        if (primaryIndex.containsMainIndexColumn()) {
+            // 第一个是PrimaryIndex
+            for (int i = 0; i < size && !isFailed.get(); i++) {
+                Index index = oldIndexes.get(i);
+                index.add(session, rows,
+                        createHandler(session, topHandler, count, isFailed, null, rows.size()));
+            }
+        } else {
+            // 如果表没有主键，需要等primaryIndex写成功得到row id后才能写其他索引
+            primaryIndex.add(session, rows, ar -> {
+                if (ar.isSucceeded()) {
+                    if (count.decrementAndGet() == 0) {
+                        topHandler.handle(ar);
+                        analyzeIfRequired(session, rows.size());
+                        return;
+                    }
+                    for (int i = 1; i < size && !isFailed.get(); i++) {
+                        Index index = oldIndexes.get(i);
+                        index.add(session, rows, createHandler(session, topHandler, count, isFailed,
+                                null, rows.size()));
+                    }
+                } else {
+                    topHandler.handle(ar);
+                }
+            });
+        }
+
+        // 看看有没有刚刚创建的索引，如果有就让它也写入新记录
+        ArrayList<Index> newIndexes = indexesSync;
+        if (oldIndexes != newIndexes) {
+            for (Index index : getNewIndexes(oldIndexes, newIndexes)) {
+                index.add(session, rows, AsyncResultHandler.emptyHandler());
+            }
+        }
+    }
+
     @Override
     public void updateRow(ServerSession session, Row oldRow, Row newRow, int[] updateColumns,
             boolean isLockedBySelf, AsyncResultHandler<Integer> handler) {
@@ -553,8 +641,21 @@ public class StandardTable extends Table {
         primaryIndex.repair(session);
     }
 
+    @Override
+    public void prepareRecover() {
+        database.getTransactionEngine().prepareRecover(primaryIndex.getDataMap().getRawMap());
+    }
+
+    // 恢复时执行redo的session，一张表只由一个线程恢复
+    private ServerSession recoverSession;
+
     @Override
     public void recover() {
+        recover(database.getSystemSession());
+    }
+
+    @Override
+    public void recover(ServerSession session) {
         ArrayList<StorageMap<?, ?>> indexMaps = null;
         ArrayList<Index> indexes = this.indexes;
         int size = indexes.size();
@@ -567,7 +668,12 @@ public class StandardTable extends Table {
             }
         }
         TransactionEngine transactionEngine = database.getTransactionEngine();
-        transactionEngine.recover(primaryIndex.getDataMap().getRawMap(), indexMaps);
+        recoverSession = session;
+        try {
+            transactionEngine.recover(primaryIndex.getDataMap().getRawMap(), indexMaps);
+        } finally {
+            recoverSession = null;
+        }
     }
 
     @Override
@@ -868,7 +974,8 @@ public class StandardTable extends Table {
     @SuppressWarnings("unchecked")
     public void redo(Row row, int metaVersion) {
         Value[] oldValues = row.getColumns();
-        ServerSession session = getDatabase().getSystemSession();
+        ServerSession session = recoverSession != null ? recoverSession
+                : getDatabase().getSystemSession();
         if (metaVersion < getVersion()) {
             ArrayList<TableAlterHistoryRecord> records = getTableAlterHistoryRecords(session,
                     metaVersion);
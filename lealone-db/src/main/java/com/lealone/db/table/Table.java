@@ -11,6 +11,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.lealone.common.exceptions.DbException;
 import com.lealone.common.util.Utils;
@@ -188,6 +190,28 @@ public abstract class Table extends SchemaObjectBase {
         throw newUnsupportedException();
     }
 
+    /**
+     * Add rows to the table and all indexes, the handler is called once after all rows are added.
+     *
+     * @param session the session
+     * @param rows the rows
+     * @param handler the handler
+     */
+    public void addRows(ServerSession session, List<Row> rows, AsyncResultHandler<Integer> handler) {
+        AtomicInteger count = new AtomicInteger(rows.size());
+        AtomicBoolean isFailed = new AtomicBoolean();
+        for (int i = 0, size = rows.size(); i < size && !isFailed.get(); i++) {
+            addRow(session, rows.get(i), ar -> {
+                if (ar.isSucceeded()) {
+                    if (count.decrementAndGet() == 0 && !isFailed.get())
+                        handler.handle(ar);
+                } else if (isFailed.compareAndSet(false, true)) {
+                    handler.handle(ar);
+                }
+            });
+        }
+    }
+
     /**
      * Update a row from the table and all indexes.
      *
@@ -238,9 +262,16 @@ public abstract class Table extends SchemaObjectBase {
         throw newUnsupportedException();
     }
 
+    public void prepareRecover() {
+    }
+
     public void recover() {
     }
 
+    public void recover(ServerSession session) {
+        recover();
+    }
+
     /**
      * Check if this table supports ALTER TABLE.
      *
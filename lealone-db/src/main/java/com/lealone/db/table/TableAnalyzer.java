@@ -34,7 +34,13 @@ public class TableAnalyzer {
 
     // 允许多线程运行，对changesSinceAnalyze计数虽然不是线程安全的，但不要求准确，所以不必用原子操作
     public void analyzeIfRequired(ServerSession session) {
-        if (nextAnalyze > changesSinceAnalyze++) {
+        analyzeIfRequired(session, 1);
+    }
+
+    // 批量增加记录时一次回调对应多行，要按行数计数
+    public void analyzeIfRequired(ServerSession session, int changes) {
+        changesSinceAnalyze += changes;
+        if (nextAnalyze >= changesSinceAnalyze) {
             return;
         }
         if (analyzing.compareAndSet(false, true)) {
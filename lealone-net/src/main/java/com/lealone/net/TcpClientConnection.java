@@ -59,6 +59,10 @@ public class TcpClientConnection extends TransferConnection {
         callbackMap.remove(packetId);
     }
 
+    public boolean hasAsyncCallbacks() {
+        return !callbackMap.isEmpty();
+    }
+
     @Override
     public void close() {
         if (isClosed())
@@ -7,6 +7,8 @@ package com.lealone.db;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryUsage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import com.lealone.common.util.SystemPropertyUtils;
@@ -45,6 +47,58 @@ public class MemoryManager {
         return globalMemoryManager;
     }
 
+    /**
+     * 能释放内存的对象，比如BTreeMap，全局内存紧张时由MemoryManager轮流让它们释放一部分内存。
+     */
+    public static interface MemoryReleaser {
+        /**
+         * 尽量释放bytes字节的内存，不能立即释放时直接返回0
+         *
+         * @return 实际释放的内存
+         */
+        long releaseMemory(long bytes);
+    }
+
+    // 每次至少让一个MemoryReleaser释放1M内存，避免一轮释放的太少
+    private static final long MIN_RELEASE_BYTES = 1024 * 1024;
+
+    private static final CopyOnWriteArrayList<MemoryReleaser> releasers = new CopyOnWriteArrayList<>();
+    private static final AtomicBoolean releasing = new AtomicBoolean();
+    private static int nextReleaser; // 下次从哪一个开始，避免总是先释放同一个对象的内存
+
+    public static void addMemoryReleaser(MemoryReleaser releaser) {
+        releasers.add(releaser);
+    }
+
+    public static void removeMemoryReleaser(MemoryReleaser releaser) {
+        releasers.remove(releaser);
+    }
+
+    // 全局内存紧张时，每一轮让每个MemoryReleaser平均释放超出的部分，直到不再紧张或者释放不了为止
+    public static void releaseGlobalMemory() {
+        if (!releasing.compareAndSet(false, true)) // 已经有其他线程在释放了
+            return;
+        try {
+            while (true) {
+                long excess = globalMemoryManager.getExcessMemory();
+                Object[] array = releasers.toArray();
+                int size = array.length;
+                if (excess <= 0 || size == 0)
+                    break;
+                long bytes = Math.max(excess / size, MIN_RELEASE_BYTES);
+                long released = 0;
+                for (int i = 0; i < size && globalMemoryManager.needGc(); i++) {
+                    int index = (nextReleaser++ & Integer.MAX_VALUE) % size;
+                    released += ((MemoryReleaser) array[index]).releaseMemory(bytes);
+                }
+                if (released <= 0)
+                    break;
+            }
+        } finally {
+            releasing.set(false);
+        }
+    }
+
     private final AtomicLong usedMemory = new AtomicLong(0);
     private long gcThreshold;
 
@@ -70,6 +124,11 @@ public class MemoryManager {
         usedMemory.addAndGet(delta);
     }
 
+    // 超过GC阈值的内存，小于等于0时说明不需要GC
+    public long getExcessMemory() {
+        return usedMemory.get() - gcThreshold;
+    }
+
     public boolean needGc() {
         if (usedMemory.get() > gcThreshold)
             return true;
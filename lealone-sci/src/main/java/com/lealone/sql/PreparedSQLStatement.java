@@ -42,6 +42,17 @@ public interface PreparedSQLStatement extends SQLStatement, ManualCloseable {
         return false;
     }
 
+    // 能否放到数据库级的缓存中给其他session共享
+    default boolean isShareable() {
+        return false;
+    }
+
+    // 从数据库级的缓存中取出后切换到新的session
+    default void changeSession(Session session) {
+    }
+
+    long getModificationMetaId();
+
     default boolean isDDL() {
         return false;
     }
@@ -84,6 +95,9 @@ public interface PreparedSQLStatement extends SQLStatement, ManualCloseable {
 
         PreparedSQLStatement getStatement();
 
+        // 查询结果能分批生成时，每生成fetchSize行就暂停，剩下的等客户端来取时再接着生成
+        default void enableStreaming(int fetchSize) {
+        }
     }
 
     static class YieldableCommand {
@@ -16,6 +16,8 @@ public class CursorParameters<K> {
     public final List<PageKey> pageKeys;
     public final int[] columnIndexes;
     public final boolean allColumns;
+    // 为true时从from开始按降序遍历，此时from是上界
+    public final boolean reverse;
 
     public CursorParameters(K from, K to, List<PageKey> pageKeys, int[] columnIndexes) {
         this(from, to, pageKeys, columnIndexes, false);
@@ -23,15 +25,27 @@ public class CursorParameters<K> {
 
     public CursorParameters(K from, K to, List<PageKey> pageKeys, int[] columnIndexes,
             boolean allColumns) {
+        this(from, to, pageKeys, columnIndexes, allColumns, false);
+    }
+
+    public CursorParameters(K from, K to, List<PageKey> pageKeys, int[] columnIndexes,
+            boolean allColumns, boolean reverse) {
         this.from = from;
         this.to = to;
         this.pageKeys = pageKeys;
         this.columnIndexes = columnIndexes;
         this.allColumns = allColumns;
+        this.reverse = reverse;
     }
 
     public <K2> CursorParameters<K2> copy(K2 from, K2 to) {
-        return new CursorParameters<>(from, to, pageKeys, columnIndexes, allColumns);
+        return new CursorParameters<>(from, to, pageKeys, columnIndexes, allColumns, reverse);
+    }
+
+    public CursorParameters<K> reverse(boolean reverse) {
+        if (this.reverse == reverse)
+            return this;
+        return new CursorParameters<>(from, to, pageKeys, columnIndexes, allColumns, reverse);
     }
 
     public static <K> CursorParameters<K> create(K from) {
@@ -58,4 +72,8 @@ public class CursorParameters<K> {
             int[] columnIndexes) {
         return new CursorParameters<>(from, to, pageKeys, columnIndexes);
     }
+
+    public static <K> CursorParameters<K> createReverse(K from) {
+        return new CursorParameters<>(from, null, null, null, false, true);
+    }
 }
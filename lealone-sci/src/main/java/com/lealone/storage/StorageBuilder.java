@@ -7,6 +7,7 @@ package com.lealone.storage;
 
 import java.util.HashMap;
 
+import com.lealone.common.compress.Compressor;
 import com.lealone.common.util.DataUtils;
 import com.lealone.db.DbSetting;
 
@@ -109,7 +110,17 @@ public abstract class StorageBuilder {
      * @return this
      */
     public StorageBuilder compress() {
-        return set(DbSetting.COMPRESS, 1);
+        return set(DbSetting.COMPRESS, Compressor.LZF);
+    }
+
+    /**
+     * Compress data before writing using the LZ4 algorithm. It is faster than
+     * LZF, but the pages can only be read by versions that know the LZ4 codec.
+     * 
+     * @return this
+     */
+    public StorageBuilder compressFast() {
+        return set(DbSetting.COMPRESS, Compressor.LZ4);
     }
 
     /**
@@ -124,7 +135,18 @@ public abstract class StorageBuilder {
      * @return this
      */
     public StorageBuilder compressHigh() {
-        return set(DbSetting.COMPRESS, 2);
+        return set(DbSetting.COMPRESS, Compressor.DEFLATE);
+    }
+
+    /**
+     * Recompress the pages of cold chunks with the given algorithm when they are
+     * rewritten to a new chunk, for example "DEFLATE level 9".
+     * 
+     * @param algorithm the compression algorithm and options
+     * @return this
+     */
+    public StorageBuilder compressColdChunks(String algorithm) {
+        return set(StorageSetting.COLD_CHUNK_COMPRESS, algorithm);
     }
 
     /**
@@ -145,6 +167,27 @@ public abstract class StorageBuilder {
         return set(StorageSetting.MIN_FILL_RATE, minFillRate);
     }
 
+    /**
+     * Set the number of sibling pages to read ahead when a cursor scans the leaf pages
+     * sequentially. 0 disables read-ahead.
+     * 
+     * @param prefetchPages the number of pages
+     * @return this
+     */
+    public StorageBuilder prefetchPages(int prefetchPages) {
+        return set(StorageSetting.PREFETCH_PAGES, prefetchPages);
+    }
+
+    /**
+     * Read the chunk files that no longer receive writes through a read-only memory map.
+     * The last chunk file is still read and written through the file channel.
+     * 
+     * @return this
+     */
+    public StorageBuilder mmapChunkFiles() {
+        return set(StorageSetting.MMAP_CHUNK_FILES, true);
+    }
+
     @Override
     public String toString() {
         return DataUtils.appendMap(new StringBuilder(), config).toString();
@@ -6,9 +6,13 @@
 package com.lealone.storage;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.lealone.common.exceptions.DbException;
 import com.lealone.db.Constants;
@@ -186,6 +190,16 @@ public interface StorageMap<K, V> {
         return cursor(CursorParameters.create(null));
     }
 
+    /**
+     * Get a cursor to iterate over a number of keys and values in descending order.
+     *
+     * @param from the first (largest) key to return, or null to start from the last key
+     * @return the cursor
+     */
+    default StorageMapCursor<K, V> reverseCursor(K from) {
+        return cursor(CursorParameters.createReverse(from));
+    }
+
     StorageMapCursor<K, V> cursor(CursorParameters<K> parameters);
 
     /**
@@ -278,6 +292,35 @@ public interface StorageMap<K, V> {
         putIfAbsent(key, value, handler);
     }
 
+    /**
+     * 批量执行putIfAbsent，结果是每个key已经存在的旧值，新增的是null。
+     * keys要按key的顺序排好，存储引擎可以把落在同一个page中的key一次写完。
+     */
+    @SuppressWarnings("unchecked")
+    default void putIfAbsent(InternalSession session, List<K> keys, List<V> values,
+            AsyncResultHandler<List<V>> handler) {
+        int size = keys.size();
+        Object[] oldValues = new Object[size];
+        if (size == 0) {
+            handler.handleResult(Arrays.asList((V[]) oldValues));
+            return;
+        }
+        AtomicInteger count = new AtomicInteger(size);
+        AtomicBoolean isFailed = new AtomicBoolean();
+        for (int i = 0; i < size; i++) {
+            int index = i;
+            putIfAbsent(session, keys.get(i), values.get(i), ar -> {
+                if (ar.isSucceeded()) {
+                    oldValues[index] = ar.getResult();
+                    if (count.decrementAndGet() == 0 && !isFailed.get())
+                        handler.handleResult(Arrays.asList((V[]) oldValues));
+                } else if (isFailed.compareAndSet(false, true)) {
+                    handler.handleException(ar.getCause());
+                }
+            });
+        }
+    }
+
     default void append(V value, AsyncResultHandler<K> handler) {
         K k = append(value);
         handleAsyncResult(handler, k);
@@ -387,4 +430,15 @@ public interface StorageMap<K, V> {
     default Map<List<String>, List<PageKey>> getNodeToPageKeyMap(K from, K to) {
         throw DbException.getUnsupportedException("getNodeToPageKeyMap");
     }
+
+    /**
+     * 按存储结构把map中的key切分成最多count段，用于并行扫描。
+     * 返回的是有序的切分点，每个切分点是一段的起始key，第一段从最小的key开始。
+     *
+     * @param count 最多切分成多少段
+     * @return 切分点，不能切分时返回空列表
+     */
+    default List<Object> getSplitKeys(int count) {
+        return Collections.emptyList();
+    }
 }
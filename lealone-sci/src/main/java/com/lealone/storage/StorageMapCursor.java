@@ -26,6 +26,22 @@ public interface StorageMapCursor<K, V> {
 
     boolean next();
 
+    /**
+     * 批量读取记录，最多读取keys.length条，存储引擎可以一次只返回一个page中剩下的记录。
+     *
+     * @param keys 存放读到的key
+     * @param values 存放读到的value
+     * @return 实际读到的记录数，返回0表示没有记录了
+     */
+    default int next(Object[] keys, Object[] values) {
+        int count = 0;
+        while (count < keys.length && next()) {
+            keys[count] = getKey();
+            values[count++] = getValue();
+        }
+        return count;
+    }
+
     default void forEachRemaining(Consumer<? super K> action) {
         Objects.requireNonNull(action);
         while (next())
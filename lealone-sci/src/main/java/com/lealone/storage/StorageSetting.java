@@ -13,6 +13,9 @@ public enum StorageSetting {
     MAP_TYPE,
     USE_TABLE_LOB_STORAGE,
     MAX_CHUNK_SIZE,
+    PREFETCH_PAGES,
+    MMAP_CHUNK_FILES,
+    COLD_CHUNK_COMPRESS,
 
     RUN_MODE
 }
@@ -5,7 +5,9 @@
  */
 package com.lealone.transaction;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import com.lealone.db.Constants;
 import com.lealone.db.RunMode;
@@ -43,6 +45,21 @@ public interface TransactionEngine extends PluggableEngine {
 
     void checkpoint();
 
+    // 在开始恢复之前为每个map调用一次，事务引擎可以在后台提前验证redo log中涉及多个map的事务
+    default void prepareRecover(StorageMap<?, ?> map) {
+    }
+
+    // 恢复时可以并行执行的任务数
+    default int getRecoverThreads() {
+        return 1;
+    }
+
+    // 等prepareRecover都完成后再执行恢复任务，不同的任务可以并行执行，返回时所有任务都已经执行完
+    default void runRecoverTasks(List<Runnable> tasks) {
+        for (Runnable task : tasks)
+            task.run();
+    }
+
     default void recover(StorageMap<?, ?> map, List<StorageMap<?, ?>> indexMaps) {
     }
 
@@ -58,6 +75,11 @@ public interface TransactionEngine extends PluggableEngine {
         return null;
     }
 
+    // 事务引擎的统计信息，key是名称，会出现在INFORMATION_SCHEMA.SETTINGS中
+    default Map<String, String> getInfo() {
+        return Collections.emptyMap();
+    }
+
     default void addGcTask(GcTask gcTask) {
     }
 
@@ -5,6 +5,8 @@
  */
 package com.lealone.transaction;
 
+import java.util.List;
+
 import com.lealone.db.async.AsyncResultHandler;
 import com.lealone.db.lock.Lockable;
 import com.lealone.storage.CursorParameters;
@@ -12,7 +14,7 @@ import com.lealone.storage.StorageMap;
 
 public interface TransactionMap<K, V> extends StorageMap<K, V> {
 
-    // 以下三个api只是改变返回类型
+    // 以下四个api只是改变返回类型
 
     @Override
     public default TransactionMapCursor<K, V> cursor(K from) {
@@ -24,6 +26,11 @@ public interface TransactionMap<K, V> extends StorageMap<K, V> {
         return cursor(CursorParameters.create(null));
     }
 
+    @Override
+    public default TransactionMapCursor<K, V> reverseCursor(K from) {
+        return cursor(CursorParameters.createReverse(from));
+    }
+
     @Override
     public TransactionMapCursor<K, V> cursor(CursorParameters<K> parameters);
 
@@ -52,6 +59,13 @@ public interface TransactionMap<K, V> extends StorageMap<K, V> {
 
     public void addIfAbsent(K key, Lockable lockable, AsyncResultHandler<Integer> handler);
 
+    /**
+     * 批量增加，keys要按key的顺序排好，结果是第一个已经存在的key的位置，都增加成功时是-1。
+     * 有重复的key时其他已经增加的记录不会撤销，由调用者回滚当前语句。
+     */
+    public void addIfAbsent(List<K> keys, List<? extends Lockable> lockables,
+            AsyncResultHandler<Integer> handler);
+
     // 若是定义成append(lockable,handler)，java的泛型会识别为append(V value,handler)
     public void append(AsyncResultHandler<K> handler, Lockable lockable);
 
@@ -5,13 +5,21 @@
  */
 package com.lealone.server.handler;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import com.lealone.db.async.AsyncTask;
 import com.lealone.db.command.CommandParameter;
 import com.lealone.db.session.ServerSession;
 import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueDecimal;
+import com.lealone.db.value.ValueInt;
+import com.lealone.db.value.ValueLong;
+import com.lealone.db.value.ValueString;
 import com.lealone.server.protocol.Packet;
 import com.lealone.server.protocol.PacketType;
 import com.lealone.server.protocol.batch.BatchStatementPreparedUpdate;
@@ -33,6 +41,20 @@ class BatchStatementPacketHandlers extends PacketHandlers {
     private static class Update implements PacketHandler<BatchStatementUpdate> {
         @Override
         public Packet handle(PacketHandleTask task, BatchStatementUpdate packet) {
+            ArrayList<Value[]> batchParameterValues = new ArrayList<>(packet.size);
+            MerSert command = prepareMerSert(task.session, packet.batchStatements,
+                    batchParameterValues);
+            if (command != null) {
+                // 出错时这条语句的改动都撤销了，再一条条执行，这样能知道是哪些语句失败了
+                executeMerSert(task, command, batchParameterValues,
+                        () -> executeOneByOne(task, packet));
+            } else {
+                executeOneByOne(task, packet);
+            }
+            return null;
+        }
+
+        private static void executeOneByOne(PacketHandleTask task, BatchStatementUpdate packet) {
             ServerSession session = task.session;
             boolean autoCommit = session.isAutoCommit();
             if (autoCommit)
@@ -53,8 +75,178 @@ class BatchStatementPacketHandlers extends PacketHandlers {
                 };
                 task.si().submitTask(subTask, false);
             }
+        }
+
+        // 批量语句都是只有字面值不一样的单行INSERT或MERGE时，把字面值换成参数，只准备一次，
+        // 然后跟BatchStatementPreparedUpdate一样当成一条多行语句执行
+        private static MerSert prepareMerSert(ServerSession session, List<String> statements,
+                ArrayList<Value[]> batchParameterValues) {
+            int size = statements.size();
+            if (size < 2)
+                return null;
+            ArrayList<Value> literals = new ArrayList<>();
+            String sql = parameterize(statements.get(0), literals);
+            if (sql == null || literals.isEmpty() || !(startsWith(sql, "INSERT ")
+                    || startsWith(sql, "MERGE ")))
+                return null;
+            batchParameterValues.add(literals.toArray(new Value[0]));
+            for (int i = 1; i < size; i++) {
+                literals.clear();
+                if (!sql.equals(parameterize(statements.get(i), literals)))
+                    return null;
+                batchParameterValues.add(literals.toArray(new Value[0]));
+            }
+            PreparedSQLStatement command;
+            try {
+                command = session.prepareStatement(sql, -1);
+            } catch (Exception e) {
+                // 像DATE '2024-01-01'这样的字面值换成参数后就不合法了，还是一条条执行
+                return null;
+            }
+            if (command instanceof MerSert && ((MerSert) command).isBatchable()
+                    && command.getParameters().size() == literals.size())
+                return (MerSert) command;
             return null;
         }
+
+        private static boolean startsWith(String sql, String prefix) {
+            return sql.regionMatches(true, 0, prefix, 0, prefix.length());
+        }
+
+        // 把VALUES中作为单独一项的字符串和数字(可以带正负号)换成参数，同时把连续空白字符换成一个空格，
+        // 像VALUES(5/2)、VALUES('a' || 'b')这样在表达式中的字面值换成参数后类型会变，结果可能不一样，
+        // 所以有这样的字面值、注释、参数或者不认识的字面值时返回null
+        private static String parameterize(String sql, ArrayList<Value> literals) {
+            if (sql.contains("--") || sql.contains("/*") || sql.contains("//")
+                    || sql.contains("$$"))
+                return null;
+            int len = sql.length();
+            StringBuilder buff = new StringBuilder(len);
+            boolean space = false;
+            boolean afterValues = false;
+            int depth = 0;
+            for (int i = 0; i < len; i++) {
+                char c = sql.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    space = true;
+                    continue;
+                }
+                if (space) {
+                    if (buff.length() > 0)
+                        buff.append(' ');
+                    space = false;
+                }
+                char last = i > 0 ? sql.charAt(i - 1) : ' ';
+                if (c == '?') {
+                    return null;
+                } else if (c == '"' || c == '`') {
+                    int end = sql.indexOf(c, i + 1);
+                    if (end < 0)
+                        return null;
+                    buff.append(sql, i, end + 1);
+                    i = end;
+                } else if (c == '\'') {
+                    // N'...'、X'...'这类带前缀的不处理
+                    if (Character.isJavaIdentifierPart(last)
+                            || !isValuesItemStart(buff, afterValues, depth))
+                        return null;
+                    StringBuilder s = new StringBuilder();
+                    for (i++;; i++) {
+                        if (i >= len)
+                            return null;
+                        c = sql.charAt(i);
+                        if (c == '\'') {
+                            if (i + 1 < len && sql.charAt(i + 1) == '\'')
+                                i++;
+                            else
+                                break;
+                        }
+                        s.append(c);
+                    }
+                    if (!isValuesItemEnd(sql, i + 1))
+                        return null;
+                    literals.add(ValueString.get(s.toString()));
+                    buff.append('?');
+                } else if (c >= '0' && c <= '9' && !Character.isJavaIdentifierPart(last)
+                        || (c == '-' || c == '+') && i + 1 < len
+                                && Character.isDigit(sql.charAt(i + 1))) {
+                    if (last == '.' || !isValuesItemStart(buff, afterValues, depth))
+                        return null;
+                    int start = i;
+                    while (i + 1 < len && Character.isDigit(sql.charAt(i + 1)))
+                        i++;
+                    boolean decimal = false;
+                    if (i + 1 < len && sql.charAt(i + 1) == '.') {
+                        decimal = true;
+                        i++;
+                        while (i + 1 < len && Character.isDigit(sql.charAt(i + 1)))
+                            i++;
+                    }
+                    // 1E10、10L、0x1F这类的不处理
+                    if (i + 1 < len && (Character.isJavaIdentifierPart(sql.charAt(i + 1))
+                            || sql.charAt(i + 1) == '.'))
+                        return null;
+                    if (!isValuesItemEnd(sql, i + 1))
+                        return null;
+                    literals.add(getNumber(sql.substring(start, i + 1), decimal));
+                    buff.append('?');
+                } else {
+                    if (c == '(') {
+                        if (depth == 0 && endsWithValues(buff))
+                            afterValues = true;
+                        depth++;
+                    } else if (c == ')') {
+                        depth--;
+                    }
+                    buff.append(c);
+                }
+            }
+            return buff.toString();
+        }
+
+        private static boolean endsWithValues(StringBuilder buff) {
+            int end = buff.length();
+            if (end > 0 && buff.charAt(end - 1) == ' ')
+                end--;
+            int start = end - 6;
+            return start > 0 && buff.substring(start, end).equalsIgnoreCase("VALUES")
+                    && !Character.isJavaIdentifierPart(buff.charAt(start - 1));
+        }
+
+        // 字面值前面只能是VALUES中的'('或','
+        private static boolean isValuesItemStart(StringBuilder buff, boolean afterValues,
+                int depth) {
+            if (!afterValues || depth != 1)
+                return false;
+            int i = buff.length() - 1;
+            if (i >= 0 && buff.charAt(i) == ' ')
+                i--;
+            return i >= 0 && (buff.charAt(i) == '(' || buff.charAt(i) == ',');
+        }
+
+        // 字面值后面只能是','或')'
+        private static boolean isValuesItemEnd(String sql, int i) {
+            int len = sql.length();
+            while (i < len && Character.isWhitespace(sql.charAt(i)))
+                i++;
+            return i < len && (sql.charAt(i) == ',' || sql.charAt(i) == ')');
+        }
+
+        // 跟解析器的规则一样，整数按大小依次用INT、BIGINT、DECIMAL
+        private static Value getNumber(String s, boolean decimal) {
+            if (!decimal) {
+                BigInteger bi = new BigInteger(s);
+                if (bi.compareTo(INT_MIN) >= 0 && bi.compareTo(INT_MAX) <= 0)
+                    return ValueInt.get(bi.intValue());
+                if (bi.compareTo(LONG_MIN) >= 0 && bi.compareTo(ValueLong.MAX) <= 0)
+                    return ValueLong.get(bi.longValue());
+            }
+            return ValueDecimal.get(new BigDecimal(s));
+        }
+
+        private static final BigInteger INT_MIN = BigInteger.valueOf(Integer.MIN_VALUE);
+        private static final BigInteger INT_MAX = BigInteger.valueOf(Integer.MAX_VALUE);
+        private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
     }
 
     private static class PreparedUpdate implements PacketHandler<BatchStatementPreparedUpdate> {
@@ -62,7 +254,7 @@ class BatchStatementPacketHandlers extends PacketHandlers {
         public Packet handle(PacketHandleTask task, BatchStatementPreparedUpdate packet) {
             PreparedSQLStatement command = (PreparedSQLStatement) task.session
                     .getCache(packet.commandId);
-            if (command instanceof MerSert && ((MerSert) command).getQuery() == null)
+            if (command instanceof MerSert && ((MerSert) command).isBatchable())
                 return handleMerSert(task, packet, (MerSert) command);
             else
                 return handleOhter(task, packet, command);
@@ -70,24 +262,7 @@ class BatchStatementPacketHandlers extends PacketHandlers {
 
         private Packet handleMerSert(PacketHandleTask task, BatchStatementPreparedUpdate packet,
                 MerSert command) {
-            command.setBatchParameterValues(packet.batchParameterValues);
-            LinkableTask subTask = new LinkableTask() {
-                @Override
-                public void run() {
-                    PreparedSQLStatement.Yieldable<?> yieldable = command.createYieldableUpdate(ar -> {
-                        command.setBatchParameterValues(null);
-                        int size = packet.size;
-                        int result = ar.isSucceeded() ? 1 : Statement.EXECUTE_FAILED;
-                        int[] results = new int[size];
-                        for (int i = 0; i < size; i++) {
-                            results[i] = result;
-                        }
-                        task.sendResponse(new BatchStatementUpdateAck(results.length, results));
-                    });
-                    task.submitYieldableCommand(yieldable);
-                }
-            };
-            task.si().submitTask(subTask, true);
+            executeMerSert(task, command, packet.batchParameterValues, null);
             return null;
         }
 
@@ -122,6 +297,33 @@ class BatchStatementPacketHandlers extends PacketHandlers {
         }
     }
 
+    // 失败时如果有fallback就交给它重新执行，fallback要放到队列中，等当前语句结束后再执行
+    private static void executeMerSert(PacketHandleTask task, MerSert command,
+            List<Value[]> batchParameterValues, AsyncTask fallback) {
+        command.setBatchParameterValues(batchParameterValues);
+        LinkableTask subTask = new LinkableTask() {
+            @Override
+            public void run() {
+                PreparedSQLStatement.Yieldable<?> yieldable = command.createYieldableUpdate(ar -> {
+                    command.setBatchParameterValues(null);
+                    if (ar.isFailed() && fallback != null) {
+                        task.si().submitTask(fallback);
+                        return;
+                    }
+                    int size = batchParameterValues.size();
+                    int result = ar.isSucceeded() ? 1 : Statement.EXECUTE_FAILED;
+                    int[] results = new int[size];
+                    for (int i = 0; i < size; i++) {
+                        results[i] = result;
+                    }
+                    task.sendResponse(new BatchStatementUpdateAck(results.length, results));
+                });
+                task.submitYieldableCommand(yieldable);
+            }
+        };
+        task.si().submitTask(subTask, true);
+    }
+
     private static void submitYieldableCommand(PacketHandleTask task, PreparedSQLStatement command,
             int[] results, AtomicInteger count, int index, boolean autoCommit) {
         PreparedSQLStatement.Yieldable<?> yieldable = command.createYieldableUpdate(ar -> {
@@ -7,6 +7,7 @@ package com.lealone.server.handler;
 
 import java.util.List;
 
+import com.lealone.db.Constants;
 import com.lealone.db.command.CommandParameter;
 import com.lealone.db.result.Result;
 import com.lealone.db.value.Value;
@@ -102,6 +103,8 @@ public class PacketHandlers {
                         task.sendError(ar.getCause());
                     }
                 });
+                if (task.session.getProtocolVersion() >= Constants.TCP_PROTOCOL_VERSION_9)
+                    yieldable.enableStreaming(packet.fetchSize);
             } else {
                 // 从lealone 8.0.0开始可以用executeQuery执行JdbcStatement.execute
                 // 如果返回的RowCount为-2，就代表是一条非查询语句
@@ -119,7 +122,8 @@ public class PacketHandlers {
 
         protected void sendResult(PacketHandleTask task, QueryPacket packet, Result result, int rowCount,
                 int columnCount) {
-            if (rowCount > 0)
+            // 行数为-1时是流式结果集，剩下的记录等客户端来取时再生成
+            if (rowCount > 0 || rowCount == -1)
                 task.session.addCache(packet.resultId, result);
             try {
                 int fetch = packet.fetchSize;
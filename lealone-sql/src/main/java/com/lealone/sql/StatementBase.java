@@ -7,11 +7,13 @@ package com.lealone.sql;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import com.lealone.common.exceptions.DbException;
 import com.lealone.common.trace.Trace;
 import com.lealone.common.util.StatementBuilder;
 import com.lealone.db.Database;
+import com.lealone.db.DbObject;
 import com.lealone.db.SysProperties;
 import com.lealone.db.api.DatabaseEventListener;
 import com.lealone.db.api.ErrorCode;
@@ -22,8 +24,10 @@ import com.lealone.db.command.CommandParameter;
 import com.lealone.db.result.Result;
 import com.lealone.db.scheduler.SchedulerThread;
 import com.lealone.db.session.ServerSession;
+import com.lealone.db.session.Session;
 import com.lealone.db.session.SessionStatus;
 import com.lealone.db.table.Table;
+import com.lealone.db.table.TableType;
 import com.lealone.db.value.Value;
 import com.lealone.sql.executor.YieldableBase;
 import com.lealone.sql.executor.YieldableLocalUpdate;
@@ -100,6 +104,32 @@ public abstract class StatementBase implements PreparedSQLStatement, ParsedSQLSt
         this.session = currentSession;
     }
 
+    @Override
+    public void changeSession(Session session) {
+        setSession((ServerSession) session);
+    }
+
+    /**
+     * 临时表、视图和函数表这些对象跟准备语句时的session有关，引用了它们的语句不能给其他session共享。
+     *
+     * @param dependencies 语句引用的所有对象
+     * @return 只引用了普通表时返回true
+     */
+    protected static boolean isShareable(Set<DbObject> dependencies) {
+        for (DbObject obj : dependencies) {
+            if (obj instanceof Table) {
+                Table t = (Table) obj;
+                if (t.isTemporary())
+                    return false;
+                TableType type = t.getTableType();
+                if (type != TableType.STANDARD_TABLE && type != TableType.DUMMY_TABLE
+                        && type != TableType.RANGE_TABLE)
+                    return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Get the SQL statement.
      *
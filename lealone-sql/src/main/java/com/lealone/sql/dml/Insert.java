@@ -5,9 +5,13 @@
  */
 package com.lealone.sql.dml;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+
 import com.lealone.agent.SystemOutline;
 import com.lealone.agent.SystemOutlineNode;
 import com.lealone.common.util.StatementBuilder;
+import com.lealone.db.DbObject;
 import com.lealone.db.api.Trigger;
 import com.lealone.db.async.AsyncResultHandler;
 import com.lealone.db.auth.Right;
@@ -15,6 +19,7 @@ import com.lealone.db.row.Row;
 import com.lealone.db.session.ServerSession;
 import com.lealone.db.table.Column;
 import com.lealone.sql.SQLStatement;
+import com.lealone.sql.expression.Expression;
 
 /**
  * This class represents the statement
@@ -32,6 +37,22 @@ public class Insert extends MerSert {
         return SQLStatement.INSERT;
     }
 
+    // INSERT INTO ... SELECT不共享
+    @Override
+    public boolean isShareable() {
+        if (query != null)
+            return false;
+        HashSet<DbObject> dependencies = new HashSet<>();
+        dependencies.add(table);
+        for (Expression[] expr : list) {
+            for (Expression e : expr) {
+                if (e != null)
+                    e.getDependencies(dependencies);
+            }
+        }
+        return isShareable(dependencies);
+    }
+
     @Override
     public String getPlanSQL() {
         StatementBuilder buff = new StatementBuilder("INSERT INTO ");
@@ -52,6 +73,11 @@ public class Insert extends MerSert {
 
     private static class YieldableInsert extends YieldableMerSert {
 
+        private static final int BATCH_SIZE = 1024;
+
+        // 插入多行并且没有行级触发器时，攒够一批再按索引一次增加，为null时逐行增加
+        private ArrayList<Row> batchRows;
+
         public YieldableInsert(Insert statement, AsyncResultHandler<Integer> asyncHandler) {
             super(statement, asyncHandler);
         }
@@ -62,6 +88,22 @@ public class Insert extends MerSert {
             session.getUser().checkRight(table, Right.INSERT);
             table.fire(session, Trigger.INSERT, true);
             super.startInternal();
+            if (merSertStatement.query == null && listSize > 1 && !table.fireRow())
+                batchRows = new ArrayList<>(Math.min(listSize, BATCH_SIZE));
+        }
+
+        @Override
+        protected void onLoopEnd() {
+            if (batchRows != null && !batchRows.isEmpty() && pendingException == null)
+                addRows();
+            super.onLoopEnd();
+        }
+
+        private void addRows() {
+            ArrayList<Row> rows = batchRows;
+            batchRows = new ArrayList<>(BATCH_SIZE);
+            onPendingOperationStart();
+            table.addRows(session, rows, ar -> onPendingOperationComplete(ar, rows.size()));
         }
 
         @Override
@@ -71,7 +113,14 @@ public class Insert extends MerSert {
 
         @Override
         protected void merSert(Row row) {
-            addRowInternal(row);
+            if (batchRows != null) {
+                table.validateConvertUpdateSequence(session, row);
+                batchRows.add(row);
+                if (batchRows.size() >= BATCH_SIZE)
+                    addRows();
+            } else {
+                addRowInternal(row);
+            }
         }
     }
 }
@@ -73,6 +73,11 @@ public abstract class MerSert extends ManipulationStatement {
         return query;
     }
 
+    // 只有一行VALUES时才能按批量参数执行，每一组参数对应一行
+    public boolean isBatchable() {
+        return query == null && list.size() == 1;
+    }
+
     public void addRow(Expression[] expr) {
         list.add(expr);
     }
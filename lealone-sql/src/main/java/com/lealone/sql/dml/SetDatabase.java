@@ -259,6 +259,12 @@ public class SetDatabase extends SetStatement {
             }
             break;
         }
+        case SHARED_QUERY_CACHE_SIZE: {
+            int value = getAndValidateIntValue();
+            setDbSetting(value);
+            database.getSharedQueryCache().setMaxSize(value);
+            break;
+        }
         case CONSISTENCY_LEVEL: {
             int value = getAndValidateIntValue();
             setDbSetting(value);
@@ -81,6 +81,9 @@ public class SetSession extends SetStatement {
         case OLAP_BATCH_SIZE:
             session.setOlapBatchSize(getIntValue());
             break;
+        case LAZY_QUERY_EXECUTION:
+            session.setLazyQueryExecution(getAndValidateBooleanValue());
+            break;
         default:
             DbException.throwInternalError("unknown setting type: " + setting);
         }
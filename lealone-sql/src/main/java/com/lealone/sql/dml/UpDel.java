@@ -5,8 +5,12 @@
  */
 package com.lealone.sql.dml;
 
+import java.util.HashSet;
+import java.util.Set;
+
 import com.lealone.common.util.StatementBuilder;
 import com.lealone.db.DataHandler;
+import com.lealone.db.DbObject;
 import com.lealone.db.async.AsyncResultHandler;
 import com.lealone.db.lock.DbObjectLock;
 import com.lealone.db.row.Row;
@@ -18,7 +22,7 @@ import com.lealone.sql.executor.YieldableLoopUpdateBase;
 import com.lealone.sql.expression.Expression;
 import com.lealone.sql.expression.evaluator.AlwaysTrueEvaluator;
 import com.lealone.sql.expression.evaluator.ExpressionEvaluator;
-import com.lealone.sql.expression.evaluator.ExpressionInterpreter;
+import com.lealone.sql.expression.evaluator.HybridEvaluator;
 import com.lealone.sql.optimizer.TableFilter;
 import com.lealone.sql.optimizer.TableIterator;
 
@@ -42,6 +46,21 @@ public abstract class UpDel extends ManipulationStatement {
         return true;
     }
 
+    @Override
+    public boolean isShareable() {
+        HashSet<DbObject> dependencies = new HashSet<>();
+        getDependencies(dependencies);
+        return isShareable(dependencies);
+    }
+
+    protected void getDependencies(Set<DbObject> dependencies) {
+        dependencies.add(tableFilter.getTable());
+        if (condition != null)
+            condition.getDependencies(dependencies);
+        if (limitExpr != null)
+            limitExpr.getDependencies(dependencies);
+    }
+
     public void setTableFilter(TableFilter tableFilter) {
         this.tableFilter = tableFilter;
     }
@@ -119,7 +138,8 @@ public abstract class UpDel extends ManipulationStatement {
             if (statement.condition == null)
                 conditionEvaluator = new AlwaysTrueEvaluator();
             else
-                conditionEvaluator = new ExpressionInterpreter(session, statement.condition);
+                conditionEvaluator = HybridEvaluator.createConditionEvaluator(session,
+                        statement.condition);
         }
 
         protected abstract int getRightMask();
@@ -8,12 +8,14 @@ package com.lealone.sql.dml;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Set;
 
 import com.lealone.agent.SystemOutline;
 import com.lealone.agent.SystemOutlineNode;
 import com.lealone.common.exceptions.DbException;
 import com.lealone.common.util.StatementBuilder;
 import com.lealone.common.util.Utils;
+import com.lealone.db.DbObject;
 import com.lealone.db.api.ErrorCode;
 import com.lealone.db.api.Trigger;
 import com.lealone.db.async.AsyncResultHandler;
@@ -68,6 +70,13 @@ public class Update extends UpDel {
         }
     }
 
+    @Override
+    protected void getDependencies(Set<DbObject> dependencies) {
+        super.getDependencies(dependencies);
+        for (Expression e : expressionMap.values())
+            e.getDependencies(dependencies);
+    }
+
     @Override
     public String getPlanSQL() {
         StatementBuilder buff = new StatementBuilder("UPDATE ");
@@ -56,8 +56,13 @@ public abstract class YieldableLoopUpdateBase extends YieldableUpdateBase {
 
     // 执行回调的线程跟执行命令的线程都是同一个
     protected void onPendingOperationComplete(AsyncResult<Integer> ar) {
+        onPendingOperationComplete(ar, 1);
+    }
+
+    // 批量增加记录时一个异步操作对应多行
+    protected void onPendingOperationComplete(AsyncResult<Integer> ar, int rowCount) {
         if (ar.isSucceeded()) {
-            updateCount++;
+            updateCount += rowCount;
         } else {
             setPendingException(ar.getCause());
         }
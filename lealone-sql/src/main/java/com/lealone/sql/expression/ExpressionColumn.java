@@ -5,8 +5,6 @@
  */
 package com.lealone.sql.expression;
 
-import java.util.HashMap;
-
 import com.lealone.common.exceptions.DbException;
 import com.lealone.common.util.StatementBuilder;
 import com.lealone.db.Database;
@@ -27,6 +25,7 @@ import com.lealone.sql.optimizer.AliasColumnResolver;
 import com.lealone.sql.optimizer.ColumnResolver;
 import com.lealone.sql.optimizer.IndexCondition;
 import com.lealone.sql.optimizer.TableFilter;
+import com.lealone.sql.query.GroupData;
 import com.lealone.sql.query.Select;
 
 /**
@@ -201,7 +200,7 @@ public class ExpressionColumn extends Expression {
         if (select == null) {
             throw DbException.get(ErrorCode.MUST_GROUP_BY_COLUMN_1, getSQL());
         }
-        HashMap<Expression, Object> values = select.getCurrentGroup();
+        GroupData values = select.getCurrentGroup();
         if (values == null) {
             // this is a different level (the enclosing query)
             return;
@@ -217,7 +216,7 @@ public class ExpressionColumn extends Expression {
     public Value getValue(ServerSession session) {
         Select select = columnResolver.getSelect();
         if (select != null) {
-            HashMap<Expression, Object> values = select.getCurrentGroup();
+            GroupData values = select.getCurrentGroup();
             if (values != null) {
                 Value v = (Value) values.get(this);
                 if (v != null) {
@@ -6,9 +6,11 @@
 package com.lealone.sql.expression.aggregate;
 
 import com.lealone.common.util.StatementBuilder;
+import com.lealone.db.row.ColumnVector;
 import com.lealone.db.session.ServerSession;
 import com.lealone.db.util.ValueHashMap;
 import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueArray;
 import com.lealone.db.value.ValueLong;
 import com.lealone.db.value.ValueNull;
 import com.lealone.sql.expression.Expression;
@@ -80,6 +82,18 @@ public class ACount extends BuiltInAggregate {
             }
         }
 
+        @Override
+        public void add(ServerSession session, ColumnVector vector, int[] selection, int size) {
+            if (vector.hasNulls()) {
+                for (int j = 0; j < size; j++) {
+                    if (!vector.isNull(selection[j]))
+                        count++;
+                }
+            } else {
+                count += size;
+            }
+        }
+
         @Override
         Value getValue(ServerSession session) {
             if (distinct) {
@@ -97,9 +111,38 @@ public class ACount extends BuiltInAggregate {
             count += v.getLong();
         }
 
+        @Override
+        public void merge(ServerSession session, AggregateData data) {
+            AggregateDataCount other = (AggregateDataCount) data;
+            if (other.distinctValues != null) {
+                if (distinctValues == null) {
+                    distinctValues = ValueHashMap.newInstance();
+                }
+                for (Value v : other.distinctValues.keys()) {
+                    distinctValues.put(v, this);
+                }
+            }
+            count += other.count;
+        }
+
         @Override
         Value getMergedValue(ServerSession session) {
             return ValueLong.get(count);
         }
+
+        @Override
+        public Value getPartialValue(ServerSession session) {
+            return ValueArray.get(new Value[] { ValueLong.get(count),
+                    BuiltInAggregate.getDistinctValues(distinctValues) });
+        }
+
+        @Override
+        public void mergePartialValue(ServerSession session, Value v) {
+            Value[] list = ((ValueArray) v).getList();
+            AggregateDataCount other = new AggregateDataCount();
+            other.count = list[0].getLong();
+            other.distinctValues = BuiltInAggregate.toDistinctValues(list[1], other);
+            merge(session, other);
+        }
     }
 }
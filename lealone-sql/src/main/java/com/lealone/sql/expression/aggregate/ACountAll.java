@@ -7,6 +7,7 @@ package com.lealone.sql.expression.aggregate;
 
 import com.lealone.common.exceptions.DbException;
 import com.lealone.common.util.StatementBuilder;
+import com.lealone.db.row.ColumnVector;
 import com.lealone.db.session.ServerSession;
 import com.lealone.db.value.Value;
 import com.lealone.db.value.ValueLong;
@@ -65,6 +66,11 @@ public class ACountAll extends BuiltInAggregate {
             count++;
         }
 
+        @Override
+        public void add(ServerSession session, ColumnVector vector, int[] selection, int size) {
+            count += size;
+        }
+
         @Override
         Value getValue(ServerSession session) {
             return ValueLong.get(count);
@@ -75,9 +81,24 @@ public class ACountAll extends BuiltInAggregate {
             count += v.getLong();
         }
 
+        @Override
+        public void merge(ServerSession session, AggregateData data) {
+            count += ((AggregateDataCountAll) data).count;
+        }
+
         @Override
         Value getMergedValue(ServerSession session) {
             return ValueLong.get(count);
         }
+
+        @Override
+        public Value getPartialValue(ServerSession session) {
+            return ValueLong.get(count);
+        }
+
+        @Override
+        public void mergePartialValue(ServerSession session, Value v) {
+            count += v.getLong();
+        }
     }
 }
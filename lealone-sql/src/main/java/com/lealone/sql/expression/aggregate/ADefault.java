@@ -8,10 +8,12 @@ package com.lealone.sql.expression.aggregate;
 import com.lealone.common.exceptions.DbException;
 import com.lealone.common.util.StatementBuilder;
 import com.lealone.db.api.ErrorCode;
+import com.lealone.db.row.ColumnVector;
 import com.lealone.db.session.ServerSession;
 import com.lealone.db.util.ValueHashMap;
 import com.lealone.db.value.DataType;
 import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueArray;
 import com.lealone.db.value.ValueBoolean;
 import com.lealone.db.value.ValueDouble;
 import com.lealone.db.value.ValueLong;
@@ -260,6 +262,137 @@ public class ADefault extends BuiltInAggregate {
             }
         }
 
+        @Override
+        public void add(ServerSession session, ColumnVector vector, int[] selection, int size) {
+            switch (type) {
+            case Aggregate.SUM:
+                if (vector.isFloating())
+                    sumDouble(vector, selection, size);
+                else
+                    sumLong(vector, selection, size);
+                break;
+            case Aggregate.MIN:
+            case Aggregate.MAX:
+                if (vector.isFloating())
+                    minMaxDouble(session, vector, selection, size);
+                else
+                    minMaxLong(session, vector, selection, size);
+                break;
+            default:
+                DbException.throwInternalError("type=" + type);
+            }
+        }
+
+        private void sumLong(ColumnVector vector, int[] selection, int size) {
+            long[] longs = vector.getLongs();
+            boolean hasNulls = vector.hasNulls();
+            boolean found = false;
+            long sum = 0;
+            for (int j = 0; j < size; j++) {
+                int i = selection[j];
+                if (hasNulls && vector.isNull(i))
+                    continue;
+                long x = longs[i];
+                long r = sum + x;
+                // 溢出了，先把前面的和加到value中，value的类型是DECIMAL时不会丢失精度
+                if (((sum ^ r) & (x ^ r)) < 0) {
+                    addToSum(ValueLong.get(sum));
+                    r = x;
+                }
+                sum = r;
+                found = true;
+                count++;
+            }
+            if (found)
+                addToSum(ValueLong.get(sum));
+        }
+
+        private void addToSum(Value v) {
+            if (value == null) {
+                value = v.convertTo(dataType);
+            } else {
+                v = v.convertTo(value.getType());
+                value = value.add(v);
+            }
+        }
+
+        // 跟逐行累加的顺序一样，所以结果也是一样的
+        private void sumDouble(ColumnVector vector, int[] selection, int size) {
+            double[] doubles = vector.getDoubles();
+            boolean hasNulls = vector.hasNulls();
+            boolean found = value != null;
+            double sum = found ? value.getDouble() : 0;
+            for (int j = 0; j < size; j++) {
+                int i = selection[j];
+                if (hasNulls && vector.isNull(i))
+                    continue;
+                if (found) {
+                    sum += doubles[i];
+                } else {
+                    sum = doubles[i];
+                    found = true;
+                }
+                count++;
+            }
+            if (found)
+                value = ValueDouble.get(sum).convertTo(dataType);
+        }
+
+        private void minMaxLong(ServerSession session, ColumnVector vector, int[] selection,
+                int size) {
+            long[] longs = vector.getLongs();
+            boolean hasNulls = vector.hasNulls();
+            boolean min = type == Aggregate.MIN;
+            boolean found = false;
+            long m = 0;
+            for (int j = 0; j < size; j++) {
+                int i = selection[j];
+                if (hasNulls && vector.isNull(i))
+                    continue;
+                long x = longs[i];
+                if (!found || (min ? x < m : x > m)) {
+                    m = x;
+                    found = true;
+                }
+                count++;
+            }
+            if (found)
+                addMinMax(session, ValueLong.get(m));
+        }
+
+        private void minMaxDouble(ServerSession session, ColumnVector vector, int[] selection,
+                int size) {
+            double[] doubles = vector.getDoubles();
+            boolean hasNulls = vector.hasNulls();
+            boolean min = type == Aggregate.MIN;
+            boolean found = false;
+            double m = 0;
+            for (int j = 0; j < size; j++) {
+                int i = selection[j];
+                if (hasNulls && vector.isNull(i))
+                    continue;
+                double x = doubles[i];
+                if (!found || (min ? Double.compare(x, m) < 0 : Double.compare(x, m) > 0)) {
+                    m = x;
+                    found = true;
+                }
+                count++;
+            }
+            if (found)
+                addMinMax(session, ValueDouble.get(m));
+        }
+
+        private void addMinMax(ServerSession session, Value v) {
+            v = v.convertTo(dataType);
+            if (value == null) {
+                value = v;
+            } else {
+                int c = session.getDatabase().compare(v, value);
+                if (type == Aggregate.MIN ? c < 0 : c > 0)
+                    value = v;
+            }
+        }
+
         public void addOther(ServerSession session, Value v) {
             switch (type) {
             case Aggregate.STDDEV_POP:
@@ -386,6 +519,59 @@ public class ADefault extends BuiltInAggregate {
             }
         }
 
+        @Override
+        public void merge(ServerSession session, AggregateData data) {
+            AggregateDataDefault other = (AggregateDataDefault) data;
+            if (other.count == 0) {
+                return;
+            }
+            if (distinct) {
+                if (other.distinctValues != null) {
+                    if (distinctValues == null) {
+                        distinctValues = ValueHashMap.newInstance();
+                    }
+                    for (Value v : other.distinctValues.keys()) {
+                        distinctValues.put(v, this);
+                    }
+                }
+                count += other.count;
+                return;
+            }
+            switch (type) {
+            case Aggregate.SUM:
+            case Aggregate.AVG:
+                if (value == null) {
+                    value = other.value;
+                } else {
+                    value = value.add(other.value.convertTo(value.getType()));
+                }
+                break;
+            case Aggregate.MIN:
+            case Aggregate.MAX:
+                addMinMax(session, other.value);
+                break;
+            case Aggregate.STDDEV_POP:
+            case Aggregate.STDDEV_SAMP:
+            case Aggregate.VAR_POP:
+            case Aggregate.VAR_SAMP: {
+                // 合并两部分的均值和平方差，见Chan等人的并行算法
+                if (count == 0) {
+                    mean = other.mean;
+                    m2 = other.m2;
+                } else {
+                    double n = count + other.count;
+                    double delta = other.mean - mean;
+                    mean += delta * other.count / n;
+                    m2 += other.m2 + delta * delta * count * other.count / n;
+                }
+                break;
+            }
+            default:
+                addOther(session, other.value);
+            }
+            count += other.count;
+        }
+
         @Override
         void merge(ServerSession session, Value v) {
             if (v == ValueNull.INSTANCE) {
@@ -459,6 +645,26 @@ public class ADefault extends BuiltInAggregate {
             }
         }
 
+        // 编码count、mean、m2这些原始的中间状态，合并方式跟并行扫描时一样
+        @Override
+        public Value getPartialValue(ServerSession session) {
+            return ValueArray.get(new Value[] { ValueLong.get(count),
+                    value == null ? ValueNull.INSTANCE : value, ValueDouble.get(mean), ValueDouble.get(m2),
+                    BuiltInAggregate.getDistinctValues(distinctValues) });
+        }
+
+        @Override
+        public void mergePartialValue(ServerSession session, Value v) {
+            Value[] list = ((ValueArray) v).getList();
+            AggregateDataDefault other = new AggregateDataDefault();
+            other.count = list[0].getLong();
+            other.value = list[1] == ValueNull.INSTANCE ? null : list[1];
+            other.mean = list[2].getDouble();
+            other.m2 = list[3].getDouble();
+            other.distinctValues = BuiltInAggregate.toDistinctValues(list[4], other);
+            merge(session, other);
+        }
+
         @Override
         Value getMergedValue(ServerSession session) {
             if (distinct) {
@@ -5,6 +5,8 @@
  */
 package com.lealone.sql.expression.aggregate;
 
+import com.lealone.common.exceptions.DbException;
+import com.lealone.db.row.ColumnVector;
 import com.lealone.db.session.ServerSession;
 import com.lealone.db.value.Value;
 
@@ -24,6 +26,18 @@ public abstract class AggregateData {
      */
     public abstract void add(ServerSession session, Value v);
 
+    /**
+     * Add the selected values of a column vector to this aggregate.
+     *
+     * @param session the session
+     * @param vector the column vector, null for COUNT(*)
+     * @param selection the indexes of the selected values
+     * @param size the number of selected values
+     */
+    public void add(ServerSession session, ColumnVector vector, int[] selection, int size) {
+        throw DbException.getInternalError();
+    }
+
     /**
      * Get the aggregate result.
      *
@@ -34,5 +48,36 @@ public abstract class AggregateData {
 
     abstract void merge(ServerSession session, Value v);
 
+    /**
+     * Merge the partial aggregate of the same expression computed over another part of the rows,
+     * used by parallel scans.
+     *
+     * @param session the session
+     * @param data the partial aggregate
+     */
+    public void merge(ServerSession session, AggregateData data) {
+        throw DbException.getUnsupportedException("merge");
+    }
+
     abstract Value getMergedValue(ServerSession session);
+
+    /**
+     * Get the partial aggregate as a value, used when the groups are spilled to a temporary map.
+     *
+     * @param session the session
+     * @return the partial aggregate, or null if not supported
+     */
+    public Value getPartialValue(ServerSession session) {
+        return null;
+    }
+
+    /**
+     * Merge a partial aggregate returned by getPartialValue.
+     *
+     * @param session the session
+     * @param v the partial aggregate
+     */
+    public void mergePartialValue(ServerSession session, Value v) {
+        throw DbException.getUnsupportedException("mergePartialValue");
+    }
 }
@@ -5,19 +5,20 @@
  */
 package com.lealone.sql.expression.aggregate;
 
-import java.util.HashMap;
-
 import com.lealone.common.exceptions.DbException;
 import com.lealone.common.util.StatementBuilder;
 import com.lealone.common.util.StringUtils;
 import com.lealone.db.api.ErrorCode;
 import com.lealone.db.index.Index;
 import com.lealone.db.result.SortOrder;
+import com.lealone.db.row.ColumnVector;
 import com.lealone.db.row.SearchRow;
 import com.lealone.db.session.ServerSession;
 import com.lealone.db.table.Column;
 import com.lealone.db.table.Table;
+import com.lealone.db.util.ValueHashMap;
 import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueArray;
 import com.lealone.db.value.ValueDouble;
 import com.lealone.db.value.ValueLong;
 import com.lealone.db.value.ValueNull;
@@ -26,6 +27,7 @@ import com.lealone.sql.expression.Expression;
 import com.lealone.sql.expression.ExpressionColumn;
 import com.lealone.sql.expression.visitor.ExpressionVisitor;
 import com.lealone.sql.optimizer.TableFilter;
+import com.lealone.sql.query.GroupData;
 import com.lealone.sql.query.Select;
 
 /**
@@ -103,7 +105,7 @@ public abstract class BuiltInAggregate extends Aggregate {
     protected abstract AggregateData createAggregateData();
 
     public AggregateData getAggregateData() {
-        HashMap<Expression, Object> group = select.getCurrentGroup();
+        GroupData group = select.getCurrentGroup();
         if (group == null) {
             // this is a different level (the enclosing query)
             return null;
@@ -134,6 +136,35 @@ public abstract class BuiltInAggregate extends Aggregate {
         data.add(session, v);
     }
 
+    /**
+     * Check if this aggregate can be computed directly on a column vector.
+     *
+     * @return true if COUNT(*), or COUNT, SUM, MIN, MAX on a numeric column without DISTINCT
+     */
+    public boolean isVectorizable() {
+        switch (type) {
+        case COUNT_ALL:
+            return true;
+        case COUNT:
+        case SUM:
+        case MIN:
+        case MAX:
+            return !distinct && on instanceof ExpressionColumn
+                    && ColumnVector.isSupported(on.getType());
+        default:
+            return false;
+        }
+    }
+
+    public void updateAggregate(ServerSession session, ColumnVector vector, int[] selection,
+            int size) {
+        AggregateData data = getAggregateData();
+        if (data == null) {
+            return;
+        }
+        data.add(session, vector, selection, size);
+    }
+
     @Override
     public void mergeAggregate(ServerSession session, Value v) {
         AggregateData data = getAggregateData();
@@ -143,6 +174,35 @@ public abstract class BuiltInAggregate extends Aggregate {
         data.merge(session, v);
     }
 
+    /**
+     * 把转存到临时map中的中间结果合并到当前分组中
+     */
+    public void mergePartialValue(ServerSession session, Value v) {
+        GroupData group = select.getCurrentGroup();
+        AggregateData data = (AggregateData) group.get(this);
+        if (data == null) {
+            data = createAggregateData();
+            group.put(this, data);
+        }
+        data.mergePartialValue(session, v);
+    }
+
+    static Value getDistinctValues(ValueHashMap<?> distinctValues) {
+        if (distinctValues == null)
+            return ValueNull.INSTANCE;
+        return ValueArray.get(distinctValues.keys().toArray(new Value[0]));
+    }
+
+    static <T> ValueHashMap<T> toDistinctValues(Value v, T data) {
+        if (v == ValueNull.INSTANCE)
+            return null;
+        ValueHashMap<T> distinctValues = ValueHashMap.newInstance();
+        for (Value value : ((ValueArray) v).getList()) {
+            distinctValues.put(value, data);
+        }
+        return distinctValues;
+    }
+
     @Override
     public Value getValue(ServerSession session) {
         if (select.isQuickAggregateQuery()) {
@@ -175,7 +235,7 @@ public abstract class BuiltInAggregate extends Aggregate {
     }
 
     private AggregateData getFinalAggregateData() {
-        HashMap<Expression, Object> group = select.getCurrentGroup();
+        GroupData group = select.getCurrentGroup();
         if (group == null) {
             throw DbException.get(ErrorCode.INVALID_USE_OF_AGGREGATE_FUNCTION_1, getSQL());
         }
@@ -7,7 +7,6 @@ package com.lealone.sql.expression.aggregate;
 
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.HashMap;
 
 import com.lealone.common.exceptions.DbException;
 import com.lealone.common.util.StatementBuilder;
@@ -21,6 +20,7 @@ import com.lealone.db.value.ValueNull;
 import com.lealone.sql.LealoneSQLParser;
 import com.lealone.sql.expression.Expression;
 import com.lealone.sql.expression.visitor.ExpressionVisitor;
+import com.lealone.sql.query.GroupData;
 import com.lealone.sql.query.Select;
 
 /**
@@ -117,7 +117,7 @@ public class JavaAggregate extends com.lealone.sql.expression.aggregate.Aggregat
 
     @Override
     public Value getValue(ServerSession session) {
-        HashMap<Expression, Object> group = select.getCurrentGroup();
+        GroupData group = select.getCurrentGroup();
         if (group == null) {
             throw DbException.get(ErrorCode.INVALID_USE_OF_AGGREGATE_FUNCTION_1, getSQL());
         }
@@ -138,7 +138,7 @@ public class JavaAggregate extends com.lealone.sql.expression.aggregate.Aggregat
 
     @Override
     public void updateAggregate(ServerSession session) {
-        HashMap<Expression, Object> group = select.getCurrentGroup();
+        GroupData group = select.getCurrentGroup();
         if (group == null) {
             // this is a different level (the enclosing query)
             return;
@@ -0,0 +1,466 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.expression.evaluator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.lealone.common.logging.Logger;
+import com.lealone.common.logging.LoggerFactory;
+import com.lealone.common.util.Utils;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.util.SourceCompiler;
+import com.lealone.db.value.Value;
+import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.Operation;
+import com.lealone.sql.expression.ValueExpression;
+import com.lealone.sql.expression.condition.Comparison;
+import com.lealone.sql.expression.condition.ConditionAndOr;
+import com.lealone.sql.expression.condition.ConditionNot;
+
+/**
+ * 把查询条件或select字段列表生成java源代码，再用SourceCompiler编译成JitEvaluator的子类。
+ * <p>
+ * 布尔值用int表示，1是true，0是false，-1是null，AND、OR、NOT和比较运算的null语义跟解释执行时一样；
+ * INT、BIGINT、DOUBLE类型的值放在基本类型的局部变量中，另外用一个boolean变量表示它是不是null，
+ * 中间结果不再创建Value对象。
+ * <p>
+ * 常量的值在生成的类的实例中只计算一次，所以只是常量不同的表达式生成的代码是一样的，
+ * 编译好的类按代码缓存起来，同一个语句多次执行或者结构相同的语句都不需要再编译。
+ */
+public class ExpressionCompiler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExpressionCompiler.class);
+
+    private static final String PACKAGE_NAME = ExpressionCompiler.class.getPackage().getName();
+    private static final int MAX_CACHED_CLASSES = 1024;
+    private static final Object FAILED = new Object(); // 编译失败的代码不再重复编译
+
+    private static final ConcurrentHashMap<String, Object> classes = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextClassId = new AtomicInteger();
+
+    private final ArrayList<Expression> expressions = new ArrayList<>();
+    private final StringBuilder fields = new StringBuilder();
+    private final StringBuilder init = new StringBuilder();
+    private final StringBuilder body = new StringBuilder();
+    private String indent = "        ";
+    private int nextId;
+    private int compiledCount; // 编译成基本类型运算的表达式个数
+
+    private ExpressionCompiler() {
+    }
+
+    /**
+     * 编译查询条件，不值得编译或者编译失败时返回null
+     */
+    public static JitEvaluator compileCondition(ServerSession session, Expression condition) {
+        ExpressionCompiler c = new ExpressionCompiler();
+        String b = c.genBoolean(condition);
+        c.body.append(c.indent).append("return ").append(b).append(" == 1;\n");
+        return c.compile(session, "public boolean getBooleanValue()");
+    }
+
+    /**
+     * 编译select字段列表中的前columnCount个表达式，不值得编译或者编译失败时返回null
+     */
+    public static JitEvaluator compileExpressions(ServerSession session, List<Expression> list,
+            int columnCount) {
+        ExpressionCompiler c = new ExpressionCompiler();
+        c.body.append(c.indent).append("Value[] row = new Value[").append(columnCount).append("];\n");
+        for (int i = 0; i < columnCount; i++) {
+            Expression e = list.get(i);
+            String v;
+            if (isCompilable(e.getNonAliasExpression())) {
+                Var var = c.genNumeric(e.getNonAliasExpression());
+                v = var.isNull + " ? ValueNull.INSTANCE : " + getValueClass(var.type) + ".get("
+                        + var.value + ")";
+            } else {
+                v = c.getExpression(e) + ".getValue(session)";
+            }
+            c.body.append(c.indent).append("row[").append(i).append("] = ").append(v).append(";\n");
+        }
+        c.body.append(c.indent).append("return row;\n");
+        return c.compile(session, "public Value[] getValues()");
+    }
+
+    private JitEvaluator compile(ServerSession session, String method) {
+        if (compiledCount == 0) {
+            return null; // 全都要调用表达式自己的getValue，编译了也不会更快
+        }
+        StringBuilder buff = new StringBuilder();
+        buff.append(fields);
+        if (init.length() > 0) {
+            buff.append("    @Override\n");
+            buff.append("    protected void initConstants() {\n").append(init).append("    }\n\n");
+        }
+        buff.append("    @Override\n");
+        buff.append("    ").append(method).append(" {\n").append(body).append("    }\n");
+        String code = buff.toString();
+        Class<?> clazz = getClass(code);
+        if (clazz == null) {
+            return null;
+        }
+        JitEvaluator evaluator = (JitEvaluator) Utils.newInstance(clazz);
+        evaluator.init(session, expressions.toArray(new Expression[expressions.size()]));
+        return evaluator;
+    }
+
+    private static Class<?> getClass(String code) {
+        Object c = classes.get(code);
+        if (c == null) {
+            if (classes.size() >= MAX_CACHED_CLASSES) {
+                classes.clear();
+            }
+            c = classes.computeIfAbsent(code, k -> compileClass(k));
+        }
+        return c == FAILED ? null : (Class<?>) c;
+    }
+
+    private static Object compileClass(String code) {
+        String className = "JitEvaluator" + nextClassId.incrementAndGet();
+        StringBuilder buff = new StringBuilder();
+        buff.append("package ").append(PACKAGE_NAME).append(";\n\n");
+        buff.append("import com.lealone.db.value.*;\n\n");
+        buff.append("public class ").append(className).append(" extends JitEvaluator {\n\n");
+        buff.append(code).append("}\n");
+        try {
+            return SourceCompiler.compileAsClass(PACKAGE_NAME + "." + className, buff.toString());
+        } catch (Throwable t) {
+            logger.warn("Failed to compile expression, use interpreter", t);
+            return FAILED;
+        }
+    }
+
+    private String nextName(String prefix) {
+        return prefix + nextId++;
+    }
+
+    private String getExpression(Expression e) {
+        expressions.add(e);
+        return "expressions[" + (expressions.size() - 1) + "]";
+    }
+
+    // 生成计算布尔值的代码，返回保存结果的int变量名
+    private String genBoolean(Expression e) {
+        if (e instanceof ConditionAndOr) {
+            return genAndOr((ConditionAndOr) e);
+        } else if (e instanceof ConditionNot) {
+            String c = genBoolean(((ConditionNot) e).getCondition());
+            String b = nextName("b");
+            appendLine("int " + b + " = " + c + " == -1 ? -1 : 1 - " + c + ";");
+            return b;
+        } else if (e instanceof Comparison) {
+            String b = genComparison((Comparison) e);
+            if (b != null) {
+                return b;
+            }
+        }
+        String b = nextName("b");
+        appendLine("int " + b + " = toBoolean(" + getExpression(e) + ".getValue(session));");
+        return b;
+    }
+
+    // 跟ConditionAndOr.getValue一样，左边的值确定结果时不再计算右边
+    private String genAndOr(ConditionAndOr e) {
+        String l = genBoolean(e.getLeft());
+        String b = nextName("b");
+        appendLine("int " + b + ";");
+        if (e.getAndOrType() == ConditionAndOr.AND) {
+            appendLine("if (" + l + " != 1) {");
+            appendLine("    " + b + " = " + l + ";");
+            appendLine("} else {");
+            beginBlock();
+            String r = genBoolean(e.getRight());
+            appendLine(b + " = " + r + ";");
+        } else {
+            appendLine("if (" + l + " == 1) {");
+            appendLine("    " + b + " = 1;");
+            appendLine("} else {");
+            beginBlock();
+            String r = genBoolean(e.getRight());
+            appendLine(b + " = " + r + " == 1 ? 1 : (" + l + " == -1 || " + r + " == -1 ? -1 : 0);");
+        }
+        endBlock();
+        return b;
+    }
+
+    private String genComparison(Comparison e) {
+        Expression left = e.getLeft();
+        Expression right = e.getRight();
+        int compareType = e.getCompareType();
+        if (compareType == Comparison.IS_NULL || compareType == Comparison.IS_NOT_NULL) {
+            String isNull;
+            if (isNumeric(left)) {
+                isNull = genNumeric(left).isNull;
+            } else {
+                isNull = "(" + getExpression(left) + ".getValue(session) == ValueNull.INSTANCE)";
+            }
+            String b = nextName("b");
+            if (compareType == Comparison.IS_NULL)
+                appendLine("int " + b + " = " + isNull + " ? 1 : 0;");
+            else
+                appendLine("int " + b + " = " + isNull + " ? 0 : 1;");
+            compiledCount++;
+            return b;
+        }
+        String op = getOperator(compareType);
+        if (op == null || right == null || !isNumeric(left) || !isNumeric(right)) {
+            return null;
+        }
+        int type = getPrimitiveType(Value.getHigherOrder(left.getType(), right.getType()));
+        if (type == Value.UNKNOWN) {
+            return null;
+        }
+        compiledCount++;
+        boolean nullSafe = (compareType & Comparison.NULL_SAFE) != 0;
+        String b = nextName("b");
+        appendLine("int " + b + ";");
+        Var l = genNumeric(left);
+        if (!nullSafe) {
+            // 跟Comparison.getValue一样，左边是null时不再计算右边
+            appendLine("if (" + l.isNull + ") {");
+            appendLine("    " + b + " = -1;");
+            appendLine("} else {");
+            beginBlock();
+        }
+        Var r = genNumeric(right);
+        String lv = convert(l, type);
+        String rv = convert(r, type);
+        String compare;
+        if (type == Value.DOUBLE)
+            compare = "Double.compare(" + lv + ", " + rv + ") " + op + " 0";
+        else
+            compare = lv + " " + op + " " + rv;
+        if (nullSafe) {
+            String ifNull = compareType == Comparison.EQUAL_NULL_SAFE ? "1 : 0" : "0 : 1";
+            appendLine(b + " = " + l.isNull + " || " + r.isNull + " ? (" + l.isNull + " == " + r.isNull
+                    + " ? " + ifNull + ") : (" + compare + " ? 1 : 0);");
+        } else {
+            appendLine(b + " = " + r.isNull + " ? -1 : (" + compare + " ? 1 : 0);");
+            endBlock();
+        }
+        return b;
+    }
+
+    private static String getOperator(int compareType) {
+        switch (compareType) {
+        case Comparison.EQUAL:
+        case Comparison.EQUAL_NULL_SAFE:
+            return "==";
+        case Comparison.NOT_EQUAL:
+        case Comparison.NOT_EQUAL_NULL_SAFE:
+            return "!=";
+        case Comparison.BIGGER_EQUAL:
+            return ">=";
+        case Comparison.BIGGER:
+            return ">";
+        case Comparison.SMALLER_EQUAL:
+            return "<=";
+        case Comparison.SMALLER:
+            return "<";
+        default:
+            return null;
+        }
+    }
+
+    // 生成计算数值的代码，结果放在基本类型的变量中
+    private Var genNumeric(Expression e) {
+        e = e.getNonAliasExpression();
+        int type = getPrimitiveType(e.getType());
+        Var var = new Var(nextName("n"), nextName("x"), type);
+        if (e instanceof ValueExpression) {
+            String v = nextName("v");
+            fields.append("    private boolean ").append(var.isNull).append(";\n");
+            fields.append("    private ").append(getJavaType(type)).append(' ').append(var.value)
+                    .append(";\n\n");
+            init.append("        Value ").append(v).append(" = ").append(getExpression(e))
+                    .append(".getValue(session);\n");
+            init.append("        ").append(var.isNull).append(" = ").append(v)
+                    .append(" == ValueNull.INSTANCE;\n");
+            init.append("        ").append(var.value).append(" = ").append(var.isNull).append(" ? 0 : ")
+                    .append(getValue(v, type)).append(";\n");
+        } else if (isCompilable(e)) {
+            genOperation((Operation) e, var);
+        } else {
+            String v = nextName("v");
+            appendLine("Value " + v + " = " + getExpression(e) + ".getValue(session);");
+            appendLine("boolean " + var.isNull + " = " + v + " == ValueNull.INSTANCE;");
+            appendLine(getJavaType(type) + " " + var.value + " = " + var.isNull + " ? 0 : "
+                    + getValue(v, type) + ";");
+        }
+        return var;
+    }
+
+    // 跟Operation.getValue一样，两边都先计算出来，再判断是不是null
+    private void genOperation(Operation e, Var var) {
+        compiledCount++;
+        int type = var.type;
+        Var l = genNumeric(e.getLeft());
+        String lv = convert(l, type);
+        if (e.getOpType() == Operation.NEGATE) {
+            appendLine("boolean " + var.isNull + " = " + l.isNull + ";");
+            String v = type == Value.DOUBLE ? "-" + lv : "negate" + getTypeName(type) + "(" + lv + ")";
+            appendLine(getJavaType(type) + " " + var.value + " = " + var.isNull + " ? 0 : " + v + ";");
+            return;
+        }
+        Var r = genNumeric(e.getRight());
+        String rv = convert(r, type);
+        String v;
+        if (type == Value.DOUBLE) {
+            switch (e.getOpType()) {
+            case Operation.PLUS:
+                v = lv + " + " + rv;
+                break;
+            case Operation.MINUS:
+                v = lv + " - " + rv;
+                break;
+            case Operation.MULTIPLY:
+                v = lv + " * " + rv;
+                break;
+            default:
+                v = "divideDouble(" + lv + ", " + rv + ")";
+                break;
+            }
+        } else {
+            String method;
+            switch (e.getOpType()) {
+            case Operation.PLUS:
+                method = "add";
+                break;
+            case Operation.MINUS:
+                method = "subtract";
+                break;
+            case Operation.MULTIPLY:
+                method = "multiply";
+                break;
+            case Operation.DIVIDE:
+                method = "divide";
+                break;
+            default:
+                method = "modulus";
+                break;
+            }
+            v = method + getTypeName(type) + "(" + lv + ", " + rv + ")";
+        }
+        appendLine("boolean " + var.isNull + " = " + l.isNull + " || " + r.isNull + ";");
+        appendLine(getJavaType(type) + " " + var.value + " = " + var.isNull + " ? 0 : " + v + ";");
+    }
+
+    private static boolean isNumeric(Expression e) {
+        return getPrimitiveType(e.getType()) != Value.UNKNOWN;
+    }
+
+    // 操作数转换成运算类型时只能是放宽转换，否则还是调用Operation.getValue
+    private static boolean isCompilable(Expression e) {
+        if (!(e instanceof Operation))
+            return false;
+        Operation o = (Operation) e;
+        int type = getPrimitiveType(o.getDataType());
+        if (type == Value.UNKNOWN || type != getPrimitiveType(o.getType()))
+            return false;
+        switch (o.getOpType()) {
+        case Operation.NEGATE:
+            return isWidening(o.getLeft(), type);
+        case Operation.MODULUS:
+            if (type == Value.DOUBLE)
+                return false;
+        case Operation.PLUS:
+        case Operation.MINUS:
+        case Operation.MULTIPLY:
+        case Operation.DIVIDE:
+            return o.isConvertRight() && isWidening(o.getLeft(), type)
+                    && isWidening(o.getRight(), type);
+        default:
+            return false;
+        }
+    }
+
+    private static boolean isWidening(Expression e, int type) {
+        int t = getPrimitiveType(e.getType());
+        return t != Value.UNKNOWN && t <= type;
+    }
+
+    private static int getPrimitiveType(int type) {
+        switch (type) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+            return Value.INT;
+        case Value.LONG:
+            return Value.LONG;
+        case Value.DOUBLE:
+            return Value.DOUBLE;
+        default:
+            return Value.UNKNOWN;
+        }
+    }
+
+    // INT、BIGINT、DOUBLE的类型值是递增的，放宽转换跟Value.convertTo的结果一样
+    private static String convert(Var var, int type) {
+        if (var.type == type)
+            return var.value;
+        return "((" + getJavaType(type) + ") " + var.value + ")";
+    }
+
+    private static String getValue(String v, int type) {
+        String name = getTypeName(type);
+        return v + ".convertTo(Value." + name.toUpperCase() + ").get" + name + "()";
+    }
+
+    private static String getJavaType(int type) {
+        switch (type) {
+        case Value.INT:
+            return "int";
+        case Value.LONG:
+            return "long";
+        default:
+            return "double";
+        }
+    }
+
+    private static String getTypeName(int type) {
+        switch (type) {
+        case Value.INT:
+            return "Int";
+        case Value.LONG:
+            return "Long";
+        default:
+            return "Double";
+        }
+    }
+
+    private static String getValueClass(int type) {
+        return "Value" + getTypeName(type);
+    }
+
+    private void appendLine(String line) {
+        body.append(indent).append(line).append('\n');
+    }
+
+    private void beginBlock() {
+        indent += "    ";
+    }
+
+    private void endBlock() {
+        indent = indent.substring(4);
+        appendLine("}");
+    }
+
+    private static class Var {
+
+        final String isNull;
+        final String value;
+        final int type;
+
+        Var(String isNull, String value, int type) {
+            this.isNull = isNull;
+            this.value = value;
+            this.type = type;
+        }
+    }
+}
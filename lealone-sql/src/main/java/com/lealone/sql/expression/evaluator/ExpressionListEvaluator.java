@@ -0,0 +1,15 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.expression.evaluator;
+
+import com.lealone.db.value.Value;
+
+//计算select字段列表，跟ExpressionEvaluator一样可以解释执行，也可以编译后执行
+public interface ExpressionListEvaluator {
+
+    public Value[] getValues();
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.expression.evaluator;
+
+import java.util.List;
+
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.value.Value;
+import com.lealone.sql.expression.Expression;
+
+//解释执行select字段列表中的前columnCount个表达式
+public class ExpressionListInterpreter implements ExpressionListEvaluator {
+
+    private final ServerSession session;
+    private final List<Expression> expressions;
+    private final int columnCount;
+
+    public ExpressionListInterpreter(ServerSession session, List<Expression> expressions,
+            int columnCount) {
+        this.session = session;
+        this.expressions = expressions;
+        this.columnCount = columnCount;
+    }
+
+    @Override
+    public Value[] getValues() {
+        Value[] row = new Value[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            row[i] = expressions.get(i).getValue(session);
+        }
+        return row;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.expression.evaluator;
+
+import java.util.List;
+
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.value.Value;
+import com.lealone.sql.expression.Expression;
+
+//先解释执行，执行次数超过session的EXPRESSION_COMPILE_THRESHOLD后换成编译后的代码，
+//编译不了的表达式一直解释执行，只处理少量记录的语句不会有编译的开销
+public class HybridEvaluator implements ExpressionEvaluator, ExpressionListEvaluator {
+
+    private final ServerSession session;
+    private final Expression condition;
+    private final List<Expression> expressions;
+    private final int columnCount;
+    private int count;
+    private final int threshold;
+
+    private ExpressionEvaluator evaluator;
+    private ExpressionListEvaluator listEvaluator;
+
+    private HybridEvaluator(ServerSession session, Expression condition, List<Expression> expressions,
+            int columnCount, int threshold) {
+        this.session = session;
+        this.condition = condition;
+        this.expressions = expressions;
+        this.columnCount = columnCount;
+        this.threshold = threshold;
+    }
+
+    public static ExpressionEvaluator createConditionEvaluator(ServerSession session,
+            Expression condition) {
+        ExpressionEvaluator evaluator = new ExpressionInterpreter(session, condition);
+        int threshold = session.getExpressionCompileThreshold();
+        if (threshold <= 0)
+            return evaluator;
+        HybridEvaluator e = new HybridEvaluator(session, condition, null, 0, threshold);
+        e.evaluator = evaluator;
+        return e;
+    }
+
+    public static ExpressionListEvaluator createExpressionListEvaluator(ServerSession session,
+            List<Expression> expressions, int columnCount) {
+        ExpressionListEvaluator evaluator = new ExpressionListInterpreter(session, expressions,
+                columnCount);
+        int threshold = session.getExpressionCompileThreshold();
+        if (threshold <= 0)
+            return evaluator;
+        HybridEvaluator e = new HybridEvaluator(session, null, expressions, columnCount, threshold);
+        e.listEvaluator = evaluator;
+        return e;
+    }
+
+    @Override
+    public boolean getBooleanValue() {
+        if (count >= 0 && ++count > threshold) {
+            count = -1; // 只编译一次
+            JitEvaluator e = ExpressionCompiler.compileCondition(session, condition);
+            if (e != null)
+                evaluator = e;
+        }
+        return evaluator.getBooleanValue();
+    }
+
+    @Override
+    public Value[] getValues() {
+        if (count >= 0 && ++count > threshold) {
+            count = -1;
+            JitEvaluator e = ExpressionCompiler.compileExpressions(session, expressions, columnCount);
+            if (e != null)
+                listEvaluator = e;
+        }
+        return listEvaluator.getValues();
+    }
+
+    // 测试用
+    public boolean isCompiled() {
+        return evaluator instanceof JitEvaluator || listEvaluator instanceof JitEvaluator;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.expression.evaluator;
+
+import com.lealone.common.exceptions.DbException;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueDouble;
+import com.lealone.db.value.ValueInt;
+import com.lealone.db.value.ValueLong;
+import com.lealone.db.value.ValueNull;
+import com.lealone.sql.expression.Expression;
+
+/**
+ * ExpressionCompiler生成的类的父类。
+ * <p>
+ * 生成的代码只把INT、BIGINT、DOUBLE类型的比较和算术运算编译成基本类型上的运算，
+ * 其他表达式还是调用它们自己的getValue，这些表达式和常量都放在expressions数组中。
+ * <p>
+ * 溢出和除0这些出错的情况都交给Value的方法来处理，这样抛出的异常跟解释执行时完全一样。
+ */
+public abstract class JitEvaluator implements ExpressionEvaluator, ExpressionListEvaluator {
+
+    protected ServerSession session;
+    protected Expression[] expressions;
+
+    void init(ServerSession session, Expression[] expressions) {
+        this.session = session;
+        this.expressions = expressions;
+        initConstants();
+    }
+
+    // 常量只需要计算一次
+    protected void initConstants() {
+    }
+
+    @Override
+    public boolean getBooleanValue() {
+        throw DbException.getInternalError();
+    }
+
+    @Override
+    public Value[] getValues() {
+        throw DbException.getInternalError();
+    }
+
+    protected static int toBoolean(Value v) {
+        return v == ValueNull.INSTANCE ? -1 : (v.getBoolean() ? 1 : 0);
+    }
+
+    protected static int addInt(int a, int b) {
+        long r = (long) a + b;
+        if (r != (int) r)
+            return ValueInt.get(a).add(ValueInt.get(b)).getInt();
+        return (int) r;
+    }
+
+    protected static int subtractInt(int a, int b) {
+        long r = (long) a - b;
+        if (r != (int) r)
+            return ValueInt.get(a).subtract(ValueInt.get(b)).getInt();
+        return (int) r;
+    }
+
+    protected static int multiplyInt(int a, int b) {
+        long r = (long) a * b;
+        if (r != (int) r)
+            return ValueInt.get(a).multiply(ValueInt.get(b)).getInt();
+        return (int) r;
+    }
+
+    protected static int divideInt(int a, int b) {
+        if (b == 0)
+            return ValueInt.get(a).divide(ValueInt.get(b)).getInt();
+        return a / b;
+    }
+
+    protected static int modulusInt(int a, int b) {
+        if (b == 0)
+            return ValueInt.get(a).modulus(ValueInt.get(b)).getInt();
+        return a % b;
+    }
+
+    protected static int negateInt(int a) {
+        if (a == Integer.MIN_VALUE)
+            return ValueInt.get(a).negate().getInt();
+        return -a;
+    }
+
+    protected static long addLong(long a, long b) {
+        long r = a + b;
+        if (((a ^ r) & (b ^ r)) < 0)
+            return ValueLong.get(a).add(ValueLong.get(b)).getLong();
+        return r;
+    }
+
+    protected static long subtractLong(long a, long b) {
+        long r = a - b;
+        if (((a ^ b) & (a ^ r)) < 0)
+            return ValueLong.get(a).subtract(ValueLong.get(b)).getLong();
+        return r;
+    }
+
+    protected static long multiplyLong(long a, long b) {
+        long hi = Math.multiplyHigh(a, b);
+        long r = a * b;
+        if ((hi != 0 || r < 0) && (hi != -1 || r >= 0))
+            return ValueLong.get(a).multiply(ValueLong.get(b)).getLong();
+        return r;
+    }
+
+    protected static long divideLong(long a, long b) {
+        if (b == 0)
+            return ValueLong.get(a).divide(ValueLong.get(b)).getLong();
+        return a / b;
+    }
+
+    protected static long modulusLong(long a, long b) {
+        if (b == 0)
+            return ValueLong.get(a).modulus(ValueLong.get(b)).getLong();
+        return a % b;
+    }
+
+    protected static long negateLong(long a) {
+        if (a == Long.MIN_VALUE)
+            return ValueLong.get(a).negate().getLong();
+        return -a;
+    }
+
+    protected static double divideDouble(double a, double b) {
+        if (b == 0.0)
+            return ValueDouble.get(a).divide(ValueDouble.get(b)).getDouble();
+        return a / b;
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.optimizer;
+
+import java.util.ArrayList;
+
+import com.lealone.db.Database;
+import com.lealone.db.index.standard.StandardDataType;
+import com.lealone.db.result.SortOrder;
+import com.lealone.db.row.Row;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.table.Column;
+import com.lealone.db.table.Table;
+import com.lealone.db.util.ValueHashMap;
+import com.lealone.db.value.CompareMode;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueArray;
+import com.lealone.db.value.ValueLong;
+import com.lealone.db.value.ValueNull;
+import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.ExpressionColumn;
+import com.lealone.sql.expression.condition.Comparison;
+import com.lealone.sql.expression.visitor.VoidExpressionVisitor;
+import com.lealone.storage.Storage;
+import com.lealone.storage.StorageMap;
+import com.lealone.storage.StorageMapCursor;
+
+/**
+ * 等值连接的内表上没有可用的索引时，不再为外表的每一行重新扫描一遍内表，
+ * 而是只扫描一次内表，按连接字段建一个hash表，然后用外表当前行的值去hash表中查找。
+ * <p>
+ * hash表中的记录数超过maxMemoryRows后，所有记录都转存到一个临时的StorageMap中，
+ * key是连接字段的值加上一个序号，查找时按连接字段的值做范围扫描。
+ * <p>
+ * 这里只是快速找到候选记录，join条件和过滤条件还是由TableFilter完整检查一遍。
+ */
+class HashJoin implements JoinCursor {
+
+    private final TableFilter tableFilter;
+    private final ArrayList<IndexCondition> conditions;
+    private final int[] columnIds;
+
+    private boolean built;
+    private ValueHashMap<ArrayList<Row>> hashTable;
+    private int rowCount;
+    private StorageMap<Value, ValueArray> spillMap;
+
+    // 外表当前行匹配到的记录
+    private ArrayList<Row> matchedRows;
+    private int matchedIndex;
+    private StorageMapCursor<Value, ValueArray> spillCursor;
+    private Value[] key;
+
+    HashJoin(TableFilter tableFilter, ArrayList<IndexCondition> conditions) {
+        this.tableFilter = tableFilter;
+        this.conditions = conditions;
+        int size = conditions.size();
+        columnIds = new int[size];
+        for (int i = 0; i < size; i++) {
+            columnIds[i] = conditions.get(i).getColumn().getColumnId();
+        }
+    }
+
+    @Override
+    public ArrayList<IndexCondition> getConditions() {
+        return conditions;
+    }
+
+    @Override
+    public String getPlanSQL() {
+        return "hash join";
+    }
+
+    /**
+     * 内表只能全表扫描时，如果有跟前面的表做等值比较的索引条件，并且用hash join的代价更低，
+     * 就把这些索引条件放到item中
+     */
+    static void optimize(ServerSession session, TableFilter f, ArrayList<IndexCondition> indexConditions,
+            PlanItem item) {
+        if (f.getNestedJoin() != null || !item.getIndex().getIndexType().isScan()
+                || (f.getSelect() != null && f.getSelect().isForUpdate()))
+            return;
+        ArrayList<IndexCondition> conditions = null;
+        for (IndexCondition c : indexConditions) {
+            if (c.getCompareType() != Comparison.EQUAL || !c.isEvaluatable())
+                continue;
+            Column column = c.getColumn();
+            if (column.getColumnId() < 0 || !isHashable(session, column.getType()))
+                continue;
+            if (!isJoinExpression(f, c.getExpression()))
+                continue;
+            if (conditions == null)
+                conditions = new ArrayList<>();
+            conditions.add(c);
+        }
+        if (conditions == null)
+            return;
+        // 跟索引的等值查找一样按字段的选择性估算每次查找平均匹配的记录数，同样乘以10
+        Table table = f.getTable();
+        long rowCount = Math.max(table.getRowCountApproximation(), 1);
+        int selectivity = 0;
+        for (IndexCondition c : conditions) {
+            selectivity = 100 - ((100 - selectivity) * (100 - c.getColumn().getSelectivity()) / 100);
+        }
+        long distinctRows = Math.max(rowCount * selectivity / 100, 1);
+        double probeCost = 10 * (2 + Math.max(rowCount / distinctRows, 1));
+        if (probeCost < item.cost) {
+            // 只扫描一次内表，建hash表的代价不随外表的记录数增加，
+            // 但是每条记录除了扫描还要插入hash表并占用内存，比外表逐行查找的代价高，这样小表会作为内表
+            item.setJoinCursor(new HashJoin(f, conditions), item.cost * (2 + probeCost));
+            item.cost = probeCost;
+        }
+    }
+
+    // 值相等时equals和compareTo的结果要一致，否则hash表中找不到
+    private static boolean isHashable(ServerSession session, int type) {
+        switch (type) {
+        case Value.BOOLEAN:
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+        case Value.TIME:
+        case Value.DATE:
+        case Value.TIMESTAMP:
+        case Value.BYTES:
+        case Value.UUID:
+            return true;
+        case Value.STRING:
+        case Value.STRING_FIXED:
+            return CompareMode.OFF.equals(session.getDatabase().getCompareMode().getName());
+        default:
+            return false;
+        }
+    }
+
+    // 表达式只能引用同一个select中的其他表，引用外层查询的字段时每次执行子查询都要重建hash表
+    private static boolean isJoinExpression(TableFilter f, Expression e) {
+        if (e == null)
+            return false;
+        JoinColumnsVisitor visitor = new JoinColumnsVisitor(f);
+        e.accept(visitor);
+        return visitor.joined && !visitor.outer;
+    }
+
+    private static class JoinColumnsVisitor extends VoidExpressionVisitor {
+
+        private final TableFilter tableFilter;
+        private boolean joined;
+        private boolean outer;
+
+        JoinColumnsVisitor(TableFilter tableFilter) {
+            this.tableFilter = tableFilter;
+        }
+
+        @Override
+        public Void visitExpressionColumn(ExpressionColumn e) {
+            TableFilter f = e.getTableFilter();
+            if (f == null || f.getSelect() != tableFilter.getSelect() || f == tableFilter)
+                outer = true;
+            else
+                joined = true;
+            return null;
+        }
+    }
+
+    /**
+     * 每次执行查询时都重新建hash表
+     */
+    @Override
+    public void reset() {
+        built = false;
+        hashTable = null;
+        rowCount = 0;
+        matchedRows = null;
+        spillCursor = null;
+        dropSpillMap();
+    }
+
+    @Override
+    public void find(ServerSession session) {
+        if (!built) {
+            build(session);
+            built = true;
+        }
+        matchedRows = null;
+        matchedIndex = 0;
+        spillCursor = null;
+        key = getProbeKey(session);
+        if (key == null)
+            return; // null值不会跟任何值相等
+        if (spillMap != null) {
+            Value[] from = new Value[key.length + 1];
+            System.arraycopy(key, 0, from, 0, key.length);
+            from[key.length] = ValueLong.get(Long.MIN_VALUE);
+            spillCursor = spillMap.cursor(ValueArray.get(from));
+        } else {
+            matchedRows = hashTable.get(ValueArray.get(key));
+        }
+    }
+
+    @Override
+    public Row next() {
+        if (spillCursor != null) {
+            if (!spillCursor.next())
+                return null;
+            Value[] k = ((ValueArray) spillCursor.getKey()).getList();
+            for (int i = 0; i < key.length; i++) {
+                if (!key[i].equals(k[i])) {
+                    spillCursor = null;
+                    return null;
+                }
+            }
+            Value[] v = spillCursor.getValue().getList();
+            Value[] columns = new Value[v.length - 1];
+            System.arraycopy(v, 1, columns, 0, columns.length);
+            return new Row(v[0].getLong(), columns);
+        }
+        if (matchedRows == null || matchedIndex >= matchedRows.size())
+            return null;
+        return matchedRows.get(matchedIndex++);
+    }
+
+    private Value[] getProbeKey(ServerSession session) {
+        Value[] key = new Value[columnIds.length];
+        for (int i = 0; i < key.length; i++) {
+            IndexCondition c = conditions.get(i);
+            Value v = c.getCurrentValue(session);
+            if (v == ValueNull.INSTANCE)
+                return null;
+            key[i] = c.getColumn().convert(v);
+        }
+        return key;
+    }
+
+    private Value[] getBuildKey(Row row) {
+        Value[] key = new Value[columnIds.length];
+        for (int i = 0; i < key.length; i++) {
+            Value v = row.getValue(columnIds[i]);
+            if (v == null || v == ValueNull.INSTANCE)
+                return null;
+            key[i] = v;
+        }
+        return key;
+    }
+
+    private void build(ServerSession session) {
+        IndexCursor cursor = tableFilter.getCursor();
+        // 索引条件可能引用外表的字段，建hash表时要扫描整个表
+        cursor.find(session, new ArrayList<>(0));
+        hashTable = ValueHashMap.newInstance();
+        int maxMemoryRows = session.getDatabase().getMaxMemoryRows();
+        int[] columnIndexes = tableFilter.getColumnIndexes();
+        int scanCount = 0;
+        while (cursor.next()) {
+            if ((++scanCount & 4095) == 0) {
+                session.checkCanceled();
+            }
+            Row row = cursor.get(columnIndexes);
+            Value[] key = getBuildKey(row);
+            if (key == null && columnIndexes != null) {
+                row = cursor.get(); // 连接字段不在columnIndexes中时读取完整的记录
+                key = getBuildKey(row);
+            }
+            if (key == null)
+                continue;
+            if (spillMap != null) {
+                addSpillRow(key, row);
+                continue;
+            }
+            ValueArray k = ValueArray.get(key);
+            ArrayList<Row> rows = hashTable.get(k);
+            if (rows == null) {
+                rows = new ArrayList<>(1);
+                hashTable.put(k, rows);
+            }
+            rows.add(row);
+            if (++rowCount > maxMemoryRows)
+                spill(session);
+        }
+    }
+
+    private void spill(ServerSession session) {
+        Database db = session.getDatabase();
+        Table table = tableFilter.getTable();
+        StandardDataType keyType = new StandardDataType(db.getCompareMode(),
+                getSortTypes(columnIds.length + 1));
+        StandardDataType valueType = new StandardDataType(db.getCompareMode(),
+                getSortTypes(table.getColumns().length + 1));
+        Storage storage = db.getStorage(db.getDefaultStorageEngineName());
+        spillMap = storage.openMap(storage.nextTemporaryMapName(), keyType, valueType, null);
+        rowCount = 0;
+        for (ArrayList<Row> rows : hashTable.values()) {
+            for (Row row : rows) {
+                addSpillRow(getBuildKey(row), row);
+            }
+        }
+        hashTable = null;
+    }
+
+    private void addSpillRow(Value[] key, Row row) {
+        Value[] k = new Value[key.length + 1];
+        System.arraycopy(key, 0, k, 0, key.length);
+        k[key.length] = ValueLong.get(rowCount++); // 连接字段的值相同时按序号区分
+        Value[] columns = row.getColumns();
+        Value[] v = new Value[columns.length + 1];
+        v[0] = ValueLong.get(row.getKey());
+        for (int i = 0; i < columns.length; i++) {
+            // 没有读取的字段用不到
+            v[i + 1] = columns[i] == null ? ValueNull.INSTANCE : columns[i];
+        }
+        spillMap.put(ValueArray.get(k), ValueArray.get(v));
+    }
+
+    private static int[] getSortTypes(int length) {
+        int[] sortTypes = new int[length];
+        for (int i = 0; i < length; i++) {
+            sortTypes[i] = SortOrder.ASCENDING;
+        }
+        return sortTypes;
+    }
+
+    private void dropSpillMap() {
+        if (spillMap != null) {
+            try {
+                spillMap.remove();
+            } finally {
+                spillMap = null;
+            }
+        }
+    }
+}
@@ -280,6 +280,15 @@ public class IndexCondition {
         return compareType;
     }
 
+    /**
+     * Get the expression, null for IN(...) conditions.
+     *
+     * @return the expression
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
     /**
      * Get the referenced column.
      *
@@ -38,6 +38,7 @@ public class IndexCursor implements Cursor {
     private Index index;
     private IndexColumn[] indexColumns;
     private boolean alwaysFalse;
+    private boolean reverse;
 
     private SearchRow start, end;
     private Cursor cursor;
@@ -54,6 +55,7 @@ public class IndexCursor implements Cursor {
 
     public void setIndex(Index index) {
         this.index = index;
+        this.reverse = false;
         this.table = index.getTable();
         Column[] columns = table.getColumns();
         indexColumns = new IndexColumn[columns.length];
@@ -68,6 +70,19 @@ public class IndexCursor implements Cursor {
         }
     }
 
+    /**
+     * Iterate over the index in descending order, the index must support reverse scan.
+     *
+     * @param reverse true to iterate in descending order
+     */
+    public void setReverse(boolean reverse) {
+        this.reverse = reverse;
+    }
+
+    public boolean isReverse() {
+        return reverse;
+    }
+
     /**
      * Check if the result is empty for sure.
      *
@@ -85,6 +100,10 @@ public class IndexCursor implements Cursor {
      */
     public void find(ServerSession session, ArrayList<IndexCondition> indexConditions) {
         parseIndexConditions(session, indexConditions);
+        if (rangeStart != null)
+            start = rangeStart;
+        if (rangeEnd != null)
+            end = rangeEnd;
         if (inColumn != null) {
             return;
         }
@@ -98,6 +117,8 @@ public class IndexCursor implements Cursor {
             }
             CursorParameters<SearchRow> parameters = CursorParameters.create(start, end, pageKeys,
                     columnIndexes);
+            if (reverse)
+                parameters = parameters.reverse(true);
             cursor = index.find(tableFilter.getSession(), parameters);
         }
     }
@@ -270,6 +291,23 @@ public class IndexCursor implements Cursor {
         }
     }
 
+    @Override
+    public int next(Row[] rows) {
+        while (true) {
+            if (cursor == null) {
+                nextCursor();
+                if (cursor == null) {
+                    return 0;
+                }
+            }
+            int count = cursor.next(rows);
+            if (count > 0) {
+                return count;
+            }
+            cursor = null;
+        }
+    }
+
     private void nextCursor() {
         if (inList != null) {
             while (inListIndex < inList.length) {
@@ -318,6 +356,19 @@ public class IndexCursor implements Cursor {
         return index.getNodeToPageKeyMap(session, start, end);
     }
 
+    private SearchRow rangeStart, rangeEnd;
+
+    /**
+     * 并行扫描时只遍历索引中的一段，只能用于没有索引条件的全表扫描。
+     *
+     * @param start 起始行，为null时从头开始
+     * @param end 结束行(包含)，为null时一直到最后
+     */
+    public void setRange(SearchRow start, SearchRow end) {
+        rangeStart = start;
+        rangeEnd = end;
+    }
+
     private List<PageKey> pageKeys;
 
     public void setPageKeys(List<PageKey> pageKeys) {
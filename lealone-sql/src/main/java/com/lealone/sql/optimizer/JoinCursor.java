@@ -0,0 +1,44 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.optimizer;
+
+import java.util.ArrayList;
+
+import com.lealone.db.row.Row;
+import com.lealone.db.session.ServerSession;
+
+/**
+ * 连接查询的内表不再为外表的每一行单独做一次索引查找，而是由JoinCursor按连接条件返回匹配的记录。
+ * <p>
+ * 返回的只是候选记录，join条件和过滤条件还是由TableFilter完整检查一遍。
+ */
+interface JoinCursor {
+
+    /**
+     * 用外表当前行的值查找匹配的记录
+     */
+    void find(ServerSession session);
+
+    /**
+     * 返回下一条匹配的记录，没有时返回null
+     */
+    Row next();
+
+    /**
+     * 释放查询期间用到的资源，下一次查询时重新开始
+     */
+    void reset();
+
+    /**
+     * 不在TableFilter的索引条件中、需要在执行计划中额外显示的条件
+     */
+    ArrayList<IndexCondition> getConditions();
+
+    /**
+     * 在执行计划中显示的连接方式，比如hash join
+     */
+    String getPlanSQL();
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.optimizer;
+
+import java.util.ArrayList;
+
+import com.lealone.db.Database;
+import com.lealone.db.index.Cursor;
+import com.lealone.db.index.Index;
+import com.lealone.db.index.IndexColumn;
+import com.lealone.db.index.standard.StandardPrimaryIndex;
+import com.lealone.db.result.SortOrder;
+import com.lealone.db.row.Row;
+import com.lealone.db.row.SearchRow;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.table.Column;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueNull;
+import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.ExpressionColumn;
+import com.lealone.sql.expression.condition.Comparison;
+
+/**
+ * 外表按连接字段的顺序读取，内表也有以连接字段开头的升序索引时，
+ * 不再为外表的每一行从btree的根节点开始查找一次内表的索引，
+ * 而是让内表的索引游标跟着外表一起向前移动，大表之间的主键外键连接就变成了两个顺序扫描。
+ * <p>
+ * 连接字段的值相同的记录会缓存起来，外表有多行的值相同时直接重用。
+ * 外表的值变小时(比如外表本身也在嵌套循环中被反复扫描)重新定位索引游标，所以结果总是正确的。
+ * <p>
+ * 外连接还是由TableFilter处理，找不到匹配的记录时返回null行。
+ */
+class MergeJoin implements JoinCursor {
+
+    private final TableFilter tableFilter;
+    private final IndexCondition condition;
+    private final Column column;
+    private final int columnId;
+
+    private Cursor cursor; // 一直向前移动的内表索引游标
+    private SearchRow pending; // 游标当前位置上还没有处理过的记录，为null时说明游标已经到头了
+    private Value cursorKey; // 游标已经移动到的外表的值，比它小的记录都已经跳过了
+    private Value groupKey;
+    private final ArrayList<Row> group = new ArrayList<>();
+    private int groupIndex;
+    private int scanCount;
+
+    // 索引正在创建时记录不是按索引的顺序返回的，临时改回按索引条件查找
+    private boolean seek;
+
+    MergeJoin(TableFilter tableFilter, IndexCondition condition) {
+        this.tableFilter = tableFilter;
+        this.condition = condition;
+        column = condition.getColumn();
+        columnId = column.getColumnId();
+    }
+
+    @Override
+    public ArrayList<IndexCondition> getConditions() {
+        return new ArrayList<>(0); // 连接条件已经在索引条件中了
+    }
+
+    @Override
+    public String getPlanSQL() {
+        return "merge join";
+    }
+
+    /**
+     * 内表用索引查找并且外表按同一个连接字段有序时，如果代价更低就用merge join
+     */
+    static void optimize(ServerSession session, TableFilter f, ArrayList<IndexCondition> indexConditions,
+            PlanItem item) {
+        Index index = item.getIndex();
+        if (item.getJoinCursor() != null || f.getNestedJoin() != null || index.getIndexType().isScan()
+                || (f.getSelect() != null && f.getSelect().isForUpdate()))
+            return;
+        Column column = getFirstAscendingColumn(index);
+        if (column == null)
+            return;
+        IndexCondition condition = null;
+        for (IndexCondition c : indexConditions) {
+            if (!c.isEvaluatable() || index.getColumnIndex(c.getColumn()) < 0)
+                continue;
+            // 有其他可用的索引条件时，按索引查找的记录更少
+            if (condition != null || c.getColumn() != column || c.getCompareType() != Comparison.EQUAL
+                    || !isOrderedBy(f, c.getExpression()))
+                return;
+            condition = c;
+        }
+        if (condition == null)
+            return;
+        // 跟索引查找相比少了从根节点开始查找的代价，只需要顺序读取匹配的记录，
+        // 或者是外表的每一行平均对应的内表记录数(内表比外表大很多时要跳过很多记录)，同样乘以10
+        long rowCount = Math.max(f.getTable().getRowCountApproximation(), 1);
+        long rowsPerKey;
+        if (index.getIndexType().isUnique() && index.getIndexColumns().length == 1) {
+            rowsPerKey = 1;
+        } else {
+            long distinctRows = Math.max(rowCount * column.getSelectivity() / 100, 1);
+            rowsPerKey = Math.max(rowCount / distinctRows, 1);
+        }
+        TableFilter outer = ((ExpressionColumn) condition.getExpression()).getTableFilter();
+        long outerRowCount = Math.max(outer.getTable().getRowCountApproximation(), 1);
+        double cost = 10 * Math.max(rowsPerKey, rowCount / outerRowCount);
+        if (cost < item.cost) {
+            item.setJoinCursor(new MergeJoin(f, condition), 0);
+            item.cost = cost;
+        }
+    }
+
+    private static Column getFirstAscendingColumn(Index index) {
+        IndexColumn[] columns = index.getIndexColumns();
+        if (columns == null || columns.length == 0 || columns[0] == null
+                || (columns[0].sortType & SortOrder.DESCENDING) != 0)
+            return null;
+        return columns[0].column;
+    }
+
+    // 连接条件的另一边必须是同一个select中的外表的字段，并且外表按这个字段的升序读取
+    private static boolean isOrderedBy(TableFilter f, Expression e) {
+        if (!(e instanceof ExpressionColumn))
+            return false;
+        TableFilter outer = ((ExpressionColumn) e).getTableFilter();
+        if (outer == null || outer == f || outer.getSelect() != f.getSelect())
+            return false;
+        PlanItem item = outer.getLastPlanItem();
+        if (item == null || item.getJoinCursor() != null || outer.getNestedJoin() != null)
+            return false;
+        Column column = ((ExpressionColumn) e).getColumn();
+        Index index = item.getIndex();
+        if (index instanceof StandardPrimaryIndex) {
+            // 全表扫描时按主键的顺序读取
+            return ((StandardPrimaryIndex) index).getMainIndexColumn() == column.getColumnId();
+        }
+        return getFirstAscendingColumn(index) == column;
+    }
+
+    @Override
+    public void reset() {
+        cursor = null;
+        pending = null;
+        cursorKey = null;
+        groupKey = null;
+        group.clear();
+        seek = false;
+    }
+
+    @Override
+    public void find(ServerSession session) {
+        groupIndex = 0;
+        seek = tableFilter.getIndex().isBuilding();
+        if (seek) {
+            reset();
+            seek = true;
+            tableFilter.getCursor().find(session, tableFilter.getIndexConditions());
+            return;
+        }
+        Value v = condition.getCurrentValue(session);
+        if (v == ValueNull.INSTANCE) {
+            // null值不会跟任何值相等，游标的位置和当前分组都不变，外表的下一行还能接着用
+            groupIndex = group.size();
+            return;
+        }
+        v = column.convert(v);
+        Database db = session.getDatabase();
+        if (groupKey != null && db.compare(v, groupKey) == 0)
+            return; // 跟外表的上一行的值相同
+        if (cursor == null || db.compare(v, cursorKey) < 0) {
+            // 外表的值变小了，从这个值开始重新定位
+            SearchRow first = tableFilter.getTable().getTemplateRow();
+            first.setValue(columnId, v);
+            cursor = tableFilter.getIndex().find(session, first, null);
+            pending = nextSearchRow();
+        }
+        cursorKey = v;
+        groupKey = v;
+        group.clear();
+        int[] columnIndexes = tableFilter.getColumnIndexes();
+        while (pending != null) {
+            Value k = pending.getValue(columnId);
+            int cmp = k == null || k == ValueNull.INSTANCE ? -1 : db.compare(k, v);
+            if (cmp > 0)
+                break;
+            if (cmp == 0)
+                group.add(cursor.get(columnIndexes));
+            else if ((++scanCount & 4095) == 0)
+                session.checkCanceled();
+            pending = nextSearchRow();
+        }
+    }
+
+    private SearchRow nextSearchRow() {
+        return cursor.next() ? cursor.getSearchRow() : null;
+    }
+
+    @Override
+    public Row next() {
+        if (seek) {
+            IndexCursor c = tableFilter.getCursor();
+            return c.next() ? c.get(tableFilter.getColumnIndexes()) : null;
+        }
+        if (groupKey == null || groupIndex >= group.size())
+            return null;
+        return group.get(groupIndex++);
+    }
+}
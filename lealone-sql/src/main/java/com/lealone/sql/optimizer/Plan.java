@@ -92,7 +92,7 @@ public class Plan {
         for (TableFilter tableFilter : allFilters) {
             PlanItem item = tableFilter.getBestPlanItem(session, level++);
             planItems.put(tableFilter, item);
-            cost += cost * item.cost;
+            cost += cost * item.cost + item.getBuildCost();
             setEvaluatable(tableFilter, true);
             Expression on = tableFilter.getJoinCondition();
             if (on != null && !on.isEvaluatable()) {
@@ -23,6 +23,8 @@ public class PlanItem {
     private Index index;
     private PlanItem joinPlan;
     private PlanItem nestedJoinPlan;
+    private JoinCursor joinCursor;
+    private double buildCost;
 
     public double getCost() {
         return cost;
@@ -51,4 +53,22 @@ public class PlanItem {
     PlanItem getNestedJoinPlan() {
         return nestedJoinPlan;
     }
+
+    void setJoinCursor(JoinCursor joinCursor, double buildCost) {
+        this.joinCursor = joinCursor;
+        this.buildCost = buildCost;
+    }
+
+    JoinCursor getJoinCursor() {
+        return joinCursor;
+    }
+
+    /**
+     * 用hash join时建hash表的代价，只在第一次查找时付出一次，不随外表的记录数增加
+     *
+     * @return 不用hash join时是0
+     */
+    double getBuildCost() {
+        return buildCost;
+    }
 }
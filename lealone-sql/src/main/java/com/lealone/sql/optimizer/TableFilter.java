@@ -114,6 +114,14 @@ public class TableFilter extends ColumnResolverBase {
 
     private int[] columnIndexes;
 
+    /**
+     * 用hash join或merge join查找匹配的记录，为null时按索引条件查找
+     */
+    private JoinCursor joinCursor;
+
+    // 最近一次为当前的连接顺序计算出的执行计划，merge join要用它判断外表是否按连接字段有序
+    private PlanItem lastPlanItem;
+
     /**
      * Create a new table filter object.
      *
@@ -158,8 +166,10 @@ public class TableFilter extends ColumnResolverBase {
      */
     public PlanItem getBestPlanItem(ServerSession s, int level) {
         PlanItem item = StatementBase.getDistributedBestPlanItem(s, cursor, table);
-        if (item != null)
+        if (item != null) {
+            lastPlanItem = item;
             return item;
+        }
         if (indexConditions.isEmpty()) {
             item = new PlanItem();
             item.setIndex(table.getScanIndex(s));
@@ -192,19 +202,23 @@ public class TableFilter extends ColumnResolverBase {
             // x (x.a=10); y (x.b=y.b) - see issue 113
             item.cost -= item.cost * indexConditions.size() / 100 / level;
         }
+        HashJoin.optimize(s, this, indexConditions, item);
+        MergeJoin.optimize(s, this, indexConditions, item);
+        lastPlanItem = item;
         if (nestedJoin != null) {
             setEvaluatable(true);
             item.setNestedJoinPlan(nestedJoin.getBestPlanItem(s, level));
             // TODO optimizer: calculate cost of a join: should use separate
             // expected row number and lookup cost
-            item.cost += item.cost * item.getNestedJoinPlan().cost;
+            item.cost += item.cost * item.getNestedJoinPlan().cost
+                    + item.getNestedJoinPlan().getBuildCost();
         }
         if (join != null) {
             setEvaluatable(true);
             item.setJoinPlan(join.getBestPlanItem(s, level));
             // TODO optimizer: calculate cost of a join: should use separate
             // expected row number and lookup cost
-            item.cost += item.cost * item.getJoinPlan().cost;
+            item.cost += item.cost * item.getJoinPlan().cost + item.getJoinPlan().getBuildCost();
         }
         return item;
     }
@@ -221,6 +235,7 @@ public class TableFilter extends ColumnResolverBase {
             return;
         }
         setIndex(item.getIndex());
+        joinCursor = item.getJoinCursor();
         if (nestedJoin != null && item.getNestedJoinPlan() != null) {
             nestedJoin.setPlanItem(item.getNestedJoinPlan());
         }
@@ -284,6 +299,9 @@ public class TableFilter extends ColumnResolverBase {
     public void startQuery(ServerSession s) {
         session = s;
         scanCount = 0;
+        if (joinCursor != null) {
+            joinCursor.reset();
+        }
         if (nestedJoin != null) {
             nestedJoin.startQuery(s);
         }
@@ -315,7 +333,10 @@ public class TableFilter extends ColumnResolverBase {
         if (state == AFTER_LAST) {
             return false;
         } else if (state == BEFORE_FIRST) {
-            cursor.find(session, indexConditions);
+            if (joinCursor != null)
+                joinCursor.find(session);
+            else
+                cursor.find(session, indexConditions);
             if (!cursor.isAlwaysFalse()) {
                 if (nestedJoin != null) {
                     nestedJoin.reset();
@@ -346,7 +367,15 @@ public class TableFilter extends ColumnResolverBase {
                 if ((++scanCount & 4095) == 0) {
                     checkTimeout();
                 }
-                if (cursor.next()) {
+                if (joinCursor != null) {
+                    Row r = joinCursor.next();
+                    if (r != null) {
+                        set(r);
+                        state = FOUND;
+                    } else {
+                        state = AFTER_LAST;
+                    }
+                } else if (cursor.next()) {
                     currentSearchRow = cursor.getSearchRow();
                     current = null;
                     state = FOUND;
@@ -398,6 +427,43 @@ public class TableFilter extends ColumnResolverBase {
         return false;
     }
 
+    /**
+     * Check if the rows can be fetched in batches by {@link #next(Row[])}.
+     * This is only possible for a single table without join and filter conditions.
+     *
+     * @return true if batch scan is supported
+     */
+    public boolean isBatchScanSupported() {
+        return join == null && nestedJoin == null && !joinOuter && filterCondition == null
+                && joinCondition == null;
+    }
+
+    /**
+     * Fetch the next batch of rows, the current row is the last row of the batch.
+     *
+     * @param rows the array to store the rows
+     * @return the number of rows fetched, 0 if there are no more rows
+     */
+    public int next(Row[] rows) {
+        if (state == AFTER_LAST) {
+            return 0;
+        } else if (state == BEFORE_FIRST) {
+            cursor.find(session, indexConditions);
+            state = FOUND;
+        }
+        int count = cursor.isAlwaysFalse() ? 0 : cursor.next(rows);
+        if (count == 0) {
+            state = AFTER_LAST;
+            return 0;
+        }
+        if ((scanCount & 4095) + count > 4095) {
+            checkTimeout();
+        }
+        scanCount += count;
+        set(rows[count - 1]);
+        return count;
+    }
+
     /**
      * Set the state of this and all nested tables to the NULL row.
      */
@@ -552,6 +618,15 @@ public class TableFilter extends ColumnResolverBase {
         return join;
     }
 
+    /**
+     * 释放hash join用到的hash表和临时map，以及merge join一直打开的索引游标
+     */
+    public void closeJoinCursor() {
+        if (joinCursor != null) {
+            joinCursor.reset();
+        }
+    }
+
     /**
      * Whether this is an outer joined table.
      *
@@ -623,9 +698,18 @@ public class TableFilter extends ColumnResolverBase {
             buff.append('\n');
             StatementBuilder planBuff = new StatementBuilder();
             planBuff.append(index.getPlanSQL());
-            if (indexConditions.size() > 0) {
+            if (cursor.isReverse()) {
+                planBuff.append(" reverse");
+            }
+            ArrayList<IndexCondition> conditions = indexConditions;
+            if (joinCursor != null) {
+                planBuff.append(' ').append(joinCursor.getPlanSQL());
+                conditions = new ArrayList<>(joinCursor.getConditions());
+                conditions.addAll(indexConditions);
+            }
+            if (conditions.size() > 0) {
                 planBuff.append(": ");
-                for (IndexCondition condition : indexConditions) {
+                for (IndexCondition condition : conditions) {
                     planBuff.appendExceptFirst("\n    AND ");
                     planBuff.append(condition.getSQL());
                 }
@@ -675,11 +759,33 @@ public class TableFilter extends ColumnResolverBase {
         return index;
     }
 
+    ArrayList<IndexCondition> getIndexConditions() {
+        return indexConditions;
+    }
+
+    PlanItem getLastPlanItem() {
+        return lastPlanItem;
+    }
+
+    // 没有索引条件时会遍历整个索引
+    public boolean isFullScan() {
+        return indexConditions.isEmpty() && nestedJoin == null && join == null;
+    }
+
     public void setIndex(Index index) {
         this.index = index;
         cursor.setIndex(index);
     }
 
+    /**
+     * Read the rows of the current index in descending order.
+     *
+     * @param reverse true to iterate in descending order
+     */
+    public void setReverse(boolean reverse) {
+        cursor.setReverse(reverse);
+    }
+
     public void setUsed(boolean used) {
         this.used = used;
     }
@@ -55,6 +55,15 @@ public class TableIterator {
         }
     }
 
+    public boolean isBatchScanSupported() {
+        return cursor == null && oldRow == null && tableFilter.isBatchScanSupported();
+    }
+
+    // 调用者需要先用isBatchScanSupported()判断能否批量读取
+    public int next(Row[] rows) {
+        return tableFilter.next(rows);
+    }
+
     public Row getRow() {
         if (cursor == null) {
             return tableFilter.get();
@@ -0,0 +1,236 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.query;
+
+import java.util.ArrayList;
+
+import com.lealone.db.row.ColumnVector;
+import com.lealone.db.row.Row;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.table.Column;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueNull;
+import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.ExpressionColumn;
+import com.lealone.sql.expression.Parameter;
+import com.lealone.sql.expression.ValueExpression;
+import com.lealone.sql.expression.condition.Comparison;
+import com.lealone.sql.expression.condition.ConditionAndOr;
+import com.lealone.sql.optimizer.TableFilter;
+import com.lealone.sql.optimizer.TableIterator;
+
+// 单表扫描时一次读取一批记录(通常是一个leaf page中剩下的记录)，把用到的数值列转成ColumnVector，
+// 由AND连接起来的简单比较条件直接在原始类型的数组上计算，得到满足条件的记录下标。
+// ROW_STORAGE和COLUMN_STORAGE的表都一样，记录还是由存储引擎批量返回的Row，ColumnVector是从Row中取出来的
+class ColumnBatchScan {
+
+    private static final int BATCH_SIZE = 1024;
+
+    private final TableIterator tableIterator;
+    private final TableFilter tableFilter;
+    private final ServerSession session;
+    private final Row[] rows = new Row[BATCH_SIZE];
+    private final int[] selection = new int[BATCH_SIZE];
+    private final ArrayList<ColumnVector> vectors = new ArrayList<>();
+    private final ArrayList<Predicate> predicates = new ArrayList<>();
+    private int selectedCount;
+
+    private ColumnBatchScan(Select select, TableIterator tableIterator) {
+        this.tableIterator = tableIterator;
+        tableFilter = select.getTopTableFilter();
+        session = select.getSession();
+    }
+
+    /**
+     * 返回null表示不能批量扫描，只能逐行处理
+     */
+    static ColumnBatchScan create(Select select, TableIterator tableIterator) {
+        if (select.isForUpdate || !tableIterator.isBatchScanSupported())
+            return null;
+        ColumnBatchScan scan = new ColumnBatchScan(select, tableIterator);
+        Expression c = select.condition;
+        if (c != null && !(c instanceof ValueExpression && c.getValue(scan.session).getBoolean())) {
+            if (!scan.addCondition(c))
+                return null;
+        }
+        return scan;
+    }
+
+    private boolean addCondition(Expression c) {
+        if (c instanceof ConditionAndOr) {
+            ConditionAndOr andOr = (ConditionAndOr) c;
+            return andOr.getAndOrType() == ConditionAndOr.AND && addCondition(andOr.getLeft())
+                    && addCondition(andOr.getRight());
+        }
+        if (!(c instanceof Comparison))
+            return false;
+        Comparison comparison = (Comparison) c;
+        ColumnVector vector = getVector(comparison.getLeft());
+        if (vector == null)
+            return false;
+        int compareType = comparison.getCompareType();
+        if (compareType > Comparison.IS_NOT_NULL && compareType != Comparison.EQUAL_NULL_SAFE
+                && compareType != Comparison.NOT_EQUAL_NULL_SAFE)
+            return false;
+        Expression right = comparison.getRight();
+        if (right == null) { // IS NULL 和 IS NOT NULL
+            predicates.add(new Predicate(vector, compareType, false, 0, 0));
+            return true;
+        }
+        if (!(right instanceof ValueExpression || right instanceof Parameter))
+            return false;
+        Value r = right.getValue(session);
+        if (r == ValueNull.INSTANCE || !ColumnVector.isSupported(r.getType()))
+            return false;
+        // 按Comparison.getValue的方式先转成两边中更高阶的类型再比较
+        int leftType = comparison.getLeft().getType();
+        int dataType = Value.getHigherOrder(leftType, r.getType());
+        boolean floating = dataType == Value.DOUBLE || dataType == Value.FLOAT;
+        if (dataType == Value.FLOAT && !vector.isFloating())
+            return false; // 整数转成float会丢失精度，double[]中的值跟它不一致
+        r = r.convertTo(dataType);
+        predicates.add(new Predicate(vector, compareType, floating, floating ? 0 : r.getLong(),
+                floating ? r.getDouble() : 0));
+        return true;
+    }
+
+    /**
+     * 返回列对应的ColumnVector，不是当前表的数值列时返回null
+     */
+    ColumnVector getVector(Expression e) {
+        if (!(e instanceof ExpressionColumn))
+            return null;
+        ExpressionColumn ec = (ExpressionColumn) e;
+        Column column = ec.getColumn();
+        if (ec.getTableFilter() != tableFilter || !ColumnVector.isSupported(column.getType()))
+            return null;
+        int columnId = column.getColumnId();
+        for (ColumnVector v : vectors) {
+            if (v.getColumnId() == columnId)
+                return v;
+        }
+        ColumnVector v = new ColumnVector(columnId, column.getType());
+        vectors.add(v);
+        return v;
+    }
+
+    /**
+     * 读取下一批记录，返回读到的记录数，返回0表示没有记录了
+     */
+    int next() {
+        int size = tableIterator.next(rows);
+        if (size == 0) {
+            selectedCount = 0;
+            return 0;
+        }
+        for (int i = 0, len = vectors.size(); i < len; i++) {
+            vectors.get(i).load(rows, size);
+        }
+        int count = size;
+        for (int i = 0; i < size; i++) {
+            selection[i] = i;
+        }
+        for (int i = 0, len = predicates.size(); i < len && count > 0; i++) {
+            count = predicates.get(i).filter(selection, count);
+        }
+        selectedCount = count;
+        return size;
+    }
+
+    int[] getSelection() {
+        return selection;
+    }
+
+    int getSelectedCount() {
+        return selectedCount;
+    }
+
+    Row getRow(int index) {
+        return rows[index];
+    }
+
+    private static class Predicate {
+
+        private final ColumnVector vector;
+        private final int compareType;
+        private final boolean floating;
+        private final long longValue;
+        private final double doubleValue;
+
+        Predicate(ColumnVector vector, int compareType, boolean floating, long longValue,
+                double doubleValue) {
+            this.vector = vector;
+            this.compareType = compareType;
+            this.floating = floating;
+            this.longValue = longValue;
+            this.doubleValue = doubleValue;
+        }
+
+        // 把满足条件的记录下标留在selection的前面，返回满足条件的记录数
+        int filter(int[] selection, int count) {
+            ColumnVector v = vector;
+            int n = 0;
+            switch (compareType) {
+            case Comparison.IS_NULL:
+                for (int j = 0; j < count; j++) {
+                    int i = selection[j];
+                    if (v.isNull(i))
+                        selection[n++] = i;
+                }
+                return n;
+            case Comparison.IS_NOT_NULL:
+                for (int j = 0; j < count; j++) {
+                    int i = selection[j];
+                    if (!v.isNull(i))
+                        selection[n++] = i;
+                }
+                return n;
+            }
+            // 只有IS DISTINCT FROM遇到null时返回true，其他比较遇到null都是false或null
+            boolean nullResult = compareType == Comparison.NOT_EQUAL_NULL_SAFE;
+            boolean hasNulls = v.hasNulls();
+            long[] longs = v.getLongs();
+            double[] doubles = v.getDoubles();
+            boolean vectorFloating = v.isFloating();
+            for (int j = 0; j < count; j++) {
+                int i = selection[j];
+                boolean ok;
+                if (hasNulls && v.isNull(i)) {
+                    ok = nullResult;
+                } else if (floating) {
+                    double d = vectorFloating ? doubles[i] : (double) longs[i];
+                    ok = test(Double.compare(d, doubleValue));
+                } else {
+                    ok = test(Long.compare(longs[i], longValue));
+                }
+                if (ok)
+                    selection[n++] = i;
+            }
+            return n;
+        }
+
+        private boolean test(int c) {
+            switch (compareType) {
+            case Comparison.EQUAL:
+            case Comparison.EQUAL_NULL_SAFE:
+                return c == 0;
+            case Comparison.NOT_EQUAL:
+            case Comparison.NOT_EQUAL_NULL_SAFE:
+                return c != 0;
+            case Comparison.BIGGER_EQUAL:
+                return c >= 0;
+            case Comparison.BIGGER:
+                return c > 0;
+            case Comparison.SMALLER_EQUAL:
+                return c <= 0;
+            case Comparison.SMALLER:
+                return c < 0;
+            default:
+                return false;
+            }
+        }
+    }
+}
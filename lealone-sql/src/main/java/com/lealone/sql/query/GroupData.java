@@ -0,0 +1,85 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import com.lealone.sql.expression.Expression;
+
+/**
+ * 一个分组中各个表达式的中间状态，比如聚合函数的AggregateData、分组字段的第一个值。
+ * <p>
+ * 同一个Select的所有分组中，每个表达式都使用相同的序号，状态按序号存放在一个数组中，
+ * 分组很多时比每个分组用一个HashMap节省很多内存。
+ */
+public class GroupData {
+
+    private final Slots slots;
+    private Object[] values;
+
+    GroupData(Slots slots) {
+        this.slots = slots;
+        values = new Object[slots.size()];
+    }
+
+    public Object get(Expression e) {
+        int index = slots.indexOf(e);
+        return index >= 0 && index < values.length ? values[index] : null;
+    }
+
+    public void put(Expression e, Object value) {
+        int index = slots.add(e);
+        if (index >= values.length)
+            values = Arrays.copyOf(values, slots.size());
+        values[index] = value;
+    }
+
+    int size() {
+        return values.length;
+    }
+
+    Object get(int index) {
+        return values[index];
+    }
+
+    Expression getExpression(int index) {
+        return slots.get(index);
+    }
+
+    /**
+     * 表达式的序号，第一次放入分组时分配
+     */
+    static class Slots {
+
+        private final IdentityHashMap<Expression, Integer> indexes = new IdentityHashMap<>();
+        private final ArrayList<Expression> expressions = new ArrayList<>();
+
+        int indexOf(Expression e) {
+            Integer index = indexes.get(e);
+            return index == null ? -1 : index.intValue();
+        }
+
+        int add(Expression e) {
+            Integer index = indexes.get(e);
+            if (index == null) {
+                index = expressions.size();
+                indexes.put(e, index);
+                expressions.add(e);
+            }
+            return index.intValue();
+        }
+
+        int size() {
+            return expressions.size();
+        }
+
+        Expression get(int index) {
+            return expressions.get(index);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.query;
+
+import com.lealone.sql.operator.Operator;
+import com.lealone.sql.operator.OperatorFactoryBase;
+
+// 内置的olap Operator，把聚合查询剩下的全表扫描切分后并行执行
+public class OlapOperatorFactory extends OperatorFactoryBase {
+
+    public OlapOperatorFactory() {
+        super("olap");
+    }
+
+    @Override
+    public Operator createOperator(Select select) {
+        return QParallel.create(select);
+    }
+}
@@ -5,21 +5,34 @@
  */
 package com.lealone.sql.query;
 
-import java.util.HashMap;
-
+import com.lealone.db.row.ColumnVector;
 import com.lealone.db.value.Value;
 import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.aggregate.BuiltInAggregate;
 
 // 除了QuickAggregateQuery之外的聚合函数，没有group by
 class QAggregate extends QOperator {
 
+    private boolean batchScanChecked;
+    private ColumnBatchScan batchScan;
+    private BuiltInAggregate[] aggregates;
+    private ColumnVector[] vectors;
+
     QAggregate(Select select) {
         super(select);
-        select.currentGroup = new HashMap<>();
+        select.currentGroup = select.createGroup();
     }
 
     @Override
     public void run() {
+        if (!batchScanChecked) {
+            batchScanChecked = true;
+            createBatchScan();
+        }
+        if (batchScan != null) {
+            runBatch();
+            return;
+        }
         while (next()) {
             boolean yield = yieldIfNeeded(++loopCount);
             if (conditionEvaluator.getBooleanValue()) {
@@ -39,10 +52,62 @@ class QAggregate extends QOperator {
             if (yield)
                 return;
         }
+        addResultRow();
+    }
+
+    private void addResultRow() {
         // 最后把聚合后的结果增加到结果集中
         Value[] row = createRow();
         row = QGroup.toResultRow(row, columnCount, select.resultColumnCount);
         result.addRow(row);
         loopEnd = true;
     }
+
+    // 所有的select字段都是能在ColumnVector上计算的聚合函数时才批量扫描
+    private void createBatchScan() {
+        if (sampleSize > 0 || select.havingIndex >= 0)
+            return;
+        ColumnBatchScan scan = ColumnBatchScan.create(select, tableIterator);
+        if (scan == null)
+            return;
+        BuiltInAggregate[] aggregates = new BuiltInAggregate[columnCount];
+        ColumnVector[] vectors = new ColumnVector[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            Expression expr = select.expressions.get(i).getNonAliasExpression();
+            if (!(expr instanceof BuiltInAggregate))
+                return;
+            BuiltInAggregate a = (BuiltInAggregate) expr;
+            if (!a.isVectorizable())
+                return;
+            if (a.getOn() != null) {
+                vectors[i] = scan.getVector(a.getOn());
+                if (vectors[i] == null)
+                    return;
+            }
+            aggregates[i] = a;
+        }
+        this.aggregates = aggregates;
+        this.vectors = vectors;
+        batchScan = scan;
+    }
+
+    private void runBatch() {
+        while (true) {
+            int size = batchScan.next();
+            if (size == 0)
+                break;
+            int count = batchScan.getSelectedCount();
+            if (count > 0) {
+                rowCount += count;
+                select.currentGroupRowId++;
+                int[] selection = batchScan.getSelection();
+                for (int i = 0; i < columnCount; i++) {
+                    aggregates[i].updateAggregate(session, vectors[i], selection, count);
+                }
+            }
+            if (yieldIfNeededForBatch(size))
+                return;
+        }
+        addResultRow();
+    }
 }
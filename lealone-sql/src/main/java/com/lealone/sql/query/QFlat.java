@@ -6,16 +6,29 @@
 package com.lealone.sql.query;
 
 import com.lealone.db.value.Value;
+import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.ExpressionColumn;
 
 // 最普通的查询
 class QFlat extends QOperator {
 
+    private boolean batchScanChecked;
+    private ColumnBatchScan batchScan;
+
     QFlat(Select select) {
         super(select);
     }
 
     @Override
     public void run() {
+        if (!batchScanChecked) {
+            batchScanChecked = true;
+            createBatchScan();
+        }
+        if (batchScan != null) {
+            runBatch();
+            return;
+        }
         while (next()) {
             boolean yield = yieldIfNeeded(++loopCount);
             if (conditionEvaluator.getBooleanValue()) {
@@ -34,4 +47,41 @@ class QFlat extends QOperator {
         }
         loopEnd = true;
     }
+
+    // 有能在ColumnVector上计算的查询条件并且select字段都是当前表的列时才批量扫描，
+    // 其他表达式可能依赖逐行推进的状态(比如ROWNUM)
+    private void createBatchScan() {
+        if (select.condition == null || sampleSize > 0)
+            return;
+        for (int i = 0; i < columnCount; i++) {
+            Expression expr = select.expressions.get(i).getNonAliasExpression();
+            if (!(expr instanceof ExpressionColumn)
+                    || ((ExpressionColumn) expr).getTableFilter() != topTableFilter)
+                return;
+        }
+        batchScan = ColumnBatchScan.create(select, tableIterator);
+    }
+
+    private void runBatch() {
+        while (true) {
+            int size = batchScan.next();
+            if (size == 0)
+                break;
+            int count = batchScan.getSelectedCount();
+            int[] selection = batchScan.getSelection();
+            for (int i = 0; i < count; i++) {
+                topTableFilter.set(batchScan.getRow(selection[i]));
+                Value[] row = createRow();
+                result.addRow(row);
+                rowCount++;
+                if (canBreakLoop()) {
+                    loopEnd = true;
+                    return;
+                }
+            }
+            if (yieldIfNeededForBatch(size))
+                return;
+        }
+        loopEnd = true;
+    }
 }
@@ -6,30 +6,50 @@
 package com.lealone.sql.query;
 
 import java.util.Arrays;
-import java.util.HashMap;
 
+import com.lealone.common.exceptions.DbException;
+import com.lealone.db.Database;
+import com.lealone.db.index.standard.StandardDataType;
 import com.lealone.db.result.ResultTarget;
+import com.lealone.db.result.SortOrder;
 import com.lealone.db.util.ValueHashMap;
 import com.lealone.db.value.Value;
 import com.lealone.db.value.ValueArray;
+import com.lealone.db.value.ValueLong;
 import com.lealone.db.value.ValueNull;
 import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.aggregate.AggregateData;
+import com.lealone.sql.expression.aggregate.BuiltInAggregate;
+import com.lealone.storage.Storage;
+import com.lealone.storage.StorageMap;
+import com.lealone.storage.StorageMapCursor;
 
 // 只处理group by，且group by的字段没有索引
+// 分组数超过maxMemoryRows后，把内存中所有分组的中间结果转存到临时map中，最后再按分组key的顺序合并
 public class QGroup extends QOperator {
 
-    private final ValueHashMap<HashMap<Expression, Object>> groups;
+    private ValueHashMap<GroupData> groups;
+    private final int maxMemoryGroups;
+    private boolean spillable = true; // 有不能转存的中间结果时(比如java聚合函数)一直放在内存中
+    private StorageMap<Value, ValueArray> spillMap;
+    private long spillCount;
+    private int spillValueCount; // 临时map中每条记录的中间结果个数
 
     QGroup(Select select) {
         super(select);
         select.currentGroup = null;
         groups = ValueHashMap.newInstance();
+        maxMemoryGroups = session.getDatabase().getMaxMemoryRows();
     }
 
-    public ValueHashMap<HashMap<Expression, Object>> getGroups() {
+    public ValueHashMap<GroupData> getGroups() {
         return groups;
     }
 
+    public boolean isSpilled() {
+        return spillMap != null;
+    }
+
     @Override
     public void run() {
         while (next()) {
@@ -40,9 +60,12 @@ public class QGroup extends QOperator {
                 }
                 rowCount++;
                 Value key = getKey(select);
-                select.currentGroup = getOrCreateGroup(groups, key);
+                select.currentGroup = getOrCreateGroup(select, groups, key);
                 select.currentGroupRowId++;
                 updateAggregate(select, columnCount);
+                if (spillable && groups.size() > maxMemoryGroups) {
+                    spill();
+                }
                 if (sampleSize > 0 && rowCount >= sampleSize) {
                     break;
                 }
@@ -51,10 +74,25 @@ public class QGroup extends QOperator {
                 return;
         }
         // 把分组后的记录放到result中
-        addGroupRows(groups, select, columnCount, result);
+        if (spillMap != null) {
+            spill();
+            addSpilledGroupRows();
+            dropSpillMap();
+        } else {
+            addGroupRows(groups, select, columnCount, result);
+        }
         loopEnd = true;
     }
 
+    @Override
+    public void stop() {
+        try {
+            super.stop();
+        } finally {
+            dropSpillMap();
+        }
+    }
+
     public static Value getKey(Select select) {
         // 避免在ExpressionColumn.getValue中取到旧值
         // 例如SELECT id/3 AS A, COUNT(*) FROM mytable GROUP BY A HAVING A>=0
@@ -73,18 +111,17 @@ public class QGroup extends QOperator {
         return keyValues;
     }
 
-    public static HashMap<Expression, Object> getOrCreateGroup(
-            ValueHashMap<HashMap<Expression, Object>> groups, Value key) {
-        HashMap<Expression, Object> values = groups.get(key);
+    public static GroupData getOrCreateGroup(Select select, ValueHashMap<GroupData> groups, Value key) {
+        GroupData values = groups.get(key);
         if (values == null) {
-            values = new HashMap<>();
+            values = select.createGroup();
             groups.put(key, values);
         }
         return values;
     }
 
-    public static void addGroupRows(ValueHashMap<HashMap<Expression, Object>> groups, Select select,
-            int columnCount, ResultTarget result) {
+    public static void addGroupRows(ValueHashMap<GroupData> groups, Select select, int columnCount,
+            ResultTarget result) {
         for (Value v : groups.keys()) {
             ValueArray key = (ValueArray) v;
             select.currentGroup = groups.get(key);
@@ -139,4 +176,122 @@ public class QGroup extends QOperator {
             }
         }
     }
+
+    // key是分组key加上一个序号，同一个分组可能会转存多次，value是每个表达式的中间结果
+    private void spill() {
+        if (groups.size() == 0)
+            return;
+        ValueArray[] keys = groups.keys().toArray(new ValueArray[0]);
+        int valueCount = spillValueCount;
+        if (spillMap == null) {
+            // 后面的分组可能比第一个分组多一些表达式的中间结果
+            for (ValueArray key : keys)
+                valueCount = Math.max(valueCount, groups.get(key).size());
+        }
+        // 先检查所有分组，有一个分组不能转存时整个Operator都放在内存中，
+        // 第一次转存时已经检查过每个表达式的中间结果，之后不会再出现不能转存的分组
+        ValueArray[] values = new ValueArray[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = getPartialValues(groups.get(keys[i]), valueCount);
+            if (values[i] == null) {
+                if (spillMap != null)
+                    throw DbException.getInternalError();
+                spillable = false;
+                return;
+            }
+        }
+        if (spillMap == null) {
+            Database db = session.getDatabase();
+            StandardDataType keyType = new StandardDataType(db.getCompareMode(),
+                    getSortTypes(select.groupIndex.length + 1));
+            StandardDataType valueType = new StandardDataType(db.getCompareMode(),
+                    getSortTypes(valueCount));
+            Storage storage = db.getStorage(db.getDefaultStorageEngineName());
+            spillMap = storage.openMap(storage.nextTemporaryMapName(), keyType, valueType, null);
+            spillValueCount = valueCount;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            Value[] keyValues = keys[i].getList();
+            Value[] k = Arrays.copyOf(keyValues, keyValues.length + 1);
+            k[keyValues.length] = ValueLong.get(spillCount++);
+            spillMap.put(ValueArray.get(k), values[i]);
+        }
+        groups = ValueHashMap.newInstance();
+        select.currentGroup = null;
+    }
+
+    // 每个中间结果外面再包一层，跟没有中间结果的表达式区分开，不够valueCount个时补null
+    private ValueArray getPartialValues(GroupData group, int valueCount) {
+        if (group.size() > valueCount)
+            return null;
+        Value[] values = new Value[valueCount];
+        for (int i = 0; i < values.length; i++) {
+            Object v = i < group.size() ? group.get(i) : null;
+            if (v == null) {
+                values[i] = ValueNull.INSTANCE;
+                continue;
+            }
+            if (v instanceof AggregateData) {
+                v = ((AggregateData) v).getPartialValue(session);
+                if (v == null)
+                    return null;
+            } else if (!(v instanceof Value)) {
+                return null;
+            }
+            values[i] = ValueArray.get(new Value[] { (Value) v });
+        }
+        return ValueArray.get(values);
+    }
+
+    // 同一个分组的多条记录在临时map中是连续的，合并完一个分组就可以输出
+    private void addSpilledGroupRows() {
+        StorageMapCursor<Value, ValueArray> cursor = spillMap.cursor();
+        Value[] lastKeyValues = null;
+        GroupData group = null;
+        while (cursor.next()) {
+            Value[] k = ((ValueArray) cursor.getKey()).getList();
+            Value[] keyValues = Arrays.copyOf(k, k.length - 1);
+            if (group == null || !Arrays.equals(keyValues, lastKeyValues)) {
+                if (group != null)
+                    addGroupRow(select, lastKeyValues, columnCount, result);
+                group = select.createGroup();
+                lastKeyValues = keyValues;
+                select.currentGroup = group;
+            }
+            mergePartialValues(group, cursor.getValue().getList());
+        }
+        if (group != null)
+            addGroupRow(select, lastKeyValues, columnCount, result);
+    }
+
+    private void mergePartialValues(GroupData group, Value[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == ValueNull.INSTANCE)
+                continue;
+            Value v = ((ValueArray) values[i]).getList()[0];
+            Expression e = group.getExpression(i);
+            if (e instanceof BuiltInAggregate)
+                ((BuiltInAggregate) e).mergePartialValue(session, v);
+            else if (group.get(e) == null)
+                group.put(e, v); // 只保留第一条记录的值
+        }
+    }
+
+    private static int[] getSortTypes(int length) {
+        int[] sortTypes = new int[length];
+        for (int i = 0; i < length; i++) {
+            sortTypes[i] = SortOrder.ASCENDING;
+        }
+        return sortTypes;
+    }
+
+    private void dropSpillMap() {
+        if (spillMap != null) {
+            try {
+                spillMap.remove();
+            } finally {
+                spillMap = null;
+            }
+        }
+    }
 }
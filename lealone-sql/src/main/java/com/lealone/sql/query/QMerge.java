@@ -6,7 +6,6 @@
 package com.lealone.sql.query;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 
 import com.lealone.db.result.LocalResult;
 import com.lealone.db.result.Result;
@@ -25,7 +24,7 @@ class QMerge extends QOperator {
     public Result queryGroupMerge() {
         int columnCount = select.expressions.size();
         LocalResult result = new LocalResult(session, select.expressionArray, columnCount);
-        ValueHashMap<HashMap<Expression, Object>> groups = ValueHashMap.newInstance();
+        ValueHashMap<GroupData> groups = ValueHashMap.newInstance();
         int rowNumber = 0;
         select.setCurrentRowNumber(0);
         ValueArray defaultGroup = ValueArray.get(new Value[0]);
@@ -46,9 +45,9 @@ class QMerge extends QOperator {
                 }
                 key = ValueArray.get(keyValues);
             }
-            HashMap<Expression, Object> values = groups.get(key);
+            GroupData values = groups.get(key);
             if (values == null) {
-                values = new HashMap<Expression, Object>();
+                values = select.createGroup();
                 groups.put(key, values);
             }
             select.currentGroup = values;
@@ -64,7 +63,7 @@ class QMerge extends QOperator {
             }
         }
         if (select.groupIndex == null && groups.size() == 0) {
-            groups.put(defaultGroup, new HashMap<Expression, Object>());
+            groups.put(defaultGroup, select.createGroup());
         }
         ArrayList<Value> keys = groups.keys();
         for (Value v : keys) {
@@ -14,7 +14,8 @@ import com.lealone.sql.expression.Expression;
 import com.lealone.sql.expression.ValueExpression;
 import com.lealone.sql.expression.evaluator.AlwaysTrueEvaluator;
 import com.lealone.sql.expression.evaluator.ExpressionEvaluator;
-import com.lealone.sql.expression.evaluator.ExpressionInterpreter;
+import com.lealone.sql.expression.evaluator.ExpressionListEvaluator;
+import com.lealone.sql.expression.evaluator.HybridEvaluator;
 import com.lealone.sql.operator.Operator;
 import com.lealone.sql.optimizer.TableFilter;
 import com.lealone.sql.optimizer.TableIterator;
@@ -43,6 +44,7 @@ public abstract class QOperator implements Operator {
     protected boolean loopEnd;
 
     protected YieldableSelect yieldableSelect;
+    private ExpressionListEvaluator rowEvaluator;
 
     public QOperator(Select select) {
         this.select = select;
@@ -60,13 +62,24 @@ public abstract class QOperator implements Operator {
 
     // 允许子类覆盖
     public ExpressionEvaluator createConditionEvaluator(Expression c) {
-        return new ExpressionInterpreter(session, c);
+        return HybridEvaluator.createConditionEvaluator(session, c);
     }
 
     public boolean yieldIfNeeded(int rowNumber) {
         return yieldableSelect.yieldIfNeeded(rowNumber);
     }
 
+    // 批量处理了count条记录，按逐行处理时的方式推进loopCount，这样检查是否让出执行权的频率是一样的
+    protected boolean yieldIfNeededForBatch(int count) {
+        boolean yield = false;
+        for (int i = 0; i < count; i++) {
+            ++loopCount;
+            if (!yield)
+                yield = yieldIfNeeded(loopCount);
+        }
+        return yield;
+    }
+
     public boolean canBreakLoop() {
         // 不需要排序时，如果超过行数限制了可以退出循环
         if ((select.sort == null || select.sortUsingIndex) && limitRows > 0 && rowCount >= limitRows) {
@@ -105,6 +118,13 @@ public abstract class QOperator implements Operator {
                 limitRows = Long.MAX_VALUE;
             }
         }
+        // 提前设置limit和offset，需要排序时result只保留排在前面的记录
+        if (localResult != null && maxRows >= 0) {
+            if (select.offsetExpr != null) {
+                localResult.setOffset(select.offsetExpr.getValue(session).getInt());
+            }
+            localResult.setLimit(maxRows);
+        }
         rowCount = 0;
         select.setCurrentRowNumber(0);
         sampleSize = select.getSampleSizeValue(session);
@@ -149,12 +169,10 @@ public abstract class QOperator implements Operator {
     }
 
     public Value[] createRow() {
-        Value[] row = new Value[columnCount];
-        for (int i = 0; i < columnCount; i++) {
-            Expression expr = select.expressions.get(i);
-            row[i] = expr.getValue(session);
-        }
-        return row;
+        if (rowEvaluator == null)
+            rowEvaluator = HybridEvaluator.createExpressionListEvaluator(session, select.expressions,
+                    columnCount);
+        return rowEvaluator.getValues();
     }
 
     @Override
@@ -0,0 +1,475 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.lealone.common.exceptions.DbException;
+import com.lealone.common.util.SystemPropertyUtils;
+import com.lealone.db.api.ErrorCode;
+import com.lealone.db.index.Index;
+import com.lealone.db.row.Row;
+import com.lealone.db.row.SearchRow;
+import com.lealone.db.session.ServerSession;
+import com.lealone.db.session.SessionStatus;
+import com.lealone.db.util.ValueHashMap;
+import com.lealone.db.value.Value;
+import com.lealone.db.value.ValueArray;
+import com.lealone.sql.PreparedSQLStatement;
+import com.lealone.sql.expression.Expression;
+import com.lealone.sql.expression.ExpressionColumn;
+import com.lealone.sql.expression.Parameter;
+import com.lealone.sql.expression.Rownum;
+import com.lealone.sql.expression.SequenceValue;
+import com.lealone.sql.expression.aggregate.ACount;
+import com.lealone.sql.expression.aggregate.ACountAll;
+import com.lealone.sql.expression.aggregate.ADefault;
+import com.lealone.sql.expression.aggregate.AGroupConcat;
+import com.lealone.sql.expression.aggregate.Aggregate;
+import com.lealone.sql.expression.aggregate.AggregateData;
+import com.lealone.sql.expression.aggregate.JavaAggregate;
+import com.lealone.sql.expression.evaluator.AlwaysTrueEvaluator;
+import com.lealone.sql.expression.evaluator.ExpressionEvaluator;
+import com.lealone.sql.expression.evaluator.HybridEvaluator;
+import com.lealone.sql.expression.subquery.SubQuery;
+import com.lealone.sql.expression.visitor.VoidExpressionVisitor;
+import com.lealone.sql.operator.Operator;
+import com.lealone.sql.optimizer.TableFilter;
+import com.lealone.sql.optimizer.TableIterator;
+
+/**
+ * 扫描的记录数超过olap阈值后，把聚合查询剩下的全表扫描按btree的node page切成多段并行执行。
+ * <p>
+ * 每一段用自己的session重新编译同一条SQL，在专用的线程池中扫描并做部分聚合，
+ * 所有段都扫描完后再按key的顺序把部分聚合的结果合并到原来的分组中。
+ * 调用者的session在等待期间处于WAITING状态，不会被调度，由最后结束的那一段唤醒调度线程。
+ */
+class QParallel extends QOperator {
+
+    private static final ValueArray DEFAULT_GROUP = ValueArray.get(new Value[0]);
+
+    private static final ThreadPoolExecutor executor = createExecutor();
+
+    private static ThreadPoolExecutor createExecutor() {
+        int threads = SystemPropertyUtils.getInt("lealone.olap.threads",
+                Runtime.getRuntime().availableProcessors());
+        AtomicInteger id = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "QParallel-" + id.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    // 原Select中保存分组状态的表达式，跟每一段的Select中的表达式按下标一一对应
+    private final ArrayList<Expression> groupExpressions;
+
+    private QOperator oldOperator;
+    private boolean fallback; // 不能并行扫描时继续用原来的Operator
+    private ValueHashMap<GroupData> groups;
+    private long lastKey;
+    private ArrayList<Partition> partitions;
+    private final AtomicInteger runningCount = new AtomicInteger();
+    private volatile boolean canceled;
+
+    private QParallel(Select select, ArrayList<Expression> groupExpressions) {
+        super(select);
+        this.groupExpressions = groupExpressions;
+    }
+
+    /**
+     * 只支持单表全表扫描的聚合查询，聚合函数的中间结果要能合并
+     *
+     * @return 不支持时返回null
+     */
+    static QParallel create(Select select) {
+        if (!select.isGroupQuery || select.isGroupSortedQuery || select.isQuickAggregateQuery
+                || select.isForUpdate || select.getSampleSizeValue(select.getSession()) > 0)
+            return null;
+        TableFilter f = select.getTopTableFilter();
+        if (!f.isFullScan() || !f.getIndex().getIndexType().isScan())
+            return null;
+        ArrayList<Expression> groupExpressions = getGroupExpressions(select);
+        if (groupExpressions == null)
+            return null;
+        return new QParallel(select, groupExpressions);
+    }
+
+    private static ArrayList<Expression> getGroupExpressions(Select select) {
+        GroupExpressionsCollector collector = new GroupExpressionsCollector();
+        for (Expression e : select.expressions) {
+            e.accept(collector);
+        }
+        if (select.condition != null) {
+            // 查询条件中的表达式不保存分组状态，只检查是否支持
+            ArrayList<Expression> list = collector.expressions;
+            collector.expressions = new ArrayList<>();
+            select.condition.accept(collector);
+            collector.expressions = list;
+        }
+        return collector.supported ? collector.expressions : null;
+    }
+
+    @Override
+    public void start() {
+        // 不能调用tableIterator.start()，原来的Operator还要用topTableFilter的当前位置
+    }
+
+    @Override
+    public void copyStatus(Operator old) {
+        oldOperator = (QOperator) old;
+        oldOperator.copyStatusTo(this);
+        if (old instanceof QGroup) {
+            // 已经转存到临时map中的分组只能由原来的Operator合并
+            if (((QGroup) old).isSpilled())
+                fallback = true;
+            groups = ((QGroup) old).getGroups();
+        } else {
+            groups = ValueHashMap.newInstance();
+            groups.put(DEFAULT_GROUP, select.currentGroup);
+        }
+        // 最后一条已经处理过的记录，剩下的记录从它的下一条开始并行扫描
+        Row current = topTableFilter.get();
+        if (current == null)
+            fallback = true;
+        else
+            lastKey = current.getKey();
+    }
+
+    @Override
+    public void run() {
+        if (!fallback && partitions == null)
+            fallback = !startPartitions();
+        if (fallback) {
+            oldOperator.run();
+            loopEnd = oldOperator.isStopped();
+            return;
+        }
+        if (runningCount.get() > 0) {
+            // 先改成WAITING再检查一次，避免最后一段在两次检查之间结束时没有唤醒调度线程
+            session.setStatus(SessionStatus.WAITING);
+            if (runningCount.get() > 0)
+                return;
+            session.setStatus(SessionStatus.STATEMENT_RUNNING);
+        }
+        try {
+            for (Partition p : partitions) {
+                p.checkResult(); // 有异常时抛出
+                merge(p);
+            }
+        } finally {
+            closePartitions();
+        }
+        addResultRows();
+        loopEnd = true;
+    }
+
+    @Override
+    public void stop() {
+        if (fallback) {
+            oldOperator.stop(); // 原来的Operator可能还要释放临时map
+        } else {
+            cancelPartitions();
+            super.stop();
+        }
+    }
+
+    // 取消查询或出错时，还在队列中的段直接删除，正在执行的段很快会检查到canceled，
+    // 等它们结束后才能在调度线程中关闭各自的session
+    private void cancelPartitions() {
+        if (partitions == null)
+            return;
+        canceled = true;
+        for (Partition p : partitions) {
+            if (!executor.remove(p.task))
+                p.await();
+        }
+        closePartitions();
+    }
+
+    private void closePartitions() {
+        if (partitions == null)
+            return;
+        for (Partition p : partitions) {
+            closeSession(p.select.getSession());
+        }
+        partitions = null;
+    }
+
+    // 只在调用者的调度线程中创建和关闭，事务要从这个调度线程的TransactionManager中删除
+    private ServerSession createSession() {
+        ServerSession s = session.getDatabase().createSession(session.getUser(),
+                session.getScheduler());
+        s.setCurrentSchemaName(session.getCurrentSchemaName());
+        s.setAutoCommit(session.isAutoCommit());
+        // 能读到调用者的事务还没有提交的记录
+        s.getTransaction().setParentTransaction(session.getTransaction());
+        return s;
+    }
+
+    private static void closeSession(ServerSession s) {
+        try {
+            s.rollback();
+        } finally {
+            s.close();
+        }
+    }
+
+    private boolean startPartitions() {
+        // 每一段的事务都有自己的快照，跟可重复读事务的快照不一样
+        if (session.getTransaction().isRepeatableRead())
+            return false;
+        Index index = topTableFilter.getIndex();
+        int n = Runtime.getRuntime().availableProcessors();
+        List<SearchRow> splitRows = index.getSplitRows(session, n);
+        if (splitRows == null)
+            return false;
+        ArrayList<Long> startKeys = new ArrayList<>(splitRows.size() + 1);
+        startKeys.add(lastKey + 1);
+        for (SearchRow r : splitRows) {
+            if (r.getKey() > startKeys.get(startKeys.size() - 1))
+                startKeys.add(r.getKey());
+        }
+        // 所有的Select都准备好后再提交，避免失败时有部分已经在执行了
+        ArrayList<Partition> partitions = new ArrayList<>(startKeys.size());
+        for (int i = 0, size = startKeys.size(); i < size; i++) {
+            ServerSession session = createSession();
+            Select s = prepareSelect(session);
+            if (s == null) {
+                closeSession(session);
+                for (Partition p : partitions)
+                    closeSession(p.select.getSession());
+                return false;
+            }
+            Row start = createRangeRow(startKeys.get(i));
+            Row end = i + 1 < size ? createRangeRow(startKeys.get(i + 1) - 1) : null;
+            s.getTopTableFilter().getCursor().setRange(start, end);
+            partitions.add(new Partition(s, getGroupExpressions(s)));
+        }
+        this.partitions = partitions;
+        runningCount.set(partitions.size());
+        for (Partition p : partitions) {
+            executor.execute(p.task);
+        }
+        return true;
+    }
+
+    // 最后一段结束时把调用者的session从WAITING改回来并唤醒它的调度线程
+    private void onPartitionDone() {
+        if (runningCount.decrementAndGet() == 0
+                && session.compareAndSet(SessionStatus.WAITING, SessionStatus.STATEMENT_YIELDED))
+            session.getScheduler().wakeUp();
+    }
+
+    private boolean isCanceled() {
+        if (canceled || session.isClosed())
+            return true;
+        long cancelAt = session.getCancel();
+        return cancelAt > 0 && System.currentTimeMillis() >= cancelAt;
+    }
+
+    private Row createRangeRow(long key) {
+        Row row = topTableFilter.getTable().getTemplateRow();
+        row.setKey(key);
+        return row;
+    }
+
+    // 在调用者的线程中编译，工作线程只执行
+    private Select prepareSelect(ServerSession session) {
+        PreparedSQLStatement p = session.prepareStatementLocal(select.getSQL());
+        if (!(p instanceof Select))
+            return null;
+        Select s = (Select) p;
+        ArrayList<Parameter> params = select.getParameters();
+        ArrayList<Parameter> newParams = s.getParameters();
+        if (params != null) {
+            if (newParams == null || params.size() != newParams.size())
+                return null;
+            for (int i = 0, size = params.size(); i < size; i++) {
+                newParams.get(i).setValue(params.get(i).getValue());
+            }
+        }
+        TableFilter f = s.getTopTableFilter();
+        if (f.getIndex() != topTableFilter.getIndex() || !f.isFullScan())
+            return null;
+        ArrayList<Expression> list = getGroupExpressions(s);
+        if (list == null || list.size() != groupExpressions.size())
+            return null;
+        return s;
+    }
+
+    private void merge(Partition p) {
+        for (Value key : p.groups.keys()) {
+            GroupData from = p.groups.get(key);
+            GroupData to = QGroup.getOrCreateGroup(select, groups, key);
+            for (int i = 0, size = groupExpressions.size(); i < size; i++) {
+                Object v = from.get(p.groupExpressions.get(i));
+                if (v == null)
+                    continue;
+                Expression e = groupExpressions.get(i);
+                Object old = to.get(e);
+                if (old == null)
+                    to.put(e, v);
+                else if (old instanceof AggregateData)
+                    ((AggregateData) old).merge(session, (AggregateData) v);
+                // ExpressionColumn只保留第一条记录的值，前面的段先合并
+            }
+        }
+    }
+
+    private void addResultRows() {
+        if (select.groupIndex == null) {
+            select.currentGroup = groups.get(DEFAULT_GROUP);
+            Value[] row = createRow();
+            row = QGroup.toResultRow(row, columnCount, select.resultColumnCount);
+            result.addRow(row);
+        } else {
+            QGroup.addGroupRows(groups, select, columnCount, result);
+        }
+    }
+
+    private class Partition implements Runnable {
+
+        private final Select select;
+        private final ArrayList<Expression> groupExpressions;
+        private final ValueHashMap<GroupData> groups = ValueHashMap.newInstance();
+        private final FutureTask<Void> task;
+
+        Partition(Select select, ArrayList<Expression> groupExpressions) {
+            this.select = select;
+            this.groupExpressions = groupExpressions;
+            task = new FutureTask<Void>(this, null) {
+                @Override
+                protected void done() {
+                    onPartitionDone();
+                }
+            };
+        }
+
+        // 所有段都结束后才调用，不会阻塞
+        void checkResult() {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                throw DbException.convert(e.getCause());
+            } catch (InterruptedException e) {
+                throw DbException.convert(e);
+            }
+        }
+
+        void await() {
+            try {
+                task.get();
+            } catch (Exception e) {
+                // 已经取消了，忽略
+            }
+        }
+
+        @Override
+        public void run() {
+            Select s = select;
+            TableIterator tableIterator = new TableIterator(s.getSession(), s.getTopTableFilter());
+            ExpressionEvaluator condition = s.condition == null ? new AlwaysTrueEvaluator()
+                    : HybridEvaluator.createConditionEvaluator(s.getSession(), s.condition);
+            int columnCount = s.expressions.size();
+            if (s.groupIndex == null) {
+                s.currentGroup = s.createGroup();
+                groups.put(DEFAULT_GROUP, s.currentGroup);
+            }
+            try {
+                tableIterator.start();
+                while (tableIterator.next()) {
+                    if (isCanceled())
+                        throw DbException.get(ErrorCode.STATEMENT_WAS_CANCELED);
+                    if (condition.getBooleanValue()) {
+                        if (s.groupIndex != null) {
+                            Value key = QGroup.getKey(s);
+                            s.currentGroup = QGroup.getOrCreateGroup(s, groups, key);
+                        }
+                        s.currentGroupRowId++;
+                        QGroup.updateAggregate(s, columnCount);
+                    }
+                }
+            } catch (Throwable t) {
+                throw DbException.convert(t);
+            }
+        }
+    }
+
+    // 按select字段的顺序收集保存分组状态的表达式，遇到不能合并或不能在其他线程执行的表达式时不支持
+    private static class GroupExpressionsCollector extends VoidExpressionVisitor {
+
+        private ArrayList<Expression> expressions = new ArrayList<>();
+        private boolean supported = true;
+
+        @Override
+        public Void visitExpressionColumn(ExpressionColumn e) {
+            expressions.add(e);
+            return null;
+        }
+
+        @Override
+        public Void visitAggregate(Aggregate e) {
+            if (e instanceof ACountAll || e instanceof ACount || e instanceof ADefault)
+                expressions.add(e);
+            else
+                supported = false;
+            return null;
+        }
+
+        @Override
+        public Void visitAGroupConcat(AGroupConcat e) {
+            supported = false;
+            return null;
+        }
+
+        @Override
+        public Void visitJavaAggregate(JavaAggregate e) {
+            supported = false;
+            return null;
+        }
+
+        @Override
+        public Void visitRownum(Rownum e) {
+            supported = false;
+            return null;
+        }
+
+        @Override
+        public Void visitSequenceValue(SequenceValue e) {
+            supported = false;
+            return null;
+        }
+
+        @Override
+        public Void visitSubQuery(SubQuery e) {
+            supported = false;
+            return null;
+        }
+
+        @Override
+        public Void visitSelect(Select s) {
+            supported = false;
+            return null;
+        }
+
+        @Override
+        public Void visitSelectUnion(SelectUnion su) {
+            supported = false;
+            return null;
+        }
+    }
+}
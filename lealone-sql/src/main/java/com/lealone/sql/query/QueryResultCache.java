@@ -17,7 +17,7 @@ import com.lealone.sql.expression.visitor.ExpressionVisitorFactory;
 class QueryResultCache {
 
     private final Select select;
-    private final ServerSession session;
+    private ServerSession session;
 
     private boolean noCache;
     private int lastLimit;
@@ -50,6 +50,14 @@ class QueryResultCache {
     }
 
     LocalResult getResult(int limit) {
+        // 语句被其他session共享后，不能再用上一个session计算的结果，事务能看到的记录不一样
+        if (session != select.getSession()) {
+            session = select.getSession();
+            if (lastResult != null) {
+                lastResult.close();
+                lastResult = null;
+            }
+        }
         if (isNotCachable()) {
             return null;
         } else {
@@ -6,7 +6,6 @@
 package com.lealone.sql.query;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 
 import com.lealone.agent.SystemOutline;
@@ -17,6 +16,7 @@ import com.lealone.common.util.StringUtils;
 import com.lealone.common.util.Utils;
 import com.lealone.db.Constants;
 import com.lealone.db.Database;
+import com.lealone.db.DbObject;
 import com.lealone.db.SysProperties;
 import com.lealone.db.api.ErrorCode;
 import com.lealone.db.api.Trigger;
@@ -76,7 +76,8 @@ public class Select extends Query {
     int[] groupIndex;
     boolean[] groupByExpression;
     int havingIndex;
-    HashMap<Expression, Object> currentGroup;
+    GroupData currentGroup;
+    private final GroupData.Slots groupSlots = new GroupData.Slots();
     int currentGroupRowId;
     Expression condition;
     int visibleColumnCount;
@@ -86,10 +87,14 @@ public class Select extends Query {
     boolean isQuickAggregateQuery;
     boolean isDistinctQuery;
     boolean sortUsingIndex;
+    private boolean sortIndexReverse; // 为true时需要反向遍历getSortIndex返回的索引
     private double cost;
 
     final QueryResultCache resultCache = new QueryResultCache(this);
 
+    // 流式查询暂停时结果集还要用到语句的状态，在结果集取完或关闭之前语句不能重用
+    YieldableSelect streamingSelect;
+
     public Select(ServerSession session) {
         super(session);
         SystemOutline.createNode(SystemOutlineNode.Select);
@@ -100,11 +105,33 @@ public class Select extends Query {
         return SQLStatement.SELECT;
     }
 
+    @Override
+    public void close() {
+        if (streamingSelect == null)
+            super.close();
+    }
+
     @Override
     public boolean isCacheable() {
         return !isForUpdate;
     }
 
+    @Override
+    public boolean isShareable() {
+        if (!isCacheable())
+            return false;
+        HashSet<DbObject> dependencies = new HashSet<>();
+        for (int i = 0, size = filters.size(); i < size; i++) {
+            TableFilter f = filters.get(i);
+            dependencies.add(f.getTable());
+            if (f.getJoinCondition() != null)
+                f.getJoinCondition().getDependencies(dependencies);
+        }
+        // 包括子查询中的表
+        accept(ExpressionVisitorFactory.getDependenciesVisitor(dependencies));
+        return isShareable(dependencies);
+    }
+
     public void setExpressions(ArrayList<Expression> expressions) {
         this.expressions = expressions;
     }
@@ -144,14 +171,18 @@ public class Select extends Query {
         return having;
     }
 
-    public HashMap<Expression, Object> getCurrentGroup() {
+    public GroupData getCurrentGroup() {
         return currentGroup;
     }
 
-    public void setCurrentGroup(HashMap<Expression, Object> currentGroup) {
+    public void setCurrentGroup(GroupData currentGroup) {
         this.currentGroup = currentGroup;
     }
 
+    GroupData createGroup() {
+        return new GroupData(groupSlots);
+    }
+
     public int getCurrentGroupRowId() {
         return currentGroupRowId;
     }
@@ -523,6 +554,7 @@ public class Select extends Query {
                     // in(select ...) and in(1,2,3) may return the key in
                     // another order
                     sortUsingIndex = true;
+                    topTableFilter.setReverse(sortIndexReverse);
                 }
             } else if (index.getIndexColumns().length >= current.getIndexColumns().length) {
                 IndexColumn[] sortColumns = index.getIndexColumns();
@@ -540,6 +572,7 @@ public class Select extends Query {
                 if (swapIndex) {
                     topTableFilter.setIndex(index);
                     sortUsingIndex = true;
+                    topTableFilter.setReverse(sortIndexReverse);
                 }
             }
         }
@@ -598,6 +631,7 @@ public class Select extends Query {
      * @return the index if one is found
      */
     private Index getSortIndex() {
+        sortIndexReverse = false;
         if (sort == null) {
             return null;
         }
@@ -642,6 +676,8 @@ public class Select extends Query {
                     continue;
                 }
                 boolean ok = true;
+                // 排序方式跟索引字段完全相反时可以反向遍历索引
+                boolean reverse = index.supportsReverseScan();
                 for (int j = 0; j < sortCols.length; j++) {
                     // the index and the sort order must start
                     // with the exact same columns
@@ -649,25 +685,41 @@ public class Select extends Query {
                     Column sortCol = sortCols[j];
                     if (idxCol.column != sortCol) {
                         ok = false;
+                        reverse = false;
                         break;
                     }
                     if (idxCol.sortType != sortTypes[j]) {
                         // NULL FIRST for ascending and NULLS LAST
                         // for descending would actually match the default
                         ok = false;
+                    }
+                    if (!SortOrder.isReverse(idxCol.sortType, sortTypes[j])) {
+                        reverse = false;
+                    }
+                    if (!ok && !reverse) {
                         break;
                     }
                 }
                 if (ok) {
                     return index;
                 }
+                if (reverse) {
+                    sortIndexReverse = true;
+                    return index;
+                }
             }
         }
         if (sortCols.length == 1 && sortCols[0].getColumnId() == -1) {
             // special case: order by _ROWID_
             Index index = topTableFilter.getTable().getScanIndex(session);
             if (index.isRowIdIndex()) {
-                return index;
+                // _ROWID_不会是null，所以只需要看是升序还是降序
+                if ((sortTypes[0] & SortOrder.DESCENDING) == 0) {
+                    return index;
+                } else if (index.supportsReverseScan()) {
+                    sortIndexReverse = true;
+                    return index;
+                }
             }
         }
         return null;
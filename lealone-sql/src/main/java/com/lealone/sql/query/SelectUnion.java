@@ -57,6 +57,14 @@ public class SelectUnion extends Query implements ISelectUnion {
         return SQLStatement.SELECT;
     }
 
+    // 左右两边的查询也要切换session
+    @Override
+    public void setSession(ServerSession currentSession) {
+        super.setSession(currentSession);
+        left.setSession(currentSession);
+        right.setSession(currentSession);
+    }
+
     @Override
     public int getUnionType() {
         return unionType;
@@ -0,0 +1,105 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.sql.query;
+
+import java.util.ArrayDeque;
+
+import com.lealone.common.exceptions.DbException;
+import com.lealone.db.result.DelegatedResult;
+import com.lealone.db.result.LocalResult;
+import com.lealone.db.result.ResultTarget;
+import com.lealone.db.value.Value;
+
+/**
+ * 流式查询的结果集。
+ * <p>
+ * QOperator每生成fetchSize行就暂停，结果集跟着resultId缓存在session中，
+ * 客户端发RESULT_FETCH_ROWS取完当前这一批后再让QOperator接着生成下一批，
+ * 所以不管查询结果有多大，每个打开的结果集最多只占用一批记录的内存。
+ * <p>
+ * 列的元数据还是由一个空的LocalResult提供。
+ */
+class StreamingResult extends DelegatedResult implements ResultTarget {
+
+    private final YieldableSelect yieldableSelect;
+    private final int fetchSize;
+    private final ArrayDeque<Value[]> rows = new ArrayDeque<>();
+    private Value[] currentRow;
+    private int rowId = -1;
+    private int rowCount; // 已经生成的行数
+    private boolean end; // 为true时QOperator已经结束，剩下的行都在rows中了
+    private boolean closed;
+
+    StreamingResult(YieldableSelect yieldableSelect, LocalResult result, int fetchSize) {
+        this.yieldableSelect = yieldableSelect;
+        this.result = result;
+        this.fetchSize = fetchSize;
+    }
+
+    @Override
+    public boolean addRow(Value[] values) {
+        rows.add(values);
+        rowCount++;
+        return false;
+    }
+
+    // 攒够一批后QOperator就要暂停了
+    boolean isFull() {
+        return rows.size() >= fetchSize;
+    }
+
+    void setEnd() {
+        end = true;
+    }
+
+    @Override
+    public boolean next() {
+        if (rows.isEmpty() && !end && !closed)
+            yieldableSelect.resumeStreaming();
+        currentRow = rows.poll();
+        if (currentRow == null)
+            return false;
+        rowId++;
+        return true;
+    }
+
+    @Override
+    public Value[] currentRow() {
+        return currentRow;
+    }
+
+    @Override
+    public int getRowId() {
+        return rowId;
+    }
+
+    // 还没结束时不知道总行数，客户端会一直取到结束标记为止
+    @Override
+    public int getRowCount() {
+        return end ? rowCount : -1;
+    }
+
+    @Override
+    public void reset() {
+        throw DbException.getUnsupportedException("reset streaming result");
+    }
+
+    @Override
+    public boolean needToClose() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        rows.clear();
+        currentRow = null;
+        yieldableSelect.endStreaming();
+        result.close();
+    }
+}
@@ -5,6 +5,8 @@
  */
 package com.lealone.sql.query;
 
+import java.sql.Connection;
+
 import com.lealone.agent.SystemOutline;
 import com.lealone.agent.SystemOutlineNode;
 import com.lealone.db.async.AsyncResultHandler;
@@ -26,6 +28,9 @@ public class YieldableSelect extends YieldableQueryBase {
     private final int olapThreshold;
     private boolean olapDisabled;
     private Operator queryOperator;
+    private int streamingFetchSize;
+    private StreamingResult streamingResult;
+    private boolean streamingPaused;
 
     public YieldableSelect(Select select, int maxRows, boolean scrollable,
             AsyncResultHandler<Result> asyncHandler, ResultTarget target) {
@@ -35,8 +40,16 @@ public class YieldableSelect extends YieldableQueryBase {
         this.olapThreshold = session.getOlapThreshold();
     }
 
+    @Override
+    public void enableStreaming(int fetchSize) {
+        streamingFetchSize = fetchSize;
+    }
+
     @Override
     public boolean yieldIfNeeded(int rowNumber) {
+        // 流式查询攒够一批后就暂停
+        if (streamingResult != null && streamingResult.isFull())
+            return true;
         if (!olapDisabled && olapThreshold > 0 && rowNumber > olapThreshold) {
             olapDisabled = true;
             boolean yield = super.yieldIfNeeded(rowNumber);
@@ -66,8 +79,11 @@ public class YieldableSelect extends YieldableQueryBase {
                 olapOperatorFactoryName);
         if (operatorFactory != null) {
             olapOperator = operatorFactory.createOperator(select, queryOperator.getLocalResult());
-            olapOperator.start();
-            olapOperator.copyStatus(queryOperator);
+            // 不支持的查询返回null，继续用原来的Operator
+            if (olapOperator != null) {
+                olapOperator.start();
+                olapOperator.copyStatus(queryOperator);
+            }
         }
         return olapOperator;
     }
@@ -77,15 +93,26 @@ public class YieldableSelect extends YieldableQueryBase {
         SystemOutline.createNode(SystemOutlineNode.Select_start);
         // select.getTopTableFilter().lock(session, select.isForUpdate);
         select.fireBeforeSelectTriggers();
+        // 同一条语句上次的流式结果集还没关闭，直接结束它
+        if (select.streamingSelect != null) {
+            YieldableSelect old = select.streamingSelect;
+            select.streamingSelect = null;
+            old.endStreaming();
+        }
         queryOperator = createQueryOperator();
         queryOperator.start();
     }
 
     @Override
     protected void stopInternal() {
+        // 流式查询暂停时还不能结束，等结果集取完或关闭时再调用
+        if (streamingPaused)
+            return;
         // 执行startInternal抛异常时queryOperator可能为null
         if (queryOperator != null)
             queryOperator.stop();
+        // hash join的hash表和merge join的索引游标只在一次查询中有效
+        select.getTopTableFilter().visit(f -> f.closeJoinCursor());
     }
 
     @Override
@@ -106,6 +133,11 @@ public class YieldableSelect extends YieldableQueryBase {
                 // 查询结果已经增加到target了
                 if (target != null) {
                     session.setStatus(SessionStatus.STATEMENT_COMPLETED);
+                } else if (streamingResult != null) {
+                    // 第一批就结束了，总行数是确定的
+                    streamingResult.setEnd();
+                    setResult(streamingResult, streamingResult.getRowCount());
+                    session.setStatus(SessionStatus.STATEMENT_COMPLETED);
                 } else if (queryOperator.getLocalResult() != null) {
                     LocalResult r = queryOperator.getLocalResult();
                     setResult(r, r.getRowCount());
@@ -114,6 +146,15 @@ public class YieldableSelect extends YieldableQueryBase {
                 }
                 break;
             }
+            if (streamingResult != null && streamingResult.isFull()) {
+                // 先把第一批记录返回给客户端，语句到此结束，剩下的记录等客户端来取时再接着生成
+                streamingPaused = true;
+                select.streamingSelect = this;
+                disableYield();
+                setResult(streamingResult, -1);
+                session.setStatus(SessionStatus.STATEMENT_COMPLETED);
+                return;
+            }
             if (session.getStatus() == SessionStatus.STATEMENT_YIELDED
                     || session.getStatus() == SessionStatus.WAITING) {
                 return;
@@ -155,6 +196,11 @@ public class YieldableSelect extends YieldableQueryBase {
             } else {
                 queryOperator = new QEmpty(select);
             }
+            if (isStreamable(queryOperator)) {
+                streamingResult = new StreamingResult(this, result, streamingFetchSize);
+                to = streamingResult;
+                disableOlap();
+            }
         }
         queryOperator.columnCount = select.expressions.size();
         queryOperator.maxRows = limitRows;
@@ -165,6 +211,55 @@ public class YieldableSelect extends YieldableQueryBase {
         return queryOperator;
     }
 
+    // 只有不需要排序、去重和分组的单表查询才能边生成边返回
+    private boolean isStreamable(QOperator queryOperator) {
+        return streamingFetchSize > 0 && session.isLazyQueryExecution() && !scrollable
+                && target == null && queryOperator instanceof QFlat && !select.distinct && !select.isForUpdate
+                && (select.sort == null || select.sortUsingIndex) && select.offsetExpr == null
+                && select.getTopTableFilter().getJoin() == null
+                // 暂停后每批读到的都是最新提交的记录，只有读已提交级别才能这样做
+                && session.getTransactionIsolationLevel() <= Connection.TRANSACTION_READ_COMMITTED;
+    }
+
+    // 客户端来取下一批记录时在调度线程中调用
+    void resumeStreaming() {
+        if (!streamingPaused)
+            return;
+        // 自动提交模式下语句暂停时事务已经提交了，读记录时如果开启了新事务，取完这一批后再提交
+        boolean autoCommit = session.isAutoCommit()
+                && session.getStatus() == SessionStatus.TRANSACTION_NOT_START;
+        try {
+            while (!queryOperator.isStopped()) {
+                queryOperator.run();
+                if (streamingResult.isFull())
+                    break;
+            }
+            if (queryOperator.isStopped()) {
+                streamingResult.setEnd();
+                endStreaming();
+            }
+        } catch (RuntimeException e) {
+            endStreaming();
+            throw e;
+        } finally {
+            if (autoCommit)
+                session.commit();
+        }
+    }
+
+    // 结果集取完或关闭时结束暂停的查询，语句可以重用了
+    void endStreaming() {
+        if (!streamingPaused)
+            return;
+        streamingPaused = false;
+        streamingResult.setEnd();
+        stopInternal();
+        if (select.streamingSelect == this) {
+            select.streamingSelect = null;
+            select.close();
+        }
+    }
+
     private int getLimitRows(int maxRows) {
         // 按JDBC规范的要求，当调用java.sql.Statement.setMaxRows时，
         // 如果maxRows是0，表示不限制行数，相当于没有调用过setMaxRows一样，
@@ -5,7 +5,10 @@
  */
 package com.lealone.test.aose;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
 
@@ -25,6 +28,7 @@ public class BTreeMapTest extends AoseTestBase {
         testRemove();
         testSave();
         testAppend();
+        testPutAllIfAbsent();
         // }
     }
 
@@ -87,6 +91,24 @@ public class BTreeMapTest extends AoseTestBase {
         }
         assertEquals(50, count);
 
+        cursor = map.reverseCursor(null);
+        count = 0;
+        int last = size + 1;
+        while (cursor.next()) {
+            int k = (Integer) cursor.getKey();
+            assertTrue(k < last);
+            last = k;
+            count++;
+        }
+        assertEquals(size, count);
+
+        cursor = map.reverseCursor(50);
+        count = 0;
+        while (cursor.next()) {
+            count++;
+        }
+        assertEquals(50, count);
+
         v = map.remove(150);
         assertNotNull(v);
         assertEquals(199, map.size());
@@ -275,4 +297,39 @@ public class BTreeMapTest extends AoseTestBase {
         }
         assertEquals(count, map.getMaxKey());
     }
+
+    // 批量写时会跨过很多leaf page，中间还会切割page
+    void testPutAllIfAbsent() {
+        openMap();
+        map.clear();
+        for (int i = 2; i <= 2000; i += 2) {
+            map.put(i, "old" + i);
+        }
+        int count = 4000;
+        ArrayList<Integer> keys = new ArrayList<>(count);
+        ArrayList<String> values = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            keys.add(i);
+            values.add("value" + i);
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<List<String>> ref = new AtomicReference<>();
+        map.putIfAbsent(null, keys, values, ar -> {
+            ref.set(ar.getResult());
+            latch.countDown();
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        List<String> oldValues = ref.get();
+        assertEquals(count, oldValues.size());
+        assertEquals(count, map.size());
+        for (int i = 1; i <= count; i++) {
+            boolean exists = i <= 2000 && i % 2 == 0;
+            assertEquals(exists ? "old" + i : null, oldValues.get(i - 1));
+            assertEquals(exists ? "old" + i : "value" + i, map.get(i));
+        }
+    }
 }
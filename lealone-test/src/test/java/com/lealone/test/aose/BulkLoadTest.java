@@ -0,0 +1,179 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.aose;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.lealone.storage.StorageMapCursor;
+import com.lealone.storage.aose.AOStorage;
+import com.lealone.storage.aose.btree.BTreeGC;
+import com.lealone.storage.aose.btree.BTreeMap;
+import com.lealone.storage.aose.btree.page.Page;
+import com.lealone.storage.fs.FileUtils;
+
+public class BulkLoadTest extends AoseTestBase {
+
+    private final int count = 50000;
+
+    @Test
+    public void run() {
+        testSorted();
+        testInvalidInput();
+        testBoundedMemory();
+        testUnsorted();
+    }
+
+    private BTreeMap<Integer, String> openMap(AOStorage storage, String mapName) {
+        FileUtils.deleteRecursive(joinDirs("aose", mapName), true);
+        return storage.openBTreeMap(mapName);
+    }
+
+    private void testSorted() {
+        String mapName = "BulkLoadTest_sorted";
+        AOStorage storage = openStorage(pageSize);
+        BTreeMap<Integer, String> map = openMap(storage, mapName);
+        TreeMap<Integer, String> data = new TreeMap<>();
+        for (int i = 1; i <= count; i++) {
+            data.put(i * 2, "value" + i * 2);
+        }
+        assertEquals(count, map.bulkLoad(data.entrySet().iterator()));
+        assertEquals(count, map.size());
+        assertEquals(count * 2, map.getMaxKey());
+        assertEquals(2, map.firstKey().intValue());
+        assertEquals(count * 2, map.lastKey().intValue());
+        // 所有page都写到一个新的chunk中了
+        assertFalse(map.hasUnsavedChanges());
+        assertEquals(1, map.getBTreeStorage().getChunkManager().getAllChunkIds().size());
+        Page root = map.getRootPage();
+        assertTrue(root.isNode());
+        assertValues(map, data);
+
+        // 装入后的btree跟逐条插入的一样能继续读写
+        map.fullGc();
+        assertEquals(0, map.getBTreeStorage().getBTreeGC().getUsedMemory());
+        assertEquals(4, map.ceilingKey(3).intValue());
+        for (int i = 1; i <= count; i += 100) {
+            map.put(i, "value" + i);
+            data.put(i, "value" + i);
+            map.remove(i * 2);
+            data.remove(i * 2);
+        }
+        map.save();
+        map.close();
+
+        map = storage.openBTreeMap(mapName);
+        assertEquals(data.size(), map.size());
+        assertValues(map, data);
+        map.close();
+    }
+
+    private void testInvalidInput() {
+        String mapName = "BulkLoadTest_invalid";
+        AOStorage storage = openStorage(pageSize);
+        BTreeMap<Integer, String> map = openMap(storage, mapName);
+        TreeMap<Integer, String> data = new TreeMap<>(Collections.reverseOrder());
+        data.put(1, "a");
+        data.put(2, "b");
+        try {
+            map.bulkLoad(data.entrySet().iterator());
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        // 失败后map还是空的
+        assertEquals(0, map.size());
+        assertEquals(0, map.getBTreeStorage().getChunkManager().getAllChunkIds().size());
+
+        map.put(1, "a");
+        try {
+            map.bulkLoad(new TreeMap<Integer, String>().entrySet().iterator());
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        map.close();
+    }
+
+    private void testBoundedMemory() {
+        String mapName = "BulkLoadTest_bounded";
+        AOStorage storage = openStorage(pageSize);
+        BTreeMap<Integer, String> map = openMap(storage, mapName);
+        BTreeGC bgc = map.getBTreeStorage().getBTreeGC();
+        long maxMemory = 1024 * 1024;
+        bgc.setMaxMemory(maxMemory);
+        int count = 200000;
+        String value = new String(new char[100]).replace('\0', 'v');
+        long[] dataMemory = new long[1];
+        long[] peakMemory = new long[1];
+        long usedMemory = bgc.getUsedMemory();
+        // 边装入边记录占用的内存，page写到chunk后就释放了，所以不会随着记录数增长
+        Iterator<Entry<Integer, String>> entries = new Iterator<Entry<Integer, String>>() {
+            int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < count;
+            }
+
+            @Override
+            public Entry<Integer, String> next() {
+                i++;
+                dataMemory[0] += map.getKeyType().getMemory(i) + map.getValueType().getMemory(value);
+                peakMemory[0] = Math.max(peakMemory[0], bgc.getUsedMemory());
+                return new AbstractMap.SimpleImmutableEntry<>(i, value);
+            }
+        };
+        assertEquals(count, map.bulkLoad(entries));
+        assertTrue(dataMemory[0] > maxMemory * 10);
+        assertTrue(peakMemory[0] - usedMemory < pageSize * 2);
+        // 装入后内存中只有root page，其他page都不需要等GC回收
+        assertTrue(bgc.getUsedMemory() - usedMemory < maxMemory / 10);
+        assertEquals(count, map.size());
+        assertEquals(value, map.get(1));
+        assertEquals(value, map.get(count));
+        map.close();
+    }
+
+    private void testUnsorted() {
+        String mapName = "BulkLoadTest_unsorted";
+        AOStorage storage = openStorage(pageSize);
+        BTreeMap<Integer, String> map = openMap(storage, mapName);
+        TreeMap<Integer, String> data = new TreeMap<>();
+        ArrayList<Entry<Integer, String>> entries = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            data.put(i, "value" + i);
+        }
+        entries.addAll(data.entrySet());
+        Collections.shuffle(entries, new Random(1));
+        // 内存不够时会分成多个run写到临时map中，最后再归并
+        map.getBTreeStorage().getBTreeGC().setMaxMemory(1);
+        int mapCount = storage.getMapNames().size();
+        assertEquals(count, map.bulkLoadUnsorted(entries.iterator()));
+        assertEquals(mapCount, storage.getMapNames().size());
+        assertEquals(count, map.size());
+        assertValues(map, data);
+        map.close();
+    }
+
+    private void assertValues(BTreeMap<Integer, String> map, TreeMap<Integer, String> data) {
+        for (Entry<Integer, String> e : data.entrySet()) {
+            assertEquals(e.getValue(), map.get(e.getKey()));
+        }
+        // 按顺序扫描得到的记录也一样
+        StorageMapCursor<Integer, String> cursor = map.cursor();
+        for (Entry<Integer, String> e : data.entrySet()) {
+            assertTrue(cursor.next());
+            assertEquals(e.getKey(), cursor.getKey());
+        }
+        assertFalse(cursor.next());
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.aose;
+
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import com.lealone.db.DbSetting;
+import com.lealone.storage.StorageSetting;
+import com.lealone.storage.aose.AOStorage;
+import com.lealone.storage.aose.btree.BTreeMap;
+import com.lealone.storage.aose.btree.chunk.Chunk;
+import com.lealone.storage.fs.FileUtils;
+
+// 脏页超过chunk缓冲区大小时，会分多次写到chunk文件中
+public class ChunkWriteTest extends AoseTestBase {
+
+    private final int count = 100000;
+    private final String prefix = "value-0123456789012345678901234567890123456789-";
+
+    @Test
+    public void run() {
+        String mapName = "ChunkWriteTest";
+        FileUtils.deleteRecursive(joinDirs("aose", mapName), true);
+        AOStorage storage = openStorage(pageSize);
+        HashMap<String, String> parameters = new HashMap<>();
+        parameters.put(StorageSetting.MAX_CHUNK_SIZE.name(), "1");
+        parameters.put(DbSetting.COMPRESS.name(), "NO");
+        BTreeMap<Integer, String> map = storage.openBTreeMap(mapName, null, null, parameters);
+        for (int i = 1; i <= count; i++) {
+            map.put(i, prefix + i);
+        }
+        map.save();
+        Chunk chunk = map.getBTreeStorage().getChunkManager().getLastChunk();
+        assertTrue(chunk.size() > 4 * 1024 * 1024);
+        map.fullGc();
+        assertValues(map, count);
+
+        // 大多数page都被修改了，剩下的page会被重写到新的chunk中
+        for (int i = 1; i <= count * 9 / 10; i++) {
+            map.put(i, "new" + i);
+        }
+        map.save();
+        map.put(1, "v1");
+        map.save();
+        map.close();
+
+        map = storage.openBTreeMap(mapName, null, null, parameters);
+        assertEquals(count, map.size());
+        assertEquals("v1", map.get(1));
+        for (int i = 2; i <= count; i++) {
+            assertEquals(i <= count * 9 / 10 ? "new" + i : prefix + i, map.get(i));
+        }
+        map.close();
+    }
+
+    private void assertValues(BTreeMap<Integer, String> map, int size) {
+        assertEquals(size, map.size());
+        for (int i = 1; i <= size; i++) {
+            assertEquals(prefix + i, map.get(i));
+        }
+    }
+}
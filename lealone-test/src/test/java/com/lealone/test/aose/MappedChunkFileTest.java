@@ -0,0 +1,120 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.aose;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import com.lealone.storage.StorageSetting;
+import com.lealone.storage.aose.AOStorage;
+import com.lealone.storage.aose.btree.BTreeMap;
+import com.lealone.storage.aose.btree.chunk.Chunk;
+import com.lealone.storage.aose.btree.chunk.ChunkManager;
+import com.lealone.storage.fs.FileStorage;
+import com.lealone.storage.fs.FileUtils;
+import com.lealone.storage.fs.impl.nio.FileNioMapped;
+import com.lealone.storage.fs.impl.nio.FilePathNioMapped;
+
+public class MappedChunkFileTest extends AoseTestBase {
+
+    private final int count = 3000;
+
+    @Test
+    public void run() {
+        testFileStorage();
+        testChunkFiles();
+    }
+
+    private void testFileStorage() {
+        String fileName = joinDirs("aose", "MappedChunkFileTest.db");
+        FileUtils.delete(fileName);
+        FileUtils.createDirectories(FileUtils.getParent(fileName));
+        FileStorage fs = FileStorage.open(fileName, new HashMap<>());
+        fs.writeFully(0, ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 }));
+        fs.close();
+
+        fs = FileStorage.open(FilePathNioMapped.SCHEME + ":" + fileName, new HashMap<>());
+        assertTrue(fs.getFile() instanceof FileNioMapped);
+        ByteBuffer buff = fs.readFully(1, 2);
+        assertTrue(buff.isReadOnly());
+        assertEquals(2, buff.get());
+        assertEquals(3, buff.get());
+
+        // 写入后再读新的数据需要重新映射
+        fs.writeFully(4, ByteBuffer.wrap(new byte[] { 5, 6 }));
+        buff = fs.readFully(3, 3);
+        assertEquals(4, buff.get());
+        assertEquals(5, buff.get());
+        assertEquals(6, buff.get());
+
+        ByteBuffer dst = ByteBuffer.allocate(2);
+        fs.readFully(0, 2, dst);
+        assertEquals(1, dst.get(0));
+        assertEquals(2, dst.get(1));
+
+        fs.truncate(2);
+        assertEquals(2, fs.size());
+        buff = fs.readFully(0, 2);
+        assertEquals(2, buff.get(1));
+        fs.close();
+        FileUtils.delete(fileName);
+    }
+
+    private void testChunkFiles() {
+        String mapName = "MappedChunkFileTest";
+        FileUtils.deleteRecursive(joinDirs("aose", mapName), true);
+        AOStorage storage = openStorage(pageSize);
+        HashMap<String, String> parameters = new HashMap<>();
+        // 每次save都生成一个新的chunk
+        parameters.put(StorageSetting.MAX_CHUNK_SIZE.name(), "1");
+        parameters.put(StorageSetting.MMAP_CHUNK_FILES.name(), "true");
+        BTreeMap<Integer, String> map = storage.openBTreeMap(mapName, null, null, parameters);
+        for (int round = 0; round < 3; round++) {
+            for (int i = round * count + 1; i <= (round + 1) * count; i++) {
+                map.put(i, "value" + i);
+            }
+            map.save();
+        }
+        map.close();
+
+        // 重新打开后，最后一个chunk之外的chunk都用内存映射的方式读
+        map = storage.openBTreeMap(mapName, null, null, parameters);
+        assertValues(map, 3 * count);
+        ChunkManager chunkManager = map.getBTreeStorage().getChunkManager();
+        Chunk lastChunk = chunkManager.getLastChunk();
+        int mappedCount = 0;
+        for (int id : chunkManager.getAllChunkIds()) {
+            Chunk c = chunkManager.getChunk(id);
+            if (c == lastChunk) {
+                assertFalse(c.fileStorage.getFile() instanceof FileNioMapped);
+            } else if (c.fileStorage.getFile() instanceof FileNioMapped) {
+                mappedCount++;
+            }
+        }
+        assertTrue(mappedCount > 0);
+
+        // 修改数据后会写新的chunk，并清理老的chunk
+        for (int i = 1; i <= count; i++) {
+            map.put(i, "new" + i);
+        }
+        map.save();
+        map.fullGc();
+        for (int i = 1; i <= 3 * count; i++) {
+            assertEquals(i <= count ? "new" + i : "value" + i, map.get(i));
+        }
+        map.close();
+    }
+
+    private void assertValues(BTreeMap<Integer, String> map, int size) {
+        map.fullGc();
+        assertEquals(size, map.size());
+        for (int i = 1; i <= size; i++) {
+            assertEquals("value" + i, map.get(i));
+        }
+    }
+}
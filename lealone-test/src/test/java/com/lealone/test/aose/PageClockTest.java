@@ -0,0 +1,120 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.aose;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.lealone.storage.StorageMapCursor;
+import com.lealone.storage.aose.AOStorage;
+import com.lealone.storage.aose.btree.BTreeGC;
+import com.lealone.storage.aose.btree.BTreeMap;
+import com.lealone.storage.aose.btree.page.Page;
+import com.lealone.storage.fs.FileUtils;
+
+public class PageClockTest extends AoseTestBase {
+
+    private final int count = 50000;
+
+    @Test
+    public void run() throws Exception {
+        testEvict();
+        testConcurrentReadAndEvict();
+    }
+
+    private void testEvict() {
+        String mapName = "PageClockTest";
+        FileUtils.deleteRecursive(joinDirs("aose", mapName), true);
+        AOStorage storage = openStorage(pageSize);
+        BTreeMap<Integer, String> map = storage.openBTreeMap(mapName);
+        for (int i = 1; i <= count; i++) {
+            map.put(i, "value" + i);
+        }
+        map.save();
+        BTreeGC bgc = map.getBTreeStorage().getBTreeGC();
+        // 刷完脏页后所有page都能回收了
+        assertTrue(bgc.getPageCount() > 0);
+        map.fullGc();
+        assertEquals(0, bgc.getUsedMemory());
+
+        // 顺序扫描一遍，每个leaf page只读一次，内存超过阈值后只回收足够多的page
+        StorageMapCursor<Integer, String> cursor = map.cursor();
+        while (cursor.next()) {
+            assertEquals("value" + cursor.getKey(), cursor.getValue());
+        }
+        int pageCount = bgc.getPageCount();
+        assertTrue(pageCount > 0);
+        long usedMemory = bgc.getUsedMemory();
+        bgc.setMaxMemory(1);
+        assertTrue(usedMemory > bgc.getMaxMemory() / 2);
+        // 再次访问过的page会多留一轮，先回收只扫描过一次的page
+        Page hot = map.gotoLeafPage(count / 2);
+        map.gc();
+        assertFalse(bgc.needGc());
+        assertTrue(bgc.getUsedMemory() > 0);
+        assertTrue(bgc.getPageCount() < pageCount);
+        assertTrue(hot.getRef().getPageInfo().page != null);
+
+        // 修改过的page是脏页，不能回收
+        map.put(1, "v1");
+        map.fullGc();
+        assertTrue(bgc.getUsedMemory() > 0);
+        assertEquals("v1", map.get(1));
+        map.save();
+        map.fullGc();
+        assertEquals(0, bgc.getUsedMemory());
+        for (int i = 2; i <= count; i++) {
+            assertEquals("value" + i, map.get(i));
+        }
+        map.close();
+    }
+
+    // 回收page的同时又有线程把它读回内存，读回来的page也必须在clock中，否则再也回收不了
+    private void testConcurrentReadAndEvict() throws Exception {
+        String mapName = "PageClockConcurrentTest";
+        FileUtils.deleteRecursive(joinDirs("aose", mapName), true);
+        AOStorage storage = openStorage(pageSize);
+        BTreeMap<Integer, String> map = storage.openBTreeMap(mapName);
+        for (int i = 1; i <= count; i++) {
+            map.put(i, "value" + i);
+        }
+        map.save();
+        BTreeGC bgc = map.getBTreeStorage().getBTreeGC();
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] readers = new Thread[4];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(() -> {
+                try {
+                    while (!stop.get()) {
+                        int key = ThreadLocalRandom.current().nextInt(1, count + 1);
+                        assertEquals("value" + key, map.get(key));
+                    }
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            });
+            readers[i].start();
+        }
+        long end = System.currentTimeMillis() + 2000;
+        while (System.currentTimeMillis() < end) {
+            map.fullGc();
+        }
+        stop.set(true);
+        for (Thread t : readers) {
+            t.join();
+        }
+        if (error.get() != null)
+            throw new AssertionError(error.get());
+        map.fullGc();
+        assertEquals(0, bgc.getUsedMemory());
+        assertEquals(0, bgc.getPageCount());
+        map.close();
+    }
+}
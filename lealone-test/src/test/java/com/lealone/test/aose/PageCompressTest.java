@@ -0,0 +1,153 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.aose;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.lealone.common.compress.CompressLZ4;
+import com.lealone.common.compress.CompressTool;
+import com.lealone.common.compress.Compressor;
+import com.lealone.common.util.DataUtils;
+import com.lealone.db.DbSetting;
+import com.lealone.storage.StorageSetting;
+import com.lealone.storage.aose.AOStorage;
+import com.lealone.storage.aose.btree.BTreeMap;
+import com.lealone.storage.aose.btree.BTreeStorage;
+import com.lealone.storage.aose.btree.chunk.ChunkManager;
+import com.lealone.storage.aose.btree.chunk.PagePositionTable;
+import com.lealone.storage.aose.btree.page.PageStorageMode;
+import com.lealone.storage.aose.btree.page.PageUtils;
+import com.lealone.storage.fs.FileUtils;
+
+public class PageCompressTest extends AoseTestBase {
+
+    private final int count = 5000;
+
+    @Test
+    public void run() {
+        testLZ4();
+        testMixedAlgorithms();
+        testColdChunkCompress();
+    }
+
+    private void testLZ4() {
+        Random random = new Random(1);
+        CompressLZ4 lz4 = new CompressLZ4();
+        for (int len : new int[] { 0, 1, 5, 12, 13, 17, 100, 255, 1000, 70000 }) {
+            byte[][] inputs = new byte[3][len];
+            random.nextBytes(inputs[0]); // 无法压缩
+            for (int i = 0; i < len; i++) {
+                inputs[1][i] = (byte) (i % 7); // 短周期，match重叠
+                inputs[2][i] = (byte) (random.nextInt(4) == 0 ? random.nextInt() : 'a' + i % 300);
+            }
+            for (byte[] in : inputs) {
+                byte[] comp = new byte[len * 2 + 20];
+                int compLen = lz4.compress(in, len, comp, 3);
+                byte[] out = new byte[len + 2];
+                lz4.expand(comp, 3, compLen - 3, out, 1, len);
+                assertTrue(Arrays.equals(in, Arrays.copyOfRange(out, 1, len + 1)));
+            }
+        }
+        byte[] in = new byte[10000];
+        Arrays.fill(in, (byte) 'x');
+        byte[] comp = new byte[in.length * 2];
+        assertTrue(lz4.compress(in, in.length, comp, 0) < 100);
+
+        CompressTool tool = CompressTool.getInstance();
+        byte[] data = "lealone lealone lealone lealone lealone".getBytes();
+        byte[] compressed = tool.compress(data, "LZ4");
+        assertEquals(Compressor.LZ4, compressed[0]);
+        assertTrue(Arrays.equals(data, tool.expand(compressed)));
+    }
+
+    // 同一个map中先后用不同的压缩算法写page，之后都能读出来
+    private void testMixedAlgorithms() {
+        String mapName = "PageCompressTest_mixed";
+        FileUtils.deleteRecursive(joinDirs("aose", mapName), true);
+        AOStorage storage = openStorage(pageSize);
+        String[] algorithms = { "LZF", "LZ4", "DEFLATE", "NO" };
+        for (int round = 0; round < algorithms.length; round++) {
+            HashMap<String, String> parameters = new HashMap<>();
+            parameters.put(DbSetting.COMPRESS.name(), algorithms[round]);
+            BTreeMap<Integer, String> map = storage.openBTreeMap(mapName, null, null, parameters);
+            for (int i = round * count + 1; i <= (round + 1) * count; i++) {
+                map.put(i, "value" + i);
+            }
+            map.save();
+            map.close();
+        }
+        BTreeMap<Integer, String> map = storage.openBTreeMap(mapName);
+        assertEquals(algorithms.length * count, map.size());
+        for (int i = 1; i <= algorithms.length * count; i++) {
+            assertEquals("value" + i, map.get(i));
+        }
+        int[] pageCounts = getLeafPageCounts(map.getBTreeStorage());
+        assertTrue(pageCounts[Compressor.LZF] > 0);
+        assertTrue(pageCounts[Compressor.LZ4] > 0);
+        assertTrue(pageCounts[Compressor.DEFLATE] > 0);
+        map.close();
+    }
+
+    // 重写冷chunk中的leaf page时用COLD_CHUNK_COMPRESS指定的算法重新压缩
+    private void testColdChunkCompress() {
+        String mapName = "PageCompressTest_cold";
+        FileUtils.deleteRecursive(joinDirs("aose", mapName), true);
+        AOStorage storage = openStorage(pageSize);
+        HashMap<String, String> parameters = new HashMap<>();
+        parameters.put(DbSetting.COMPRESS.name(), "LZ4");
+        parameters.put(StorageSetting.COLD_CHUNK_COMPRESS.name(), "DEFLATE level 9");
+        parameters.put(StorageSetting.MAX_CHUNK_SIZE.name(), "1");
+        BTreeMap<Integer, String> map = storage.openBTreeMap(mapName, null, null, parameters);
+        for (int i = 1; i <= count; i++) {
+            map.put(i, "value" + i);
+        }
+        map.save();
+        assertEquals(0, getLeafPageCounts(map.getBTreeStorage())[Compressor.DEFLATE]);
+
+        // 第一个chunk中的大多数page都被重写了，剩下的page会被移到新的chunk中
+        for (int i = 1; i <= count * 9 / 10; i++) {
+            map.put(i, "new" + i);
+        }
+        map.save();
+        map.put(1, "v1");
+        map.save();
+        assertTrue(getLeafPageCounts(map.getBTreeStorage())[Compressor.DEFLATE] > 0);
+        map.close();
+
+        map = storage.openBTreeMap(mapName, null, null, parameters);
+        assertEquals("v1", map.get(1));
+        for (int i = 2; i <= count; i++) {
+            assertEquals(i <= count * 9 / 10 ? "new" + i : "value" + i, map.get(i));
+        }
+        map.close();
+    }
+
+    // 按压缩算法统计所有chunk中的RowStorageLeafPage个数
+    private static int[] getLeafPageCounts(BTreeStorage bs) {
+        int[] counts = new int[Compressor.MAX_ALGORITHM + 1];
+        ChunkManager chunkManager = bs.getChunkManager();
+        for (int id : chunkManager.getAllChunkIds()) {
+            PagePositionTable pagePositions = chunkManager.getChunk(id).getPagePositions();
+            for (int i = 0, size = pagePositions.size(); i < size; i++) {
+                long pos = pagePositions.getPosition(i);
+                if (!PageUtils.isLeafPage(pos) || PageUtils.getPageType(pos) != 0)
+                    continue;
+                ByteBuffer buff = bs.readPageBuffer(pos);
+                if (buff.get(4) != PageStorageMode.ROW_STORAGE.ordinal())
+                    continue;
+                buff.position(7);
+                DataUtils.readVarInt(buff); // keyLength
+                counts[PageUtils.getCompressAlgorithm(buff.get())]++;
+            }
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.aose;
+
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import com.lealone.storage.aose.btree.chunk.PagePositionTable;
+import com.lealone.storage.aose.btree.page.PageUtils;
+
+public class PagePositionTableTest extends AoseTestBase {
+    @Test
+    public void run() {
+        testAdd();
+        testCreate();
+    }
+
+    private void testAdd() {
+        PagePositionTable table = new PagePositionTable();
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            table.add(PageUtils.getPagePos(1, i * 100, i % 2), i + 1);
+        }
+        // 乱序插入
+        table.add(PageUtils.getPagePos(1, 50, 0), 5000);
+        assertEquals(count + 1, table.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i + 1, table.getLengthByPosition(PageUtils.getPagePos(1, i * 100, i % 2)));
+        }
+        assertEquals(5000, table.getLengthByPosition(PageUtils.getPagePos(1, 50, 0)));
+        assertEquals(-1, table.getLengthByPosition(PageUtils.getPagePos(1, 60, 0)));
+        for (int i = 1; i < table.size(); i++) {
+            assertTrue(table.getPosition(i - 1) < table.getPosition(i));
+        }
+
+        HashSet<Long> pages = new HashSet<>();
+        table.addTo(pages);
+        assertEquals(count + 1, pages.size());
+        pages.add(123L);
+        table.removeFrom(pages);
+        assertEquals(1, pages.size());
+    }
+
+    private void testCreate() {
+        // 老版本写到chunk文件中的位置是无序的
+        int count = 100;
+        long[] positions = new long[count];
+        int[] lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            int offset = (i * 37) % count;
+            positions[i] = PageUtils.getPagePos(2, offset, 0);
+            lengths[i] = offset + 10;
+        }
+        PagePositionTable table = PagePositionTable.create(positions, lengths);
+        for (int i = 0; i < count; i++) {
+            assertEquals(i + 10, table.getLengthByPosition(PageUtils.getPagePos(2, i, 0)));
+        }
+        table = PagePositionTable.create(new long[0], new int[0]);
+        assertEquals(0, table.size());
+        table.add(1, 1);
+        assertTrue(table.contains(1));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.aose;
+
+import org.junit.Test;
+
+import com.lealone.storage.StorageMapCursor;
+import com.lealone.storage.aose.AOStorage;
+import com.lealone.storage.aose.AOStorageBuilder;
+import com.lealone.storage.aose.btree.BTreeMap;
+import com.lealone.storage.aose.btree.BTreeStorage;
+
+public class PagePrefetchTest extends AoseTestBase {
+
+    private final int count = 20000;
+
+    @Test
+    public void run() {
+        testPrefetch(8);
+        testPrefetch(0);
+    }
+
+    private void testPrefetch(int prefetchPages) {
+        AOStorageBuilder builder = new AOStorageBuilder();
+        builder.pageSize(pageSize);
+        builder.prefetchPages(prefetchPages);
+        // 同一个路径的storage会被缓存，要用不同的路径才能让prefetchPages生效
+        AOStorage storage = openStorage(builder, joinDirs("aose", "prefetch" + prefetchPages));
+        BTreeMap<Integer, String> map = storage.openBTreeMap("PagePrefetchTest_" + prefetchPages);
+        map.clear();
+        for (int i = 1; i <= count; i++) {
+            map.put(i, "value" + i);
+        }
+        map.save();
+
+        // 所有page都不在内存中时，顺序扫描会触发预读
+        map.fullGc();
+        StorageMapCursor<Integer, String> cursor = map.cursor();
+        int expected = 1;
+        while (cursor.next()) {
+            assertEquals(expected, cursor.getKey().intValue());
+            assertEquals("value" + expected, cursor.getValue());
+            expected++;
+        }
+        assertEquals(count + 1, expected);
+        long prefetched = assertPrefetched(map.getBTreeStorage(), 0);
+
+        map.fullGc();
+        cursor = map.reverseCursor(null);
+        expected = count;
+        while (cursor.next()) {
+            assertEquals(expected, cursor.getKey().intValue());
+            expected--;
+        }
+        assertEquals(0, expected);
+        assertPrefetched(map.getBTreeStorage(), prefetched);
+
+        map.fullGc();
+        cursor = map.cursor(count / 2);
+        assertEquals(cursor, count / 2 + 1);
+        if (prefetchPages <= 0)
+            assertEquals(0, map.getBTreeStorage().getPrefetchedPageCount());
+        map.close();
+    }
+
+    // 预读是在后台线程中执行的，扫描结束后等一会再检查预读的page数
+    private long assertPrefetched(BTreeStorage bs, long old) {
+        long prefetched = bs.getPrefetchedPageCount();
+        if (bs.getPrefetchPages() <= 0) {
+            assertEquals(0, prefetched);
+            return prefetched;
+        }
+        for (int i = 0; i < 100 && prefetched <= old; i++) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+            }
+            prefetched = bs.getPrefetchedPageCount();
+        }
+        assertTrue(prefetched > old);
+        return prefetched;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.aote;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import com.lealone.storage.Storage;
+import com.lealone.storage.StorageMap;
+import com.lealone.storage.fs.FileUtils;
+import com.lealone.transaction.Transaction;
+import com.lealone.transaction.TransactionMap;
+import com.lealone.transaction.aote.AOTransactionEngine;
+import com.lealone.transaction.aote.log.LogSyncService;
+
+// 先验证涉及多个map的事务，再并行执行多个map的redo，结果跟一个一个map恢复时一样
+public class RecoverTest extends AoteTestBase {
+
+    private static final int MAP_COUNT = 8;
+    private static final int ROW_COUNT = 1000;
+
+    @Test
+    public void run() throws Exception {
+        Map<String, String> config = getDefaultConfig(joinDirs("aote", "RecoverTest"));
+        config.put("log_sync_type", LogSyncService.LOG_SYNC_TYPE_INSTANT);
+        config.put("recovery_threads", "4");
+        // 避免覆盖存在的TransactionEngine
+        config.put("plugin_name", "RecoverTest");
+        AOTransactionEngine te = new AOTransactionEngine();
+        te.init(config);
+        try {
+            Storage storage = getStorage(0, "RecoverTest");
+            Transaction t = te.beginTransaction();
+            for (int m = 0; m < MAP_COUNT; m++) {
+                TransactionMap<String, String> map = t.openMap(mapName + m, storage);
+                map.remove();
+            }
+            t.commit();
+            for (int m = 0; m < MAP_COUNT; m++) {
+                t = te.beginTransaction();
+                TransactionMap<String, String> map = t.openMap(mapName + m, storage);
+                for (int i = 1; i <= ROW_COUNT; i++) {
+                    map.put("key" + i, "value" + i + "_" + m);
+                }
+                t.commit();
+                t = te.beginTransaction();
+                map = t.openMap(mapName + m, storage);
+                for (int i = 1; i <= 10; i++) {
+                    map.put("key" + i, "new" + i);
+                    map.remove("key" + (ROW_COUNT - i + 1));
+                }
+                t.commit();
+            }
+            // 涉及多个map的事务
+            t = te.beginTransaction();
+            t.openMap(mapName + 0, storage).put("multi", "v0");
+            t.openMap(mapName + 1, storage).put("multi", "v1");
+            t.commit();
+
+            // 还没有执行检查点，复制出来的文件相当于进程崩溃后留下的文件，只能从redo log恢复
+            String copyPath = joinDirs("aote", "data", "RecoverTestCopy");
+            FileUtils.deleteRecursive(copyPath, true);
+            copy(Paths.get(joinDirs("aote", "data", "RecoverTest")), Paths.get(copyPath));
+            storage = getStorage(0, "RecoverTestCopy");
+
+            t = te.beginTransaction();
+            ArrayList<StorageMap<?, ?>> maps = new ArrayList<>(MAP_COUNT);
+            for (int m = 0; m < MAP_COUNT; m++) {
+                t.openMap(mapName + m, storage);
+                maps.add(storage.getMap(mapName + m));
+            }
+            for (StorageMap<?, ?> map : maps) {
+                assertEquals(0, map.size());
+                te.prepareRecover(map);
+            }
+            // 每个任务恢复一个map，多个map并行执行redo
+            ArrayList<Runnable> tasks = new ArrayList<>(MAP_COUNT);
+            for (StorageMap<?, ?> map : maps)
+                tasks.add(() -> te.recover(map, null));
+            te.runRecoverTasks(tasks);
+            t.commit();
+
+            t = te.beginTransaction();
+            for (int m = 0; m < MAP_COUNT; m++) {
+                TransactionMap<String, String> map = t.openMap(mapName + m, storage);
+                int extra = m <= 1 ? 1 : 0;
+                assertEquals(ROW_COUNT - 10 + extra, map.size());
+                assertEquals("new5", map.get("key5"));
+                assertEquals("value500_" + m, map.get("key500"));
+                assertNull(map.get("key" + ROW_COUNT));
+            }
+            assertEquals("v1", t.openMap(mapName + 1, storage).get("multi"));
+            t.commit();
+            storage.close();
+        } finally {
+            te.close(false);
+        }
+    }
+
+    private static void copy(Path from, Path to) throws IOException {
+        try (Stream<Path> paths = Files.walk(from)) {
+            for (Path p : (Iterable<Path>) paths::iterator) {
+                Files.copy(p, to.resolve(from.relativize(p)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+}
@@ -5,6 +5,7 @@
  */
 package com.lealone.test.aote;
 
+import java.util.ArrayList;
 import java.util.Map;
 
 import org.junit.AfterClass;
@@ -12,6 +13,7 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.lealone.storage.Storage;
+import com.lealone.storage.StorageMap;
 import com.lealone.transaction.Transaction;
 import com.lealone.transaction.TransactionMap;
 import com.lealone.transaction.aote.AOTransactionEngine;
@@ -27,6 +29,8 @@ public class TransactionEngineTest extends AoteTestBase {
         Map<String, String> config = getDefaultConfig(joinDirs("aote", "TransactionEngineTest"));
         config.put("checkpoint_service_loop_interval", "100"); // 100ms
         config.put("log_sync_type", LogSyncService.LOG_SYNC_TYPE_PERIODIC);
+        config.put("checkpoint_threads", "4");
+        config.put("checkpoint_write_rate", "100"); // 100M/s
 
         // 避免覆盖存在的TransactionEngine
         config.put("plugin_name", "TransactionEngineTest");
@@ -73,6 +77,41 @@ public class TransactionEngineTest extends AoteTestBase {
         assertTrue(map.collectDirtyMemory() == 0);
     }
 
+    @Test
+    public void testParallelCheckpoint() {
+        // 多个map并行刷脏页，刷完后都能拿到各自用的时间
+        int mapCount = 8;
+        Transaction t = te.beginTransaction();
+        ArrayList<TransactionMap<String, String>> maps = new ArrayList<>(mapCount);
+        for (int m = 0; m < mapCount; m++) {
+            TransactionMap<String, String> map = t.openMap("testParallelCheckpoint" + m, storage);
+            map.remove();
+            map = t.openMap("testParallelCheckpoint" + m, storage);
+            for (int i = 1; i <= 1000 * (m + 1); i++) {
+                map.put("key" + i, "value" + i);
+            }
+            maps.add(map);
+        }
+        t.commit();
+        te.checkpoint();
+        for (int m = 0; m < mapCount; m++) {
+            TransactionMap<String, String> map = maps.get(m);
+            sleep(map);
+            assertTrue(map.collectDirtyMemory() == 0);
+            assertEquals(1000 * (m + 1), map.size());
+            StorageMap<?, ?> storageMap = storage.getMap(map.getName());
+            assertTrue(getLastSaveTime(storageMap) >= 0);
+        }
+    }
+
+    private static long getLastSaveTime(StorageMap<?, ?> map) {
+        long saveTime = -1;
+        for (LogSyncService s : te.getLogSyncServices()) {
+            saveTime = Math.max(saveTime, s.getCheckpointService().getLastSaveTime(map));
+        }
+        return saveTime;
+    }
+
     private void sleep(TransactionMap<String, String> map) {
         long sleep = 0;
         while (map.collectDirtyMemory() > 0) {
@@ -0,0 +1,141 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.client;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.Test;
+
+// 只有字面值不一样的单行INSERT在服务器端只准备一次，当成一条多行语句执行
+public class BatchInsertTest extends ClientTestBase {
+
+    @Test
+    public void run() throws Exception {
+        stmt.executeUpdate("DROP TABLE IF EXISTS BatchInsertTest");
+        stmt.executeUpdate("CREATE TABLE BatchInsertTest(pk bigint primary key, f1 varchar, "
+                + "f2 decimal(20, 3), f3 int, f4 date)");
+        testLiterals();
+        testFailedStatement();
+        testMixedStatements();
+        testDateLiteral();
+        testExpressions();
+    }
+
+    private void testLiterals() throws Exception {
+        int count = 100;
+        for (int i = 1; i <= count; i++) {
+            // 空白字符不一样也没关系
+            String sep = i % 2 == 0 ? ", " : ",\n  ";
+            stmt.addBatch("INSERT INTO BatchInsertTest(pk, f1, f2, f3) VALUES(" + i + sep + "'it''s "
+                    + i + "'" + sep + i + ".125" + sep + (-i) + ")");
+        }
+        stmt.addBatch("INSERT INTO BatchInsertTest(pk, f1, f2, f3) VALUES(" + Long.MAX_VALUE
+                + ", 'max', 12345678901234567.5, -1)");
+        int[] result = stmt.executeBatch();
+        assertEquals(count + 1, result.length);
+        for (int r : result)
+            assertEquals(1, r);
+
+        ResultSet rs = stmt.executeQuery(
+                "SELECT pk, f1, f2, f3 FROM BatchInsertTest WHERE pk <= " + count + " ORDER BY pk");
+        for (int i = 1; i <= count; i++) {
+            assertTrue(rs.next());
+            assertEquals(i, rs.getLong(1));
+            assertEquals("it's " + i, rs.getString(2));
+            assertEquals(new BigDecimal(i + ".125"), rs.getBigDecimal(3));
+            assertEquals(-i, rs.getInt(4));
+        }
+        assertFalse(rs.next());
+        rs.close();
+        rs = stmt.executeQuery("SELECT f1, f2 FROM BatchInsertTest WHERE pk = " + Long.MAX_VALUE);
+        assertTrue(rs.next());
+        assertEquals("max", rs.getString(1));
+        assertEquals(new BigDecimal("12345678901234567.500"), rs.getBigDecimal(2));
+        rs.close();
+    }
+
+    // 有一条失败时要一条条重新执行，每条语句都有自己的结果
+    private void testFailedStatement() throws Exception {
+        for (int i = 1001; i <= 1005; i++)
+            stmt.addBatch("INSERT INTO BatchInsertTest(pk, f1) VALUES(" + i + ", 'a')");
+        stmt.addBatch("INSERT INTO BatchInsertTest(pk, f1) VALUES(1, 'dup')");
+        stmt.addBatch("INSERT INTO BatchInsertTest(pk, f1) VALUES(1006, 'a')");
+        int[] result = stmt.executeBatch();
+        assertEquals(7, result.length);
+        for (int i = 0; i < 7; i++)
+            assertEquals(i == 5 ? Statement.EXECUTE_FAILED : 1, result[i]);
+        assertEquals(6, getCount("pk BETWEEN 1001 AND 1006"));
+        assertEquals(0, getCount("f1 = 'dup'"));
+    }
+
+    private void testMixedStatements() throws Exception {
+        stmt.addBatch("INSERT INTO BatchInsertTest(pk, f1) VALUES(2001, 'b')");
+        stmt.addBatch("UPDATE BatchInsertTest SET f3 = 1 WHERE pk = 2001");
+        stmt.addBatch("INSERT INTO BatchInsertTest(pk, f1) VALUES(2002, 'b')");
+        int[] result = stmt.executeBatch();
+        assertEquals(3, result.length);
+        assertEquals(2, getCount("f1 = 'b'"));
+        assertEquals(1, getCount("f3 = 1"));
+    }
+
+    // 类型前缀后面的字符串不能换成参数，还是一条条执行
+    private void testDateLiteral() throws Exception {
+        stmt.addBatch("INSERT INTO BatchInsertTest(pk, f4) VALUES(3001, DATE '2024-01-01')");
+        stmt.addBatch("INSERT INTO BatchInsertTest(pk, f4) VALUES(3002, DATE '2024-01-02')");
+        int[] result = stmt.executeBatch();
+        assertEquals(1, result[0]);
+        assertEquals(1, result[1]);
+        assertEquals(2, getCount("f4 >= DATE '2024-01-01'"));
+    }
+
+    // 表达式中的字面值不换成参数，还是一条条执行，结果要跟单独执行每条语句一样
+    private void testExpressions() throws Exception {
+        String[] values = { "1 + 2, 5/2, 7 - 1", "3 + 4, 7.5/2, 9 - 1", "5 + 6, 9/2, 1 - 1" };
+        for (int i = 0; i < values.length; i++) {
+            stmt.addBatch("INSERT INTO BatchInsertTest(pk, f1, f2, f3) VALUES(" + (4001 + i) + ", "
+                    + values[i] + ")");
+        }
+        int[] result = stmt.executeBatch();
+        assertEquals(values.length, result.length);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(1, result[i]);
+            stmt.executeUpdate("INSERT INTO BatchInsertTest(pk, f1, f2, f3) VALUES(" + (5001 + i)
+                    + ", " + values[i] + ")");
+        }
+        for (int i = 0; i < values.length; i++) {
+            ResultSet rs = stmt.executeQuery("SELECT f1, f2, f3 FROM BatchInsertTest WHERE pk = "
+                    + (4001 + i) + " OR pk = " + (5001 + i) + " ORDER BY pk");
+            assertTrue(rs.next());
+            String f1 = rs.getString(1);
+            BigDecimal f2 = rs.getBigDecimal(2);
+            int f3 = rs.getInt(3);
+            assertTrue(rs.next());
+            assertEquals(rs.getString(1), f1);
+            assertEquals(rs.getBigDecimal(2), f2);
+            assertEquals(rs.getInt(3), f3);
+            rs.close();
+        }
+        assertEquals(new BigDecimal("2.000"), getF2(4001));
+    }
+
+    private BigDecimal getF2(long pk) throws Exception {
+        ResultSet rs = stmt.executeQuery("SELECT f2 FROM BatchInsertTest WHERE pk = " + pk);
+        assertTrue(rs.next());
+        BigDecimal f2 = rs.getBigDecimal(1);
+        rs.close();
+        return f2;
+    }
+
+    private int getCount(String where) throws Exception {
+        ResultSet rs = stmt.executeQuery("SELECT count(*) FROM BatchInsertTest WHERE " + where);
+        assertTrue(rs.next());
+        int count = rs.getInt(1);
+        rs.close();
+        return count;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.client;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.Test;
+
+import com.lealone.client.jdbc.JdbcStatement;
+import com.lealone.db.ConnectionSetting;
+
+// 打开预取后，当前这一批记录一到就马上发出取下一批的请求
+public class ResultPrefetchTest extends ClientTestBase {
+
+    private static final int ROWS = 1000;
+
+    @Test
+    public void run() throws Exception {
+        stmt.executeUpdate("DROP TABLE IF EXISTS ResultPrefetchTest");
+        stmt.executeUpdate("CREATE TABLE ResultPrefetchTest(pk int primary key, f1 int)");
+        for (int i = 1; i <= ROWS; i++)
+            stmt.executeUpdate("INSERT INTO ResultPrefetchTest VALUES(" + i + ", " + i * 10 + ")");
+        testPrefetch(conn);
+        testStreamingResult();
+        testInterleaved();
+        testEarlyClose();
+        testSharedConnection();
+    }
+
+    private void testPrefetch(Connection conn) throws Exception {
+        JdbcStatement s = (JdbcStatement) conn.createStatement();
+        assertFalse(s.isPrefetch());
+        s.setPrefetch(true);
+        assertTrue(s.isPrefetch());
+        s.setFetchSize(10);
+        ResultSet rs = s.executeQuery("SELECT pk, f1 FROM ResultPrefetchTest");
+        assertEquals(ROWS, readAll(rs));
+        rs = s.executeQuery("SELECT pk, f1 FROM ResultPrefetchTest WHERE pk <= 10");
+        assertEquals(10, readAll(rs));
+        rs = s.executeQuery("SELECT pk, f1 FROM ResultPrefetchTest WHERE pk <= 15");
+        assertEquals(15, readAll(rs));
+        s.close();
+    }
+
+    // 后端流式生成的结果集不知道总行数，一直预取到结束标记为止
+    private void testStreamingResult() throws Exception {
+        try (Connection conn = getConnection()) {
+            Statement s0 = conn.createStatement();
+            s0.executeUpdate("SET LAZY_QUERY_EXECUTION 1");
+            s0.close();
+            testPrefetch(conn);
+        }
+    }
+
+    // 预取的请求还没读响应时，同一个连接上的其他请求要先把它的响应读掉
+    private void testInterleaved() throws Exception {
+        JdbcStatement s1 = (JdbcStatement) conn.createStatement();
+        JdbcStatement s2 = (JdbcStatement) conn.createStatement();
+        s1.setPrefetch(true);
+        s2.setPrefetch(true);
+        s1.setFetchSize(10);
+        s2.setFetchSize(7);
+        ResultSet rs1 = s1.executeQuery("SELECT pk FROM ResultPrefetchTest");
+        ResultSet rs2 = s2.executeQuery("SELECT pk FROM ResultPrefetchTest");
+        Statement s3 = conn.createStatement();
+        int count = 0;
+        while (rs1.next()) {
+            assertTrue(rs2.next());
+            assertEquals(rs1.getInt(1), rs2.getInt(1));
+            count++;
+            if (count % 50 == 0) {
+                ResultSet rs3 = s3.executeQuery("SELECT f1 FROM ResultPrefetchTest WHERE pk = " + count);
+                assertTrue(rs3.next());
+                assertEquals(count * 10, rs3.getInt(1));
+                rs3.close();
+            }
+        }
+        assertFalse(rs2.next());
+        assertEquals(ROWS, count);
+        rs1.close();
+        rs2.close();
+        s1.close();
+        s2.close();
+        s3.close();
+    }
+
+    // 没取完就关闭结果集，预取的那一批的响应会被后面的请求读掉
+    private void testEarlyClose() throws Exception {
+        JdbcStatement s = (JdbcStatement) conn.createStatement();
+        s.setPrefetch(true);
+        s.setFetchSize(10);
+        for (int i = 0; i < 5; i++) {
+            ResultSet rs = s.executeQuery("SELECT pk FROM ResultPrefetchTest");
+            for (int j = 1; j <= 15; j++) {
+                assertTrue(rs.next());
+                assertEquals(j, rs.getInt(1));
+            }
+            rs.close();
+        }
+        ResultSet rs = s.executeQuery("SELECT count(*) FROM ResultPrefetchTest");
+        assertTrue(rs.next());
+        assertEquals(ROWS, rs.getInt(1));
+        rs.close();
+        s.close();
+    }
+
+    // 共享连接只能让调度线程读响应
+    private void testSharedConnection() throws Exception {
+        addConnectionParameter(ConnectionSetting.IS_SHARED, "true");
+        try (Connection conn = getConnection()) {
+            testPrefetch(conn);
+        }
+    }
+
+    private int readAll(ResultSet rs) throws Exception {
+        int count = 0;
+        while (rs.next()) {
+            count++;
+            assertEquals(count, rs.getInt(1));
+            assertEquals(count * 10, rs.getInt(2));
+        }
+        rs.close();
+        return count;
+    }
+}
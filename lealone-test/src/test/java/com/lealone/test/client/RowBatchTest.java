@@ -0,0 +1,125 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.client;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.junit.Test;
+
+// 结果集的每一批记录按列编码后，客户端读到的值要跟按行编码时完全一样
+public class RowBatchTest extends ClientTestBase {
+
+    private static final int ROWS = 500;
+
+    @Test
+    public void run() throws Exception {
+        stmt.executeUpdate("DROP TABLE IF EXISTS RowBatchTest");
+        stmt.executeUpdate("CREATE TABLE RowBatchTest(pk int primary key, f_bool boolean, "
+                + "f_tinyint tinyint, f_smallint smallint, f_bigint bigint, f_double double, "
+                + "f_real real, f_decimal decimal(20, 5), f_date date, f_time time, "
+                + "f_timestamp timestamp, f_uuid uuid, f_bytes binary(10), f_city varchar, "
+                + "f_name varchar, f_char char(5), f_ignorecase varchar_ignorecase, f_null int, "
+                + "f_clob clob)");
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO RowBatchTest VALUES"
+                + "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        for (int i = 1; i <= ROWS; i++) {
+            Object[] row = createRow(i);
+            for (int j = 0; j < row.length; j++)
+                ps.setObject(j + 1, row[j]);
+            ps.executeUpdate();
+        }
+        ps.close();
+        testColumns();
+        testMixedTypes();
+    }
+
+    private void testColumns() throws Exception {
+        String columns = "pk, f_bool, f_tinyint, f_smallint, f_bigint, f_double, f_real, f_decimal, "
+                + "f_date, f_time, f_timestamp, f_uuid, f_bytes, f_city, f_name, f_char, "
+                + "f_ignorecase, f_null";
+        // 一批取完整个结果集时够大，会压缩
+        check("SELECT " + columns + " FROM RowBatchTest ORDER BY pk", ROWS, 18);
+        check("SELECT " + columns + " FROM RowBatchTest ORDER BY pk", 7, 18);
+        check("SELECT " + columns + " FROM RowBatchTest ORDER BY pk DESC", 100, 18);
+        // 有LOB列时按行编码
+        check("SELECT " + columns + ", f_clob FROM RowBatchTest ORDER BY pk", 50, 19);
+    }
+
+    private void check(String sql, int fetchSize, int columnCount) throws Exception {
+        Statement s = conn.createStatement();
+        s.setFetchSize(fetchSize);
+        ResultSet rs = s.executeQuery(sql);
+        int count = 0;
+        while (rs.next()) {
+            count++;
+            int pk = rs.getInt(1);
+            Object[] expected = createRow(pk);
+            for (int j = 1; j < columnCount; j++) {
+                Object v = rs.getObject(j + 1);
+                if (expected[j] instanceof byte[])
+                    assertTrue(Arrays.equals((byte[]) expected[j], (byte[]) v));
+                else if (expected[j] instanceof String)
+                    assertEquals(expected[j], rs.getString(j + 1));
+                else if (expected[j] instanceof Float)
+                    assertEquals(((Float) expected[j]).floatValue(), rs.getFloat(j + 1), 0f);
+                else
+                    assertEquals(expected[j], v);
+            }
+        }
+        assertEquals(ROWS, count);
+        rs.close();
+        s.close();
+    }
+
+    // 同一列的值类型不一样时按行编码
+    private void testMixedTypes() throws Exception {
+        Statement s = conn.createStatement();
+        ResultSet rs = s.executeQuery("SELECT CASE WHEN pk % 2 = 0 THEN pk ELSE f_name END "
+                + "FROM RowBatchTest WHERE pk <= 10 ORDER BY pk");
+        for (int i = 1; i <= 10; i++) {
+            assertTrue(rs.next());
+            assertEquals(i % 2 == 0 ? String.valueOf(i) : "name" + i, rs.getString(1));
+        }
+        assertFalse(rs.next());
+        rs.close();
+        s.close();
+    }
+
+    private static Object[] createRow(int i) {
+        boolean isNull = i % 10 == 0;
+        return new Object[] { i, //
+                isNull ? null : i % 2 == 0, //
+                (byte) (i % 100 - 50), //
+                isNull ? null : (short) (1000 - i * 3), //
+                i % 3 == 0 ? Long.MIN_VALUE + i : Long.MAX_VALUE - i, //
+                i * 1.5d, //
+                i * 0.25f, //
+                new BigDecimal("12345.6789" + (i % 10)).setScale(5), //
+                Date.valueOf(LocalDate.of(2024, 1, 1).plusDays(i % 50 - 25)), //
+                Time.valueOf(LocalTime.of(10, 0).plusSeconds(i)), //
+                Timestamp.valueOf(LocalDateTime.of(2024, 1, 1, 10, 0, 0, 123456000).plusMinutes(i)), //
+                new UUID(i, -i), //
+                new byte[] { (byte) i, 1, 2 }, //
+                "CITY" + (i % 3), //
+                isNull ? null : "name" + i, //
+                "c" + (i % 4), //
+                "Ab" + (i % 2), //
+                null, //
+                "clob" + i, //
+        };
+    }
+}
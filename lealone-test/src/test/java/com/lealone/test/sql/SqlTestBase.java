@@ -9,6 +9,7 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashSet;
 
 import org.junit.After;
@@ -276,6 +277,38 @@ public class SqlTestBase extends TestBase implements TestBase.SqlExecutor, TestB
         return rs.next();
     }
 
+    // 把查询结果的每一行转成用逗号分隔的字符串
+    protected ArrayList<String> getRows(String sql) throws Exception {
+        ArrayList<String> rows = new ArrayList<>();
+        ResultSet rs = stmt.executeQuery(sql);
+        int columnCount = rs.getMetaData().getColumnCount();
+        while (rs.next()) {
+            StringBuilder buff = new StringBuilder();
+            for (int i = 1; i <= columnCount; i++) {
+                if (i > 1)
+                    buff.append(", ");
+                buff.append(rs.getString(i));
+            }
+            rows.add(buff.toString());
+        }
+        rs.close();
+        return rows;
+    }
+
+    // 执行setSql前后的查询结果要一样，不管是否出错最后都会执行resetSql
+    protected void assertSameResult(String sql, String setSql, String resetSql) throws Exception {
+        ArrayList<String> expected = getRows(sql);
+        stmt.executeUpdate(setSql);
+        ArrayList<String> actual;
+        try {
+            actual = getRows(sql);
+        } finally {
+            stmt.executeUpdate(resetSql);
+        }
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, actual);
+    }
+
     public int printResultSet() {
         int count = 0;
         try {
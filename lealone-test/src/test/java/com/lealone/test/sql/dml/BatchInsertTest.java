@@ -0,0 +1,162 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.dml;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.Test;
+
+import com.lealone.test.sql.SqlTestBase;
+
+// 插入多行时攒够一批按索引key排好序，每个索引一次增加整批记录
+public class BatchInsertTest extends SqlTestBase {
+
+    private static final int ROWS = 5000;
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS BatchInsertTest");
+        executeUpdate("CREATE TABLE BatchInsertTest(pk int primary key, f1 int unique, "
+                + "f2 varchar, f3 clob)");
+        executeUpdate("CREATE INDEX IF NOT EXISTS BatchInsertTest_f2 ON BatchInsertTest(f2)");
+        testUnsortedKeys();
+        testDuplicateKey();
+        testDuplicateUniqueKey();
+        testNoPrimaryKey();
+        testMultiRowValues();
+    }
+
+    // 主键和唯一索引的顺序都是乱的，还会切割很多page
+    private void testUnsortedKeys() throws Exception {
+        PreparedStatement ps = conn
+                .prepareStatement("INSERT INTO BatchInsertTest(pk, f1, f2, f3) VALUES(?, ?, ?, ?)");
+        for (int i = 0; i < ROWS; i++) {
+            int pk = (i * 7919) % ROWS + 1;
+            ps.setInt(1, pk);
+            ps.setInt(2, ROWS - pk);
+            ps.setString(3, "v" + (pk % 10));
+            ps.setString(4, "clob" + pk);
+            ps.addBatch();
+        }
+        int[] result = ps.executeBatch();
+        assertEquals(ROWS, result.length);
+        for (int r : result)
+            assertEquals(1, r);
+        ps.close();
+
+        assertEquals(ROWS, getCount(""));
+        ResultSet rs = stmt.executeQuery("SELECT pk, f1, f3 FROM BatchInsertTest ORDER BY pk");
+        for (int pk = 1; pk <= ROWS; pk++) {
+            assertTrue(rs.next());
+            assertEquals(pk, rs.getInt(1));
+            assertEquals(ROWS - pk, rs.getInt(2));
+            assertEquals("clob" + pk, rs.getString(3));
+        }
+        assertFalse(rs.next());
+        rs.close();
+        assertEquals(1, getCount("WHERE f1 = 123"));
+        assertEquals(ROWS / 10, getCount("WHERE f2 = 'v3'"));
+    }
+
+    // 有一行的主键重复了，整批都不会插入
+    private void testDuplicateKey() throws Exception {
+        PreparedStatement ps = conn
+                .prepareStatement("INSERT INTO BatchInsertTest(pk, f1, f2) VALUES(?, ?, ?)");
+        for (int i = 1; i <= 100; i++) {
+            ps.setInt(1, ROWS + i);
+            ps.setInt(2, ROWS + i);
+            ps.setString(3, "dup");
+            ps.addBatch();
+        }
+        ps.setInt(1, 10);
+        ps.setInt(2, -1);
+        ps.setString(3, "dup");
+        ps.addBatch();
+        int[] result = ps.executeBatch();
+        for (int r : result)
+            assertEquals(Statement.EXECUTE_FAILED, r);
+        ps.close();
+        assertEquals(0, getCount("WHERE f2 = 'dup'"));
+        assertEquals(ROWS, getCount(""));
+    }
+
+    private void testDuplicateUniqueKey() throws Exception {
+        PreparedStatement ps = conn
+                .prepareStatement("INSERT INTO BatchInsertTest(pk, f1, f2) VALUES(?, ?, ?)");
+        for (int i = 1; i <= 100; i++) {
+            ps.setInt(1, ROWS + i);
+            ps.setInt(2, i == 50 ? 1 : ROWS + i);
+            ps.setString(3, "dup");
+            ps.addBatch();
+        }
+        int[] result = ps.executeBatch();
+        for (int r : result)
+            assertEquals(Statement.EXECUTE_FAILED, r);
+        ps.close();
+        assertEquals(0, getCount("WHERE f2 = 'dup'"));
+        assertEquals(ROWS, getCount(""));
+    }
+
+    // 没有主键的表由primaryIndex一次分配所有的row key
+    private void testNoPrimaryKey() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS BatchInsertTest2");
+        executeUpdate("CREATE TABLE BatchInsertTest2(f1 int, f2 varchar)");
+        executeUpdate("CREATE INDEX IF NOT EXISTS BatchInsertTest2_f1 ON BatchInsertTest2(f1)");
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO BatchInsertTest2 VALUES(?, ?)");
+        for (int i = 1; i <= ROWS; i++) {
+            ps.setInt(1, i % 100);
+            ps.setString(2, "v" + i);
+            ps.addBatch();
+        }
+        ps.executeBatch();
+        ps.close();
+        ResultSet rs = stmt.executeQuery("SELECT count(*), count(DISTINCT _rowid_), "
+                + "count(DISTINCT f2) FROM BatchInsertTest2");
+        assertTrue(rs.next());
+        assertEquals(ROWS, rs.getInt(1));
+        assertEquals(ROWS, rs.getInt(2));
+        assertEquals(ROWS, rs.getInt(3));
+        rs.close();
+        rs = stmt.executeQuery("SELECT count(*) FROM BatchInsertTest2 WHERE f1 = 7");
+        assertTrue(rs.next());
+        assertEquals(ROWS / 100, rs.getInt(1));
+        rs.close();
+        testAnalyze();
+    }
+
+    // 自动ANALYZE按插入的行数计数，不是按批数，一批记录超过了ANALYZE_AUTO也会更新统计信息
+    private void testAnalyze() throws Exception {
+        int selectivity = 0;
+        for (int i = 0; i < 100; i++) {
+            ResultSet rs = stmt.executeQuery("SELECT SELECTIVITY FROM INFORMATION_SCHEMA.COLUMNS"
+                    + " WHERE TABLE_NAME = 'BATCHINSERTTEST2' AND COLUMN_NAME = 'F1'");
+            assertTrue(rs.next());
+            selectivity = rs.getInt(1);
+            rs.close();
+            if (selectivity != 50) // 默认值是50
+                break;
+            Thread.sleep(50); // 在后台执行
+        }
+        assertTrue(selectivity != 50);
+    }
+
+    private void testMultiRowValues() throws Exception {
+        int count = executeUpdate("INSERT INTO BatchInsertTest(pk, f1, f2) VALUES"
+                + "(10003, 10003, 'm'), (10001, 10001, 'm'), (10002, 10002, 'm')");
+        assertEquals(3, count);
+        assertEquals(3, getCount("WHERE f2 = 'm'"));
+    }
+
+    private int getCount(String where) throws Exception {
+        ResultSet rs = stmt.executeQuery("SELECT count(*) FROM BatchInsertTest " + where);
+        assertTrue(rs.next());
+        int count = rs.getInt(1);
+        rs.close();
+        return count;
+    }
+}
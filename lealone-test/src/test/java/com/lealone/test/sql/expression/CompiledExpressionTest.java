@@ -0,0 +1,151 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.expression;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import com.lealone.test.sql.SqlTestBase;
+
+// 处理的记录数超过EXPRESSION_COMPILE_THRESHOLD后，查询条件和select字段列表会编译成java类，
+// 编译后的结果必须跟解释执行时完全一样
+public class CompiledExpressionTest extends SqlTestBase {
+
+    private final int rowCount = 200;
+
+    @Test
+    public void run() throws Exception {
+        stmt.executeUpdate("DROP TABLE IF EXISTS CompiledExpressionTest");
+        stmt.executeUpdate("CREATE TABLE CompiledExpressionTest"
+                + "(pk int primary key, f1 int, f2 bigint, f3 double, f4 varchar, f5 smallint)");
+        for (int i = 1; i <= rowCount; i++) {
+            // 每7条记录的f1是null，每13条记录的f3是null
+            String f1 = i % 7 == 0 ? "null" : Integer.toString(i % 50 - 20);
+            String f3 = i % 13 == 0 ? "null" : Double.toString(i * 0.5);
+            stmt.executeUpdate("INSERT INTO CompiledExpressionTest VALUES(" + i + ", " + f1 + ", "
+                    + (i * 100000000000L) + ", " + f3 + ", 'v" + (i % 10) + "', " + (i % 5) + ")");
+        }
+
+        testCondition();
+        testProjection();
+        testError();
+        testPreparedStatement();
+        testUpdate();
+    }
+
+    private void testCondition() throws Exception {
+        assertSameResult("SELECT pk FROM CompiledExpressionTest WHERE f1 > 5");
+        assertSameResult("SELECT pk FROM CompiledExpressionTest WHERE f1 >= 0 AND f2 < 10000000000000");
+        assertSameResult("SELECT pk FROM CompiledExpressionTest WHERE f1 < 0 OR f3 > 80.5");
+        assertSameResult("SELECT pk FROM CompiledExpressionTest WHERE NOT (f1 = 3 OR f3 <= 20)");
+        assertSameResult("SELECT pk FROM CompiledExpressionTest WHERE f1 IS NULL OR f3 IS NULL");
+        assertSameResult("SELECT pk FROM CompiledExpressionTest WHERE f1 IS NOT NULL AND f1 <> 10");
+        assertSameResult("SELECT pk FROM CompiledExpressionTest WHERE f1 + 5 > f5 * 2");
+        assertSameResult("SELECT pk FROM CompiledExpressionTest WHERE f2 / 3 > pk * 1000");
+        assertSameResult("SELECT pk FROM CompiledExpressionTest WHERE f3 * 2 - f1 > 30");
+        assertSameResult("SELECT pk FROM CompiledExpressionTest WHERE -f1 > 10 AND f4 = 'v3'");
+        // 不能编译的部分还是解释执行
+        assertSameResult("SELECT pk FROM CompiledExpressionTest WHERE f4 LIKE 'v1%' OR f1 % 3 = 1");
+        assertSameResult("SELECT pk FROM CompiledExpressionTest WHERE NOT (f1 > 0) OR NOT (f3 < 50)");
+    }
+
+    private void testProjection() throws Exception {
+        assertSameResult("SELECT pk, f1 + 1, f2 * 2, f3 / 2, f1 * f5 FROM CompiledExpressionTest");
+        assertSameResult("SELECT pk, f1 - pk, f2 - f1, f3 + f1, -f2 FROM CompiledExpressionTest");
+        assertSameResult("SELECT pk, f1 / 3, f1 % 3, f2 % 7, f4 FROM CompiledExpressionTest"
+                + " WHERE f1 > -10");
+        assertSameResult("SELECT pk, f1 > 0, f3 IS NULL, f1 = f5 FROM CompiledExpressionTest");
+    }
+
+    private void testError() throws Exception {
+        // 溢出和除0时抛出的异常跟解释执行时一样
+        assertSameError("SELECT pk, f1 * 2147483647 FROM CompiledExpressionTest WHERE f1 IS NOT NULL");
+        assertSameError("SELECT pk FROM CompiledExpressionTest WHERE f2 * f2 > 0");
+        assertSameError("SELECT pk, f2 / (f5 - f5) FROM CompiledExpressionTest");
+        assertSameError("SELECT pk FROM CompiledExpressionTest WHERE f1 / (pk - 150) > 0");
+    }
+
+    private void testPreparedStatement() throws Exception {
+        String sql = "SELECT pk, f1 * ? FROM CompiledExpressionTest WHERE f1 > ? AND f3 < ?";
+        ArrayList<String> expected = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            expected.add(getRows(sql, i));
+        setThreshold(10);
+        try {
+            // 同一条语句多次执行，参数的值每次都可能不一样
+            for (int i = 0; i < 3; i++)
+                assertEquals(expected.get(i), getRows(sql, i));
+        } finally {
+            setThreshold(0);
+        }
+    }
+
+    private void testUpdate() throws Exception {
+        setThreshold(10);
+        try {
+            int count = stmt.executeUpdate("UPDATE CompiledExpressionTest SET f5 = 100 WHERE f1 > 0");
+            ResultSet rs = stmt.executeQuery("SELECT count(*) FROM CompiledExpressionTest WHERE f5 = 100");
+            assertTrue(rs.next());
+            assertEquals(count, rs.getInt(1));
+            rs.close();
+            count = stmt.executeUpdate("DELETE FROM CompiledExpressionTest WHERE f1 < 0 OR f1 IS NULL");
+            rs = stmt.executeQuery("SELECT count(*) FROM CompiledExpressionTest");
+            assertTrue(rs.next());
+            assertEquals(rowCount - count, rs.getInt(1));
+            rs.close();
+        } finally {
+            setThreshold(0);
+        }
+    }
+
+    private void setThreshold(int threshold) throws Exception {
+        stmt.executeUpdate("SET EXPRESSION_COMPILE_THRESHOLD " + threshold);
+    }
+
+    private void assertSameResult(String sql) throws Exception {
+        assertSameResult(sql, "SET EXPRESSION_COMPILE_THRESHOLD 10",
+                "SET EXPRESSION_COMPILE_THRESHOLD 0");
+    }
+
+    private void assertSameError(String sql) throws Exception {
+        int expected = getErrorCode(sql);
+        setThreshold(10);
+        try {
+            assertEquals(expected, getErrorCode(sql));
+        } finally {
+            setThreshold(0);
+        }
+    }
+
+    private int getErrorCode(String sql) throws Exception {
+        try {
+            getRows(sql);
+            fail(sql);
+        } catch (SQLException e) {
+            return e.getErrorCode();
+        }
+        return 0;
+    }
+
+    private String getRows(String sql, int i) throws Exception {
+        PreparedStatement ps = conn.prepareStatement(sql);
+        ps.setInt(1, i + 2);
+        ps.setInt(2, i * 3 - 10);
+        ps.setDouble(3, 60.5 + i * 10);
+        ResultSet rs = ps.executeQuery();
+        StringBuilder buff = new StringBuilder();
+        while (rs.next()) {
+            buff.append(rs.getString(1)).append(", ").append(rs.getString(2)).append('\n');
+        }
+        rs.close();
+        ps.close();
+        return buff.toString();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.index;
+
+import org.junit.Test;
+
+import com.lealone.test.sql.SqlTestBase;
+
+// order by ... desc 通过反向遍历索引实现，不需要额外排序
+public class ReverseIndexScanTest extends SqlTestBase {
+    @Test
+    public void run() throws Exception {
+        stmt.executeUpdate("drop table IF EXISTS ReverseIndexScanTest");
+        stmt.executeUpdate("create table IF NOT EXISTS ReverseIndexScanTest"
+                + "(pk int primary key, f1 int, f2 varchar)");
+        stmt.executeUpdate(
+                "create index IF NOT EXISTS ReverseIndexScanTest_i1 on ReverseIndexScanTest(f1)");
+        for (int i = 1; i <= 100; i++) {
+            stmt.executeUpdate("insert into ReverseIndexScanTest(pk, f1, f2) values(" + i + ","
+                    + (i % 10) + ",'" + i + "')");
+        }
+
+        rs = stmt.executeQuery("select pk from ReverseIndexScanTest order by pk desc limit 3");
+        assertTrue(next());
+        assertEquals(100, rs.getInt(1));
+        assertTrue(next());
+        assertEquals(99, rs.getInt(1));
+        assertTrue(next());
+        assertEquals(98, rs.getInt(1));
+        closeResultSet();
+
+        rs = stmt.executeQuery(
+                "select pk from ReverseIndexScanTest where pk >= 10 and pk <= 20 order by pk desc");
+        int expected = 20;
+        while (rs.next()) {
+            assertEquals(expected--, rs.getInt(1));
+        }
+        assertEquals(9, expected);
+        closeResultSet();
+
+        rs = stmt.executeQuery(
+                "select f1, pk from ReverseIndexScanTest where f1 <= 5 order by f1 desc");
+        int count = 0;
+        int last = Integer.MAX_VALUE;
+        while (rs.next()) {
+            int f1 = rs.getInt(1);
+            assertTrue(f1 <= last);
+            assertTrue(f1 <= 5);
+            last = f1;
+            count++;
+        }
+        assertEquals(60, count);
+        closeResultSet();
+
+        sql = "explain select pk from ReverseIndexScanTest order by pk desc limit 3";
+        String plan = getStringValue(1, true);
+        assertTrue(plan.contains("reverse"));
+        assertTrue(plan.contains("index sorted"));
+
+        testCompositeIndex();
+    }
+
+    // 复合索引的查询条件只包含前面的字段时，用前缀直接定位到最后一个满足条件的key
+    private void testCompositeIndex() throws Exception {
+        stmt.executeUpdate("create index IF NOT EXISTS ReverseIndexScanTest_i2"
+                + " on ReverseIndexScanTest(f1, f2)");
+        // 已有记录的索引在后台建立，建立期间不能反向扫描
+        sql = "explain select f1, f2 from ReverseIndexScanTest where f1 <= 5 order by f1 desc, f2 desc";
+        String plan = getStringValue(1, true);
+        for (int i = 0; i < 100 && !plan.contains("reverse"); i++) {
+            Thread.sleep(50);
+            plan = getStringValue(1, true);
+        }
+        assertTrue(plan.contains("reverse"));
+
+        rs = stmt.executeQuery("select f1, f2 from ReverseIndexScanTest where f1 <= 5"
+                + " order by f1 desc, f2 desc");
+        String last = null;
+        int count = 0;
+        while (rs.next()) {
+            String key = rs.getInt(1) + "-" + rs.getString(2);
+            assertTrue(rs.getInt(1) <= 5);
+            if (last != null)
+                assertTrue(key.compareTo(last) < 0);
+            last = key;
+            count++;
+        }
+        assertEquals(60, count);
+        closeResultSet();
+
+        rs = stmt.executeQuery("select f1, f2 from ReverseIndexScanTest where f1 < 5 and f1 > 2"
+                + " order by f1 desc, f2 desc");
+        count = 0;
+        while (rs.next()) {
+            assertTrue(rs.getInt(1) == (count < 10 ? 4 : 3));
+            count++;
+        }
+        assertEquals(20, count);
+        closeResultSet();
+    }
+}
@@ -6,7 +6,10 @@
 package com.lealone.test.sql.lock;
 
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.Statement;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
@@ -16,6 +19,11 @@ import com.lealone.test.sql.SqlTestBase;
 public class DeadlockTest extends SqlTestBase {
     @Test
     public void run() throws Exception {
+        testTwoTransactions();
+        testThreeTransactions();
+    }
+
+    private void testTwoTransactions() throws Exception {
         // stmt.executeUpdate("set DEFAULT_LOCK_TIMEOUT 2000");
         stmt.executeUpdate("drop table IF EXISTS DeadlockTest1");
         stmt.executeUpdate("drop table IF EXISTS DeadlockTest2");
@@ -62,4 +70,65 @@ public class DeadlockTest extends SqlTestBase {
         t1.join();
         t2.join();
     }
+
+    // 三个事务组成的环不用等到锁超时，加入最后一条等待边时就能检测到，只回滚其中一个事务
+    private void testThreeTransactions() throws Exception {
+        stmt.executeUpdate("drop table IF EXISTS DeadlockTest3");
+        stmt.executeUpdate("create table DeadlockTest3(id int primary key, v int)");
+        for (int i = 0; i < 3; i++)
+            stmt.executeUpdate("insert into DeadlockTest3(id, v) values(" + i + ", 0)");
+        long deadlocks = getInfo("DEADLOCKS");
+
+        CyclicBarrier barrier = new CyclicBarrier(3);
+        AtomicInteger committed = new AtomicInteger();
+        AtomicInteger deadlocked = new AtomicInteger();
+        Thread[] threads = new Thread[3];
+        for (int i = 0; i < 3; i++) {
+            int id = i;
+            threads[i] = new Thread(() -> {
+                try (Connection conn = getConnection()) {
+                    conn.setAutoCommit(false);
+                    Statement stmt = conn.createStatement();
+                    stmt.executeUpdate("set LOCK_TIMEOUT 60000");
+                    stmt.executeUpdate("update DeadlockTest3 set v = v + 1 where id = " + id);
+                    barrier.await();
+                    try {
+                        stmt.executeUpdate(
+                                "update DeadlockTest3 set v = v + 1 where id = " + (id + 1) % 3);
+                        conn.commit();
+                        committed.incrementAndGet();
+                    } catch (Exception e) {
+                        assertErrorCode(e, ErrorCode.DEADLOCK_1);
+                        deadlocked.incrementAndGet();
+                    }
+                    stmt.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            threads[i].start();
+        }
+        long start = System.currentTimeMillis();
+        for (Thread t : threads)
+            t.join();
+        assertTrue(System.currentTimeMillis() - start < 30000);
+        assertEquals(1, deadlocked.get());
+        assertEquals(2, committed.get());
+        assertEquals(deadlocks + 1, getInfo("DEADLOCKS"));
+
+        // 两个提交的事务各自给两行加了1
+        ResultSet rs = stmt.executeQuery("select sum(v) from DeadlockTest3");
+        assertTrue(rs.next());
+        assertEquals(4, rs.getInt(1));
+        rs.close();
+    }
+
+    private long getInfo(String name) throws Exception {
+        ResultSet rs = stmt.executeQuery(
+                "select value from information_schema.settings where name = '" + name + "'");
+        assertTrue(rs.next());
+        long v = rs.getLong(1);
+        rs.close();
+        return v;
+    }
 }
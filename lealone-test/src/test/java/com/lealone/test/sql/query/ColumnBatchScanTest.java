@@ -0,0 +1,127 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+import org.junit.Test;
+
+import com.lealone.test.sql.SqlTestBase;
+
+// 单表扫描时SUM/COUNT/MIN/MAX和简单的过滤条件直接在ColumnVector上计算，跟page的存储模式无关
+public class ColumnBatchScanTest extends SqlTestBase {
+
+    private final int rowCount = 3000;
+
+    @Test
+    public void run() throws Exception {
+        testStorageMode("ColumnBatchScanTest_c", "COLUMN_STORAGE");
+        testStorageMode("ColumnBatchScanTest_r", "ROW_STORAGE");
+        testUncommitted();
+    }
+
+    private void testStorageMode(String tableName, String pageStorageMode) throws Exception {
+        stmt.executeUpdate("DROP TABLE IF EXISTS " + tableName);
+        stmt.executeUpdate("CREATE TABLE " + tableName
+                + "(pk int primary key, f1 int, f2 bigint, f3 double, f4 varchar)"
+                + " PARAMETERS(page_storage_mode='" + pageStorageMode + "')");
+        long sum1 = 0, sum2 = 0, count1 = 0, filtered = 0;
+        double sum3 = 0;
+        for (int i = 1; i <= rowCount; i++) {
+            // 每7条记录的f1是null
+            String f1 = i % 7 == 0 ? "null" : Integer.toString(i % 100);
+            stmt.executeUpdate("INSERT INTO " + tableName + " VALUES(" + i + ", " + f1 + ", "
+                    + (i * 1000000000L) + ", " + (i * 0.5) + ", 'v" + i + "')");
+            if (i % 7 != 0) {
+                sum1 += i % 100;
+                count1++;
+                if (i % 100 >= 50 && i > 1000)
+                    filtered++;
+            }
+            sum2 += i * 1000000000L;
+            sum3 += i * 0.5;
+        }
+        stmt.executeUpdate("checkpoint");
+
+        sql = "SELECT count(*), count(f1), sum(f1), min(f1), max(f1), sum(f2), max(f2), sum(f3), min(f3)"
+                + " FROM " + tableName;
+        executeQuery();
+        assertEquals(rowCount, rs.getLong(1));
+        assertEquals(count1, rs.getLong(2));
+        assertEquals(sum1, rs.getLong(3));
+        assertEquals(0, rs.getInt(4));
+        assertEquals(99, rs.getInt(5));
+        assertEquals(sum2, rs.getLong(6));
+        assertEquals(rowCount * 1000000000L, rs.getLong(7));
+        assertEquals(sum3, rs.getDouble(8), 0.0);
+        assertEquals(0.5, rs.getDouble(9), 0.0);
+        closeResultSet();
+
+        sql = "SELECT count(*), count(f1) FROM " + tableName + " WHERE f1 >= 50 AND pk > 1000";
+        executeQuery();
+        assertEquals(filtered, rs.getLong(1));
+        assertEquals(filtered, rs.getLong(2));
+        closeResultSet();
+
+        sql = "SELECT count(*) FROM " + tableName + " WHERE f1 IS NULL";
+        assertEquals(rowCount / 7, getIntValue(1, true));
+
+        sql = "SELECT count(*) FROM " + tableName + " WHERE f3 < 10.5 AND f2 <> 1000000000";
+        assertEquals(19, getIntValue(1, true));
+
+        // 跟逐行处理的结果对比，OR条件不能批量扫描
+        sql = "SELECT sum(f1) FROM " + tableName + " WHERE f1 >= 50 OR f1 < 0";
+        long expected = getLongValue(1, true);
+        sql = "SELECT sum(f1) FROM " + tableName + " WHERE f1 >= 50";
+        assertEquals(expected, getLongValue(1, true));
+
+        sql = "SELECT pk, f1, f4 FROM " + tableName + " WHERE f1 = 10 AND pk < 500 ORDER BY pk";
+        rs = stmt.executeQuery(sql);
+        int count = 0;
+        while (rs.next()) {
+            assertEquals(10, rs.getInt(1) % 100);
+            assertEquals(10, rs.getInt(2));
+            assertEquals("v" + rs.getInt(1), rs.getString(3));
+            count++;
+        }
+        assertEquals(4, count); // 210是7的倍数，f1为null
+        closeResultSet();
+
+        sql = "SELECT pk FROM " + tableName + " WHERE f1 > 90 LIMIT 3";
+        rs = stmt.executeQuery(sql);
+        count = 0;
+        while (rs.next())
+            count++;
+        assertEquals(3, count);
+        closeResultSet();
+    }
+
+    // 其他事务未提交的记录不能被看到
+    private void testUncommitted() throws Exception {
+        String tableName = "ColumnBatchScanTest_c";
+        Connection conn2 = getConnection();
+        try {
+            conn2.setAutoCommit(false);
+            Statement stmt2 = conn2.createStatement();
+            stmt2.executeUpdate("UPDATE " + tableName + " SET f1 = 1000 WHERE pk = 1");
+            stmt2.executeUpdate("INSERT INTO " + tableName + " VALUES(" + (rowCount + 1)
+                    + ", 2000, 1, 1.0, 'v')");
+
+            sql = "SELECT max(f1), count(*) FROM " + tableName;
+            executeQuery();
+            assertEquals(99, rs.getInt(1));
+            assertEquals(rowCount, rs.getInt(2));
+            closeResultSet();
+
+            sql = "SELECT count(*) FROM " + tableName + " WHERE f1 >= 1000";
+            assertEquals(0, getIntValue(1, true));
+            conn2.rollback();
+        } finally {
+            conn2.close();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import org.junit.Test;
+
+import com.lealone.db.Constants;
+import com.lealone.test.sql.SqlTestBase;
+
+// 分组数超过MAX_MEMORY_ROWS后，分组的中间结果转存到临时map中，最后再合并
+public class GroupQueryTest extends SqlTestBase {
+
+    private final int rowCount = 3000;
+
+    @Test
+    public void run() throws Exception {
+        stmt.executeUpdate("DROP TABLE IF EXISTS GroupQueryTest");
+        stmt.executeUpdate("CREATE TABLE GroupQueryTest"
+                + "(pk int primary key, f1 int, f2 bigint, f3 double, f4 varchar)");
+        for (int i = 1; i <= rowCount; i++) {
+            // 每7条记录的f1是null
+            String f1 = i % 7 == 0 ? "null" : Integer.toString(i % 1000);
+            stmt.executeUpdate("INSERT INTO GroupQueryTest VALUES(" + i + ", " + f1 + ", "
+                    + (i * 1000L) + ", " + (i * 0.5) + ", 'v" + (i % 3) + "')");
+        }
+
+        assertSameResult("SELECT f1, count(*), count(f2), sum(f2), avg(f3), min(f4), max(f2),"
+                + " count(distinct f4), sum(distinct f1), bool_and(f2 > 100000)"
+                + " FROM GroupQueryTest GROUP BY f1 ORDER BY f1");
+        assertSameResult("SELECT f1, round(stddev_pop(f3), 6), round(var_samp(f2), 0)"
+                + " FROM GroupQueryTest GROUP BY f1 ORDER BY f1");
+        assertSameResult("SELECT f4, f1, count(*) FROM GroupQueryTest WHERE f2 > 3000"
+                + " GROUP BY f4, f1 HAVING count(*) > 1 ORDER BY f4, f1");
+        assertSameResult("SELECT f1 / 2 AS A, pk, count(*) FROM GroupQueryTest"
+                + " GROUP BY A ORDER BY A");
+        // 不能转存的聚合函数继续放在内存中
+        assertSameResult("SELECT f1, group_concat(pk ORDER BY pk) FROM GroupQueryTest"
+                + " GROUP BY f1 ORDER BY f1");
+    }
+
+    private void assertSameResult(String sql) throws Exception {
+        assertSameResult(sql, "SET MAX_MEMORY_ROWS 100",
+                "SET MAX_MEMORY_ROWS " + Constants.DEFAULT_MAX_MEMORY_ROWS);
+    }
+}
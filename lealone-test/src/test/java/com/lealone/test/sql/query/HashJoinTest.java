@@ -0,0 +1,120 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import org.junit.Test;
+
+import com.lealone.db.Constants;
+import com.lealone.test.sql.SqlTestBase;
+
+// 连接字段上没有索引时用hash join，只扫描一次内表
+public class HashJoinTest extends SqlTestBase {
+
+    private final int rowCount1 = 2000;
+    private final int rowCount2 = 300;
+    private final Integer[] ids1 = new Integer[rowCount1 + 1];
+    private final String[] names1 = new String[rowCount1 + 1];
+    private final int[] ids2 = new int[rowCount2 + 1];
+    private final String[] names2 = new String[rowCount2 + 1];
+
+    @Test
+    public void run() throws Exception {
+        init();
+        testExplain();
+        testJoin();
+        // hash表中的记录数超过MAX_MEMORY_ROWS后转存到临时map中
+        executeUpdate("SET MAX_MEMORY_ROWS 50");
+        try {
+            testJoin();
+        } finally {
+            executeUpdate("SET MAX_MEMORY_ROWS " + Constants.DEFAULT_MAX_MEMORY_ROWS);
+        }
+    }
+
+    private void init() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS HashJoinTest1");
+        executeUpdate("DROP TABLE IF EXISTS HashJoinTest2");
+        executeUpdate("CREATE TABLE HashJoinTest1(pk int primary key, id int, name varchar)");
+        executeUpdate("CREATE TABLE HashJoinTest2(pk int primary key, id int, name varchar)");
+        for (int i = 1; i <= rowCount1; i++) {
+            // 每13条记录的id是null
+            ids1[i] = i % 13 == 0 ? null : i % 100;
+            names1[i] = "n" + (i % 3);
+            executeUpdate("INSERT INTO HashJoinTest1 VALUES(" + i + ", " + ids1[i] + ", '" + names1[i]
+                    + "')");
+        }
+        for (int i = 1; i <= rowCount2; i++) {
+            ids2[i] = i % 150;
+            names2[i] = "n" + (i % 2);
+            executeUpdate("INSERT INTO HashJoinTest2 VALUES(" + i + ", " + ids2[i] + ", '" + names2[i]
+                    + "')");
+        }
+    }
+
+    private void testExplain() throws Exception {
+        sql = "EXPLAIN SELECT count(*) FROM HashJoinTest1 t1, HashJoinTest2 t2 WHERE t1.id = t2.id";
+        String plan = getStringValue(1, true);
+        assertTrue(plan.contains("hash join"));
+
+        // 小表作为内表建hash表
+        int index1 = plan.indexOf("HASHJOINTEST1");
+        int index2 = plan.indexOf("HASHJOINTEST2");
+        assertTrue(index1 < index2);
+
+        sql = "EXPLAIN SELECT count(*) FROM HashJoinTest1 t1 LEFT JOIN HashJoinTest2 t2 ON t1.id = t2.id";
+        assertTrue(getStringValue(1, true).contains("hash join"));
+
+        // 用小表的字段查找大表的主键时还是用索引
+        sql = "EXPLAIN SELECT count(*) FROM HashJoinTest1 t1, HashJoinTest2 t2 WHERE t1.pk = t2.id";
+        assertFalse(getStringValue(1, true).contains("hash join"));
+    }
+
+    private void testJoin() throws Exception {
+        long count = 0, sum = 0, count2 = 0, leftCount = 0;
+        for (int i = 1; i <= rowCount1; i++) {
+            boolean found = false;
+            for (int j = 1; j <= rowCount2; j++) {
+                if (ids1[i] != null && ids1[i] == ids2[j]) {
+                    count++;
+                    sum += j;
+                    found = true;
+                    if (names1[i].equals(names2[j]))
+                        count2++;
+                }
+            }
+            leftCount += found ? 0 : 1;
+        }
+        leftCount += count;
+
+        sql = "SELECT count(*), sum(t2.pk) FROM HashJoinTest1 t1, HashJoinTest2 t2 WHERE t1.id = t2.id";
+        executeQuery();
+        assertEquals(count, rs.getLong(1));
+        assertEquals(sum, rs.getLong(2));
+        closeResultSet();
+
+        sql = "SELECT count(*) FROM HashJoinTest1 t1 JOIN HashJoinTest2 t2"
+                + " ON t1.id = t2.id AND t1.name = t2.name";
+        assertEquals(count2, getLongValue(1, true));
+
+        sql = "SELECT count(*) FROM HashJoinTest1 t1 LEFT JOIN HashJoinTest2 t2 ON t1.id = t2.id";
+        assertEquals(leftCount, getLongValue(1, true));
+
+        sql = "SELECT count(*) FROM HashJoinTest1 t1 LEFT JOIN HashJoinTest2 t2 ON t1.id = t2.id"
+                + " WHERE t2.pk IS NULL";
+        assertEquals(leftCount - count, getLongValue(1, true));
+
+        // 表达式作为连接条件
+        sql = "SELECT count(*) FROM HashJoinTest1 t1, HashJoinTest2 t2 WHERE t2.id = t1.id + 100";
+        long count3 = 0;
+        for (int i = 1; i <= rowCount1; i++) {
+            for (int j = 1; j <= rowCount2; j++) {
+                if (ids1[i] != null && ids1[i] + 100 == ids2[j])
+                    count3++;
+            }
+        }
+        assertEquals(count3, getLongValue(1, true));
+    }
+}
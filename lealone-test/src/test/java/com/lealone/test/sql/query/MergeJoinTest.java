@@ -0,0 +1,162 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import org.junit.Test;
+
+import com.lealone.test.sql.SqlTestBase;
+
+// 外表按连接字段有序并且内表有以连接字段开头的索引时用merge join，内表的索引游标跟着外表一起向前移动
+public class MergeJoinTest extends SqlTestBase {
+
+    private final int rowCount1 = 1000;
+    private final int rowCount2 = 2000;
+    private final String[] names1 = new String[rowCount1 + 1];
+    private final Integer[] fks = new Integer[rowCount2 + 1];
+    private final String[] names2 = new String[rowCount2 + 1];
+
+    @Test
+    public void run() throws Exception {
+        init();
+        testExplain();
+        testJoin();
+        testNullBetweenEqualKeys();
+    }
+
+    private void init() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS MergeJoinTest1");
+        executeUpdate("DROP TABLE IF EXISTS MergeJoinTest2");
+        executeUpdate("CREATE TABLE MergeJoinTest1(pk int primary key, name varchar)");
+        executeUpdate("CREATE TABLE MergeJoinTest2(pk int primary key, fk int, name varchar)");
+        executeUpdate("CREATE INDEX MergeJoinTest2_fk ON MergeJoinTest2(fk)");
+        for (int i = 1; i <= rowCount1; i++) {
+            names1[i] = "n" + (i % 3);
+            executeUpdate("INSERT INTO MergeJoinTest1 VALUES(" + i + ", '" + names1[i] + "')");
+        }
+        for (int i = 1; i <= rowCount2; i++) {
+            // 每13条记录的fk是null，有些fk重复，有些fk在MergeJoinTest1中找不到
+            fks[i] = i % 13 == 0 ? null : i % 1200;
+            names2[i] = "n" + (i % 2);
+            executeUpdate("INSERT INTO MergeJoinTest2 VALUES(" + i + ", " + fks[i] + ", '" + names2[i]
+                    + "')");
+        }
+    }
+
+    private void testExplain() throws Exception {
+        sql = "EXPLAIN SELECT count(*) FROM MergeJoinTest2 t2 LEFT JOIN MergeJoinTest1 t1 ON t1.pk = t2.pk";
+        assertTrue(getStringValue(1, true).contains("merge join"));
+
+        sql = "EXPLAIN SELECT count(*) FROM MergeJoinTest1 t1 LEFT JOIN MergeJoinTest2 t2"
+                + " ON t1.pk = t2.fk";
+        assertTrue(getStringValue(1, true).contains("merge join"));
+
+        // 外表不是按连接条件中的值有序时还是逐行查找索引
+        sql = "EXPLAIN SELECT count(*) FROM MergeJoinTest1 t1 LEFT JOIN MergeJoinTest2 t2"
+                + " ON t2.fk = t1.pk + 1";
+        assertFalse(getStringValue(1, true).contains("merge join"));
+
+        sql = "EXPLAIN SELECT count(*) FROM SYSTEM_RANGE(1, 3) r"
+                + " LEFT JOIN MergeJoinTest2 t2 ON 1=1 LEFT JOIN MergeJoinTest1 t1 ON t1.pk = t2.pk";
+        assertTrue(getStringValue(1, true).contains("merge join"));
+    }
+
+    private void testJoin() throws Exception {
+        long count = 0, sum = 0, count2 = 0, leftCount = 0;
+        for (int i = 1; i <= rowCount1; i++) {
+            boolean found = false;
+            for (int j = 1; j <= rowCount2; j++) {
+                if (fks[j] != null && fks[j] == i) {
+                    count++;
+                    sum += j;
+                    found = true;
+                    if (names1[i].equals(names2[j]))
+                        count2++;
+                }
+            }
+            leftCount += found ? 0 : 1;
+        }
+        leftCount += count;
+
+        sql = "SELECT count(*) FROM MergeJoinTest1 t1, MergeJoinTest2 t2 WHERE t1.pk = t2.pk";
+        assertEquals(rowCount1, getLongValue(1, true));
+
+        sql = "SELECT count(*), count(t1.pk) FROM MergeJoinTest2 t2 LEFT JOIN MergeJoinTest1 t1"
+                + " ON t1.pk = t2.pk";
+        executeQuery();
+        assertEquals(rowCount2, rs.getLong(1));
+        assertEquals(rowCount1, rs.getLong(2));
+        closeResultSet();
+
+        // 外表在嵌套循环中被反复扫描，连接字段的值变小时重新定位内表的索引游标
+        sql = "SELECT count(*), count(t1.pk) FROM SYSTEM_RANGE(1, 3) r"
+                + " LEFT JOIN MergeJoinTest2 t2 ON 1=1 LEFT JOIN MergeJoinTest1 t1 ON t1.pk = t2.pk";
+        executeQuery();
+        assertEquals(3 * rowCount2, rs.getLong(1));
+        assertEquals(3 * rowCount1, rs.getLong(2));
+        closeResultSet();
+
+        sql = "SELECT count(*), sum(t2.pk) FROM MergeJoinTest1 t1, MergeJoinTest2 t2 WHERE t1.pk = t2.fk";
+        executeQuery();
+        assertEquals(count, rs.getLong(1));
+        assertEquals(sum, rs.getLong(2));
+        closeResultSet();
+
+        // 外表有多行的连接字段值相同
+        sql = "SELECT count(*), sum(t2.pk) FROM MergeJoinTest2 t2, MergeJoinTest1 t1 WHERE t2.fk = t1.pk";
+        executeQuery();
+        assertEquals(count, rs.getLong(1));
+        assertEquals(sum, rs.getLong(2));
+        closeResultSet();
+
+        sql = "SELECT count(*) FROM MergeJoinTest1 t1 JOIN MergeJoinTest2 t2"
+                + " ON t1.pk = t2.fk AND t1.name = t2.name";
+        assertEquals(count2, getLongValue(1, true));
+
+        sql = "SELECT count(*) FROM MergeJoinTest1 t1 LEFT JOIN MergeJoinTest2 t2 ON t1.pk = t2.fk";
+        assertEquals(leftCount, getLongValue(1, true));
+
+        sql = "SELECT count(*) FROM MergeJoinTest2 t2 RIGHT JOIN MergeJoinTest1 t1 ON t1.pk = t2.fk";
+        assertEquals(leftCount, getLongValue(1, true));
+
+        sql = "SELECT count(*) FROM MergeJoinTest1 t1 LEFT JOIN MergeJoinTest2 t2 ON t1.pk = t2.fk"
+                + " WHERE t2.pk IS NULL";
+        assertEquals(leftCount - count, getLongValue(1, true));
+
+        sql = "SELECT count(*) FROM MergeJoinTest1 t1 LEFT JOIN MergeJoinTest2 t2 ON t1.pk = t2.fk"
+                + " WHERE t1.pk > 500 AND t1.pk <= 900";
+        long rangeCount = 0;
+        for (int i = 501; i <= 900; i++) {
+            boolean found = false;
+            for (int j = 1; j <= rowCount2; j++) {
+                if (fks[j] != null && fks[j] == i) {
+                    rangeCount++;
+                    found = true;
+                }
+            }
+            rangeCount += found ? 0 : 1;
+        }
+        assertEquals(rangeCount, getLongValue(1, true));
+    }
+
+    // 外表的值是5, null, 5时，第二个5还要能找到跟第一个5一样的记录
+    private void testNullBetweenEqualKeys() throws Exception {
+        String from = " FROM SYSTEM_RANGE(1, 3) r LEFT JOIN MergeJoinTest1 t1 ON t1.pk = 5 AND r.x <> 2"
+                + " LEFT JOIN MergeJoinTest2 t2 ON t2.fk = t1.pk";
+        sql = "EXPLAIN SELECT count(*)" + from;
+        assertTrue(getStringValue(1, true).contains("merge join"));
+
+        long count = 0;
+        for (int j = 1; j <= rowCount2; j++) {
+            if (fks[j] != null && fks[j] == 5)
+                count++;
+        }
+        sql = "SELECT count(*), count(t2.pk)" + from;
+        executeQuery();
+        assertEquals(2 * count + 1, rs.getLong(1));
+        assertEquals(2 * count, rs.getLong(2));
+        closeResultSet();
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import org.junit.Test;
+
+import com.lealone.test.sql.SqlTestBase;
+
+// 扫描的记录数超过OLAP_THRESHOLD后，聚合查询剩下的全表扫描会切分成多段并行执行
+public class OlapQueryTest extends SqlTestBase {
+
+    private final int rowCount = 20000;
+
+    @Test
+    public void run() throws Exception {
+        stmt.executeUpdate("DROP TABLE IF EXISTS OlapQueryTest");
+        stmt.executeUpdate("CREATE TABLE OlapQueryTest"
+                + "(pk int primary key, f1 int, f2 bigint, f3 double, f4 varchar)");
+        for (int i = 1; i <= rowCount; i++) {
+            // 每7条记录的f1是null
+            String f1 = i % 7 == 0 ? "null" : Integer.toString(i % 10);
+            stmt.executeUpdate("INSERT INTO OlapQueryTest VALUES(" + i + ", " + f1 + ", "
+                    + (i * 1000L) + ", " + (i * 0.5) + ", 'v" + (i % 3) + "')");
+        }
+
+        assertSameResult("SELECT count(*), count(f1), sum(f1), min(f1), max(f1), sum(f2), avg(f2),"
+                + " min(f3), max(f3), count(distinct f1) FROM OlapQueryTest");
+        // 分段合并方差时的浮点误差跟逐行计算不一样
+        assertSameResult("SELECT round(stddev_pop(f3), 6), round(stddev_samp(f3), 6),"
+                + " round(var_pop(f2), 0), round(var_samp(f2), 0) FROM OlapQueryTest");
+        assertSameResult("SELECT f1, count(*), sum(f2), avg(f3), max(f4) FROM OlapQueryTest"
+                + " GROUP BY f1 ORDER BY f1");
+        assertSameResult("SELECT f4, f1, count(*), sum(f1) FROM OlapQueryTest WHERE f2 > 3000"
+                + " GROUP BY f4, f1 HAVING count(*) > 600 ORDER BY f4, f1");
+        assertSameResult("SELECT f1 + 1 AS A, count(distinct f4), sum(f2) / count(*) FROM OlapQueryTest"
+                + " GROUP BY A ORDER BY A");
+        // 不能合并的聚合函数继续按原来的方式执行
+        assertSameResult("SELECT f4, group_concat(distinct f1 ORDER BY f1) FROM OlapQueryTest"
+                + " GROUP BY f4 ORDER BY f4");
+        // 单条记录的聚合结果
+        assertSameResult("SELECT count(*), sum(f1) FROM OlapQueryTest WHERE pk > 19990");
+        testUncommittedRows();
+    }
+
+    // 每一段用自己的session扫描，也要能读到当前事务还没有提交的记录
+    private void testUncommittedRows() throws Exception {
+        conn.setAutoCommit(false);
+        try {
+            stmt.executeUpdate("DELETE FROM OlapQueryTest WHERE pk % 5 = 0");
+            stmt.executeUpdate("UPDATE OlapQueryTest SET f2 = f2 + 1 WHERE pk > 10000");
+            assertSameResult("SELECT count(*), sum(f2) FROM OlapQueryTest");
+            assertSameResult("SELECT f1, count(*), sum(f2) FROM OlapQueryTest GROUP BY f1 ORDER BY f1");
+        } finally {
+            conn.rollback();
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private void assertSameResult(String sql) throws Exception {
+        assertSameResult(sql, "SET OLAP_THRESHOLD 1000", "SET OLAP_THRESHOLD 0");
+    }
+}
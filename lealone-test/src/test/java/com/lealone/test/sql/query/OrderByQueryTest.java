@@ -0,0 +1,80 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import com.lealone.db.Constants;
+import com.lealone.test.sql.SqlTestBase;
+
+// 记录数超过MAX_MEMORY_ROWS后，排好序的run写到临时文件中再做多路归并，
+// 有limit时只保留排在前面的offset+limit条记录
+public class OrderByQueryTest extends SqlTestBase {
+
+    private final int rowCount = 3000;
+
+    @Test
+    public void run() throws Exception {
+        stmt.executeUpdate("DROP TABLE IF EXISTS OrderByQueryTest");
+        stmt.executeUpdate("CREATE TABLE OrderByQueryTest"
+                + "(pk int primary key, f1 int, f2 varchar, f3 double)");
+        for (int i = 1; i <= rowCount; i++) {
+            // 每11条记录的f1是null，f1有很多重复值
+            String f1 = i % 11 == 0 ? "null" : Integer.toString((i * 37) % 500);
+            stmt.executeUpdate("INSERT INTO OrderByQueryTest VALUES(" + i + ", " + f1 + ", 'v"
+                    + (i * 7 % 1000) + "', " + (i * 0.25) + ")");
+        }
+
+        testExternalSort();
+        testTopN();
+    }
+
+    private void testExternalSort() throws Exception {
+        // 值相同的记录还是按原来的顺序返回
+        assertSameResult("SELECT pk, f1 FROM OrderByQueryTest ORDER BY f1");
+        assertSameResult("SELECT pk, f1, f2 FROM OrderByQueryTest ORDER BY f2 DESC, pk");
+        assertSameResult("SELECT f1, f3, pk FROM OrderByQueryTest ORDER BY f1 DESC NULLS FIRST, f3");
+        assertSameResult("SELECT DISTINCT f1 FROM OrderByQueryTest ORDER BY f1");
+        assertSameResult("SELECT f1, count(*) FROM OrderByQueryTest GROUP BY f1 ORDER BY 2, 1");
+        // limit比MAX_MEMORY_ROWS大时还是全部排序
+        assertSameResult("SELECT pk, f2 FROM OrderByQueryTest ORDER BY f2, pk LIMIT 500 OFFSET 30");
+
+        ArrayList<String> rows = getRows("SELECT pk FROM OrderByQueryTest ORDER BY pk DESC");
+        assertEquals(rowCount, rows.size());
+        for (int i = 0; i < rowCount; i++) {
+            assertEquals(Integer.toString(rowCount - i), rows.get(i));
+        }
+    }
+
+    private void testTopN() throws Exception {
+        assertSameResult("SELECT pk, f1 FROM OrderByQueryTest ORDER BY f1 DESC, pk LIMIT 10");
+        assertSameResult("SELECT pk, f1 FROM OrderByQueryTest ORDER BY f1, pk LIMIT 20 OFFSET 15");
+        assertSameResult("SELECT pk, f3 FROM OrderByQueryTest WHERE f1 > 100"
+                + " ORDER BY f3 DESC LIMIT 5");
+
+        ArrayList<String> rows = getRows("SELECT pk FROM OrderByQueryTest ORDER BY f3 DESC LIMIT 3");
+        assertEquals(3, rows.size());
+        assertEquals(Integer.toString(rowCount), rows.get(0));
+        assertEquals(Integer.toString(rowCount - 1), rows.get(1));
+        assertEquals(Integer.toString(rowCount - 2), rows.get(2));
+
+        rows = getRows("SELECT pk FROM OrderByQueryTest ORDER BY f3 LIMIT 0");
+        assertEquals(0, rows.size());
+        rows = getRows("SELECT pk FROM OrderByQueryTest ORDER BY f3 LIMIT 10 OFFSET " + rowCount);
+        assertEquals(0, rows.size());
+    }
+
+    // 数据都在内存中时的结果跟写到临时文件中时的结果必须一样，
+    // MAX_MEMORY_ROWS是50时有60个run，还会先合并一部分run
+    private void assertSameResult(String sql) throws Exception {
+        for (int maxMemoryRows : new int[] { 100, 50 }) {
+            assertSameResult(sql, "SET MAX_MEMORY_ROWS " + maxMemoryRows,
+                    "SET MAX_MEMORY_ROWS " + Constants.DEFAULT_MAX_MEMORY_ROWS);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.Test;
+
+import com.lealone.test.sql.SqlTestBase;
+
+// session的queryCache淘汰的空闲语句放到数据库级的缓存中，其他session可以直接拿来用
+public class SharedQueryCacheTest extends SqlTestBase {
+
+    @Test
+    public void run() throws Exception {
+        stmt.executeUpdate("DROP TABLE IF EXISTS SharedQueryCacheTest");
+        stmt.executeUpdate("CREATE TABLE SharedQueryCacheTest(pk int primary key, f1 int)");
+        for (int i = 1; i <= 10; i++)
+            stmt.executeUpdate("INSERT INTO SharedQueryCacheTest VALUES(" + i + ", " + i * 10 + ")");
+        // 每个session只缓存一条语句，准备下一条语句时上一条就放到共享缓存中
+        stmt.executeUpdate("SET QUERY_CACHE_SIZE 1");
+        try {
+            testParameters();
+            testTransaction();
+            testTempTable();
+            testSchema();
+            testMetaChange();
+        } finally {
+            stmt.executeUpdate("SET QUERY_CACHE_SIZE 8");
+        }
+    }
+
+    private void testParameters() throws Exception {
+        String sql = "SELECT f1 FROM SharedQueryCacheTest WHERE pk = ?";
+        try (Connection conn1 = getConnection(); Connection conn2 = getConnection()) {
+            assertEquals(10, queryInt(conn1, sql, 1));
+            evict(conn1);
+            long hits = getCacheInfo("SHARED_QUERY_CACHE_HITS");
+            // 用的是conn1准备好的语句，参数是conn2自己的
+            assertEquals(20, queryInt(conn2, sql, 2));
+            assertTrue(getCacheInfo("SHARED_QUERY_CACHE_HITS") > hits);
+            evict(conn2);
+            hits = getCacheInfo("SHARED_QUERY_CACHE_HITS");
+            // SQL中多余的空白字符不影响共享
+            assertEquals(30, queryInt(conn1, "SELECT  f1\n FROM SharedQueryCacheTest WHERE pk=?", 3));
+            assertEquals(30, queryInt(conn1, "SELECT f1 FROM SharedQueryCacheTest  WHERE  pk = ?", 3));
+            assertTrue(getCacheInfo("SHARED_QUERY_CACHE_HITS") > hits);
+            evict(conn1);
+            // 引号里的//和--不是注释
+            sql = "SELECT f1 FROM SharedQueryCacheTest WHERE pk = ? AND 'http://a--b' <> ''";
+            assertEquals(40, queryInt(conn1, sql, 4));
+            evict(conn1);
+            hits = getCacheInfo("SHARED_QUERY_CACHE_HITS");
+            assertEquals(40, queryInt(conn2, sql.replace(" AND", "\n  AND"), 4));
+            assertTrue(getCacheInfo("SHARED_QUERY_CACHE_HITS") > hits);
+        }
+    }
+
+    private void testTransaction() throws Exception {
+        String sql = "SELECT count(*) FROM SharedQueryCacheTest";
+        try (Connection conn1 = getConnection(); Connection conn2 = getConnection()) {
+            assertEquals(10, queryInt(conn1, sql));
+            evict(conn1);
+            conn2.setAutoCommit(false);
+            Statement stmt2 = conn2.createStatement();
+            stmt2.executeUpdate("INSERT INTO SharedQueryCacheTest VALUES(100, 1000)");
+            // conn2能看到自己还没提交的记录
+            assertEquals(11, queryInt(conn2, sql));
+            evict(conn2);
+            // conn1看不到conn2还没提交的记录，也不能用conn2的查询结果
+            assertEquals(10, queryInt(conn1, sql));
+            evict(conn1);
+            conn2.rollback();
+            assertEquals(10, queryInt(conn2, sql));
+            stmt2.close();
+        }
+    }
+
+    private void testTempTable() throws Exception {
+        String sql = "SELECT count(*) FROM SharedQueryCacheTempTable";
+        try (Connection conn1 = getConnection(); Connection conn2 = getConnection()) {
+            Statement stmt1 = conn1.createStatement();
+            stmt1.executeUpdate("CREATE LOCAL TEMPORARY TABLE SharedQueryCacheTempTable(pk int)");
+            stmt1.executeUpdate("INSERT INTO SharedQueryCacheTempTable VALUES(1)");
+            assertEquals(1, queryInt(conn1, sql));
+            evict(conn1);
+            // 每个session的临时表是不一样的，不能共享
+            Statement stmt2 = conn2.createStatement();
+            stmt2.executeUpdate("CREATE LOCAL TEMPORARY TABLE SharedQueryCacheTempTable(pk int)");
+            stmt2.executeUpdate("INSERT INTO SharedQueryCacheTempTable VALUES(1)");
+            stmt2.executeUpdate("INSERT INTO SharedQueryCacheTempTable VALUES(2)");
+            assertEquals(2, queryInt(conn2, sql));
+            stmt1.close();
+            stmt2.close();
+        }
+    }
+
+    private void testSchema() throws Exception {
+        stmt.executeUpdate("CREATE SCHEMA IF NOT EXISTS SharedQueryCacheSchema");
+        stmt.executeUpdate("DROP TABLE IF EXISTS SharedQueryCacheSchema.SharedQueryCacheTest");
+        stmt.executeUpdate("CREATE TABLE SharedQueryCacheSchema.SharedQueryCacheTest"
+                + "(pk int primary key, f1 int)");
+        stmt.executeUpdate("INSERT INTO SharedQueryCacheSchema.SharedQueryCacheTest VALUES(1, -1)");
+        String sql = "SELECT f1 FROM SharedQueryCacheTest WHERE pk = ?";
+        try (Connection conn1 = getConnection(); Connection conn2 = getConnection()) {
+            assertEquals(10, queryInt(conn1, sql, 1));
+            evict(conn1);
+            // 当前schema不一样，同样的SQL查的是另一张表
+            Statement stmt2 = conn2.createStatement();
+            stmt2.executeUpdate("SET SCHEMA SharedQueryCacheSchema");
+            assertEquals(-1, queryInt(conn2, sql, 1));
+            stmt2.close();
+        }
+    }
+
+    private void testMetaChange() throws Exception {
+        String sql = "SELECT * FROM SharedQueryCacheTest WHERE pk = 1";
+        try (Connection conn1 = getConnection(); Connection conn2 = getConnection()) {
+            Statement stmt1 = conn1.createStatement();
+            ResultSet rs = stmt1.executeQuery(sql);
+            assertEquals(2, rs.getMetaData().getColumnCount());
+            rs.close();
+            evict(conn1);
+            stmt.executeUpdate("ALTER TABLE SharedQueryCacheTest ADD COLUMN f2 int");
+            // 元数据变了之后缓存的语句都不能用了
+            Statement stmt2 = conn2.createStatement();
+            rs = stmt2.executeQuery(sql);
+            assertEquals(3, rs.getMetaData().getColumnCount());
+            rs.close();
+            stmt1.close();
+            stmt2.close();
+        }
+    }
+
+    // 准备另一条语句，把上一条语句从session的queryCache中挤出去
+    private void evict(Connection conn) throws Exception {
+        Statement s = conn.createStatement();
+        s.executeQuery("SELECT 1").close();
+        s.close();
+    }
+
+    private int queryInt(Connection conn, String sql, int param) throws Exception {
+        PreparedStatement ps = conn.prepareStatement(sql);
+        ps.setInt(1, param);
+        ResultSet rs = ps.executeQuery();
+        assertTrue(rs.next());
+        int v = rs.getInt(1);
+        rs.close();
+        ps.close();
+        return v;
+    }
+
+    private int queryInt(Connection conn, String sql) throws Exception {
+        Statement s = conn.createStatement();
+        ResultSet rs = s.executeQuery(sql);
+        assertTrue(rs.next());
+        int v = rs.getInt(1);
+        rs.close();
+        s.close();
+        return v;
+    }
+
+    private long getCacheInfo(String name) throws Exception {
+        ResultSet rs = stmt.executeQuery(
+                "SELECT VALUE FROM INFORMATION_SCHEMA.SETTINGS WHERE NAME = '" + name + "'");
+        assertTrue(rs.next());
+        long v = rs.getLong(1);
+        rs.close();
+        return v;
+    }
+}
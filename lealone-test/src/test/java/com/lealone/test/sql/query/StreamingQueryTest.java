@@ -0,0 +1,178 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.query;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.Test;
+
+import com.lealone.test.sql.SqlTestBase;
+
+// 打开LAZY_QUERY_EXECUTION后，不需要排序、去重和分组的单表查询每生成fetchSize行就返回给客户端，
+// 剩下的等客户端来取时再接着生成
+public class StreamingQueryTest extends SqlTestBase {
+
+    private static final int ROWS = 1000;
+
+    @Test
+    public void run() throws Exception {
+        stmt.executeUpdate("DROP TABLE IF EXISTS StreamingQueryTest");
+        stmt.executeUpdate("CREATE TABLE StreamingQueryTest(pk int primary key, f1 int)");
+        for (int i = 1; i <= ROWS; i++)
+            stmt.executeUpdate("INSERT INTO StreamingQueryTest VALUES(" + i + ", " + i * 10 + ")");
+        testStreaming();
+        testSortedQuery();
+        testSmallResult();
+        testEarlyClose();
+        testSameSql();
+        testLimit();
+        stmt.executeUpdate("DELETE FROM StreamingQueryTest WHERE pk > " + ROWS);
+    }
+
+    // 后面的记录是客户端来取时才读的，所以能读到第一批返回之后才新增的记录
+    private void testStreaming() throws Exception {
+        try (Connection conn = getLazyConnection()) {
+            Statement s = conn.createStatement();
+            s.setFetchSize(10);
+            ResultSet rs = s.executeQuery("SELECT pk, f1 FROM StreamingQueryTest");
+            assertTrue(rs.next());
+            assertEquals(1, rs.getInt(1));
+            stmt.executeUpdate("INSERT INTO StreamingQueryTest VALUES(" + (ROWS + 1) + ", 0)");
+            int count = 1;
+            int last = 1;
+            while (rs.next()) {
+                assertEquals(last + 1, rs.getInt(1));
+                last = rs.getInt(1);
+                count++;
+            }
+            assertEquals(ROWS + 1, count);
+            rs.close();
+            s.close();
+        }
+    }
+
+    // 需要排序的查询还是先生成所有的记录
+    private void testSortedQuery() throws Exception {
+        try (Connection conn = getLazyConnection()) {
+            Statement s = conn.createStatement();
+            s.setFetchSize(10);
+            ResultSet rs = s.executeQuery("SELECT pk FROM StreamingQueryTest ORDER BY f1 DESC");
+            assertTrue(rs.next());
+            assertEquals(ROWS + 1, getCount());
+            stmt.executeUpdate("INSERT INTO StreamingQueryTest VALUES(" + (ROWS + 2) + ", 0)");
+            int count = 1;
+            while (rs.next())
+                count++;
+            assertEquals(ROWS + 1, count);
+            rs.close();
+            s.close();
+        }
+    }
+
+    private void testSmallResult() throws Exception {
+        try (Connection conn = getLazyConnection()) {
+            Statement s = conn.createStatement();
+            s.setFetchSize(10);
+            ResultSet rs = s.executeQuery("SELECT pk FROM StreamingQueryTest WHERE pk <= 5");
+            int count = 0;
+            while (rs.next())
+                count++;
+            assertEquals(5, count);
+            rs.close();
+            s.close();
+        }
+    }
+
+    // 没取完就关闭结果集，同一条语句还能接着用
+    private void testEarlyClose() throws Exception {
+        try (Connection conn = getLazyConnection()) {
+            PreparedStatement ps = conn.prepareStatement("SELECT pk FROM StreamingQueryTest WHERE pk > ?");
+            ps.setFetchSize(10);
+            for (int i = 0; i < 3; i++) {
+                ps.setInt(1, i * 100);
+                ResultSet rs = ps.executeQuery();
+                for (int j = 1; j <= 25; j++) {
+                    assertTrue(rs.next());
+                    assertEquals(i * 100 + j, rs.getInt(1));
+                }
+                rs.close();
+            }
+            ps.setInt(1, 0);
+            ResultSet rs = ps.executeQuery();
+            int count = 0;
+            while (rs.next())
+                count++;
+            assertEquals(ROWS + 2, count);
+            rs.close();
+            ps.close();
+        }
+    }
+
+    // 两个结果集交替着取，同样的SQL不能用同一个还没取完的语句
+    private void testSameSql() throws Exception {
+        String sql = "SELECT pk FROM StreamingQueryTest";
+        try (Connection conn = getLazyConnection()) {
+            Statement s1 = conn.createStatement();
+            Statement s2 = conn.createStatement();
+            s1.setFetchSize(10);
+            s2.setFetchSize(10);
+            ResultSet rs1 = s1.executeQuery(sql);
+            ResultSet rs2 = s2.executeQuery(sql);
+            int count = 0;
+            while (rs1.next()) {
+                assertTrue(rs2.next());
+                assertEquals(rs1.getInt(1), rs2.getInt(1));
+                count++;
+            }
+            assertFalse(rs2.next());
+            assertEquals(ROWS + 2, count);
+            rs1.close();
+            rs2.close();
+            s1.close();
+            s2.close();
+        }
+    }
+
+    private void testLimit() throws Exception {
+        try (Connection conn = getLazyConnection()) {
+            Statement s = conn.createStatement();
+            s.setFetchSize(10);
+            ResultSet rs = s.executeQuery("SELECT pk FROM StreamingQueryTest LIMIT 55");
+            int count = 0;
+            while (rs.next())
+                count++;
+            assertEquals(55, count);
+            rs.close();
+            s.setMaxRows(33);
+            rs = s.executeQuery("SELECT pk FROM StreamingQueryTest");
+            count = 0;
+            while (rs.next())
+                count++;
+            assertEquals(33, count);
+            rs.close();
+            s.close();
+        }
+    }
+
+    private Connection getLazyConnection() throws Exception {
+        Connection conn = getConnection();
+        Statement s = conn.createStatement();
+        s.executeUpdate("SET LAZY_QUERY_EXECUTION 1");
+        s.close();
+        return conn;
+    }
+
+    private int getCount() throws Exception {
+        ResultSet rs = stmt.executeQuery("SELECT count(*) FROM StreamingQueryTest");
+        assertTrue(rs.next());
+        int count = rs.getInt(1);
+        rs.close();
+        return count;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package com.lealone.test.sql.transaction;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.Test;
+
+import com.lealone.test.sql.SqlTestBase;
+
+// 可重复读事务用到的旧版本按提交顺序回收，低水位之前的版本回收后不影响还在运行的事务
+public class VersionStoreTest extends SqlTestBase {
+
+    @Test
+    public void run() throws Exception {
+        stmt.executeUpdate("DROP TABLE IF EXISTS VersionStoreTest");
+        stmt.executeUpdate("CREATE TABLE VersionStoreTest (pk int primary key, f1 int)");
+        stmt.executeUpdate("INSERT INTO VersionStoreTest VALUES(1, 0)");
+
+        Connection conn1 = getConnection();
+        conn1.setAutoCommit(false);
+        conn1.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+        Statement stmt1 = conn1.createStatement();
+        assertEquals(0, getF1(stmt1));
+
+        for (int i = 1; i <= 5; i++)
+            stmt.executeUpdate("UPDATE VersionStoreTest SET f1 = " + i + " WHERE pk = 1");
+        assertTrue(getInfo("VERSION_STORE_SIZE") > 0);
+        // 版本链的长度是在后台gc时统计的
+        waitFor("VERSION_CHAIN_MAX_LENGTH", 1);
+
+        Connection conn2 = getConnection();
+        conn2.setAutoCommit(false);
+        conn2.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+        Statement stmt2 = conn2.createStatement();
+        assertEquals(5, getF1(stmt2));
+
+        for (int i = 6; i <= 10; i++)
+            stmt.executeUpdate("UPDATE VersionStoreTest SET f1 = " + i + " WHERE pk = 1");
+        assertEquals(0, getF1(stmt1));
+        assertEquals(5, getF1(stmt2));
+
+        // conn1结束后低水位变成conn2的事务ID，conn2之前的版本都能回收
+        long reclaimed = getInfo("VERSION_STORE_RECLAIMED");
+        conn1.commit();
+        waitFor("VERSION_STORE_RECLAIMED", reclaimed);
+        assertEquals(5, getF1(stmt2));
+
+        // 没有可重复读事务后所有的版本都能回收
+        conn2.commit();
+        for (int i = 0; i < 100 && getInfo("VERSION_STORE_SIZE") > 0; i++)
+            Thread.sleep(200);
+        assertEquals(0, getInfo("VERSION_STORE_SIZE"));
+        conn1.close();
+        conn2.close();
+
+        Connection conn3 = getConnection();
+        conn3.setAutoCommit(false);
+        conn3.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+        Statement stmt3 = conn3.createStatement();
+        assertEquals(10, getF1(stmt3));
+        conn3.commit();
+        conn3.close();
+    }
+
+    private int getF1(Statement stmt) throws Exception {
+        ResultSet rs = stmt.executeQuery("SELECT f1 FROM VersionStoreTest WHERE pk = 1");
+        assertTrue(rs.next());
+        int v = rs.getInt(1);
+        rs.close();
+        return v;
+    }
+
+    private void waitFor(String name, long old) throws Exception {
+        for (int i = 0; i < 100 && getInfo(name) <= old; i++)
+            Thread.sleep(200);
+        assertTrue(getInfo(name) > old);
+    }
+
+    private long getInfo(String name) throws Exception {
+        ResultSet rs = stmt.executeQuery(
+                "SELECT VALUE FROM INFORMATION_SCHEMA.SETTINGS WHERE NAME = '" + name + "'");
+        assertTrue(rs.next());
+        long v = rs.getLong(1);
+        rs.close();
+        return v;
+    }
+}